@@ -0,0 +1,304 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.accounting.invoice;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ofbiz.base.util.UtilDateTime;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilNumber;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.model.DynamicViewEntity;
+import org.ofbiz.entity.model.ModelKeyMap;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityListIterator;
+import org.ofbiz.entity.util.EntityQuery;
+
+/**
+ * SCIPIO: Set-based invoice balances, for aging reports and exports.
+ * <p>
+ * The invoices matching a condition are read with one iterator, in chunks, and the totals and
+ * applied amounts of each chunk are computed with two grouped queries, instead of the several
+ * queries per invoice done by {@link InvoiceWorker#getInvoiceTotal(GenericValue)} and
+ * {@link InvoiceWorker#getInvoiceNotApplied(GenericValue)}.
+ * The invoice items are grouped by identical quantity and amount (with their count), so the
+ * per-item rounding of InvoiceWorker is kept and the results are the same, in the invoice currency.
+ */
+public final class InvoiceBalanceWorker {
+
+    public static final String module = InvoiceBalanceWorker.class.getName();
+
+    private static final int decimals = UtilNumber.getBigDecimalScale("invoice.decimals");
+    private static final int rounding = UtilNumber.getBigDecimalRoundingMode("invoice.rounding");
+    private static final int taxDecimals = UtilNumber.getBigDecimalScale("salestax.calc.decimals");
+    private static final int taxRounding = UtilNumber.getBigDecimalRoundingMode("salestax.rounding");
+
+    private static final int CHUNK_SIZE = 500;
+
+    private InvoiceBalanceWorker() {}
+
+    /** The total, applied and not applied amounts of one invoice at a date. */
+    public static final class InvoiceBalance {
+        private final GenericValue invoice;
+        private final BigDecimal total;
+        private final BigDecimal applied;
+        private final int daysPastDue;
+
+        private InvoiceBalance(GenericValue invoice, BigDecimal total, BigDecimal applied, int daysPastDue) {
+            this.invoice = invoice;
+            this.total = total;
+            this.applied = applied;
+            this.daysPastDue = daysPastDue;
+        }
+
+        public GenericValue getInvoice() {
+            return invoice;
+        }
+
+        public String getInvoiceId() {
+            return invoice.getString("invoiceId");
+        }
+
+        /** Returns the invoice total, as InvoiceWorker.getInvoiceTotal(invoice). */
+        public BigDecimal getTotal() {
+            return total;
+        }
+
+        /** Returns the amount applied at the date, as InvoiceWorker.getInvoiceApplied. */
+        public BigDecimal getApplied() {
+            return applied;
+        }
+
+        /** Returns the amount not applied at the date, as InvoiceWorker.getInvoiceNotApplied. */
+        public BigDecimal getNotApplied() {
+            return total.subtract(applied);
+        }
+
+        /** Returns the number of days the invoice is past its due date at the date, 0 if not due yet or without due date. */
+        public int getDaysPastDue() {
+            return daysPastDue;
+        }
+
+        public Map<String, Object> toMap() {
+            return UtilMisc.<String, Object>toMap("invoiceId", getInvoiceId(), "invoiceTypeId", invoice.get("invoiceTypeId"),
+                    "partyIdFrom", invoice.get("partyIdFrom"), "partyId", invoice.get("partyId"), "statusId", invoice.get("statusId"),
+                    "invoiceDate", invoice.get("invoiceDate"), "dueDate", invoice.get("dueDate"), "currencyUomId", invoice.get("currencyUomId"),
+                    "total", total, "applied", applied, "notApplied", getNotApplied(), "daysPastDue", daysPastDue);
+        }
+    }
+
+    /** Receives the balances of the invoices, one by one, in invoiceId order. */
+    public interface InvoiceBalanceHandler {
+        void handleInvoiceBalance(InvoiceBalance balance) throws GenericEntityException;
+    }
+
+    /**
+     * Computes the balance of every invoice matching invoiceCondition at asOfDateTime and passes it to the handler;
+     * the balances are not kept in memory.
+     * @param delegator the delegator
+     * @param invoiceCondition condition on the Invoice entity (null for all invoices)
+     * @param asOfDateTime the date of the applied amounts and aging (null for now)
+     * @param handler the handler receiving the balances
+     */
+    public static void forEachInvoiceBalance(Delegator delegator, EntityCondition invoiceCondition, Timestamp asOfDateTime, InvoiceBalanceHandler handler) throws GenericEntityException {
+        if (asOfDateTime == null) {
+            asOfDateTime = UtilDateTime.nowTimestamp();
+        }
+        Set<String> taxableTypeIds = new HashSet<String>(InvoiceWorker.getTaxableInvoiceItemTypeIds(delegator));
+        List<GenericValue> chunk = new ArrayList<GenericValue>(CHUNK_SIZE);
+        // the invoices iterator needs a transaction
+        boolean beganTransaction = TransactionUtil.begin();
+        boolean success = false;
+        try {
+            EntityListIterator invoices = EntityQuery.use(delegator).from("Invoice").where(invoiceCondition).orderBy("invoiceId").queryIterator();
+            try {
+                GenericValue invoice;
+                while ((invoice = invoices.next()) != null) {
+                    chunk.add(invoice);
+                    if (chunk.size() >= CHUNK_SIZE) {
+                        handleChunk(delegator, chunk, taxableTypeIds, asOfDateTime, handler);
+                        chunk.clear();
+                    }
+                }
+            } finally {
+                invoices.close();
+            }
+            if (!chunk.isEmpty()) {
+                handleChunk(delegator, chunk, taxableTypeIds, asOfDateTime, handler);
+            }
+            success = true;
+        } finally {
+            if (success) {
+                TransactionUtil.commit(beganTransaction);
+            } else {
+                TransactionUtil.rollback(beganTransaction, "Error reading the invoice balances", null);
+            }
+        }
+    }
+
+    private static void handleChunk(Delegator delegator, List<GenericValue> invoices, Set<String> taxableTypeIds, Timestamp asOfDateTime,
+            InvoiceBalanceHandler handler) throws GenericEntityException {
+        List<String> invoiceIds = new ArrayList<String>(invoices.size());
+        for (GenericValue invoice : invoices) {
+            invoiceIds.add(invoice.getString("invoiceId"));
+        }
+        Map<String, BigDecimal> totals = getInvoiceTotals(delegator, invoiceIds, taxableTypeIds);
+        Map<String, BigDecimal> applied = getInvoiceApplied(delegator, invoiceIds, asOfDateTime);
+        for (GenericValue invoice : invoices) {
+            String invoiceId = invoice.getString("invoiceId");
+            BigDecimal total = totals.get(invoiceId);
+            BigDecimal invoiceApplied = applied.get(invoiceId);
+            handler.handleInvoiceBalance(new InvoiceBalance(invoice, (total != null) ? total : BigDecimal.ZERO.setScale(decimals, rounding),
+                    (invoiceApplied != null) ? invoiceApplied : BigDecimal.ZERO, getDaysPastDue(invoice.getTimestamp("dueDate"), asOfDateTime)));
+        }
+    }
+
+    /** Same computation as InvoiceWorker.getInvoiceTotal(invoice, true), for all the invoiceIds at once. */
+    private static Map<String, BigDecimal> getInvoiceTotals(Delegator delegator, List<String> invoiceIds, Set<String> taxableTypeIds) throws GenericEntityException {
+        DynamicViewEntity itemView = new DynamicViewEntity();
+        itemView.addMemberEntity("II", "InvoiceItem");
+        itemView.addAlias("II", "invoiceId", null, null, null, Boolean.TRUE, null);
+        itemView.addAlias("II", "invoiceItemTypeId", null, null, null, Boolean.TRUE, null);
+        itemView.addAlias("II", "taxAuthPartyId", null, null, null, Boolean.TRUE, null);
+        itemView.addAlias("II", "taxAuthGeoId", null, null, null, Boolean.TRUE, null);
+        itemView.addAlias("II", "quantity", null, null, null, Boolean.TRUE, null);
+        itemView.addAlias("II", "amount", null, null, null, Boolean.TRUE, null);
+        itemView.addAlias("II", "itemCount", "invoiceItemSeqId", null, null, null, "count");
+
+        Map<String, BigDecimal> itemTotals = new HashMap<String, BigDecimal>(); // invoiceId -> non tax items total
+        Map<String, Map<String, BigDecimal>> taxTotals = new HashMap<String, Map<String, BigDecimal>>(); // invoiceId -> tax authority and geo -> tax total
+        List<GenericValue> groups = EntityQuery.use(delegator).from(itemView)
+                .where(EntityCondition.makeCondition("invoiceId", EntityOperator.IN, invoiceIds)).queryList();
+        for (GenericValue group : groups) {
+            String invoiceId = group.getString("invoiceId");
+            BigDecimal quantity = group.getBigDecimal("quantity");
+            if (quantity == null) {
+                quantity = BigDecimal.ONE;
+            }
+            BigDecimal amount = group.getBigDecimal("amount");
+            if (amount == null) {
+                amount = BigDecimal.ZERO;
+            }
+            BigDecimal count = new BigDecimal(getCount(group.get("itemCount")));
+            if (!taxableTypeIds.contains(group.getString("invoiceItemTypeId"))) {
+                BigDecimal itemTotal = quantity.multiply(amount).setScale(decimals, rounding).multiply(count);
+                BigDecimal invoiceTotal = itemTotals.get(invoiceId);
+                itemTotals.put(invoiceId, ((invoiceTotal != null) ? invoiceTotal.add(itemTotal) : itemTotal).setScale(decimals, rounding));
+            } else if (group.get("taxAuthPartyId") == null || !group.getString("taxAuthPartyId").isEmpty()) {
+                // tax items are rounded per item and per tax authority and geo (the unattributed items forming their own group)
+                String taxKey = group.getString("taxAuthPartyId") + "::" + group.getString("taxAuthGeoId");
+                if (group.get("taxAuthPartyId") == null) {
+                    taxKey = "::";
+                }
+                Map<String, BigDecimal> invoiceTaxTotals = taxTotals.get(invoiceId);
+                if (invoiceTaxTotals == null) {
+                    invoiceTaxTotals = new HashMap<String, BigDecimal>();
+                    taxTotals.put(invoiceId, invoiceTaxTotals);
+                }
+                BigDecimal taxTotal = invoiceTaxTotals.get(taxKey);
+                BigDecimal itemTax = quantity.multiply(amount).setScale(taxDecimals, taxRounding).multiply(count);
+                invoiceTaxTotals.put(taxKey, (taxTotal != null) ? taxTotal.add(itemTax) : itemTax);
+            }
+        }
+
+        Map<String, BigDecimal> totals = new HashMap<String, BigDecimal>();
+        for (String invoiceId : invoiceIds) {
+            BigDecimal invoiceTotal = itemTotals.get(invoiceId);
+            if (invoiceTotal == null) {
+                invoiceTotal = BigDecimal.ZERO;
+            }
+            BigDecimal taxTotal = BigDecimal.ZERO;
+            Map<String, BigDecimal> invoiceTaxTotals = taxTotals.get(invoiceId);
+            if (invoiceTaxTotals != null) {
+                for (BigDecimal groupTaxTotal : invoiceTaxTotals.values()) {
+                    taxTotal = taxTotal.add(groupTaxTotal.setScale(decimals, rounding));
+                }
+            }
+            totals.put(invoiceId, invoiceTotal.add(taxTotal).setScale(decimals, rounding));
+        }
+        return totals;
+    }
+
+    /** Same computation as InvoiceWorker.getInvoiceApplied(delegator, invoiceId, asOfDateTime, true), for all the invoiceIds at once. */
+    private static Map<String, BigDecimal> getInvoiceApplied(Delegator delegator, List<String> invoiceIds, Timestamp asOfDateTime) throws GenericEntityException {
+        DynamicViewEntity appliedView = new DynamicViewEntity();
+        appliedView.addMemberEntity("PA", "PaymentApplication");
+        appliedView.addMemberEntity("PY", "Payment");
+        appliedView.addAlias("PA", "invoiceId", null, null, null, Boolean.TRUE, null);
+        appliedView.addAlias("PA", "amountApplied", null, null, null, Boolean.TRUE, null);
+        appliedView.addAlias("PA", "applicationCount", "paymentApplicationId", null, null, null, "count");
+        appliedView.addAlias("PY", "effectiveDate", null, null, null, null, null);
+        appliedView.addViewLink("PA", "PY", Boolean.FALSE, ModelKeyMap.makeKeyMapList("paymentId"));
+
+        Map<String, BigDecimal> applied = new HashMap<String, BigDecimal>();
+        List<GenericValue> groups = EntityQuery.use(delegator).select("invoiceId", "amountApplied", "applicationCount").from(appliedView)
+                .where(EntityCondition.makeCondition("invoiceId", EntityOperator.IN, invoiceIds),
+                        EntityCondition.makeCondition(EntityOperator.OR,
+                                EntityCondition.makeCondition("effectiveDate", EntityOperator.EQUALS, null),
+                                EntityCondition.makeCondition("effectiveDate", EntityOperator.LESS_THAN_EQUAL_TO, asOfDateTime)))
+                .queryList();
+        for (GenericValue group : groups) {
+            BigDecimal amountApplied = group.getBigDecimal("amountApplied");
+            if (amountApplied == null) {
+                continue;
+            }
+            String invoiceId = group.getString("invoiceId");
+            BigDecimal invoiceApplied = applied.get(invoiceId);
+            if (invoiceApplied == null) {
+                invoiceApplied = BigDecimal.ZERO;
+            }
+            long count = getCount(group.get("applicationCount"));
+            if (amountApplied.scale() <= decimals) {
+                invoiceApplied = invoiceApplied.add(amountApplied.multiply(BigDecimal.valueOf(count))).setScale(decimals, rounding);
+            } else {
+                // amounts finer than the invoice scale are rounded at each addition, as InvoiceWorker does
+                for (long i = 0; i < count; i++) {
+                    invoiceApplied = invoiceApplied.add(amountApplied).setScale(decimals, rounding);
+                }
+            }
+            applied.put(invoiceId, invoiceApplied);
+        }
+        return applied;
+    }
+
+    private static long getCount(Object count) {
+        if (count instanceof Number) {
+            return ((Number) count).longValue();
+        }
+        return (count != null) ? Long.parseLong(count.toString()) : 0;
+    }
+
+    private static int getDaysPastDue(Timestamp dueDate, Timestamp asOfDateTime) {
+        if (dueDate == null || !dueDate.before(asOfDateTime)) {
+            return 0;
+        }
+        return (int) ((asOfDateTime.getTime() - dueDate.getTime()) / (24L * 60 * 60 * 1000));
+    }
+}
@@ -3575,4 +3575,84 @@ public class InvoiceServices {
         result.put("organizationPartyId", organizationPartyId);
         return result;
     }
+
+    /**
+     * SCIPIO: Returns the open balances of the invoices matching the filters at a date, totaled per currency and aging bucket,
+     * using the set-based {@link InvoiceBalanceWorker}.
+     */
+    public static Map<String, Object> getInvoiceAgingTotals(DispatchContext dctx, Map<String, Object> context) {
+        Delegator delegator = dctx.getDelegator();
+        Timestamp asOfDate = (Timestamp) context.get("asOfDate");
+        final int bucketDays = (context.get("bucketDays") != null) ? (Integer) context.get("bucketDays") : 30;
+        final int bucketCount = (context.get("bucketCount") != null) ? (Integer) context.get("bucketCount") : 4;
+        final boolean includeInvoices = Boolean.TRUE.equals(context.get("includeInvoices"));
+        if (bucketDays <= 0 || bucketCount <= 0) {
+            return ServiceUtil.returnError("bucketDays and bucketCount must be greater than 0");
+        }
+
+        List<EntityCondition> conditions = FastList.newInstance();
+        if (UtilValidate.isNotEmpty((String) context.get("invoiceTypeId"))) {
+            conditions.add(EntityCondition.makeCondition("invoiceTypeId", context.get("invoiceTypeId")));
+        }
+        if (UtilValidate.isNotEmpty((String) context.get("partyIdFrom"))) {
+            conditions.add(EntityCondition.makeCondition("partyIdFrom", context.get("partyIdFrom")));
+        }
+        if (UtilValidate.isNotEmpty((String) context.get("partyId"))) {
+            conditions.add(EntityCondition.makeCondition("partyId", context.get("partyId")));
+        }
+        List<String> statusIds = UtilGenerics.checkList(context.get("statusIds"));
+        if (UtilValidate.isNotEmpty(statusIds)) {
+            conditions.add(EntityCondition.makeCondition("statusId", EntityOperator.IN, statusIds));
+        }
+        if (asOfDate != null) {
+            conditions.add(EntityCondition.makeCondition("invoiceDate", EntityOperator.LESS_THAN_EQUAL_TO, asOfDate));
+        }
+
+        // currencyUomId -> totals; bucket 0 is not past due, bucket n is past due by up to n * bucketDays days, the last one being open ended
+        final Map<String, Map<String, Object>> agingTotals = FastMap.newInstance();
+        final List<Map<String, Object>> invoiceBalances = FastList.newInstance();
+        try {
+            InvoiceBalanceWorker.forEachInvoiceBalance(delegator, EntityCondition.makeCondition(conditions), asOfDate, new InvoiceBalanceWorker.InvoiceBalanceHandler() {
+                @Override
+                public void handleInvoiceBalance(InvoiceBalanceWorker.InvoiceBalance balance) {
+                    BigDecimal notApplied = balance.getNotApplied();
+                    if (notApplied.signum() == 0) {
+                        return;
+                    }
+                    int bucket = (balance.getDaysPastDue() == 0) ? 0 : Math.min((balance.getDaysPastDue() - 1) / bucketDays + 1, bucketCount);
+                    String currencyUomId = balance.getInvoice().getString("currencyUomId");
+                    Map<String, Object> currencyTotals = agingTotals.get(currencyUomId);
+                    if (currencyTotals == null) {
+                        List<BigDecimal> buckets = FastList.newInstance();
+                        for (int i = 0; i <= bucketCount; i++) {
+                            buckets.add(BigDecimal.ZERO);
+                        }
+                        currencyTotals = UtilMisc.<String, Object>toMap("buckets", buckets, "total", BigDecimal.ZERO,
+                                "applied", BigDecimal.ZERO, "notApplied", BigDecimal.ZERO, "invoiceCount", 0);
+                        agingTotals.put(currencyUomId, currencyTotals);
+                    }
+                    List<BigDecimal> buckets = UtilGenerics.checkList(currencyTotals.get("buckets"));
+                    buckets.set(bucket, buckets.get(bucket).add(notApplied));
+                    currencyTotals.put("total", ((BigDecimal) currencyTotals.get("total")).add(balance.getTotal()));
+                    currencyTotals.put("applied", ((BigDecimal) currencyTotals.get("applied")).add(balance.getApplied()));
+                    currencyTotals.put("notApplied", ((BigDecimal) currencyTotals.get("notApplied")).add(notApplied));
+                    currencyTotals.put("invoiceCount", (Integer) currencyTotals.get("invoiceCount") + 1);
+                    if (includeInvoices) {
+                        Map<String, Object> invoiceBalance = balance.toMap();
+                        invoiceBalance.put("agingBucket", bucket);
+                        invoiceBalances.add(invoiceBalance);
+                    }
+                }
+            });
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Error computing the invoice aging totals", module);
+            return ServiceUtil.returnError(e.getMessage());
+        }
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("agingTotals", agingTotals);
+        if (includeInvoices) {
+            result.put("invoiceBalances", invoiceBalances);
+        }
+        return result;
+    }
 }
@@ -0,0 +1,260 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.accounting.ledger;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilDateTime;
+import org.ofbiz.base.util.UtilFormatOut;
+import org.ofbiz.base.util.UtilGenerics;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.service.DispatchContext;
+import org.ofbiz.service.GenericServiceException;
+import org.ofbiz.service.LocalDispatcher;
+import org.ofbiz.service.ServiceUtil;
+
+/**
+ * SCIPIO: Batch creation of accounting transactions.
+ * <p>
+ * createAcctgTransAndEntriesBatch does the work of createAcctgTransAndEntries for many
+ * transactions at once: the organization checks, the accounting preferences and the GL
+ * accounts resolved by getGlAccountFromAccountType are looked up once per distinct key
+ * for the whole batch, the debit/credit balance is verified in memory, and the AcctgTrans
+ * and AcctgTransEntry records are inserted with two batched writes.
+ */
+public class AcctgTransBatchServices {
+
+    public static final String module = AcctgTransBatchServices.class.getName();
+    public static final String resource = "AccountingUiLabels";
+
+    private static final BigDecimal BALANCE_TOLERANCE = new BigDecimal("0.01");
+
+    public static Map<String, Object> createAcctgTransAndEntriesBatch(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Delegator delegator = dctx.getDelegator();
+        LocalDispatcher dispatcher = dctx.getDispatcher();
+        GenericValue userLogin = (GenericValue) context.get("userLogin");
+        Locale locale = (Locale) context.get("locale");
+        List<Map<String, Object>> acctgTransList = UtilGenerics.checkList(context.get("acctgTransList"));
+        boolean postTrans = !"N".equals(context.get("postTrans"));
+
+        Map<String, GenericValue> acctgPreferences = new HashMap<String, GenericValue>(); // organizationPartyId -> PartyAcctgPreference
+        Map<String, String> glAccountIds = new HashMap<String, String>(); // resolution key -> glAccountId
+        List<GenericValue> acctgTransToCreate = new ArrayList<GenericValue>(acctgTransList.size());
+        List<GenericValue> entriesToCreate = new ArrayList<GenericValue>();
+        List<String> acctgTransIds = new ArrayList<String>(acctgTransList.size());
+        Timestamp nowTimestamp = UtilDateTime.nowTimestamp();
+        try {
+            for (Map<String, Object> acctgTransMap : acctgTransList) {
+                GenericValue acctgTrans = delegator.makeValue("AcctgTrans");
+                acctgTrans.setNonPKFields(acctgTransMap);
+                acctgTrans.set("isPosted", "N");
+                if (acctgTrans.get("transactionDate") == null) {
+                    acctgTrans.set("transactionDate", nowTimestamp);
+                }
+                if (userLogin != null) {
+                    acctgTrans.set("createdByUserLogin", userLogin.get("userLoginId"));
+                    acctgTrans.set("lastModifiedByUserLogin", userLogin.get("userLoginId"));
+                }
+
+                List<GenericValue> entries = new ArrayList<GenericValue>();
+                BigDecimal debitTotal = BigDecimal.ZERO;
+                BigDecimal creditTotal = BigDecimal.ZERO;
+                List<Map<String, Object>> entryMaps = UtilGenerics.checkList(acctgTransMap.get("acctgTransEntries"));
+                if (entryMaps != null) {
+                    for (Map<String, Object> entryMap : entryMaps) {
+                        String organizationPartyId = (String) entryMap.get("organizationPartyId");
+                        GenericValue partyAcctgPreference = getPartyAcctgPreference(dctx, acctgPreferences, organizationPartyId, userLogin);
+                        if (partyAcctgPreference == null) {
+                            Debug.logWarning("The party with id [" + organizationPartyId + "] is not an internal organization or has no PartyAcctgPreference setting; the following accounting transaction will be ignored: " + entryMap, module);
+                            continue;
+                        }
+                        GenericValue entry = delegator.makeValue("AcctgTransEntry");
+                        entry.setNonPKFields(entryMap);
+                        String baseCurrencyUomId = partyAcctgPreference.getString("baseCurrencyUomId");
+                        if (entry.get("amount") == null && entry.get("origAmount") != null) {
+                            if (entry.get("origCurrencyUomId") == null) {
+                                entry.set("origCurrencyUomId", baseCurrencyUomId);
+                            }
+                            entry.set("currencyUomId", baseCurrencyUomId);
+                            if (!entry.getString("origCurrencyUomId").equals(baseCurrencyUomId)) {
+                                Map<String, Object> convertResult = dispatcher.runSync("convertUom", UtilMisc.<String, Object>toMap("originalValue", entry.get("origAmount"),
+                                        "uomId", entry.get("origCurrencyUomId"), "uomIdTo", baseCurrencyUomId, "asOfDate", acctgTrans.get("transactionDate")));
+                                if (ServiceUtil.isError(convertResult)) {
+                                    return ServiceUtil.returnError(ServiceUtil.getErrorMessage(convertResult));
+                                }
+                                entry.set("amount", convertResult.get("convertedValue"));
+                            } else {
+                                entry.set("amount", entry.get("origAmount"));
+                            }
+                        }
+                        if (entry.get("currencyUomId") == null) {
+                            entry.set("currencyUomId", baseCurrencyUomId);
+                        }
+                        if (UtilValidate.isEmpty(entry.getString("glAccountId"))) {
+                            Map<String, Object> glAccountInMap = UtilMisc.<String, Object>toMap("organizationPartyId", organizationPartyId,
+                                    "acctgTransTypeId", acctgTrans.get("acctgTransTypeId"), "glAccountTypeId", entry.get("glAccountTypeId"),
+                                    "debitCreditFlag", entry.get("debitCreditFlag"), "productId", entry.get("productId"),
+                                    "partyId", acctgTrans.get("partyId"), "roleTypeId", acctgTrans.get("roleTypeId"),
+                                    "invoiceId", acctgTrans.get("invoiceId"), "paymentId", acctgTrans.get("paymentId"));
+                            String key = glAccountInMap.toString();
+                            if (!glAccountIds.containsKey(key)) {
+                                glAccountInMap.put("userLogin", userLogin);
+                                Map<String, Object> glAccountResult = dispatcher.runSync("getGlAccountFromAccountType", glAccountInMap);
+                                if (ServiceUtil.isError(glAccountResult)) {
+                                    return ServiceUtil.returnError(ServiceUtil.getErrorMessage(glAccountResult));
+                                }
+                                glAccountIds.put(key, (String) glAccountResult.get("glAccountId"));
+                            }
+                            entry.set("glAccountId", glAccountIds.get(key));
+                        }
+                        if (entry.get("origAmount") == null) {
+                            entry.set("origAmount", entry.get("amount"));
+                        }
+                        if (entry.get("glAccountTypeId") != null
+                                && EntityQuery.use(delegator).from("GlAccountType").where("glAccountTypeId", entry.get("glAccountTypeId")).cache().queryOne() == null) {
+                            entry.set("glAccountTypeId", null);
+                        }
+                        // if any amount is negative, then get the absolute (positive) value of that amount, and flip the Debit/Credit flag
+                        BigDecimal origAmount = entry.getBigDecimal("origAmount");
+                        if (origAmount != null && origAmount.signum() < 0) {
+                            entry.set("origAmount", origAmount.negate());
+                            if (entry.get("amount") != null) {
+                                entry.set("amount", entry.getBigDecimal("amount").negate());
+                            }
+                            if ("D".equals(entry.getString("debitCreditFlag"))) {
+                                entry.set("debitCreditFlag", "C");
+                            } else if ("C".equals(entry.getString("debitCreditFlag"))) {
+                                entry.set("debitCreditFlag", "D");
+                            }
+                        }
+                        if (entry.get("acctgTransEntryTypeId") == null) {
+                            entry.set("acctgTransEntryTypeId", "_NA_");
+                        }
+                        entry.set("reconcileStatusId", "AES_NOT_RECONCILED");
+                        BigDecimal amount = entry.getBigDecimal("amount");
+                        if (amount != null) {
+                            if ("D".equals(entry.getString("debitCreditFlag"))) {
+                                debitTotal = debitTotal.add(amount);
+                            } else if ("C".equals(entry.getString("debitCreditFlag"))) {
+                                creditTotal = creditTotal.add(amount);
+                            }
+                        }
+                        entries.add(entry);
+                    }
+                }
+                if (entries.isEmpty()) {
+                    Debug.logWarning("Cannot process an accounting transactions with empty list of entries.", module);
+                    continue;
+                }
+                String acctgTransId = delegator.getNextSeqId("AcctgTrans");
+                if (postTrans) {
+                    // the same trial balance checks of postAcctgTrans, done in memory before anything is written
+                    BigDecimal difference = debitTotal.subtract(creditTotal);
+                    String errorProperty = null;
+                    if (difference.abs().compareTo(BALANCE_TOLERANCE) >= 0) {
+                        errorProperty = "AccountingNotPostingGlAccountTransactionTrialBalanceFailed";
+                    } else if (debitTotal.signum() == 0 && creditTotal.signum() != 0) {
+                        errorProperty = "AccountingNotPostingGlAccountTransactionDebitZero";
+                    } else if (creditTotal.signum() == 0 && debitTotal.signum() != 0) {
+                        errorProperty = "AccountingNotPostingGlAccountTransactionCreditZero";
+                    }
+                    if (errorProperty != null) {
+                        Map<String, Object> messageMap = UtilMisc.<String, Object>toMap("parameters", UtilMisc.toMap("acctgTransId", acctgTransId),
+                                "trialBalanceResultMap", UtilMisc.toMap("debitTotal", debitTotal, "creditTotal", creditTotal, "debitCreditDifference", difference));
+                        return ServiceUtil.returnError(UtilProperties.getMessage(resource, errorProperty, messageMap, locale));
+                    }
+                }
+
+                acctgTrans.set("acctgTransId", acctgTransId);
+                long seqId = 1;
+                for (GenericValue entry : entries) {
+                    entry.set("acctgTransId", acctgTransId);
+                    entry.set("acctgTransEntrySeqId", UtilFormatOut.formatPaddedNumber(seqId++, 5));
+                }
+                acctgTransToCreate.add(acctgTrans);
+                entriesToCreate.addAll(entries);
+                acctgTransIds.add(acctgTransId);
+            }
+
+            delegator.createAll(acctgTransToCreate);
+            delegator.createAll(entriesToCreate);
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Error creating the accounting transactions batch", module);
+            return ServiceUtil.returnError(e.getMessage());
+        } catch (GenericServiceException e) {
+            Debug.logError(e, "Error creating the accounting transactions batch", module);
+            return ServiceUtil.returnError(e.getMessage());
+        }
+
+        if (postTrans) {
+            // posting also checks the time periods of the transactions and runs the postAcctgTrans ECAs
+            for (String acctgTransId : acctgTransIds) {
+                try {
+                    Map<String, Object> postResult = dispatcher.runSync("postAcctgTrans", UtilMisc.<String, Object>toMap("acctgTransId", acctgTransId, "userLogin", userLogin));
+                    if (ServiceUtil.isError(postResult)) {
+                        return ServiceUtil.returnError(ServiceUtil.getErrorMessage(postResult));
+                    }
+                } catch (GenericServiceException e) {
+                    Debug.logError(e, "Error posting accounting transaction [" + acctgTransId + "]", module);
+                    return ServiceUtil.returnError(e.getMessage());
+                }
+            }
+        }
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("acctgTransIds", acctgTransIds);
+        return result;
+    }
+
+    /**
+     * Returns the PartyAcctgPreference of the internal organization, or null if the party is not an internal
+     * organization or has no preferences; the result is remembered for the rest of the batch.
+     */
+    private static GenericValue getPartyAcctgPreference(DispatchContext dctx, Map<String, GenericValue> acctgPreferences, String organizationPartyId,
+            GenericValue userLogin) throws GenericEntityException, GenericServiceException {
+        if (organizationPartyId == null) {
+            return null;
+        }
+        if (acctgPreferences.containsKey(organizationPartyId)) {
+            return acctgPreferences.get(organizationPartyId);
+        }
+        GenericValue partyAcctgPreference = null;
+        GenericValue partyRole = EntityQuery.use(dctx.getDelegator()).from("PartyRole")
+                .where("partyId", organizationPartyId, "roleTypeId", "INTERNAL_ORGANIZATIO").cache().queryOne();
+        if (partyRole != null) {
+            Map<String, Object> prefResult = dctx.getDispatcher().runSync("getPartyAccountingPreferences",
+                    UtilMisc.<String, Object>toMap("organizationPartyId", organizationPartyId, "userLogin", userLogin));
+            partyAcctgPreference = (GenericValue) prefResult.get("partyAccountingPreference");
+        }
+        acctgPreferences.put(organizationPartyId, partyAcctgPreference);
+        return partyAcctgPreference;
+    }
+}
@@ -0,0 +1,252 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.accounting.ledger;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ofbiz.accounting.util.UtilAccounting;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.service.DispatchContext;
+import org.ofbiz.service.ServiceUtil;
+
+/**
+ * SCIPIO: GlAccountHistory balance services.
+ * <p>
+ * computeGlAccountHistoryBalances computes the balances of all the accounts of an organization
+ * in a time period with two grouped aggregate queries (totals to the opening date and totals
+ * to the ending date), instead of four queries per account, and stores them in batches.
+ * updateGlAccountHistoryForAcctgTrans keeps the existing GlAccountHistory records up to date
+ * as transactions are posted, in the posting transaction, so that they do not have to be recomputed.
+ */
+public class GlAccountHistoryServices {
+
+    public static final String module = GlAccountHistoryServices.class.getName();
+
+    private static final int DEFAULT_BATCH_SIZE = 500;
+
+    public static Map<String, Object> computeGlAccountHistoryBalances(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Delegator delegator = dctx.getDelegator();
+        String organizationPartyId = (String) context.get("organizationPartyId");
+        String customTimePeriodId = (String) context.get("customTimePeriodId");
+        Integer batchSize = (Integer) context.get("batchSize");
+        if (batchSize == null || batchSize <= 0) {
+            batchSize = DEFAULT_BATCH_SIZE;
+        }
+        int accountCount = 0;
+        try {
+            GenericValue customTimePeriod = EntityQuery.use(delegator).from("CustomTimePeriod").where("customTimePeriodId", customTimePeriodId).queryOne();
+            if (customTimePeriod == null) {
+                return ServiceUtil.returnError("CustomTimePeriod [" + customTimePeriodId + "] not found");
+            }
+            Timestamp fromDate = customTimePeriod.getTimestamp("fromDate");
+            Timestamp thruDate = customTimePeriod.getTimestamp("thruDate");
+
+            Map<String, BigDecimal[]> openingTotals = getPostedTotals(delegator, organizationPartyId, fromDate);
+            Map<String, BigDecimal[]> endingTotals = getPostedTotals(delegator, organizationPartyId, thruDate);
+
+            // One balance history record for each account of the organization in the time period
+            List<GenericValue> organizationGlAccounts = EntityQuery.use(delegator).select("glAccountId").from("GlAccountOrganization")
+                    .where(EntityCondition.makeCondition("organizationPartyId", organizationPartyId),
+                            EntityCondition.makeCondition("fromDate", EntityOperator.LESS_THAN, customTimePeriod.get("thruDate")),
+                            EntityCondition.makeCondition(EntityOperator.OR,
+                                    EntityCondition.makeCondition("thruDate", EntityOperator.GREATER_THAN_EQUAL_TO, customTimePeriod.get("fromDate")),
+                                    EntityCondition.makeCondition("thruDate", EntityOperator.EQUALS, null)))
+                    .distinct().queryList();
+            List<GenericValue> toStore = new ArrayList<GenericValue>(Math.min(batchSize, organizationGlAccounts.size()));
+            for (GenericValue organizationGlAccount : organizationGlAccounts) {
+                String glAccountId = organizationGlAccount.getString("glAccountId");
+                GenericValue glAccount = EntityQuery.use(delegator).from("GlAccount").where("glAccountId", glAccountId).cache().queryOne();
+                boolean isDebit = UtilAccounting.isDebitAccount(glAccount);
+                BigDecimal[] opening = getTotals(openingTotals, glAccountId);
+                BigDecimal[] ending = getTotals(endingTotals, glAccountId);
+
+                GenericValue glAccountHistory = delegator.makeValue("GlAccountHistory");
+                glAccountHistory.set("glAccountId", glAccountId);
+                glAccountHistory.set("organizationPartyId", organizationPartyId);
+                glAccountHistory.set("customTimePeriodId", customTimePeriodId);
+                glAccountHistory.set("postedDebits", ending[0].subtract(opening[0]));
+                glAccountHistory.set("postedCredits", ending[1].subtract(opening[1]));
+                if (isDebit) {
+                    glAccountHistory.set("openingBalance", opening[0].subtract(opening[1]));
+                    glAccountHistory.set("endingBalance", ending[0].subtract(ending[1]));
+                } else {
+                    glAccountHistory.set("openingBalance", opening[1].subtract(opening[0]));
+                    glAccountHistory.set("endingBalance", ending[1].subtract(ending[0]));
+                }
+                toStore.add(glAccountHistory);
+                if (toStore.size() >= batchSize) {
+                    delegator.storeAll(toStore);
+                    toStore.clear();
+                }
+                accountCount++;
+            }
+            if (!toStore.isEmpty()) {
+                delegator.storeAll(toStore);
+            }
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Error computing the GlAccountHistory balances of organization [" + organizationPartyId + "] for time period [" + customTimePeriodId + "]", module);
+            return ServiceUtil.returnError(e.getMessage());
+        }
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("accountCount", accountCount);
+        return result;
+    }
+
+    /**
+     * Returns the posted ACTUAL debit and credit totals of each account of the organization before beforeDate,
+     * as glAccountId -> {debits, credits}.
+     */
+    private static Map<String, BigDecimal[]> getPostedTotals(Delegator delegator, String organizationPartyId, Timestamp beforeDate) throws GenericEntityException {
+        List<GenericValue> sums = EntityQuery.use(delegator).select("glAccountId", "debitCreditFlag", "amount").from("AcctgTransEntrySums")
+                .where(EntityCondition.makeCondition("organizationPartyId", organizationPartyId),
+                        EntityCondition.makeCondition("isPosted", "Y"),
+                        EntityCondition.makeCondition("glFiscalTypeId", "ACTUAL"),
+                        EntityCondition.makeCondition("transactionDate", EntityOperator.LESS_THAN, beforeDate))
+                .queryList();
+        Map<String, BigDecimal[]> totals = new HashMap<String, BigDecimal[]>();
+        for (GenericValue sum : sums) {
+            BigDecimal amount = sum.getBigDecimal("amount");
+            if (amount == null) {
+                continue;
+            }
+            BigDecimal[] accountTotals = getTotals(totals, sum.getString("glAccountId"));
+            int index = "D".equals(sum.getString("debitCreditFlag")) ? 0 : 1;
+            accountTotals[index] = accountTotals[index].add(amount);
+            totals.put(sum.getString("glAccountId"), accountTotals);
+        }
+        return totals;
+    }
+
+    private static BigDecimal[] getTotals(Map<String, BigDecimal[]> totals, String glAccountId) {
+        BigDecimal[] accountTotals = totals.get(glAccountId);
+        if (accountTotals == null) {
+            accountTotals = new BigDecimal[] { BigDecimal.ZERO, BigDecimal.ZERO };
+        }
+        return accountTotals;
+    }
+
+    /**
+     * Adds the entries of a posted transaction to the existing GlAccountHistory records of the time periods
+     * ending after the transaction date: to the posted amounts of the periods containing it and to the opening
+     * balance of the later ones, and to the ending balance of both. Runs in the posting transaction; the records
+     * are locked before they are read, so concurrent postings to the same accounts are applied one after the other.
+     */
+    public static Map<String, Object> updateGlAccountHistoryForAcctgTrans(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Delegator delegator = dctx.getDelegator();
+        String acctgTransId = (String) context.get("acctgTransId");
+        try {
+            GenericValue acctgTrans = EntityQuery.use(delegator).from("AcctgTrans").where("acctgTransId", acctgTransId).queryOne();
+            if (acctgTrans == null || !"Y".equals(acctgTrans.getString("isPosted")) || !"ACTUAL".equals(acctgTrans.getString("glFiscalTypeId"))) {
+                return ServiceUtil.returnSuccess();
+            }
+            Timestamp transactionDate = acctgTrans.getTimestamp("transactionDate");
+            if (transactionDate == null) {
+                return ServiceUtil.returnSuccess();
+            }
+            // amounts of the transaction by organization and account: {balance change, debits, credits}
+            Map<String, Map<String, BigDecimal[]>> organizationAmounts = new HashMap<String, Map<String, BigDecimal[]>>();
+            List<GenericValue> entries = EntityQuery.use(delegator).from("AcctgTransEntry").where("acctgTransId", acctgTransId).queryList();
+            for (GenericValue entry : entries) {
+                BigDecimal amount = entry.getBigDecimal("amount");
+                String glAccountId = entry.getString("glAccountId");
+                String organizationPartyId = entry.getString("organizationPartyId");
+                if (amount == null || glAccountId == null || organizationPartyId == null) {
+                    continue;
+                }
+                boolean isDebitEntry = "D".equals(entry.getString("debitCreditFlag"));
+                GenericValue glAccount = EntityQuery.use(delegator).from("GlAccount").where("glAccountId", glAccountId).cache().queryOne();
+                Map<String, BigDecimal[]> accountAmounts = organizationAmounts.get(organizationPartyId);
+                if (accountAmounts == null) {
+                    accountAmounts = new HashMap<String, BigDecimal[]>();
+                    organizationAmounts.put(organizationPartyId, accountAmounts);
+                }
+                BigDecimal[] amounts = accountAmounts.get(glAccountId);
+                if (amounts == null) {
+                    amounts = new BigDecimal[] { BigDecimal.ZERO, BigDecimal.ZERO, BigDecimal.ZERO };
+                    accountAmounts.put(glAccountId, amounts);
+                }
+                amounts[0] = amounts[0].add((isDebitEntry == UtilAccounting.isDebitAccount(glAccount)) ? amount : amount.negate());
+                amounts[isDebitEntry ? 1 : 2] = amounts[isDebitEntry ? 1 : 2].add(amount);
+            }
+            if (organizationAmounts.isEmpty()) {
+                return ServiceUtil.returnSuccess();
+            }
+
+            Map<String, GenericValue> customTimePeriods = new HashMap<String, GenericValue>();
+            List<GenericValue> periods = EntityQuery.use(delegator).from("CustomTimePeriod")
+                    .where(EntityCondition.makeCondition("thruDate", EntityOperator.GREATER_THAN, transactionDate),
+                            EntityCondition.makeCondition("fromDate", EntityOperator.NOT_EQUAL, null))
+                    .queryList();
+            for (GenericValue period : periods) {
+                customTimePeriods.put(period.getString("customTimePeriodId"), period);
+            }
+            if (customTimePeriods.isEmpty()) {
+                return ServiceUtil.returnSuccess();
+            }
+
+            for (Map.Entry<String, Map<String, BigDecimal[]>> organizationEntry : organizationAmounts.entrySet()) {
+                String organizationPartyId = organizationEntry.getKey();
+                Map<String, BigDecimal[]> accountAmounts = organizationEntry.getValue();
+                EntityCondition historyCondition = EntityCondition.makeCondition(
+                        EntityCondition.makeCondition("organizationPartyId", organizationPartyId),
+                        EntityCondition.makeCondition("glAccountId", EntityOperator.IN, accountAmounts.keySet()),
+                        EntityCondition.makeCondition("customTimePeriodId", EntityOperator.IN, customTimePeriods.keySet()));
+                // touch the records first so they are locked until commit; the read below then sees the latest committed balances
+                int touched = delegator.storeByCondition("GlAccountHistory", UtilMisc.toMap("organizationPartyId", organizationPartyId), historyCondition);
+                if (touched == 0) {
+                    continue;
+                }
+                List<GenericValue> histories = EntityQuery.use(delegator).from("GlAccountHistory").where(historyCondition).queryList();
+                for (GenericValue history : histories) {
+                    BigDecimal[] amounts = accountAmounts.get(history.getString("glAccountId"));
+                    GenericValue customTimePeriod = customTimePeriods.get(history.getString("customTimePeriodId"));
+                    if (transactionDate.before(customTimePeriod.getTimestamp("fromDate"))) {
+                        addAmount(history, "openingBalance", amounts[0]);
+                    } else {
+                        addAmount(history, "postedDebits", amounts[1]);
+                        addAmount(history, "postedCredits", amounts[2]);
+                    }
+                    addAmount(history, "endingBalance", amounts[0]);
+                }
+                delegator.storeAll(histories);
+            }
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Error updating the GlAccountHistory balances for AcctgTrans [" + acctgTransId + "]", module);
+            return ServiceUtil.returnError(e.getMessage());
+        }
+        return ServiceUtil.returnSuccess();
+    }
+
+    private static void addAmount(GenericValue history, String fieldName, BigDecimal amount) {
+        BigDecimal value = history.getBigDecimal(fieldName);
+        history.set(fieldName, (value != null) ? value.add(amount) : amount);
+    }
+}
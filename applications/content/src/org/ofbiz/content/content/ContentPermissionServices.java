@@ -260,6 +260,15 @@ public class ContentPermissionServices {
         return results;
     }
 
+    /**
+     * SCIPIO: Clears the content permission decisions memoized by EntityPermissionChecker.checkPermission;
+     * run by the ECAs of the entities the decisions depend on.
+     */
+    public static Map<String, Object> clearContentPermissionCache(DispatchContext dctx, Map<String, ? extends Object> context) {
+        EntityPermissionChecker.clearPermissionDecisions();
+        return ServiceUtil.returnSuccess();
+    }
+
     public static Map<String, Object> checkAssocPermission(DispatchContext dctx, Map<String, ? extends Object> context) {
         Map<String, Object> results = FastMap.newInstance();
         // Security security = dctx.getSecurity();
@@ -24,6 +24,7 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -43,6 +44,7 @@ import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.base.util.string.FlexibleStringExpander;
+import org.ofbiz.common.image.ImageBatchScaler;
 import org.ofbiz.common.image.ImageTransform;
 import org.ofbiz.common.image.ImageVariantConfig;
 import org.ofbiz.content.data.DataResourceWorker;
@@ -88,14 +90,7 @@ public abstract class ContentImageServices {
      */
     public static Map<String, Object> contentImageFileScaleInAllSizeCore(DispatchContext dctx, Map<String, ?> context) {
         Delegator delegator = dctx.getDelegator();
-        String imageOrigPath = (String) context.get("imageOrigPath");
-        String imageOrigUrl = (String) context.get("imageOrigUrl");
         String imageOrigFn = (String) context.get("imageOrigFn");
-        String imageServerPath = (String) context.get("imageServerPath");
-        String imageUrlPrefix = (String) context.get("imageUrlPrefix");
-        String imageFnFmt = (String) context.get("imageFnFmt");
-        String imageOrigFnFmt = (String) context.get("imageOrigFnFmt");
-        Map<String, Object> imagePathArgs = UtilGenerics.checkMap(context.get("imagePathArgs"));
         String imagePropXmlPath = (String) context.get("imagePropXmlPath");
         Collection<String> sizeTypeList = UtilGenerics.checkList(context.get("sizeTypeList"));
         boolean copyOrig = Boolean.TRUE.equals(context.get("copyOrig"));
@@ -110,14 +105,6 @@ public abstract class ContentImageServices {
         long startTime = System.nanoTime();
         
         try {
-            // SCIPIO: for these we now support component:// and file:// prefix in addition to plain absolute file location
-            if (UtilValidate.isNotEmpty(imageOrigPath)) {
-                imageOrigPath = FlexibleLocation.resolveFileUrlAsPathIfUrl(imageOrigPath, imageOrigPath);
-            }
-            if (UtilValidate.isNotEmpty(imageServerPath)) {
-                imageServerPath = FlexibleLocation.resolveFileUrlAsPathIfUrl(imageServerPath, imageServerPath);
-            }
-            
             /* ImageProperties.xml */
             ImageVariantConfig imgPropCfg;
             if (UtilValidate.isEmpty(imagePropXmlPath)) {
@@ -134,50 +121,16 @@ public abstract class ContentImageServices {
             }
             
             /* IMAGE */
-            if (imageOrigFnFmt == null) imageOrigFnFmt = imageFnFmt;
+            ImagePaths paths = resolveImagePaths(delegator, context);
+            imageOrigFn = paths.imageOrigFn;
+            String imgExtension = paths.imgExtension;
+            String imageServerPath = paths.imageServerPath;
+            String imageUrlPrefix = paths.imageUrlPrefix;
+            Map<String, Object> imagePathArgs = paths.imagePathArgs;
+            FlexibleStringExpander imageFnFmtExpander = paths.imageFnFmtExpander;
+            FlexibleStringExpander imageOrigFnFmtExpander = paths.imageOrigFnFmtExpander;
+            String bufImgPath = paths.bufImgPath;
 
-            if (UtilValidate.isEmpty(imageOrigFn)) {
-                if (UtilValidate.isNotEmpty(imageOrigPath)) {
-                    imageOrigFn = imageOrigPath;
-                } else if (UtilValidate.isNotEmpty(imageOrigUrl)) {
-                    imageOrigFn = imageOrigUrl;
-                } else {
-                    throw new IllegalArgumentException("Required parameter missing: imageOrigFn/imageOrigPath/imageOrigUrl");
-                }
-                if (imageOrigFn.lastIndexOf("/") != -1) {
-                    imageOrigFn = imageOrigFn.substring(imageOrigFn.lastIndexOf("/") + 1);
-                }
-            }
-            
-            // get Name and Extension
-            if (imageOrigFn.lastIndexOf(".") <= 0 || imageOrigFn.lastIndexOf(".") >= (imageOrigFn.length() - 1)) { // SCIPIO: added this to prevent problems
-                throw new IllegalArgumentException("Original image filename [" + imageOrigFn + "] has missing or improper file extension (image type)");
-            }
-            String imgExtension = imageOrigFn.substring(imageOrigFn.lastIndexOf(".") + 1);
-            
-            // paths
-            Map<String, Object> imageContext = new HashMap<>(context);
-            imageContext.put("tenantId", delegator.getDelegatorTenantId());
-            imageContext.putAll(imagePathArgs);
-            imageServerPath = FlexibleStringExpander.expandString(UtilValidate.isNotEmpty(imageServerPath) ? imageServerPath : EntityUtilProperties.getPropertyValue("content", "image.server.path", delegator), imageContext);
-            imageUrlPrefix = FlexibleStringExpander.expandString(UtilValidate.isNotEmpty(imageUrlPrefix) ? imageUrlPrefix : EntityUtilProperties.getPropertyValue("content", "image.url.prefix", delegator), imageContext);
-            imageServerPath = imageServerPath.endsWith("/") ? imageServerPath.substring(0, imageServerPath.length()-1) : imageServerPath;
-            imageUrlPrefix = imageUrlPrefix.endsWith("/") ? imageUrlPrefix.substring(0, imageUrlPrefix.length()-1) : imageUrlPrefix;
-            
-            FlexibleStringExpander imageFnFmtExpander = FlexibleStringExpander.getInstance(imageFnFmt);
-            FlexibleStringExpander imageOrigFnFmtExpander = FlexibleStringExpander.getInstance(imageOrigFnFmt);
-            
-            String bufImgPath;
-            if (UtilValidate.isNotEmpty(imageOrigPath)) {
-                bufImgPath = imageOrigPath;
-            } else if (UtilValidate.isNotEmpty(imageOrigUrl)) {
-                // TODO: improve this to support getting URL from any mount-point
-                if (!imageOrigUrl.startsWith(imageUrlPrefix + "/")) throw new IllegalArgumentException("imageOrigUrl '" + imageOrigUrl + "' does not begin with expected imageUrlPrefix '" + imageUrlPrefix + "'");
-                bufImgPath = imageServerPath + imageOrigUrl.substring(imageUrlPrefix.length());
-            } else {
-                bufImgPath = imageServerPath + "/" + expandImageFnFmt(imageOrigFnFmtExpander, origSizeType, imagePathArgs) + "." + imgExtension;
-            }
-            
             /* get original BUFFERED IMAGE */
             Map<String, Object> resultBufImgMap = ImageTransform.getBufferedImage(bufImgPath, locale);
             
@@ -394,7 +347,127 @@ public abstract class ContentImageServices {
         }
         return newFilePathDirPrefix;
     }
-    
+
+    /**
+     * Resolves the input file and the output files/URLs of a contentImageFileScaleInAllSizeCore call
+     * into a job for {@link ImageBatchScaler}, without reading or scaling the image.
+     * Takes the same context params as contentImageFileScaleInAllSizeCore (copyOrig and deleteOld not supported).
+     */
+    public static ImageBatchScaler.Job makeImageFileScaleBatchJob(Delegator delegator, Map<String, ?> context, Object key) throws IOException, IllegalArgumentException {
+        String imagePropXmlPath = (String) context.get("imagePropXmlPath");
+        Collection<String> sizeTypeList = UtilGenerics.checkList(context.get("sizeTypeList"));
+        Map<String, Object> scalingOptions = UtilGenerics.checkMap(context.get("scalingOptions"));
+
+        if (UtilValidate.isEmpty(imagePropXmlPath)) {
+            imagePropXmlPath = ContentImageWorker.getContentImagePropertiesPath();
+        }
+        ImageVariantConfig imgPropCfg = ImageVariantConfig.fromImagePropertiesXml(imagePropXmlPath);
+        if (sizeTypeList == null) {
+            sizeTypeList = imgPropCfg.getVariantNames();
+        }
+
+        ImagePaths paths = resolveImagePaths(delegator, context);
+        List<ImageBatchScaler.Target> targets = new ArrayList<>();
+        for (String sizeType : sizeTypeList) {
+            if (!imgPropCfg.hasVariant(sizeType)) {
+                Debug.logError("sizeType " + sizeType + " is not part of ImageProperties.xml; ignoring", module);
+                continue;
+            }
+            String newFileLocExt = expandImageFnFmt(paths.imageFnFmtExpander, sizeType, paths.imagePathArgs) + "." + paths.imgExtension;
+            targets.add(new ImageBatchScaler.Target(sizeType, new File(paths.imageServerPath + "/" + newFileLocExt), paths.imgExtension, paths.imageUrlPrefix + "/" + newFileLocExt));
+        }
+        return new ImageBatchScaler.Job(key, new File(paths.bufImgPath), imgPropCfg, targets, scalingOptions);
+    }
+
+    /**
+     * Input and output locations of a contentImageFileScaleInAllSizeCore call (see {@link #resolveImagePaths}).
+     */
+    private static final class ImagePaths {
+        private String imageOrigFn;
+        private String imgExtension;
+        private String imageServerPath; // without trailing slash
+        private String imageUrlPrefix; // without trailing slash
+        private Map<String, Object> imagePathArgs;
+        private FlexibleStringExpander imageFnFmtExpander;
+        private FlexibleStringExpander imageOrigFnFmtExpander;
+        private String bufImgPath; // the original image file
+    }
+
+    /**
+     * Resolves the original image file, its extension, the image server path and URL prefix and the
+     * file name formats from the contentImageFileScaleInAllSizeCore context params.
+     */
+    private static ImagePaths resolveImagePaths(Delegator delegator, Map<String, ?> context) throws IOException, IllegalArgumentException {
+        String imageOrigPath = (String) context.get("imageOrigPath");
+        String imageOrigUrl = (String) context.get("imageOrigUrl");
+        String imageOrigFn = (String) context.get("imageOrigFn");
+        String imageServerPath = (String) context.get("imageServerPath");
+        String imageUrlPrefix = (String) context.get("imageUrlPrefix");
+        String imageFnFmt = (String) context.get("imageFnFmt");
+        String imageOrigFnFmt = (String) context.get("imageOrigFnFmt");
+        Map<String, Object> imagePathArgs = UtilGenerics.checkMap(context.get("imagePathArgs"));
+
+        // SCIPIO: for these we now support component:// and file:// prefix in addition to plain absolute file location
+        if (UtilValidate.isNotEmpty(imageOrigPath)) {
+            imageOrigPath = FlexibleLocation.resolveFileUrlAsPathIfUrl(imageOrigPath, imageOrigPath);
+        }
+        if (UtilValidate.isNotEmpty(imageServerPath)) {
+            imageServerPath = FlexibleLocation.resolveFileUrlAsPathIfUrl(imageServerPath, imageServerPath);
+        }
+        if (imageOrigFnFmt == null) imageOrigFnFmt = imageFnFmt;
+
+        if (UtilValidate.isEmpty(imageOrigFn)) {
+            if (UtilValidate.isNotEmpty(imageOrigPath)) {
+                imageOrigFn = imageOrigPath;
+            } else if (UtilValidate.isNotEmpty(imageOrigUrl)) {
+                imageOrigFn = imageOrigUrl;
+            } else {
+                throw new IllegalArgumentException("Required parameter missing: imageOrigFn/imageOrigPath/imageOrigUrl");
+            }
+            if (imageOrigFn.lastIndexOf("/") != -1) {
+                imageOrigFn = imageOrigFn.substring(imageOrigFn.lastIndexOf("/") + 1);
+            }
+        }
+
+        // get Name and Extension
+        if (imageOrigFn.lastIndexOf(".") <= 0 || imageOrigFn.lastIndexOf(".") >= (imageOrigFn.length() - 1)) { // SCIPIO: added this to prevent problems
+            throw new IllegalArgumentException("Original image filename [" + imageOrigFn + "] has missing or improper file extension (image type)");
+        }
+        String imgExtension = imageOrigFn.substring(imageOrigFn.lastIndexOf(".") + 1);
+
+        // paths
+        Map<String, Object> imageContext = new HashMap<>(context);
+        imageContext.put("tenantId", delegator.getDelegatorTenantId());
+        if (imagePathArgs != null) {
+            imageContext.putAll(imagePathArgs);
+        } else {
+            imagePathArgs = Collections.emptyMap();
+        }
+        imageServerPath = FlexibleStringExpander.expandString(UtilValidate.isNotEmpty(imageServerPath) ? imageServerPath : EntityUtilProperties.getPropertyValue("content", "image.server.path", delegator), imageContext);
+        imageUrlPrefix = FlexibleStringExpander.expandString(UtilValidate.isNotEmpty(imageUrlPrefix) ? imageUrlPrefix : EntityUtilProperties.getPropertyValue("content", "image.url.prefix", delegator), imageContext);
+        imageServerPath = imageServerPath.endsWith("/") ? imageServerPath.substring(0, imageServerPath.length()-1) : imageServerPath;
+        imageUrlPrefix = imageUrlPrefix.endsWith("/") ? imageUrlPrefix.substring(0, imageUrlPrefix.length()-1) : imageUrlPrefix;
+
+        ImagePaths paths = new ImagePaths();
+        paths.imageOrigFn = imageOrigFn;
+        paths.imgExtension = imgExtension;
+        paths.imageServerPath = imageServerPath;
+        paths.imageUrlPrefix = imageUrlPrefix;
+        paths.imagePathArgs = imagePathArgs;
+        paths.imageFnFmtExpander = FlexibleStringExpander.getInstance(imageFnFmt);
+        paths.imageOrigFnFmtExpander = FlexibleStringExpander.getInstance(imageOrigFnFmt);
+        if (UtilValidate.isNotEmpty(imageOrigPath)) {
+            paths.bufImgPath = imageOrigPath;
+        } else if (UtilValidate.isNotEmpty(imageOrigUrl)) {
+            // TODO: improve this to support getting URL from any mount-point
+            if (!imageOrigUrl.startsWith(imageUrlPrefix + "/")) throw new IllegalArgumentException("imageOrigUrl '" + imageOrigUrl + "' does not begin with expected imageUrlPrefix '" + imageUrlPrefix + "'");
+            paths.bufImgPath = imageServerPath + imageOrigUrl.substring(imageUrlPrefix.length());
+        } else {
+            paths.bufImgPath = imageServerPath + "/" + expandImageFnFmt(paths.imageOrigFnFmtExpander, ContentImageWorker.ORIGINAL_SIZETYPE, imagePathArgs) + "." + imgExtension;
+        }
+        return paths;
+    }
+
     /**
      * Core database image resizing service.
      * See contentImageDbScaleInAllSizeCore service interface for context params.
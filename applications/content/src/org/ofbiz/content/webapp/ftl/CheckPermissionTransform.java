@@ -174,7 +174,8 @@ public class CheckPermissionTransform implements TemplateTransformModel {
                 List<String> roleList = FastList.newInstance();
 
                 String privilegeEnumId = (String)currentContent.get("privilegeEnumId");
-                Map<String, Object> results = EntityPermissionChecker.checkPermission(currentContent, statusList, userLogin, purposeList, targetOperationList, roleList, delegator, security, entityOperation, privilegeEnumId, quickCheckContentId);
+                Map<String, Object> results = EntityPermissionChecker.checkPermission(currentContent, statusList, userLogin, purposeList, targetOperationList, roleList, delegator, security, entityOperation, privilegeEnumId, quickCheckContentId,
+                        EntityPermissionChecker.getRequestDecisions(request)); // SCIPIO: memoized per request
 
                 boolean isError = ModelService.RESPOND_ERROR.equals(results.get(ModelService.RESPONSE_MESSAGE));
                 if (isError) {
@@ -0,0 +1,189 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.manufacturing.bom;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.ofbiz.base.util.cache.UtilCache;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.entity.util.EntityUtil;
+
+/** SCIPIO: Immutable, shared graph of all the ProductAssoc records of one
+ * bill of materials type (e.g. MANUF_COMPONENT), indexed by parent and by
+ * component product.
+ * The graph is built from the entity cache list of the type's ProductAssoc
+ * records: any write to a ProductAssoc of the type clears that list, and the
+ * next {@link #getGraph} call rebuilds the graph from the fresh list.
+ * Lookups for a date are memoized per validity period, i.e. per interval
+ * between two consecutive fromDate/thruDate values of the type, so the
+ * results are the same as filtering the records by date.
+ */
+public final class BOMGraph {
+
+    public static final String module = BOMGraph.class.getName();
+
+    private static final UtilCache<String, BOMGraph> graphCache = UtilCache.createUtilCache("manufacturing.bom.graph", true);
+    private static final List<GenericValue> NO_ASSOCS = Collections.emptyList();
+
+    private final List<GenericValue> source; // the entity cache list the graph was built from
+    private final Map<String, List<GenericValue>> children; // productId -> ProductAssocs, by sequenceNum and productIdTo
+    private final Map<String, List<GenericValue>> parents; // productIdTo -> ProductAssocs, by sequenceNum and productIdTo
+    private final long[] dateBoundaries; // sorted distinct fromDate and thruDate values
+    private final Map<String, List<GenericValue>> childrenByPeriod = new ConcurrentHashMap<String, List<GenericValue>>();
+    private final Map<String, List<GenericValue>> parentsByPeriod = new ConcurrentHashMap<String, List<GenericValue>>();
+    private final Map<String, Integer> maxDepthByPeriod = new ConcurrentHashMap<String, Integer>();
+
+    private BOMGraph(List<GenericValue> source) {
+        this.source = source;
+        Map<String, List<GenericValue>> children = new HashMap<String, List<GenericValue>>();
+        Map<String, List<GenericValue>> parents = new HashMap<String, List<GenericValue>>();
+        TreeSet<Long> boundaries = new TreeSet<Long>();
+        for (GenericValue assoc : source) {
+            addAssoc(children, assoc.getString("productId"), assoc);
+            addAssoc(parents, assoc.getString("productIdTo"), assoc);
+            Timestamp fromDate = assoc.getTimestamp("fromDate");
+            if (fromDate != null) {
+                boundaries.add(fromDate.getTime());
+            }
+            Timestamp thruDate = assoc.getTimestamp("thruDate");
+            if (thruDate != null) {
+                boundaries.add(thruDate.getTime());
+            }
+        }
+        this.children = children;
+        this.parents = parents;
+        this.dateBoundaries = new long[boundaries.size()];
+        int i = 0;
+        for (Long boundary : boundaries) {
+            this.dateBoundaries[i++] = boundary;
+        }
+    }
+
+    private static void addAssoc(Map<String, List<GenericValue>> index, String productId, GenericValue assoc) {
+        List<GenericValue> assocs = index.get(productId);
+        if (assocs == null) {
+            assocs = new ArrayList<GenericValue>();
+            index.put(productId, assocs);
+        }
+        assocs.add(assoc);
+    }
+
+    /** Returns the graph of the bomTypeId bills of materials, (re)building it
+     * if the ProductAssoc records of the type changed since it was built.
+     * @param delegator The delegator used.
+     * @param bomTypeId The bill of materials type (the productAssocTypeId).
+     * @return the graph of the bomTypeId bills of materials.
+     * @throws GenericEntityException If a db problem occurs.
+     */
+    public static BOMGraph getGraph(Delegator delegator, String bomTypeId) throws GenericEntityException {
+        List<GenericValue> source = EntityQuery.use(delegator).from("ProductAssoc")
+                .where("productAssocTypeId", bomTypeId)
+                .orderBy("sequenceNum", "productIdTo")
+                .cache().queryList();
+        String key = delegator.getDelegatorName() + "::" + bomTypeId;
+        BOMGraph graph = graphCache.get(key);
+        if (graph == null || graph.source != source) {
+            graph = new BOMGraph(source);
+            graphCache.put(key, graph);
+        }
+        return graph;
+    }
+
+    /** Returns the ProductAssoc records, valid at inDate, in which productId is the parent (productId field).
+     * The returned list is shared and cannot be modified.
+     * @param productId The parent product id.
+     * @param inDate Validity date (if null, today is used).
+     * @return the ProductAssoc records ordered by sequenceNum and productIdTo.
+     */
+    public List<GenericValue> getChildren(String productId, Date inDate) {
+        return getAssocs(children, childrenByPeriod, productId, inDate);
+    }
+
+    /** Returns the ProductAssoc records, valid at inDate, in which productId is the component (productIdTo field).
+     * The returned list is shared and cannot be modified.
+     * @param productId The component product id.
+     * @param inDate Validity date (if null, today is used).
+     * @return the ProductAssoc records ordered by sequenceNum and productIdTo.
+     */
+    public List<GenericValue> getParents(String productId, Date inDate) {
+        return getAssocs(parents, parentsByPeriod, productId, inDate);
+    }
+
+    /** Returns the low level code of productId at inDate, i.e. the maximum
+     * depth in which the product can be found in the bills of materials
+     * of the graph (0 = root, 1 = first level, etc...).
+     * @param productId The product id.
+     * @param inDate Validity date (if null, today is used).
+     * @return The low level code for the productId.
+     */
+    public int getMaxDepth(String productId, Date inDate) {
+        if (inDate == null) inDate = new Date();
+        return getMaxDepth(productId, inDate, getPeriod(inDate));
+    }
+
+    private int getMaxDepth(String productId, Date inDate, int period) {
+        String key = productId + "@" + period;
+        Integer cached = maxDepthByPeriod.get(key);
+        if (cached != null) {
+            return cached;
+        }
+        int maxDepth = 0;
+        for (GenericValue oneNode : getParents(productId, inDate)) {
+            int depth = getMaxDepth(oneNode.getString("productId"), inDate, period) + 1;
+            if (depth > maxDepth) {
+                maxDepth = depth;
+            }
+        }
+        maxDepthByPeriod.put(key, maxDepth);
+        return maxDepth;
+    }
+
+    private List<GenericValue> getAssocs(Map<String, List<GenericValue>> index, Map<String, List<GenericValue>> byPeriod, String productId, Date inDate) {
+        List<GenericValue> assocs = index.get(productId);
+        if (assocs == null) {
+            return NO_ASSOCS;
+        }
+        if (inDate == null) inDate = new Date();
+        String key = productId + "@" + getPeriod(inDate);
+        List<GenericValue> validAssocs = byPeriod.get(key);
+        if (validAssocs == null) {
+            validAssocs = Collections.unmodifiableList(new ArrayList<GenericValue>(EntityUtil.filterByDate(assocs, inDate)));
+            byPeriod.put(key, validAssocs);
+        }
+        return validAssocs;
+    }
+
+    /** Returns the index of the validity period of inDate: the number of date boundaries not after it. */
+    private int getPeriod(Date inDate) {
+        int index = Arrays.binarySearch(dateBoundaries, inDate.getTime());
+        return (index >= 0) ? index + 1 : -(index + 1);
+    }
+}
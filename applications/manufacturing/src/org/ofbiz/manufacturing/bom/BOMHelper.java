@@ -63,22 +63,8 @@ public class BOMHelper {
     public static int getMaxDepth(String productId, String bomType, Date inDate, Delegator delegator) throws GenericEntityException {
         // If the date is null, set it to today.
         if (inDate == null) inDate = new Date();
-        int maxDepth = 0;
-        List<GenericValue> productNodesList = EntityQuery.use(delegator).from("ProductAssoc")
-                .where("productIdTo", productId, 
-                        "productAssocTypeId", bomType)
-                .cache().filterByDate(inDate).queryList();
-        int depth = 0;
-        for (GenericValue oneNode : productNodesList) {
-            depth = 0;
-            depth = getMaxDepth(oneNode.getString("productId"), bomType, inDate, delegator);
-            depth++;
-            if (depth > maxDepth) {
-                maxDepth = depth;
-            }
-        }
-
-        return maxDepth;
+        // SCIPIO: served (and memoized) by the cached graph of the bom type
+        return BOMGraph.getGraph(delegator, bomType).getMaxDepth(productId, inDate);
     }
 
     /** Returns the ProductAssoc generic value for a duplicate productIdKey
@@ -108,10 +94,7 @@ public class BOMHelper {
             productIdKeys = tree.getAllProductsId();
             productIdKeys.add(productIdKey);
         }
-        List<GenericValue> productNodesList = EntityQuery.use(delegator).from("ProductAssoc")
-                .where("productIdTo", productId, 
-                        "productAssocTypeId", bomType)
-                .cache().filterByDate(inDate).queryList();
+        List<GenericValue> productNodesList = BOMGraph.getGraph(delegator, bomType).getParents(productId, inDate);
         GenericValue duplicatedNode = null;
         for (GenericValue oneNode : productNodesList) {
             for (int i = 0; i < productIdKeys.size(); i++) {
@@ -86,7 +86,14 @@ public class BOMNode {
     }
 
     public BOMNode(String productId, Delegator delegator, LocalDispatcher dispatcher, GenericValue userLogin) throws GenericEntityException {
-        this(EntityQuery.use(delegator).from("Product").where("productId", productId).queryOne(), dispatcher, userLogin);
+        this(findProduct(productId, delegator), dispatcher, userLogin);
+    }
+
+    /** SCIPIO: Reads the product from the entity cache; a mutable copy is returned because
+     * the nodes' products can be updated (e.g. the low level code). */
+    private static GenericValue findProduct(String productId, Delegator delegator) throws GenericEntityException {
+        GenericValue product = EntityQuery.use(delegator).from("Product").where("productId", productId).cache().queryOne();
+        return (product != null) ? GenericValue.create(product) : null;
     }
 
     protected void loadChildren(String partBomTypeId, Date inDate, List<GenericValue> productFeatures, int type) throws GenericEntityException {
@@ -97,19 +104,13 @@ public class BOMNode {
         if (inDate == null) inDate = new Date();
         bomTypeId = partBomTypeId;
 //        Delegator delegator = product.getDelegator();
-        List<GenericValue> rows = EntityQuery.use(delegator).from("ProductAssoc")
-                .where("productId", product.get("productId"),
-                        "productAssocTypeId", partBomTypeId)
-                .orderBy("sequenceNum", "productIdTo")
-                .filterByDate(inDate).queryList();
+        // SCIPIO: the components are read from the cached graph of the bom type
+        BOMGraph graph = BOMGraph.getGraph(delegator, partBomTypeId);
+        List<GenericValue> rows = graph.getChildren(product.getString("productId"), inDate);
         if ((UtilValidate.isEmpty(rows)) && substitutedNode != null) {
             // If no child is found and this is a substituted node
             // we try to search for substituted node's children.
-            rows = EntityQuery.use(delegator).from("ProductAssoc")
-                    .where("productId", substitutedNode.getProduct().get("productId"),
-                            "productAssocTypeId", partBomTypeId)
-                    .orderBy("sequenceNum")
-                    .filterByDate(inDate).queryList();
+            rows = graph.getChildren(substitutedNode.getProduct().getString("productId"), inDate);
         }
         children = FastList.newInstance();
         children.addAll(rows);
@@ -324,19 +325,13 @@ public class BOMNode {
 
         bomTypeId = partBomTypeId;
 //        Delegator delegator = product.getDelegator();
-        List<GenericValue> rows = EntityQuery.use(delegator).from("ProductAssoc")
-                .where("productIdTo", product.get("productId"),
-                        "productAssocTypeId", partBomTypeId)
-                .orderBy("sequenceNum")
-                .filterByDate(inDate).queryList();
+        // SCIPIO: the parents are read from the cached graph of the bom type
+        BOMGraph graph = BOMGraph.getGraph(delegator, partBomTypeId);
+        List<GenericValue> rows = graph.getParents(product.getString("productId"), inDate);
         if ((UtilValidate.isEmpty(rows)) && substitutedNode != null) {
             // If no parent is found and this is a substituted node
             // we try to search for substituted node's parents.
-            rows = EntityQuery.use(delegator).from("ProductAssoc")
-                    .where("productIdTo", substitutedNode.getProduct().get("productId"),
-                            "productAssocTypeId", partBomTypeId)
-                    .orderBy("sequenceNum")
-                    .filterByDate(inDate).queryList();
+            rows = graph.getParents(substitutedNode.getProduct().getString("productId"), inDate);
         }
         children = FastList.newInstance();
         children.addAll(rows);
@@ -209,28 +209,48 @@ public class BOMServices {
     public static Map<String, Object> initLowLevelCode(DispatchContext dctx, Map<String, ? extends Object> context) {
         Map<String, Object> result = FastMap.newInstance();
         Delegator delegator = dctx.getDelegator();
-        LocalDispatcher dispatcher = dctx.getDispatcher();
         Locale locale = (Locale) context.get("locale");
 
         try {
             List<GenericValue> products = EntityQuery.use(delegator).from("Product").orderBy("isVirtual DESC").queryList();
-            Long zero = Long.valueOf(0);
-            List<GenericValue> allProducts = FastList.newInstance();
-            for (GenericValue product : products) {
-                product.set("billOfMaterialLevel", zero);
-                allProducts.add(product);
+            // SCIPIO: the low level codes are computed in memory from the cached MANUF_COMPONENT graph
+            // (each depth is computed once) and stored in one batch, instead of running
+            // updateLowLevelCode for every product; the results are the same.
+            BOMGraph graph = BOMGraph.getGraph(delegator, "MANUF_COMPONENT");
+            Date now = new Date();
+            // If the product is a variant of a virtual, then the billOfMaterialLevel cannot be
+            // lower than the billOfMaterialLevel of the virtual product (the virtual products come first).
+            Map<String, List<String>> virtualProductIds = FastMap.newInstance();
+            List<GenericValue> variantAssocs = EntityQuery.use(delegator).from("ProductAssoc")
+                    .where("productAssocTypeId", "PRODUCT_VARIANT")
+                    .filterByDate().queryList();
+            for (GenericValue variantAssoc : variantAssocs) {
+                List<String> virtualIds = virtualProductIds.get(variantAssoc.getString("productIdTo"));
+                if (virtualIds == null) {
+                    virtualIds = FastList.newInstance();
+                    virtualProductIds.put(variantAssoc.getString("productIdTo"), virtualIds);
+                }
+                virtualIds.add(variantAssoc.getString("productId"));
             }
-            delegator.storeAll(allProducts);
-            Debug.logInfo("Low Level Code set to 0 for all the products", module);
-
+            Map<String, Long> llcs = FastMap.newInstance();
             for (GenericValue product : products) {
-                try {
-                    Map<String, Object> depthResult = dispatcher.runSync("updateLowLevelCode", UtilMisc.<String, Object>toMap("productIdTo", product.getString("productId"), "alsoComponents", Boolean.valueOf(false), "alsoVariants", Boolean.valueOf(false)));
-                    Debug.logInfo("Product [" + product.getString("productId") + "] Low Level Code [" + depthResult.get("lowLevelCode") + "]", module);
-                } catch (Exception exc) {
-                    Debug.logWarning(exc.getMessage(), module);
+                String productId = product.getString("productId");
+                long llc = graph.getMaxDepth(productId, now);
+                List<String> virtualIds = virtualProductIds.get(productId);
+                if (virtualIds != null) {
+                    for (String virtualId : virtualIds) {
+                        Long virtualDepth = llcs.get(virtualId);
+                        if (virtualDepth != null && virtualDepth > llc) {
+                            llc = virtualDepth;
+                        }
+                    }
                 }
+                llcs.put(productId, llc);
+                product.set("billOfMaterialLevel", Long.valueOf(llc));
+                if (Debug.verboseOn()) Debug.logVerbose("Product [" + productId + "] Low Level Code [" + llc + "]", module);
             }
+            delegator.storeAll(products);
+            Debug.logInfo("Low Level Code updated for " + products.size() + " products", module);
             // FIXME: also all the variants llc should be updated?
         } catch (Exception e) {
             return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingBomErrorRunningInitLowLevelCode", UtilMisc.toMap("errorString", e.getMessage()), locale));
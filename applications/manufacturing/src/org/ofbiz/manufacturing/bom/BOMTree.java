@@ -165,10 +165,8 @@ public class BOMTree {
     }
 
     private GenericValue manufacturedAsProduct(String productId, Date inDate) throws GenericEntityException {
-        return EntityQuery.use(delegator).from("ProductAssoc")
-                .where("productId", productId,
-                        "productAssocTypeId", "PRODUCT_MANUFACTURED")
-                .filterByDate(inDate).queryFirst();
+        // SCIPIO: read from the cached graph of the PRODUCT_MANUFACTURED associations
+        return EntityUtil.getFirst(BOMGraph.getGraph(delegator, "PRODUCT_MANUFACTURED").getChildren(productId, inDate));
     }
 
     private boolean hasBom(GenericValue product, Date inDate) throws GenericEntityException {
@@ -0,0 +1,586 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.manufacturing.mrp;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javolution.util.FastList;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.GeneralException;
+import org.ofbiz.base.util.UtilDateTime;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericPK;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.entity.util.EntityUtil;
+import org.ofbiz.manufacturing.bom.BOMNode;
+import org.ofbiz.manufacturing.bom.BOMTree;
+import org.ofbiz.service.DispatchContext;
+import org.ofbiz.service.GenericServiceException;
+import org.ofbiz.service.LocalDispatcher;
+
+/**
+ * SCIPIO: In-memory MRP planning engine, used by the executeMrp service.
+ * <p>
+ * Produces the same MrpEvent and Requirement records as the original level-by-level loop of
+ * {@link MrpServices#executeMrp}, but for each BOM level:
+ * <ul>
+ * <li>loads the level's products and their ProductFacility records with one query each,</li>
+ * <li>plans the products of the level in parallel (they are independent within a level: a product
+ * only creates requirements for its components, which are on deeper levels), building each product's
+ * single-level and manufacturing BOM trees and routing once instead of once per proposed order,</li>
+ * <li>then creates the requirements and writes the MrpEvent changes in product order, merging all the
+ * event updates of the level in memory and writing them in one batch.</li>
+ * </ul>
+ * Requirements are created sequentially in the same order as the original loop, so their ids match too.
+ */
+public class MrpEngine {
+
+    public static final String module = MrpEngine.class.getName();
+    public static final String resource = "ManufacturingUiLabels";
+
+    private static final int IN_CONDITION_SIZE = 500;
+
+    protected final DispatchContext dctx;
+    protected final Delegator delegator;
+    protected final LocalDispatcher dispatcher;
+    protected final GenericValue userLogin;
+    protected final Locale locale;
+    protected final String mrpId;
+    protected final String mrpName;
+    protected final String facilityId;
+    protected final String manufacturingFacilityId;
+    protected final Timestamp now;
+    protected final int threads;
+
+    public MrpEngine(DispatchContext dctx, GenericValue userLogin, Locale locale, String mrpId, String mrpName,
+            String facilityId, String manufacturingFacilityId, Timestamp now, int threads) {
+        this.dctx = dctx;
+        this.delegator = dctx.getDelegator();
+        this.dispatcher = dctx.getDispatcher();
+        this.userLogin = userLogin;
+        this.locale = locale;
+        this.mrpId = mrpId;
+        this.mrpName = mrpName;
+        this.facilityId = facilityId;
+        this.manufacturingFacilityId = manufacturingFacilityId;
+        this.now = now;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Plans all the BOM levels of the MrpEvent records created by initMrpEvents.
+     * @throws GeneralException with a user message if the run must be aborted, as executeMrp would
+     */
+    public void run() throws GeneralException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(1);
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Scipio-Mrp-" + count.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            int bomLevelWithNoEvent = 0;
+            long bomLevel = 0;
+            do {
+                List<GenericValue> levelEvents = findLevelEvents(bomLevel);
+                if (UtilValidate.isNotEmpty(levelEvents)) {
+                    bomLevelWithNoEvent = 0;
+                    long startTime = System.currentTimeMillis();
+                    int productCount = planLevel(levelEvents, executor);
+                    if (Debug.infoOn()) {
+                        Debug.logInfo("MRP [" + mrpId + "] planned BOM level " + bomLevel + ": " + productCount + " products, "
+                                + levelEvents.size() + " events in " + (System.currentTimeMillis() - startTime) + " ms", module);
+                    }
+                } else {
+                    bomLevelWithNoEvent += 1;
+                }
+                bomLevel += 1;
+                // if there are 3 levels with no inventoryEvenPanned we stop
+            } while (bomLevelWithNoEvent < 3);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    protected List<GenericValue> findLevelEvents(long bomLevel) throws GeneralException {
+        EntityCondition filterByConditions = null;
+        if (bomLevel == 0) {
+            filterByConditions = EntityCondition.makeCondition(EntityCondition.makeCondition("billOfMaterialLevel", EntityOperator.EQUALS, null),
+                                        EntityOperator.OR,
+                                        EntityCondition.makeCondition("billOfMaterialLevel", EntityOperator.EQUALS, Long.valueOf(bomLevel)));
+        } else {
+            filterByConditions = EntityCondition.makeCondition("billOfMaterialLevel", EntityOperator.EQUALS, Long.valueOf(bomLevel));
+        }
+        try {
+            return EntityQuery.use(delegator).from("MrpEventView").where(filterByConditions).orderBy("productId", "eventDate").queryList();
+        } catch (GenericEntityException e) {
+            throw new GeneralException(UtilProperties.getMessage(resource, "ManufacturingMrpErrorForBomLevel",
+                    UtilMisc.toMap("bomLevel", Long.toString(bomLevel), "errorString", e.getMessage()), locale), e);
+        }
+    }
+
+    protected int planLevel(List<GenericValue> levelEvents, ExecutorService executor) throws GeneralException {
+        final Map<String, List<GenericValue>> eventsByProduct = new LinkedHashMap<String, List<GenericValue>>();
+        for (GenericValue event : levelEvents) {
+            String productId = event.getString("productId");
+            List<GenericValue> productEvents = eventsByProduct.get(productId);
+            if (productEvents == null) {
+                productEvents = new ArrayList<GenericValue>();
+                eventsByProduct.put(productId, productEvents);
+            }
+            productEvents.add(event);
+        }
+        List<String> productIds = new ArrayList<String>(eventsByProduct.keySet());
+        Map<String, GenericValue> products;
+        Map<String, GenericValue> productFacilities;
+        try {
+            products = findByProductIds("Product", null, productIds);
+            productFacilities = findByProductIds("ProductFacility", EntityCondition.makeCondition("facilityId", facilityId), productIds);
+        } catch (GenericEntityException e) {
+            throw new GeneralException(UtilProperties.getMessage(resource, "ManufacturingMrpCannotFindProductForEvent", locale), e);
+        }
+
+        List<Callable<ProductPlan>> tasks = new ArrayList<Callable<ProductPlan>>(productIds.size());
+        for (final String productId : productIds) {
+            final GenericValue product = products.get(productId);
+            if (product == null) {
+                throw new GeneralException(UtilProperties.getMessage(resource, "ManufacturingMrpCannotFindProductForEvent", locale));
+            }
+            final GenericValue productFacility = productFacilities.get(productId);
+            tasks.add(new Callable<ProductPlan>() {
+                @Override
+                public ProductPlan call() throws GeneralException {
+                    return planProduct(product, productFacility, eventsByProduct.get(productId));
+                }
+            });
+        }
+        List<ProductPlan> plans = new ArrayList<ProductPlan>(tasks.size());
+        try {
+            for (Future<ProductPlan> future : executor.invokeAll(tasks)) {
+                plans.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            throw new GeneralException("MRP run interrupted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof GeneralException) {
+                throw (GeneralException) e.getCause();
+            }
+            throw new GeneralException(e.getCause().toString(), e.getCause());
+        }
+
+        // write the results in product order, as the original loop does
+        MrpEventBuffer eventBuffer = new MrpEventBuffer();
+        for (ProductPlan plan : plans) {
+            applyPlan(plan, eventBuffer);
+        }
+        try {
+            eventBuffer.flush();
+        } catch (GenericEntityException e) {
+            throw new GeneralException(UtilProperties.getMessage(resource, "ManufacturingMrpCreateOrUpdateEvent", UtilMisc.toMap("parameters", e.getMessage()), locale), e);
+        }
+        return plans.size();
+    }
+
+    /**
+     * Plans one product: the same calculation as one product of the original executeMrp loop, with the
+     * MrpEvent changes and requirements recorded in the plan instead of written.
+     */
+    protected ProductPlan planProduct(GenericValue product, GenericValue productFacility, List<GenericValue> productEvents) throws GeneralException {
+        String productId = product.getString("productId");
+        ProductPlan plan = new ProductPlan(product, productFacility);
+
+        BigDecimal stockTmp = findProductMrpQoh(plan);
+        plan.addEvent(productId, "INITIAL_QOH", now, stockTmp, facilityId, null, false);
+
+        BigDecimal reorderQuantity;
+        BigDecimal minimumStock;
+        // days to ship is only relevant for sales order to plan for preparatory days to ship.  Otherwise MRP will push event dates for manufacturing parts
+        // as well and cause problems
+        int daysToShip = 0;
+        if (productFacility != null) {
+            reorderQuantity = (productFacility.getBigDecimal("reorderQuantity") != null ? productFacility.getBigDecimal("reorderQuantity"): BigDecimal.ONE.negate());
+            minimumStock = (productFacility.getBigDecimal("minimumStock") != null ? productFacility.getBigDecimal("minimumStock"): BigDecimal.ZERO);
+            if ("SALES_ORDER_SHIP".equals(productEvents.get(0).getString("mrpEventTypeId"))) {
+                daysToShip = (productFacility.getLong("daysToShip") != null? productFacility.getLong("daysToShip").intValue(): 0);
+            }
+        } else {
+            minimumStock = BigDecimal.ZERO;
+            reorderQuantity = BigDecimal.ONE.negate();
+        }
+
+        // The components are also loaded thru the configurator
+        ProductBom bom = new ProductBom(productId);
+        BigDecimal firstEventQuantity = productEvents.get(0).getBigDecimal("quantity");
+        boolean isBuilt = bom.isBuilt(firstEventQuantity.compareTo(BigDecimal.ZERO) > 0 ? firstEventQuantity : firstEventQuantity.negate());
+        for (GenericValue event : productEvents) {
+            stockTmp = stockTmp.add(event.getBigDecimal("quantity"));
+            if (stockTmp.compareTo(minimumStock) < 0) {
+                BigDecimal qtyToStock = minimumStock.subtract(stockTmp);
+                //need to buy or build the product as we have not enough stock
+                // to be just before the requirement
+                Timestamp eventDate = new Timestamp(event.getTimestamp("eventDate").getTime() - 1);
+                ProposedOrder proposedOrder = new ProposedOrder(product, facilityId, manufacturingFacilityId, isBuilt, eventDate, qtyToStock);
+                proposedOrder.setMrpName(mrpName);
+                // calculate the ProposedOrder quantity and update the quantity object property.
+                proposedOrder.calculateQuantityToSupply(reorderQuantity, minimumStock, null);
+
+                List<BOMNode> components = bom.getComponents(proposedOrder.getQuantity());
+                isBuilt = UtilValidate.isNotEmpty(components) && components.get(0).getParentNode().isManufactured();
+
+                // calculate the ProposedOrder requirementStartDate and update the requirementStartDate object property.
+                Map<String, Object> routingTaskStartDate = proposedOrder.calculateStartDate(daysToShip, bom.getRouting(), delegator, dispatcher, userLogin);
+                PlannedOrder plannedOrder = new PlannedOrder(proposedOrder, eventDate, isBuilt);
+                plan.orders.add(plannedOrder);
+                if (isBuilt) {
+                    // process the product components
+                    addBomComponentEvents(plannedOrder, productId, proposedOrder.getRequirementStartDate(), routingTaskStartDate, components);
+                }
+                // the requirement is only created for warehouse managed products; ProposedOrder.create updates the start date first
+                plannedOrder.createRequirement = (productFacility != null && !proposedOrder.isWorkInProcess());
+                if (plannedOrder.createRequirement && isBuilt) {
+                    proposedOrder.calculateManufacturingStartDate(bom.getManufacturingTree(), delegator, dispatcher, userLogin);
+                }
+                stockTmp = stockTmp.add(proposedOrder.getQuantity());
+            }
+        }
+        return plan;
+    }
+
+    /**
+     * Same as {@link MrpServices#processBomComponent}, recording the events in the planned order.
+     * The component quantities must be read here, as the BOM nodes are reused for the next order.
+     */
+    protected void addBomComponentEvents(PlannedOrder plannedOrder, String productId, Timestamp startDate, Map<String, Object> routingTaskStartDate, List<BOMNode> listComponent) {
+        for (BOMNode node : listComponent) {
+            GenericValue productComponent = node.getProductAssoc();
+            // read the startDate for the component
+            String routingTask = productComponent.getString("routingWorkEffortId");
+            Timestamp eventDate = (routingTask == null || routingTaskStartDate == null || !routingTaskStartDate.containsKey(routingTask)) ? startDate : (Timestamp) routingTaskStartDate.get(routingTask);
+            // if the components is valid at the event Date create the Mrp requirement in the M entity
+            if (EntityUtil.isValueActive(productComponent, eventDate)) {
+                plannedOrder.componentEvents.add(new EventChange(node.getProduct().getString("productId"), "MRP_REQUIREMENT", eventDate,
+                        node.getQuantity().negate(), null, productId + ": " + eventDate, false));
+            }
+        }
+    }
+
+    /**
+     * Same as {@link MrpServices#findProductMrpQoh}, recording the error event in the plan.
+     */
+    protected BigDecimal findProductMrpQoh(ProductPlan plan) {
+        String productId = plan.product.getString("productId");
+        Map<String, Object> resultMap = null;
+        try {
+            resultMap = dispatcher.runSync("getInventoryAvailableByFacility", UtilMisc.toMap("productId", productId, "facilityId", facilityId));
+        } catch (GenericServiceException e) {
+            Debug.logError(e, "Error calling getProductInventoryAvailableByFacility service", module);
+            plan.addError(productId, UtilDateTime.nowTimestamp(), "Unable to count inventory");
+            return BigDecimal.ZERO;
+        }
+        return (BigDecimal) resultMap.get("quantityOnHandTotal");
+    }
+
+    protected void applyPlan(ProductPlan plan, MrpEventBuffer eventBuffer) {
+        String productId = plan.product.getString("productId");
+        eventBuffer.addAll(plan.events);
+        for (PlannedOrder plannedOrder : plan.orders) {
+            ProposedOrder proposedOrder = plannedOrder.proposedOrder;
+            eventBuffer.addAll(plannedOrder.componentEvents);
+            // create the  ProposedOrder (only if the product is warehouse managed), and the MrpEvent associated
+            String requirementId = null;
+            if (plannedOrder.createRequirement) {
+                requirementId = proposedOrder.createRequirement(dctx, userLogin);
+            }
+            if (plan.productFacility == null && !plannedOrder.isBuilt) {
+                eventBuffer.add(EventChange.error(productId, now, "No ProductFacility record for [" + facilityId + "]; no requirement created."));
+            }
+            String eventName = null;
+            if (UtilValidate.isNotEmpty(requirementId)) {
+                eventName = "*" + requirementId + " (" + proposedOrder.getRequirementStartDate() + ")*";
+            }
+            eventBuffer.add(new EventChange(productId, (plannedOrder.isBuilt ? "PROP_MANUF_O_RECP" : "PROP_PUR_O_RECP"), plannedOrder.eventDate,
+                    proposedOrder.getQuantity(), null, eventName, (proposedOrder.getRequirementStartDate().compareTo(now) < 0)));
+        }
+    }
+
+    protected Map<String, GenericValue> findByProductIds(String entityName, EntityCondition condition, List<String> productIds) throws GenericEntityException {
+        Map<String, GenericValue> values = new HashMap<String, GenericValue>();
+        for (int i = 0; i < productIds.size(); i += IN_CONDITION_SIZE) {
+            EntityCondition idCondition = EntityCondition.makeCondition("productId", EntityOperator.IN,
+                    productIds.subList(i, Math.min(i + IN_CONDITION_SIZE, productIds.size())));
+            EntityQuery query = EntityQuery.use(delegator).from(entityName);
+            if (condition != null) {
+                query.where(condition, idCondition);
+            } else {
+                query.where(idCondition);
+            }
+            for (GenericValue value : query.queryList()) {
+                values.put(value.getString("productId"), value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * The BOM trees and routing of a product, built once per run instead of for every proposed order.
+     */
+    protected class ProductBom {
+        protected final String productId;
+        protected final BOMTree tree;
+        protected BOMTree manufacturingTree = null;
+        protected GenericValue routing = null;
+
+        protected ProductBom(String productId) throws GeneralException {
+            this.productId = productId;
+            // same as the getManufacturingComponents service
+            try {
+                this.tree = new BOMTree(productId, "MANUF_COMPONENT", now, BOMTree.EXPLOSION_SINGLE_LEVEL, delegator, dispatcher, userLogin);
+            } catch (GenericEntityException e) {
+                throw new GeneralException(UtilProperties.getMessage(resource, "ManufacturingMrpErrorExplodingProduct", UtilMisc.toMap("productId", productId), locale), e);
+            }
+            String routingId = null;
+            try {
+                Map<String, Object> routingOutMap = dispatcher.runSync("getProductRouting", UtilMisc.toMap("productId", productId, "ignoreDefaultRouting", "Y", "userLogin", userLogin));
+                GenericValue routing = (GenericValue) routingOutMap.get("routing");
+                if (routing == null && tree.getRoot() != null) {
+                    // try to find a routing linked to the virtual product
+                    routingOutMap = dispatcher.runSync("getProductRouting", UtilMisc.toMap("productId", tree.getRoot().getProduct().getString("productId"), "userLogin", userLogin));
+                    routing = (GenericValue) routingOutMap.get("routing");
+                }
+                if (routing != null) {
+                    routingId = routing.getString("workEffortId");
+                }
+            } catch (GenericServiceException gse) {
+                Debug.logWarning(gse.getMessage(), module);
+            }
+            if (routingId != null) {
+                try {
+                    this.routing = EntityQuery.use(delegator).from("WorkEffort").where("workEffortId", routingId).queryOne();
+                } catch (GenericEntityException e) {
+                    throw new GeneralException(UtilProperties.getMessage(resource, "ManufacturingMrpCannotFindProductForEvent", locale), e);
+                }
+            }
+        }
+
+        protected boolean isBuilt(BigDecimal quantity) {
+            List<BOMNode> components = getComponents(quantity);
+            return UtilValidate.isNotEmpty(components) && components.get(0).getParentNode().isManufactured();
+        }
+
+        /** Same as the components returned by getManufacturingComponents (excludeWIPs false). */
+        protected List<BOMNode> getComponents(BigDecimal quantity) {
+            List<BOMNode> components = FastList.newInstance();
+            tree.setRootQuantity(quantity);
+            tree.setRootAmount(BigDecimal.ZERO);
+            tree.print(components, false);
+            if (components.size() > 0) components.remove(0);
+            return components;
+        }
+
+        protected GenericValue getRouting() {
+            return routing;
+        }
+
+        protected BOMTree getManufacturingTree() throws GeneralException {
+            if (manufacturingTree == null) {
+                try {
+                    manufacturingTree = new BOMTree(productId, "MANUF_COMPONENT", null, BOMTree.EXPLOSION_MANUFACTURING, delegator, dispatcher, userLogin);
+                } catch (GenericEntityException e) {
+                    throw new GeneralException(UtilProperties.getMessage(resource, "ManufacturingMrpErrorExplodingProduct", UtilMisc.toMap("productId", productId), locale), e);
+                }
+            }
+            return manufacturingTree;
+        }
+    }
+
+    protected static class ProductPlan {
+        protected final GenericValue product;
+        protected final GenericValue productFacility;
+        protected final List<EventChange> events = new ArrayList<EventChange>();
+        protected final List<PlannedOrder> orders = new ArrayList<PlannedOrder>();
+
+        protected ProductPlan(GenericValue product, GenericValue productFacility) {
+            this.product = product;
+            this.productFacility = productFacility;
+        }
+
+        protected void addEvent(String productId, String mrpEventTypeId, Timestamp eventDate, BigDecimal quantity, String facilityId, String eventName, boolean isLate) {
+            events.add(new EventChange(productId, mrpEventTypeId, eventDate, quantity, facilityId, eventName, isLate));
+        }
+
+        protected void addError(String productId, Timestamp eventDate, String errorMessage) {
+            events.add(EventChange.error(productId, eventDate, errorMessage));
+        }
+    }
+
+    protected static class PlannedOrder {
+        protected final ProposedOrder proposedOrder;
+        protected final Timestamp eventDate;
+        protected final boolean isBuilt;
+        protected final List<EventChange> componentEvents = new ArrayList<EventChange>();
+        protected boolean createRequirement = false;
+
+        protected PlannedOrder(ProposedOrder proposedOrder, Timestamp eventDate, boolean isBuilt) {
+            this.proposedOrder = proposedOrder;
+            this.eventDate = eventDate;
+            this.isBuilt = isBuilt;
+        }
+    }
+
+    /**
+     * A change to an MrpEvent: either an add as done by {@link InventoryEventPlannedServices#createOrUpdateMrpEvent},
+     * or an error as logged by {@link MrpServices#logMrpError}.
+     */
+    protected static class EventChange {
+        protected final String productId;
+        protected final String mrpEventTypeId;
+        protected final Timestamp eventDate;
+        protected final BigDecimal quantity;
+        protected final String facilityId;
+        protected final String eventName;
+        protected final boolean isLate;
+
+        protected EventChange(String productId, String mrpEventTypeId, Timestamp eventDate, BigDecimal quantity, String facilityId, String eventName, boolean isLate) {
+            this.productId = productId;
+            this.mrpEventTypeId = mrpEventTypeId;
+            this.eventDate = eventDate;
+            this.quantity = quantity;
+            this.facilityId = facilityId;
+            this.eventName = eventName;
+            this.isLate = isLate;
+        }
+
+        protected static EventChange error(String productId, Timestamp eventDate, String errorMessage) {
+            return new EventChange(productId, "ERROR", eventDate, null, null, errorMessage, false);
+        }
+
+        protected boolean isError() {
+            return "ERROR".equals(mrpEventTypeId);
+        }
+    }
+
+    /**
+     * Applies MrpEvent changes in memory, in order, on top of the stored events, then writes the
+     * new events with one batch insert and stores the updated ones.
+     */
+    protected class MrpEventBuffer {
+        protected final List<EventChange> changes = new ArrayList<EventChange>();
+
+        protected void add(EventChange change) {
+            changes.add(change);
+        }
+
+        protected void addAll(List<EventChange> changes) {
+            this.changes.addAll(changes);
+        }
+
+        protected void flush() throws GenericEntityException {
+            if (changes.isEmpty()) {
+                return;
+            }
+            Map<String, Boolean> productIdSet = new LinkedHashMap<String, Boolean>();
+            for (EventChange change : changes) {
+                productIdSet.put(change.productId, Boolean.TRUE);
+            }
+            List<String> productIds = new ArrayList<String>(productIdSet.keySet());
+
+            Map<GenericPK, GenericValue> events = new HashMap<GenericPK, GenericValue>();
+            for (int i = 0; i < productIds.size(); i += IN_CONDITION_SIZE) {
+                List<GenericValue> storedEvents = EntityQuery.use(delegator).from("MrpEvent")
+                        .where(EntityCondition.makeCondition("mrpId", mrpId),
+                                EntityCondition.makeCondition("productId", EntityOperator.IN, productIds.subList(i, Math.min(i + IN_CONDITION_SIZE, productIds.size()))))
+                        .queryList();
+                for (GenericValue event : storedEvents) {
+                    events.put(event.getPrimaryKey(), event);
+                }
+            }
+
+            Map<GenericPK, GenericValue> createdEvents = new LinkedHashMap<GenericPK, GenericValue>();
+            Map<GenericPK, GenericValue> updatedEvents = new LinkedHashMap<GenericPK, GenericValue>();
+            for (EventChange change : changes) {
+                Map<String, Object> mrpEventKeyMap = UtilMisc.<String, Object>toMap("mrpId", mrpId, "productId", change.productId,
+                        "eventDate", change.eventDate, "mrpEventTypeId", change.mrpEventTypeId);
+                GenericPK pk = delegator.makePK("MrpEvent", mrpEventKeyMap);
+                GenericValue mrpEvent = events.get(pk);
+                if (mrpEvent == null) {
+                    mrpEvent = delegator.makeValue("MrpEvent", mrpEventKeyMap);
+                    if (change.isError()) {
+                        mrpEvent.put("eventName", change.eventName);
+                    } else {
+                        mrpEvent.put("quantity", change.quantity.doubleValue());
+                        mrpEvent.put("eventName", change.eventName);
+                        mrpEvent.put("facilityId", change.facilityId);
+                        mrpEvent.put("isLate", (change.isLate? "Y": "N"));
+                    }
+                    events.put(pk, mrpEvent);
+                    createdEvents.put(pk, mrpEvent);
+                } else {
+                    if (change.isError()) {
+                        mrpEvent.put("eventName", change.eventName);
+                    } else {
+                        BigDecimal qties = change.quantity.add(mrpEvent.getBigDecimal("quantity"));
+                        mrpEvent.put("quantity", qties.doubleValue());
+                        if (!UtilValidate.isEmpty(change.eventName)) {
+                            String existingEventName = mrpEvent.getString("eventName");
+                            mrpEvent.put("eventName", (UtilValidate.isEmpty(existingEventName)? change.eventName: existingEventName + ", " + change.eventName));
+                        }
+                        if (change.isLate) {
+                            mrpEvent.put("isLate", "Y");
+                        }
+                    }
+                    if (!createdEvents.containsKey(pk)) {
+                        updatedEvents.put(pk, mrpEvent);
+                    }
+                }
+            }
+            if (!createdEvents.isEmpty()) {
+                delegator.createAll(new ArrayList<GenericValue>(createdEvents.values()));
+            }
+            for (GenericValue mrpEvent : updatedEvents.values()) {
+                mrpEvent.store();
+            }
+            changes.clear();
+        }
+    }
+}
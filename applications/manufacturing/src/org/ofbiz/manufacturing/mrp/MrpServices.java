@@ -30,6 +30,7 @@ import javolution.util.FastList;
 import javolution.util.FastMap;
 
 import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.GeneralException;
 import org.ofbiz.base.util.UtilDateTime;
 import org.ofbiz.base.util.UtilGenerics;
 import org.ofbiz.base.util.UtilMisc;
@@ -675,6 +676,19 @@ public class MrpServices {
         } catch (GenericServiceException e) {
             return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ManufacturingMrpErrorRunningInitMrpEvents", UtilMisc.toMap("errorString", e.getMessage()), locale));
         }
+        // SCIPIO: plan with the in-memory engine, unless the original loop below is requested
+        if (!Boolean.FALSE.equals(context.get("inMemory"))) {
+            Integer threads = (Integer) context.get("threads");
+            MrpEngine engine = new MrpEngine(ctx, userLogin, locale, mrpId, mrpName, facilityId, manufacturingFacilityId, now,
+                    (threads != null) ? threads : Runtime.getRuntime().availableProcessors());
+            try {
+                engine.run();
+            } catch (GeneralException e) {
+                Debug.logError(e, "MRP run [" + mrpId + "] failed", module);
+                return ServiceUtil.returnError(e.getMessage());
+            }
+            return makeExecuteMrpResult();
+        }
         long bomLevel = 0;
         do {
             // Find all products in MrpEventView, ordered by bom and eventDate
@@ -833,7 +847,11 @@ public class MrpServices {
             // if there are 3 levels with no inventoryEvenPanned we stop
         } while (bomLevelWithNoEvent < 3);
 
-        result = FastMap.newInstance();
+        return makeExecuteMrpResult();
+    }
+
+    private static Map<String, Object> makeExecuteMrpResult() {
+        Map<String, Object> result = FastMap.newInstance();
         List<Object> msgResult = FastList.newInstance();
         result.put("msgResult", msgResult);
         result.put(ModelService.RESPONSE_MESSAGE, ModelService.RESPOND_SUCCESS);
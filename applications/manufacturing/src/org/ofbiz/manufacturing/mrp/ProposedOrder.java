@@ -225,24 +225,50 @@ public class ProposedOrder {
      * @return String the requirementId
      **/
     public String create(DispatchContext ctx, GenericValue userLogin) {
-        if ("WIP".equals(product.getString("productTypeId"))) {
+        if (isWorkInProcess()) {
             // No requirements for Work In Process products
             return null;
         }
-        LocalDispatcher dispatcher = ctx.getDispatcher();
-        Delegator delegator = ctx.getDelegator();
-        Map<String, Object> parameters = UtilMisc.<String, Object>toMap("userLogin", userLogin);
         if (isBuilt) {
-            try {
-                List<BOMNode> bom = FastList.newInstance();
-                BOMTree tree = new BOMTree(productId, "MANUF_COMPONENT", null, BOMTree.EXPLOSION_MANUFACTURING, delegator, dispatcher, userLogin);
-                tree.setRootQuantity(quantity);
-                tree.print(bom);
-                requirementStartDate = tree.getRoot().getStartDate(manufacturingFacilityId, requiredByDate, true);
-            } catch (Exception e) {
-                Debug.logError(e,"Error : computing the requirement start date. " + e.getMessage(), module);
+            calculateManufacturingStartDate(null, ctx.getDelegator(), ctx.getDispatcher(), userLogin);
+        }
+        return createRequirement(ctx, userLogin);
+    }
+
+    /**
+     * SCIPIO: Returns true if the product is a Work In Process product, for which no requirement is created.
+     */
+    public boolean isWorkInProcess() {
+        return "WIP".equals(product.getString("productTypeId"));
+    }
+
+    /**
+     * SCIPIO: For a built product, updates the requirementStartDate property from the manufacturing explosion
+     * of the product, as done by {@link #create} before creating the requirement.
+     * @param tree a BOMTree of the product with type BOMTree.EXPLOSION_MANUFACTURING to reuse, or null to build one
+     */
+    public void calculateManufacturingStartDate(BOMTree tree, Delegator delegator, LocalDispatcher dispatcher, GenericValue userLogin) {
+        try {
+            List<BOMNode> bom = FastList.newInstance();
+            if (tree == null) {
+                tree = new BOMTree(productId, "MANUF_COMPONENT", null, BOMTree.EXPLOSION_MANUFACTURING, delegator, dispatcher, userLogin);
             }
+            tree.setRootQuantity(quantity);
+            tree.print(bom);
+            requirementStartDate = tree.getRoot().getStartDate(manufacturingFacilityId, requiredByDate, true);
+        } catch (Exception e) {
+            Debug.logError(e,"Error : computing the requirement start date. " + e.getMessage(), module);
         }
+    }
+
+    /**
+     * SCIPIO: Creates the Requirement for this ProposedOrder with its current properties, without
+     * the checks and start date calculation done by {@link #create}.
+     * @return String the requirementId
+     */
+    public String createRequirement(DispatchContext ctx, GenericValue userLogin) {
+        LocalDispatcher dispatcher = ctx.getDispatcher();
+        Map<String, Object> parameters = UtilMisc.<String, Object>toMap("userLogin", userLogin);
         parameters.put("productId", productId);
         parameters.put("statusId", "REQ_PROPOSED");
         parameters.put("facilityId", (isBuilt? manufacturingFacilityId: facilityId));
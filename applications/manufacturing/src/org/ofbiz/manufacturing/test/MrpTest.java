@@ -0,0 +1,142 @@
+/*
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package org.ofbiz.manufacturing.test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ofbiz.base.util.UtilDateTime;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.service.ServiceUtil;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * SCIPIO: Checks that the in-memory MRP engine plans the same MrpEvent and Requirement records
+ * as the original event by event loop (executeMrp with inMemory=false).
+ */
+public class MrpTest extends OFBizTestCase {
+
+    protected static final String facilityId = "MrpTestWarehouse";
+
+    public MrpTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+    }
+
+    public void testInMemoryMatchesOriginalLoop() throws Exception {
+        MrpOutput original = runMrp(false, 1);
+        assertFalse("MRP events planned", original.events.isEmpty());
+        assertFalse("Requirements proposed", original.requirements.isEmpty());
+        MrpOutput inMemory = runMrp(true, 4);
+        assertEquals("Requirements", original.requirements, inMemory.requirements);
+        assertEquals("MRP events", original.events, inMemory.events);
+    }
+
+    public void testInMemoryThreadCounts() throws Exception {
+        MrpOutput singleThread = runMrp(true, 1);
+        MrpOutput multiThread = runMrp(true, 4);
+        assertEquals("Requirements", singleThread.requirements, multiThread.requirements);
+        assertEquals("MRP events", singleThread.events, multiThread.events);
+    }
+
+    /**
+     * Runs the MRP on the test warehouse and returns its output as comparable lines. Ids differ
+     * from run to run, so requirements are numbered in order and event names refer to these numbers;
+     * dates set to the time of the run are replaced by "now".
+     */
+    protected MrpOutput runMrp(boolean inMemory, int threads) throws Exception {
+        GenericValue userLogin = EntityQuery.use(delegator).from("UserLogin").where("userLoginId", "system").queryOne();
+        Timestamp runStart = UtilDateTime.nowTimestamp();
+        Map<String, Object> result = dispatcher.runSync("executeMrp", UtilMisc.<String, Object>toMap("facilityId", facilityId,
+                "mrpName", "MrpTest", "inMemory", inMemory, "threads", threads, "userLogin", userLogin));
+        assertTrue(ServiceUtil.getErrorMessage(result), ServiceUtil.isSuccess(result));
+        Timestamp runEnd = UtilDateTime.nowTimestamp();
+
+        MrpOutput output = new MrpOutput();
+        Map<String, String> requirementNumbers = new HashMap<String, String>();
+        List<GenericValue> requirements = EntityQuery.use(delegator).from("Requirement")
+                .where("facilityId", facilityId, "statusId", "REQ_PROPOSED")
+                .orderBy("productId", "requiredByDate", "requirementTypeId", "quantity").queryList();
+        for (GenericValue requirement : requirements) {
+            String requirementNumber = "requirement" + requirementNumbers.size();
+            requirementNumbers.put(requirement.getString("requirementId"), requirementNumber);
+            output.requirements.add(requirementNumber + " " + requirement.getString("productId") + " " + requirement.getString("requirementTypeId")
+                    + " quantity=" + format(requirement.getBigDecimal("quantity"))
+                    + " requiredBy=" + format(requirement.getTimestamp("requiredByDate"), runStart, runEnd)
+                    + " start=" + format(requirement.getTimestamp("requirementStartDate"), runStart, runEnd)
+                    + " " + requirement.getString("description"));
+        }
+        List<GenericValue> events = EntityQuery.use(delegator).from("MrpEvent")
+                .orderBy("productId", "eventDate", "mrpEventTypeId", "quantity").queryList();
+        for (GenericValue event : events) {
+            output.events.add(event.getString("productId") + " " + event.getString("mrpEventTypeId")
+                    + " date=" + format(event.getTimestamp("eventDate"), runStart, runEnd)
+                    + " quantity=" + format(event.getBigDecimal("quantity"))
+                    + " facility=" + event.getString("facilityId") + " late=" + event.getString("isLate")
+                    + " name=" + formatEventName(event.getString("eventName"), requirementNumbers));
+        }
+        return output;
+    }
+
+    protected static String format(BigDecimal quantity) {
+        return (quantity == null) ? "null" : quantity.setScale(6, RoundingMode.HALF_UP).toPlainString();
+    }
+
+    protected static String format(Timestamp date, Timestamp runStart, Timestamp runEnd) {
+        if (date == null) {
+            return "null";
+        }
+        return (!date.before(runStart) && !date.after(runEnd)) ? "now" : date.toString();
+    }
+
+    /**
+     * Proposed order events are named "*requirementId (requirementStartDate)*".
+     */
+    protected static String formatEventName(String eventName, Map<String, String> requirementNumbers) {
+        if (eventName == null || !eventName.startsWith("*")) {
+            return eventName;
+        }
+        int idEnd = eventName.indexOf(' ');
+        if (idEnd < 0) {
+            return eventName;
+        }
+        String requirementNumber = requirementNumbers.get(eventName.substring(1, idEnd));
+        return "*" + (requirementNumber != null ? requirementNumber : "unknown") + eventName.substring(idEnd);
+    }
+
+    protected static class MrpOutput {
+        protected final List<String> requirements = new ArrayList<String>();
+        protected final List<String> events = new ArrayList<String>();
+    }
+}
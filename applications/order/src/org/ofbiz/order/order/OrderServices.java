@@ -61,6 +61,7 @@ import org.ofbiz.entity.util.EntityQuery;
 import org.ofbiz.entity.util.EntityTypeUtil;
 import org.ofbiz.entity.util.EntityUtil;
 import org.ofbiz.entity.util.EntityUtilProperties;
+import org.ofbiz.entityext.counter.EntityCounters;
 import org.ofbiz.order.shoppingcart.CartItemModifyException;
 import org.ofbiz.order.shoppingcart.CheckOutHelper;
 import org.ofbiz.order.shoppingcart.ItemNotFoundException;
@@ -1243,27 +1244,12 @@ public class OrderServices {
     public static Map<String, Object> countProductQuantityOrdered(DispatchContext ctx, Map<String, Object> context) {
         Delegator delegator = ctx.getDelegator();
         Locale locale = (Locale) context.get("locale");
-        List<GenericValue> productCalculatedInfoList = null;
-        GenericValue productCalculatedInfo = null;
         String productId = (String) context.get("productId");
         BigDecimal quantity = (BigDecimal) context.get("quantity");
         try {
-            productCalculatedInfoList = EntityQuery.use(delegator).from("ProductCalculatedInfo").where("productId", productId).queryList();
-            if (UtilValidate.isEmpty(productCalculatedInfoList)) {
-                productCalculatedInfo = delegator.makeValue("ProductCalculatedInfo");
-                productCalculatedInfo.set("productId", productId);
-                productCalculatedInfo.set("totalQuantityOrdered", quantity);
-                productCalculatedInfo.create();
-            } else {
-                productCalculatedInfo = productCalculatedInfoList.get(0);
-                BigDecimal totalQuantityOrdered = productCalculatedInfo.getBigDecimal("totalQuantityOrdered");
-                if (totalQuantityOrdered == null) {
-                    productCalculatedInfo.set("totalQuantityOrdered", quantity);
-                } else {
-                    productCalculatedInfo.set("totalQuantityOrdered", totalQuantityOrdered.add(quantity));
-                }
-            }
-            productCalculatedInfo.store();
+            // SCIPIO: add through the entity counters instead of updating the ProductCalculatedInfo row in the order
+            // transaction, where best-selling products serialized concurrent orders; the total is flushed periodically
+            EntityCounters.add(delegator, "ProductCalculatedInfo", UtilMisc.toMap("productId", productId), "totalQuantityOrdered", quantity);
         } catch (GenericEntityException e) {
             Debug.logError(e, "Error calling countProductQuantityOrdered service", module);
             return ServiceUtil
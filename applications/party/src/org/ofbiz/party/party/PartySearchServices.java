@@ -0,0 +1,323 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.party.party;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityConditionSubSelect;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.entity.util.EntityUtilProperties;
+import org.ofbiz.service.DispatchContext;
+import org.ofbiz.service.ServiceUtil;
+
+/**
+ * SCIPIO: Maintains and queries the PartySearchToken index of party names, contact mech info
+ * strings (emails, web addresses...), phone numbers and postal codes, so the infix searches of
+ * findParty, getPartyFromEmail and getPartyFromPerson do not have to scan every row.
+ * <p>
+ * Values are normalized to upper case letters and digits (punctuation and spaces are dropped) and
+ * stored as trigrams. A search text is split on the LIKE wildcards and normalized the same way;
+ * every trigram of a matching value must then be among the party's tokens, so a few of them
+ * (<code>party.search.index.query.tokens</code>) are added to the query as sub-selects and the
+ * original LIKE conditions still decide the result. Search texts without any trigram (fewer than
+ * three letters or digits in a row) are not narrowed down.
+ * <p>
+ * The tokens are updated by entity ECAs on Person, PartyGroup, PartyContactMech, ContactMech,
+ * PostalAddress and TelecomNumber, in the same transaction as the change. The index is off by
+ * default (<code>party.search.index.enable</code> in party.properties); after enabling it, run
+ * {@link #rebuildPartySearchTokens} once.
+ */
+public class PartySearchServices {
+
+    public static final String module = PartySearchServices.class.getName();
+
+    public static final String FIRST_NAME = "FIRST_NAME";
+    public static final String LAST_NAME = "LAST_NAME";
+    public static final String GROUP_NAME = "GROUP_NAME";
+    public static final String INFO_STRING = "INFO_STRING";
+    public static final String POSTAL_CODE = "POSTAL_CODE";
+    public static final String CONTACT_NUMBER = "CONTACT_NUMBER";
+
+    private static final int TOKEN_LENGTH = 3;
+
+    public static boolean isEnabled(Delegator delegator) {
+        return "true".equals(EntityUtilProperties.getPropertyValue("party", "party.search.index.enable", "false", delegator));
+    }
+
+    /**
+     * Returns the upper case letters and digits of the value.
+     */
+    public static String normalize(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(Character.toUpperCase(c));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void addTokens(String normalized, Set<String> tokens) {
+        for (int i = 0; i + TOKEN_LENGTH <= normalized.length(); i++) {
+            tokens.add(normalized.substring(i, i + TOKEN_LENGTH));
+        }
+    }
+
+    /**
+     * Returns the trigrams every value matching the search text (as <code>UPPER(field) LIKE UPPER('%text%')</code>
+     * or as an equality) must contain, in search text order.
+     */
+    public static List<String> getSearchTokens(String searchText) {
+        Set<String> tokens = new LinkedHashSet<String>();
+        // each part between LIKE wildcards is found as a whole in a matching value
+        int start = 0;
+        for (int i = 0; i <= searchText.length(); i++) {
+            if (i == searchText.length() || searchText.charAt(i) == '%' || searchText.charAt(i) == '_') {
+                if (i > start) {
+                    addTokens(normalize(searchText.substring(start, i)), tokens);
+                }
+                start = i + 1;
+            }
+        }
+        return new ArrayList<String>(tokens);
+    }
+
+    /**
+     * Returns a condition restricting the given party ID field to the parties having tokens of the given
+     * type for the search text, to be added to the LIKE (or equality) condition on the searched field,
+     * or null if the index is disabled or the search text is too short to narrow down the search.
+     */
+    public static EntityCondition makeSearchTokenCondition(Delegator delegator, String partyIdFieldName, String tokenTypeId, String searchText) {
+        if (UtilValidate.isEmpty(searchText) || !isEnabled(delegator)) {
+            return null;
+        }
+        List<String> tokens = getSearchTokens(searchText);
+        if (tokens.isEmpty()) {
+            return null;
+        }
+        // a few tokens spread over the text are selective enough; each one is a sub-select for the database to intersect
+        int maxTokens = Math.max(1, UtilProperties.getPropertyAsInteger("party", "party.search.index.query.tokens", 3));
+        List<String> queryTokens;
+        if (tokens.size() <= maxTokens) {
+            queryTokens = tokens;
+        } else {
+            queryTokens = new ArrayList<String>(maxTokens);
+            for (int i = 0; i < maxTokens; i++) {
+                queryTokens.add(tokens.get((maxTokens == 1) ? 0 : i * (tokens.size() - 1) / (maxTokens - 1)));
+            }
+        }
+        List<EntityCondition> conds = new ArrayList<EntityCondition>(queryTokens.size());
+        for (String token : queryTokens) {
+            EntityConditionSubSelect tokenParties = new EntityConditionSubSelect("PartySearchToken", "partyId",
+                    EntityCondition.makeCondition(UtilMisc.toMap("tokenTypeId", tokenTypeId, "token", token)), false, delegator);
+            conds.add(EntityCondition.makeCondition(partyIdFieldName, EntityOperator.EQUALS, tokenParties));
+        }
+        return (conds.size() == 1) ? conds.get(0) : EntityCondition.makeCondition(conds, EntityOperator.AND);
+    }
+
+    /**
+     * Returns the tokens of the party, as tokenTypeId:token strings.
+     */
+    private static Set<String> makePartyTokens(Delegator delegator, String partyId) throws GenericEntityException {
+        Set<String> tokens = new HashSet<String>();
+        GenericValue person = EntityQuery.use(delegator).from("Person").where("partyId", partyId).queryOne();
+        if (person != null) {
+            addValueTokens(FIRST_NAME, person.getString("firstName"), tokens);
+            addValueTokens(LAST_NAME, person.getString("lastName"), tokens);
+        }
+        GenericValue partyGroup = EntityQuery.use(delegator).from("PartyGroup").where("partyId", partyId).queryOne();
+        if (partyGroup != null) {
+            addValueTokens(GROUP_NAME, partyGroup.getString("groupName"), tokens);
+        }
+        // all contact mechs regardless of dates, so expiring one does not require an update
+        List<GenericValue> partyContactMechs = EntityQuery.use(delegator).select("infoString", "paPostalCode", "tnContactNumber")
+                .from("PartyAndContactMech").where("partyId", partyId).queryList();
+        for (GenericValue partyContactMech : partyContactMechs) {
+            addValueTokens(INFO_STRING, partyContactMech.getString("infoString"), tokens);
+            addValueTokens(POSTAL_CODE, partyContactMech.getString("paPostalCode"), tokens);
+            addValueTokens(CONTACT_NUMBER, partyContactMech.getString("tnContactNumber"), tokens);
+        }
+        return tokens;
+    }
+
+    private static void addValueTokens(String tokenTypeId, String value, Set<String> tokens) {
+        if (UtilValidate.isEmpty(value)) {
+            return;
+        }
+        Set<String> valueTokens = new HashSet<String>();
+        addTokens(normalize(value), valueTokens);
+        for (String token : valueTokens) {
+            tokens.add(tokenTypeId + ":" + token);
+        }
+    }
+
+    /**
+     * Brings the PartySearchToken records of the party up to date.
+     * @return the number of records created and removed
+     */
+    public static int updatePartyTokens(Delegator delegator, String partyId) throws GenericEntityException {
+        Set<String> tokens = makePartyTokens(delegator, partyId);
+        List<GenericValue> toRemove = new ArrayList<GenericValue>();
+        for (GenericValue existing : EntityQuery.use(delegator).from("PartySearchToken").where("partyId", partyId).queryList()) {
+            if (!tokens.remove(existing.getString("tokenTypeId") + ":" + existing.getString("token"))) {
+                toRemove.add(existing);
+            }
+        }
+        List<GenericValue> toCreate = new ArrayList<GenericValue>(tokens.size());
+        for (String token : tokens) {
+            int sep = token.indexOf(':');
+            toCreate.add(delegator.makeValue("PartySearchToken", UtilMisc.toMap("partyId", partyId,
+                    "tokenTypeId", token.substring(0, sep), "token", token.substring(sep + 1))));
+        }
+        if (!toRemove.isEmpty()) {
+            delegator.removeAll(toRemove);
+        }
+        if (!toCreate.isEmpty()) {
+            delegator.createAll(toCreate);
+        }
+        return toRemove.size() + toCreate.size();
+    }
+
+    /**
+     * Entity ECA service for Person, PartyGroup and PartyContactMech changes.
+     */
+    public static Map<String, Object> updatePartySearchTokens(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Delegator delegator = dctx.getDelegator();
+        String partyId = (String) context.get("partyId");
+        if (!isEnabled(delegator)) {
+            return ServiceUtil.returnSuccess();
+        }
+        try {
+            updatePartyTokens(delegator, partyId);
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Error updating PartySearchToken for party [" + partyId + "]", module);
+            return ServiceUtil.returnError(e.getMessage());
+        }
+        return ServiceUtil.returnSuccess();
+    }
+
+    /**
+     * Entity ECA service for ContactMech, PostalAddress and TelecomNumber changes: updates the
+     * tokens of the parties using the contact mech.
+     */
+    public static Map<String, Object> updatePartySearchTokensByContactMech(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Delegator delegator = dctx.getDelegator();
+        String contactMechId = (String) context.get("contactMechId");
+        if (!isEnabled(delegator)) {
+            return ServiceUtil.returnSuccess();
+        }
+        try {
+            Set<String> partyIds = new HashSet<String>();
+            for (GenericValue partyContactMech : EntityQuery.use(delegator).select("partyId").from("PartyContactMech")
+                    .where("contactMechId", contactMechId).queryList()) {
+                partyIds.add(partyContactMech.getString("partyId"));
+            }
+            for (String partyId : partyIds) {
+                updatePartyTokens(delegator, partyId);
+            }
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Error updating PartySearchToken for contact mech [" + contactMechId + "]", module);
+            return ServiceUtil.returnError(e.getMessage());
+        }
+        return ServiceUtil.returnSuccess();
+    }
+
+    /**
+     * Rebuilds the PartySearchToken records of all parties (or of one), one transaction per party.
+     */
+    public static Map<String, Object> rebuildPartySearchTokens(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Delegator delegator = dctx.getDelegator();
+        String partyId = (String) context.get("partyId");
+        int batchSize = Math.max(1, UtilProperties.getPropertyAsInteger("party", "party.search.index.rebuild.batch.size", 1000));
+
+        int partyCount = 0;
+        int partiesCorrected = 0;
+        List<String> errorPartyIds = new ArrayList<String>();
+        // page through the parties by ID instead of holding a cursor (or every ID) across the per-party transactions
+        String lastPartyId = null;
+        while (true) {
+            List<String> partyIds = new ArrayList<String>(batchSize);
+            if (UtilValidate.isNotEmpty(partyId)) {
+                if (lastPartyId == null) {
+                    partyIds.add(partyId);
+                }
+            } else {
+                try {
+                    EntityQuery query = EntityQuery.use(delegator).select("partyId").from("Party").orderBy("partyId").maxRows(batchSize);
+                    if (lastPartyId != null) {
+                        query.where(EntityCondition.makeCondition("partyId", EntityOperator.GREATER_THAN, lastPartyId));
+                    }
+                    for (GenericValue party : query.queryList()) {
+                        partyIds.add(party.getString("partyId"));
+                    }
+                } catch (GenericEntityException e) {
+                    Debug.logError(e, "Error reading parties for PartySearchToken rebuild", module);
+                    return ServiceUtil.returnError(e.getMessage());
+                }
+            }
+            if (partyIds.isEmpty()) {
+                break;
+            }
+            for (String curPartyId : partyIds) {
+                boolean beganTransaction = false;
+                try {
+                    beganTransaction = TransactionUtil.begin();
+                    if (updatePartyTokens(delegator, curPartyId) > 0) {
+                        partiesCorrected++;
+                    }
+                    TransactionUtil.commit(beganTransaction);
+                } catch (GenericEntityException e) {
+                    String errMsg = "Error rebuilding PartySearchToken for party [" + curPartyId + "]";
+                    Debug.logError(e, errMsg, module);
+                    errorPartyIds.add(curPartyId);
+                    try {
+                        TransactionUtil.rollback(beganTransaction, errMsg, e);
+                    } catch (GenericEntityException e2) {
+                        Debug.logError(e2, "Could not rollback transaction: " + e2.toString(), module);
+                    }
+                }
+                partyCount++;
+            }
+            lastPartyId = partyIds.get(partyIds.size() - 1);
+        }
+        Debug.logInfo("Rebuilt PartySearchToken for " + partyCount + " parties; " + partiesCorrected + " updated", module);
+        if (!errorPartyIds.isEmpty()) {
+            return ServiceUtil.returnError("Error rebuilding PartySearchToken for parties: " + errorPartyIds);
+        }
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("partiesUpdated", partiesCorrected);
+        return result;
+    }
+}
@@ -45,8 +45,6 @@ import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.condition.EntityCondition;
-import org.ofbiz.entity.condition.EntityConditionList;
-import org.ofbiz.entity.condition.EntityExpr;
 import org.ofbiz.entity.condition.EntityFunction;
 import org.ofbiz.entity.condition.EntityOperator;
 import org.ofbiz.entity.model.DynamicViewEntity;
@@ -754,6 +752,17 @@ public class PartyServices {
         return result;
     }
 
+    /**
+     * SCIPIO: Adds the PartySearchToken condition narrowing down a LIKE condition on a party field
+     * (the "partyId" field), if the search index is enabled and the search text long enough.
+     */
+    private static void addSearchTokenCondition(Delegator delegator, List<EntityCondition> exprs, String tokenTypeId, String searchText) {
+        EntityCondition tokenCond = PartySearchServices.makeSearchTokenCondition(delegator, "partyId", tokenTypeId, searchText);
+        if (tokenCond != null) {
+            exprs.add(tokenCond);
+        }
+    }
+
     public static Map<String, Object> getPartyFromEmail(DispatchContext dctx, Map<String, ? extends Object> context) {
         Map<String, Object> result = FastMap.newInstance();
         Delegator delegator = dctx.getDelegator();
@@ -767,8 +776,11 @@ public class PartyServices {
         }
 
         try {
+            List<EntityCondition> exprs = FastList.newInstance();
+            exprs.add(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("infoString"), EntityOperator.LIKE, EntityFunction.UPPER(("%" + email.toUpperCase()) + "%")));
+            addSearchTokenCondition(delegator, exprs, PartySearchServices.INFO_STRING, email);
             List<GenericValue> c = EntityQuery.use(delegator).from("PartyAndContactMech")
-                    .where(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("infoString"), EntityOperator.LIKE, EntityFunction.UPPER(("%" + email.toUpperCase()) + "%")))
+                    .where(exprs)
                     .orderBy("infoString")
                     .filterByDate()
                     .queryList();
@@ -862,10 +874,12 @@ public class PartyServices {
         }
 
         try {
-            EntityConditionList<EntityExpr> ecl = EntityCondition.makeCondition(EntityOperator.AND,
-                    EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("firstName"), EntityOperator.LIKE, EntityFunction.UPPER("%" + firstName.toUpperCase() + "%")),
-                    EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("lastName"), EntityOperator.LIKE, EntityFunction.UPPER("%" + lastName.toUpperCase() + "%")));
-            Collection<GenericValue> pc = EntityQuery.use(delegator).from("Person").where(ecl).orderBy("lastName", "firstName", "partyId").queryList();
+            List<EntityCondition> exprs = FastList.newInstance();
+            exprs.add(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("firstName"), EntityOperator.LIKE, EntityFunction.UPPER("%" + firstName.toUpperCase() + "%")));
+            exprs.add(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("lastName"), EntityOperator.LIKE, EntityFunction.UPPER("%" + lastName.toUpperCase() + "%")));
+            addSearchTokenCondition(delegator, exprs, PartySearchServices.FIRST_NAME, firstName);
+            addSearchTokenCondition(delegator, exprs, PartySearchServices.LAST_NAME, lastName);
+            Collection<GenericValue> pc = EntityQuery.use(delegator).from("Person").where(exprs).orderBy("lastName", "firstName", "partyId").queryList();
 
             if (Debug.infoOn()) Debug.logInfo("PartyFromPerson number found: " + pc.size(), module);
             if (pc != null) {
@@ -1243,6 +1257,7 @@ public class PartyServices {
 
                     // add the expr
                     andExprs.add(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("groupName"), EntityOperator.LIKE, EntityFunction.UPPER("%"+groupName+"%")));
+                    addSearchTokenCondition(delegator, andExprs, PartySearchServices.GROUP_NAME, groupName);
 
                     fieldsToSelect.add("groupName");
                 }
@@ -1268,12 +1283,14 @@ public class PartyServices {
                 if (UtilValidate.isNotEmpty(firstName)) {
                     paramList = paramList + "&firstName=" + firstName;
                     andExprs.add(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("firstName"), EntityOperator.LIKE, EntityFunction.UPPER("%"+firstName+"%")));
+                    addSearchTokenCondition(delegator, andExprs, PartySearchServices.FIRST_NAME, firstName);
                 }
 
                 // filter on lastName
                 if (UtilValidate.isNotEmpty(lastName)) {
                     paramList = paramList + "&lastName=" + lastName;
                     andExprs.add(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("lastName"), EntityOperator.LIKE, EntityFunction.UPPER("%"+lastName+"%")));
+                    addSearchTokenCondition(delegator, andExprs, PartySearchServices.LAST_NAME, lastName);
                 }
 
                 // ----
@@ -1383,6 +1400,7 @@ public class PartyServices {
                     if (UtilValidate.isNotEmpty(postalCode)) {
                         paramList = paramList + "&postalCode=" + postalCode;
                         andExprs.add(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("postalCode"), EntityOperator.LIKE, EntityFunction.UPPER("%" + postalCode + "%")));
+                        addSearchTokenCondition(delegator, andExprs, PartySearchServices.POSTAL_CODE, postalCode);
                     }
 
                     fieldsToSelect.add("postalCode");
@@ -1407,6 +1425,7 @@ public class PartyServices {
                     if (UtilValidate.isNotEmpty(infoString)) {
                         paramList = paramList + "&infoString=" + infoString;
                         andExprs.add(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("infoString"), EntityOperator.LIKE, EntityFunction.UPPER("%"+infoString+"%")));
+                        addSearchTokenCondition(delegator, andExprs, PartySearchServices.INFO_STRING, infoString);
                         fieldsToSelect.add("infoString");
                     }
 
@@ -1445,6 +1464,7 @@ public class PartyServices {
                     if (UtilValidate.isNotEmpty(contactNumber)) {
                         paramList = paramList + "&contactNumber=" + contactNumber;
                         andExprs.add(EntityCondition.makeCondition(EntityFunction.UPPER_FIELD("contactNumber"), EntityOperator.EQUALS, EntityFunction.UPPER(contactNumber)));
+                        addSearchTokenCondition(delegator, andExprs, PartySearchServices.CONTACT_NUMBER, contactNumber);
                     }
 
                     fieldsToSelect.add("contactNumber");
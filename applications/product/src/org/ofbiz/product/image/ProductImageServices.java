@@ -1,19 +1,22 @@
 package org.ofbiz.product.image;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 
 import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.GeneralException;
 import org.ofbiz.base.util.UtilGenerics;
 import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.common.image.ImageBatchScaler;
 import org.ofbiz.content.image.ContentImageServices;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.util.EntityUtilProperties;
 import org.ofbiz.service.DispatchContext;
-import org.ofbiz.service.GenericServiceException;
 import org.ofbiz.service.ModelService;
 import org.ofbiz.service.ServiceUtil;
 
@@ -40,18 +43,32 @@ public abstract class ProductImageServices {
      * breaking product screens.
      */
     public static Map<String, Object> productImageFileScaleInAllSize(DispatchContext dctx, Map<String, ?> context) {
+        Map<String, Object> contentCtx;
+        try {
+            contentCtx = makeProductImageFileScaleContext(dctx, context);
+        } catch (GeneralException e) {
+            return ServiceUtil.returnError(e.getMessage());
+        }
+
+        // TODO/FIXME: currently provides no deletion of the old images...
+
+        Map<String, Object> result = ContentImageServices.contentImageFileScaleInAllSizeCore(dctx, contentCtx);
+        result.put("productSizeTypeList", ScaleImage.sizeTypeList);
+        return result;
+    }
+
+    /**
+     * SCIPIO: Builds the contentImageFileScaleInAllSizeCore context for a productImageFileScaleInAllSize call,
+     * filling in product paths and filename formats from catalog.properties.
+     */
+    public static Map<String, Object> makeProductImageFileScaleContext(DispatchContext dctx, Map<String, ?> context) throws GeneralException {
         Delegator delegator = dctx.getDelegator();
         String viewType = (String) context.get("viewType");
         Integer viewNumber = (Integer) context.get("viewNumber");
         Locale locale = (Locale) context.get("locale");
         if (locale == null) locale = Locale.getDefault();
         
-        Map<String, Object> contentCtx;
-        try {
-            contentCtx = dctx.makeValidContext("contentImageFileScaleInAllSizeCore", ModelService.IN_PARAM, context);
-        } catch (GenericServiceException e) {
-            return ServiceUtil.returnError(e.getMessage());
-        }
+        Map<String, Object> contentCtx = dctx.makeValidContext("contentImageFileScaleInAllSizeCore", ModelService.IN_PARAM, context);
         
         if (isStrArgEmpty(contentCtx, "imageServerPath")) {
             String imageServerPath = EntityUtilProperties.getPropertyValue("catalog", "image.server.path", delegator);
@@ -83,7 +100,7 @@ public abstract class ProductImageServices {
             }    
             imagePathArgs.putAll(UtilMisc.toMap("location", "products", "id", id, "viewtype", viewType, "sizetype", "original"));
         } else {
-            return ServiceUtil.returnError(UtilProperties.getMessage(resource, "ProductImageViewType", UtilMisc.toMap("viewType", type), locale));
+            throw new GeneralException(UtilProperties.getMessage(resource, "ProductImageViewType", UtilMisc.toMap("viewType", type), locale));
         }
         
         Map<String, ?> imagePathArgsRcvd = UtilGenerics.checkMap(contentCtx.get("imagePathArgs"));
@@ -96,14 +113,72 @@ public abstract class ProductImageServices {
                 contentCtx.put("imagePropXmlPath", ProductImageWorker.getProductImagePropertiesPath());
             } catch (Exception e) {
                 Debug.logError("Product image configuration error: " + e.getMessage(), module);
-                return ServiceUtil.returnError("Product image configuration error: " + e.getMessage());
+                throw new GeneralException("Product image configuration error: " + e.getMessage(), e);
             }
         }
-        
-        // TODO/FIXME: currently provides no deletion of the old images...
-        
-        Map<String, Object> result = ContentImageServices.contentImageFileScaleInAllSizeCore(dctx, contentCtx);
-        result.put("productSizeTypeList", ScaleImage.sizeTypeList);
+        return contentCtx;
+    }
+
+    /**
+     * SCIPIO: Batch version of productImageFileScaleInAllSize for bulk imports; see its interface for parameters.
+     * Each entry of <code>imageList</code> takes the productImageFileScaleInAllSize parameters; all images are
+     * run through a decode/scale/write {@link ImageBatchScaler} pipeline, and a failed image does not fail the others.
+     */
+    public static Map<String, Object> productImageFileScaleInAllSizeBatch(DispatchContext dctx, Map<String, ?> context) {
+        Delegator delegator = dctx.getDelegator();
+        List<Map<String, Object>> imageList = UtilGenerics.checkList(context.get("imageList"));
+        Map<String, Object> scalingOptions = UtilGenerics.checkMap(context.get("scalingOptions"));
+
+        long startTime = System.nanoTime();
+        List<Map<String, Object>> imageResultList = new ArrayList<>(imageList.size());
+        List<ImageBatchScaler.Job> jobs = new ArrayList<>(imageList.size());
+        for (int i = 0; i < imageList.size(); i++) {
+            Map<String, Object> imageCtx = new HashMap<>(imageList.get(i));
+            if (scalingOptions != null && !imageCtx.containsKey("scalingOptions")) {
+                imageCtx.put("scalingOptions", scalingOptions);
+            }
+            imageCtx.put("locale", context.get("locale"));
+            Map<String, Object> imageResult = new HashMap<>();
+            imageResult.put("productId", imageCtx.get("productId"));
+            imageResult.put("viewType", imageCtx.get("viewType"));
+            imageResult.put("viewNumber", imageCtx.get("viewNumber"));
+            imageResultList.add(imageResult);
+            try {
+                Map<String, Object> contentCtx = makeProductImageFileScaleContext(dctx, imageCtx);
+                jobs.add(ContentImageServices.makeImageFileScaleBatchJob(delegator, contentCtx, i));
+            } catch (Exception e) {
+                Debug.logError("productImageFileScaleInAllSizeBatch: could not prepare image for product '" + imageCtx.get("productId") + "': " + e.getMessage(), module);
+                imageResult.put("errorMessage", e.getMessage());
+            }
+        }
+
+        try {
+            ImageBatchScaler.fromProperties().run(jobs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ServiceUtil.returnError("Interrupted while scaling product images");
+        }
+
+        int successCount = 0;
+        for (ImageBatchScaler.Job job : jobs) {
+            Map<String, Object> imageResult = imageResultList.get((Integer) job.getKey());
+            imageResult.put("imageOrigPath", job.getSource().getPath());
+            imageResult.putAll(job.getTimings());
+            imageResult.put("imageUrlMap", job.getWrittenUrlMap());
+            if (job.isSuccess()) {
+                successCount++;
+            } else {
+                imageResult.put("errorMessage", job.getErrorMessage());
+            }
+        }
+        int failCount = imageList.size() - successCount;
+        Debug.logInfo("productImageFileScaleInAllSizeBatch: in " + ((System.nanoTime() - startTime) / 1000000) + "ms scaled "
+                + successCount + " product images (" + failCount + " failed)", module);
+
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("imageResultList", imageResultList);
+        result.put("successCount", successCount);
+        result.put("failCount", failCount);
         return result;
     }
 
@@ -0,0 +1,397 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.product.image;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.base.util.string.FlexibleStringExpander;
+import org.ofbiz.common.image.ImageTransform;
+import org.ofbiz.common.image.ImageVariantConfig;
+import org.ofbiz.common.image.scaler.ImageScalers;
+import org.ofbiz.service.ServiceUtil;
+
+/**
+ * SCIPIO: On-demand product image variant generator backed by a size-bounded disk cache.
+ * <p>
+ * Instead of rendering every size type at upload time (see {@link ScaleImage#scaleImageInAllSize}),
+ * a variant is scaled the first time it is requested and kept in a cache directory; the least recently
+ * used files are deleted once the configured total size is exceeded. Concurrent requests for the same
+ * variant share a single scaling task, and scaling runs on a small bounded worker pool so that it
+ * cannot starve request threads; if the pool queue is full, {@link #getVariantFile} fails fast with
+ * {@link RejectedExecutionException} and the caller should fall back to the original.
+ * <p>
+ * Configured in catalog.properties under <code>image.variant.lazy.*</code>.
+ *
+ * @see org.ofbiz.product.imagemanagement.ImageUrlServlet
+ */
+public class ProductImageVariantCache {
+
+    public static final String module = ProductImageVariantCache.class.getName();
+    public static final String CONFIG_RESOURCE = "catalog";
+    public static final String CONFIG_PREFIX = "image.variant.lazy.";
+
+    private static final Object instanceLock = new Object();
+    private static volatile ProductImageVariantCache instance = null;
+
+    protected final File cacheDir;
+    protected final long maxCacheBytes;
+    protected final long waitTimeoutMs;
+    protected final String scalerName;
+    protected final ThreadPoolExecutor executor;
+
+    /**
+     * In-flight scaling tasks by cache key, used to dedupe concurrent requests for the same variant.
+     */
+    protected final ConcurrentHashMap<String, FutureTask<File>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Access-ordered index of cached files (cache key to file size); guarded by itself.
+     */
+    protected final LinkedHashMap<String, Long> lruIndex = new LinkedHashMap<>(256, 0.75f, true);
+    protected long cacheBytes = 0; // guarded by lruIndex
+
+    public ProductImageVariantCache(File cacheDir, long maxCacheBytes, int workers, int queueSize, long waitTimeoutMs, String scalerName) {
+        this.cacheDir = cacheDir;
+        this.maxCacheBytes = maxCacheBytes;
+        this.waitTimeoutMs = waitTimeoutMs;
+        this.scalerName = UtilValidate.isNotEmpty(scalerName) ? scalerName : null;
+        this.executor = new ThreadPoolExecutor(workers, workers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new WorkerThreadFactory(), new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+        loadIndex();
+    }
+
+    /**
+     * Returns the shared instance configured from catalog.properties, or null if lazy variants are disabled.
+     */
+    public static ProductImageVariantCache getInstance() {
+        ProductImageVariantCache cache = instance;
+        if (cache == null) {
+            synchronized(instanceLock) {
+                cache = instance;
+                if (cache == null && isEnabled()) {
+                    cache = fromProperties();
+                    instance = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    public static boolean isEnabled() {
+        return UtilProperties.getPropertyAsBoolean(CONFIG_RESOURCE, CONFIG_PREFIX + "enable", false);
+    }
+
+    protected static ProductImageVariantCache fromProperties() {
+        String cacheDirStr = FlexibleStringExpander.expandString(UtilProperties.getPropertyValue(CONFIG_RESOURCE, CONFIG_PREFIX + "cache.dir",
+                "${sys:getProperty('ofbiz.home')}/runtime/tempfiles/imagevariants"), UtilMisc.<String, Object>toMap());
+        long maxCacheBytes = UtilProperties.getPropertyAsLong(CONFIG_RESOURCE, CONFIG_PREFIX + "cache.maxSizeMb", 512) * 1024L * 1024L;
+        int workers = UtilProperties.getPropertyAsInteger(CONFIG_RESOURCE, CONFIG_PREFIX + "workers", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+        int queueSize = UtilProperties.getPropertyAsInteger(CONFIG_RESOURCE, CONFIG_PREFIX + "queueSize", 64);
+        long waitTimeoutMs = UtilProperties.getPropertyAsLong(CONFIG_RESOURCE, CONFIG_PREFIX + "waitTimeoutMs", 30000);
+        String scalerName = UtilProperties.getPropertyValue(CONFIG_RESOURCE, CONFIG_PREFIX + "scalerName");
+        Debug.logInfo("Lazy product image variants enabled: cache dir: " + cacheDirStr + "; max size: " + maxCacheBytes
+                + " bytes; workers: " + workers + "; queue size: " + queueSize, module);
+        return new ProductImageVariantCache(new File(cacheDirStr), maxCacheBytes, workers, queueSize, waitTimeoutMs, scalerName);
+    }
+
+    /**
+     * Returns the cached file for the given size type of the original image, scaling it first if needed.
+     * Blocks up to the configured wait timeout while another thread or a worker generates the same variant.
+     *
+     * @param original      The original image file
+     * @param sizeType      The variant name, as defined in the ImageProperties.xml of the variant config
+     * @param variantConfig The variant config holding the variant dimensions
+     * @return the variant file, or null if the variant config does not define sizeType
+     * @throws RejectedExecutionException if the worker pool queue is full
+     */
+    public File getVariantFile(File original, String sizeType, ImageVariantConfig variantConfig) throws IOException, RejectedExecutionException {
+        ImageVariantConfig.VariantInfo variant = variantConfig.getVariant(sizeType);
+        if (variant == null) {
+            return null;
+        }
+        final String key = makeKey(original, variant);
+        final File target = new File(cacheDir, key);
+        if (touch(key) && target.isFile()) {
+            return target;
+        }
+
+        FutureTask<File> task = inFlight.get(key);
+        boolean owner = false;
+        if (task == null) {
+            FutureTask<File> newTask = new FutureTask<File>(new ScaleTask(original, target, sizeType, variantConfig));
+            task = inFlight.putIfAbsent(key, newTask);
+            if (task == null) {
+                task = newTask;
+                owner = true;
+            }
+        }
+        if (owner) {
+            try {
+                executor.execute(task);
+            } catch (RejectedExecutionException e) {
+                inFlight.remove(key, task);
+                task.cancel(false);
+                throw e;
+            }
+        }
+        try {
+            File result = task.get(waitTimeoutMs, TimeUnit.MILLISECONDS);
+            if (owner) {
+                register(key, result.length());
+            }
+            return result;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Could not generate image variant '" + sizeType + "' for " + original + ": " + cause, cause);
+        } catch (TimeoutException e) {
+            throw new IOException("Timed out waiting for image variant '" + sizeType + "' for " + original);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for image variant '" + sizeType + "' for " + original);
+        } finally {
+            if (owner) {
+                inFlight.remove(key, task);
+            }
+        }
+    }
+
+    /**
+     * Deletes all cached variants.
+     */
+    public void clear() {
+        synchronized(lruIndex) {
+            for (String key : lruIndex.keySet()) {
+                deleteCacheFile(key);
+            }
+            lruIndex.clear();
+            cacheBytes = 0;
+        }
+    }
+
+    public long getCacheBytes() {
+        synchronized(lruIndex) {
+            return cacheBytes;
+        }
+    }
+
+    public int getCacheFileCount() {
+        synchronized(lruIndex) {
+            return lruIndex.size();
+        }
+    }
+
+    public File getCacheDir() {
+        return cacheDir;
+    }
+
+    /**
+     * Returns the cache file name for the variant. The key covers the original's path and modification time,
+     * so replacing the original produces new variants; stale files are left for LRU eviction.
+     */
+    protected String makeKey(File original, ImageVariantConfig.VariantInfo variant) {
+        String raw = original.getAbsolutePath() + "|" + original.lastModified() + "|" + variant.getName() + "|" + variant.getDimString();
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-1");
+            byte[] digest = md.digest(raw.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder(variant.getName()).append('-');
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.append('.').append(getExtension(original)).toString();
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    protected static String getExtension(File file) {
+        String name = file.getName();
+        int index = name.lastIndexOf('.');
+        return (index >= 0) ? name.substring(index + 1).toLowerCase(Locale.ENGLISH) : "png";
+    }
+
+    /**
+     * Marks the key as recently used; returns false if the key is not in the index.
+     */
+    protected boolean touch(String key) {
+        synchronized(lruIndex) {
+            return lruIndex.get(key) != null;
+        }
+    }
+
+    protected void register(String key, long size) {
+        synchronized(lruIndex) {
+            Long prev = lruIndex.put(key, size);
+            if (prev != null) {
+                cacheBytes -= prev;
+            }
+            cacheBytes += size;
+            evict();
+        }
+    }
+
+    /**
+     * Removes least recently used files until the cache fits; caller must hold the lruIndex lock.
+     */
+    protected void evict() {
+        Iterator<Map.Entry<String, Long>> it = lruIndex.entrySet().iterator();
+        while (cacheBytes > maxCacheBytes && lruIndex.size() > 1 && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            deleteCacheFile(entry.getKey());
+            cacheBytes -= entry.getValue();
+            it.remove();
+        }
+    }
+
+    protected void deleteCacheFile(String key) {
+        File file = new File(cacheDir, key);
+        if (file.exists() && !file.delete()) {
+            Debug.logWarning("Could not delete cached image variant: " + file, module);
+        }
+    }
+
+    /**
+     * Rebuilds the LRU index from the cache directory, oldest files first, so existing variants survive restarts.
+     */
+    protected void loadIndex() {
+        if (!cacheDir.exists() && !cacheDir.mkdirs()) {
+            Debug.logError("Could not create image variant cache directory: " + cacheDir, module);
+            return;
+        }
+        File[] files = cacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> fileList = new ArrayList<>(Arrays.asList(files));
+        Collections.sort(fileList, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                return Long.compare(o1.lastModified(), o2.lastModified());
+            }
+        });
+        synchronized(lruIndex) {
+            for (File file : fileList) {
+                String name = file.getName();
+                if (!file.isFile() || name.startsWith(".")) {
+                    continue;
+                }
+                lruIndex.put(name, file.length());
+                cacheBytes += file.length();
+            }
+            evict();
+        }
+    }
+
+    protected class ScaleTask implements Callable<File> {
+        protected final File original;
+        protected final File target;
+        protected final String sizeType;
+        protected final ImageVariantConfig variantConfig;
+
+        protected ScaleTask(File original, File target, String sizeType, ImageVariantConfig variantConfig) {
+            this.original = original;
+            this.target = target;
+            this.sizeType = sizeType;
+            this.variantConfig = variantConfig;
+        }
+
+        @Override
+        public File call() throws Exception {
+            // another node or a previous run may have left the file in place
+            if (target.isFile()) {
+                return target;
+            }
+            BufferedImage bufImg = ImageIO.read(original);
+            if (bufImg == null) {
+                throw new IOException("Unsupported or unreadable image: " + original);
+            }
+            Map<String, Object> scalingOptions = (scalerName != null) ? UtilMisc.<String, Object>toMap(ImageScalers.SCALER_NAME_OPT, scalerName) : null;
+            Map<String, Object> scaleResult = ImageTransform.scaleImage(bufImg, bufImg.getHeight(), bufImg.getWidth(),
+                    variantConfig.getVariantStringMap(), sizeType, Locale.getDefault(), scalingOptions);
+            if (!"success".equals(scaleResult.get("responseMessage"))) {
+                throw new IOException("Could not scale image " + original + " to '" + sizeType + "': " + ServiceUtil.getErrorMessage(scaleResult));
+            }
+            BufferedImage bufNewImg = (BufferedImage) scaleResult.get("bufferedImage");
+
+            // write to a temp file first so readers never see a partial image
+            File tmpFile = new File(cacheDir, "." + target.getName() + "." + Thread.currentThread().getId() + ".tmp");
+            try {
+                if (!ImageIO.write(bufNewImg, getExtension(target), tmpFile)) {
+                    throw new IOException("No image writer found for format: " + getExtension(target));
+                }
+                Files.move(tmpFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                if (tmpFile.exists()) {
+                    tmpFile.delete();
+                }
+            }
+            if (Debug.verboseOn()) {
+                Debug.logVerbose("Generated image variant '" + sizeType + "' for " + original + ": " + target, module);
+            }
+            return target;
+        }
+    }
+
+    protected static class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "Scipio-ImageVariant-" + count.getAndIncrement());
+            t.setDaemon(true);
+            t.setPriority(Thread.NORM_PRIORITY - 1);
+            return t;
+        }
+    }
+}
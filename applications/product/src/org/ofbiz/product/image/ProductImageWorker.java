@@ -59,4 +59,12 @@ public abstract class ProductImageWorker {
             return ContentImageWorker.getContentImagePropertiesPath();
         }
     }
+
+    /**
+     * SCIPIO: Returns the cached variant config parsed from the product ImageProperties.xml,
+     * to avoid re-parsing the file on every scale call.
+     */
+    public static ImageVariantConfig getProductImageVariantConfig() throws IOException {
+        return ImageVariantConfig.fromImagePropertiesXml(getProductImagePropertiesPath());
+    }
 }
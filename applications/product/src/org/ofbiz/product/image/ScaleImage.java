@@ -32,7 +32,6 @@ import javolution.util.FastMap;
 
 import org.jdom.JDOMException;
 import org.ofbiz.base.util.Debug;
-import org.ofbiz.base.util.UtilGenerics;
 import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.base.util.UtilValidate;
@@ -94,19 +93,17 @@ public class ScaleImage {
         BufferedImage bufImg, bufNewImg;
         double imgHeight, imgWidth;
         Map<String, String> imgUrlMap = FastMap.newInstance();
-        Map<String, Object> resultXMLMap = FastMap.newInstance();
         Map<String, Object> resultBufImgMap = FastMap.newInstance();
         Map<String, Object> resultScaleImgMap = FastMap.newInstance();
         Map<String, Object> result = FastMap.newInstance();
 
         /* ImageProperties.xml */
-        String imgPropertyFullPath = ProductImageWorker.getProductImagePropertiesFullPath(); // SCIPIO
-        resultXMLMap.putAll(ImageTransform.getXMLValue(imgPropertyFullPath, locale));
-        if (resultXMLMap.containsKey("responseMessage") && resultXMLMap.get("responseMessage").equals("success")) {
-            imgPropertyMap.putAll(UtilGenerics.<Map<String, Map<String, String>>>cast(resultXMLMap.get("xml")));
-        } else {
+        // SCIPIO: use the cached variant config instead of re-parsing ImageProperties.xml on every call
+        try {
+            imgPropertyMap.putAll(ProductImageWorker.getProductImageVariantConfig().getVariantStringMap());
+        } catch (Exception e) {
             String errMsg = UtilProperties.getMessage(resource, "ScaleImage.unable_to_parse", locale) + " : ImageProperties.xml";
-            Debug.logError(errMsg, module);
+            Debug.logError(e, errMsg, module);
             result.put("errorMessage", errMsg);
             return result;
         }
@@ -282,19 +279,17 @@ public class ScaleImage {
         BufferedImage bufImg, bufNewImg;
         double imgHeight, imgWidth;
         Map<String, String> imgUrlMap = FastMap.newInstance();
-        Map<String, Object> resultXMLMap = FastMap.newInstance();
         Map<String, Object> resultBufImgMap = FastMap.newInstance();
         Map<String, Object> resultScaleImgMap = FastMap.newInstance();
         Map<String, Object> result = FastMap.newInstance();
 
         /* ImageProperties.xml */
-        String imgPropertyFullPath = ProductImageWorker.getProductImagePropertiesFullPath(); // SCIPIO
-        resultXMLMap.putAll(ImageTransform.getXMLValue(imgPropertyFullPath, locale));
-        if (resultXMLMap.containsKey("responseMessage") && resultXMLMap.get("responseMessage").equals("success")) {
-            imgPropertyMap.putAll(UtilGenerics.<Map<String, Map<String, String>>>cast(resultXMLMap.get("xml")));
-        } else {
+        // SCIPIO: use the cached variant config instead of re-parsing ImageProperties.xml on every call
+        try {
+            imgPropertyMap.putAll(ProductImageWorker.getProductImageVariantConfig().getVariantStringMap());
+        } catch (Exception e) {
             String errMsg = UtilProperties.getMessage(resource, "ScaleImage.unable_to_parse", locale) + " : ImageProperties.xml";
-            Debug.logError(errMsg, module);
+            Debug.logError(e, errMsg, module);
             result.put("errorMessage", errMsg);
             return result;
         }
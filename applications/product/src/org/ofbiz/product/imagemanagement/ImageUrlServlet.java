@@ -18,8 +18,11 @@
  *******************************************************************************/
 package org.ofbiz.product.imagemanagement;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 
 import javax.servlet.RequestDispatcher;
 import javax.servlet.ServletConfig;
@@ -33,10 +36,16 @@ import javolution.util.FastList;
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.StringUtil;
 import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.base.util.string.FlexibleStringExpander;
+import org.ofbiz.common.image.ImageVariantConfig;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.entity.util.EntityUtilProperties;
+import org.ofbiz.product.image.ProductImageVariantCache;
+import org.ofbiz.product.image.ProductImageWorker;
 
 /**
  * ControlServlet.java - Master servlet for the web application.
@@ -108,6 +117,11 @@ public class ImageUrlServlet extends HttpServlet {
                 Debug.logError(e, module);
             }
             String imageUrl = dataResource.getString("objectInfo");
+            // SCIPIO: if the size tag names a configured variant, serve it from the lazy variant cache
+            if (sizeTagElement != null && contentId.equals(content.getString("contentId"))
+                    && serveLazyVariant(request, response, delegator, imageUrl, sizeTagElement)) {
+                return;
+            }
             RequestDispatcher rd = request.getRequestDispatcher("/control/viewImage?drObjectInfo=" + imageUrl);
             rd.forward(request, response);
         } else {
@@ -115,6 +129,74 @@ public class ImageUrlServlet extends HttpServlet {
         }
     }
 
+    /**
+     * SCIPIO: Serves the given size type of the original image from {@link ProductImageVariantCache},
+     * generating it on first request. Returns false if lazy variants are disabled or the variant
+     * cannot be served, in which case the caller falls back to the original image.
+     */
+    protected boolean serveLazyVariant(HttpServletRequest request, HttpServletResponse response, Delegator delegator,
+            String imageUrl, String sizeType) throws IOException {
+        ProductImageVariantCache variantCache = ProductImageVariantCache.getInstance();
+        if (variantCache == null || UtilValidate.isEmpty(imageUrl)) {
+            return false;
+        }
+        File variantFile;
+        try {
+            ImageVariantConfig variantConfig = ProductImageWorker.getProductImageVariantConfig();
+            if (!variantConfig.hasVariant(sizeType)) {
+                return false;
+            }
+            File original = getOriginalImageFile(delegator, imageUrl);
+            if (original == null) {
+                return false;
+            }
+            variantFile = variantCache.getVariantFile(original, sizeType, variantConfig);
+        } catch (RejectedExecutionException e) {
+            Debug.logWarning("Image variant queue full; serving original image for: " + imageUrl, module);
+            return false;
+        } catch (IOException e) {
+            Debug.logError(e, "Could not generate image variant '" + sizeType + "' for: " + imageUrl, module);
+            return false;
+        }
+        if (variantFile == null) {
+            return false;
+        }
+        String contentType = getServletContext().getMimeType(variantFile.getName());
+        if (contentType != null) {
+            response.setContentType(contentType);
+        }
+        response.setContentLength((int) variantFile.length());
+        Files.copy(variantFile.toPath(), response.getOutputStream());
+        return true;
+    }
+
+    /**
+     * SCIPIO: Maps a DataResource objectInfo image URL back to its file on the image server.
+     */
+    protected File getOriginalImageFile(Delegator delegator, String imageUrl) {
+        String[][] urlPathProps = new String[][] {
+            { "image.url.prefix", "image.server.path" },
+            { "image.management.url", "image.management.path" }
+        };
+        for (String[] urlPathProp : urlPathProps) {
+            String urlPrefix = expandCatalogProperty(delegator, urlPathProp[0]);
+            if (UtilValidate.isNotEmpty(urlPrefix) && imageUrl.startsWith(urlPrefix)) {
+                File file = new File(expandCatalogProperty(delegator, urlPathProp[1]), imageUrl.substring(urlPrefix.length()));
+                if (file.isFile()) {
+                    return file;
+                }
+            }
+        }
+        File file = new File(imageUrl);
+        return file.isAbsolute() && file.isFile() ? file : null;
+    }
+
+    private static String expandCatalogProperty(Delegator delegator, String name) {
+        String value = FlexibleStringExpander.expandString(EntityUtilProperties.getPropertyValue("catalog", name, delegator),
+                UtilMisc.<String, Object>toMap("tenantId", delegator.getDelegatorTenantId()));
+        return value.endsWith("/") ? value.substring(0, value.length() - 1) : value;
+    }
+
     /**
      * @see javax.servlet.http.HttpServlet#destroy()
      */
@@ -0,0 +1,361 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.product.inventory;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.model.DynamicViewEntity;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityListIterator;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.service.DispatchContext;
+import org.ofbiz.service.ServiceUtil;
+
+/**
+ * SCIPIO: Maintains the ProductInventoryTotal running totals of InventoryItem ATP and QOH
+ * per product, facility, status and inventory item type, so availability checks do not have
+ * to load and sum every InventoryItem of a product.
+ * <p>
+ * The totals are updated by entity ECAs on InventoryItem (which cover the updates made from
+ * InventoryItemDetail records as well as status and facility changes), in the same transaction
+ * as the item change. Bulk changes that bypass ECAs (e.g. storeByCondition) are corrected by
+ * the scheduled {@link #rebuildProductInventoryTotals} service.
+ */
+public class InventoryTotalServices {
+
+    public static final String module = InventoryTotalServices.class.getName();
+
+    /** Placeholder for null key fields, which cannot be part of the primary key. */
+    public static final String NA = "_NA_";
+
+    private static final String[] keyFieldNames = { "productId", "facilityId", "statusId", "inventoryItemTypeId" };
+
+    /** Item fields that do not narrow the lookup down to product, facility and status; their presence disables the totals. */
+    private static final String[] itemLookupFieldNames = { "inventoryItemId", "partyId", "locationSeqId", "containerId", "lotId" };
+
+    public static boolean isEnabled() {
+        return UtilProperties.getPropertyAsBoolean("inventory", "inventory.totals.enable", true);
+    }
+
+    /**
+     * Returns the ATP and QOH totals for the given getProductInventoryAvailable parameters from the
+     * ProductInventoryTotal entity, or null if the totals are disabled or the parameters constrain
+     * the lookup further than product, facility and status (in which case the caller must sum the items).
+     */
+    public static Map<String, Object> getAvailableFromTotals(Delegator delegator, Map<String, ? extends Object> parameters) throws GenericEntityException {
+        if (!isEnabled()) {
+            return null;
+        }
+        String productId = (String) parameters.get("productId");
+        if (UtilValidate.isEmpty(productId)) {
+            return null;
+        }
+        for (String fieldName : itemLookupFieldNames) {
+            if (UtilValidate.isNotEmpty(parameters.get(fieldName))) {
+                return null;
+            }
+        }
+        String facilityId = (String) parameters.get("facilityId");
+        String statusId = (String) parameters.get("statusId");
+
+        EntityQuery query = EntityQuery.use(delegator).from("ProductInventoryTotal")
+                .cache(Boolean.TRUE.equals(parameters.get("useCache")));
+        if (UtilValidate.isNotEmpty(facilityId)) {
+            query.where("productId", productId, "facilityId", facilityId);
+        } else {
+            query.where("productId", productId);
+        }
+        BigDecimal availableToPromiseTotal = BigDecimal.ZERO;
+        BigDecimal quantityOnHandTotal = BigDecimal.ZERO;
+        for (GenericValue total : query.queryList()) {
+            // same status rules as getProductInventoryAvailable; serialized totals already reflect their status
+            String totalStatusId = total.getString("statusId");
+            boolean include;
+            if (UtilValidate.isNotEmpty(statusId)) {
+                include = statusId.equals(totalStatusId);
+            } else {
+                include = NA.equals(totalStatusId) || "INV_AVAILABLE".equals(totalStatusId) || "INV_NS_RETURNED".equals(totalStatusId)
+                        || "SERIALIZED_INV_ITEM".equals(total.getString("inventoryItemTypeId"));
+            }
+            if (include) {
+                availableToPromiseTotal = availableToPromiseTotal.add(total.getBigDecimal("availableToPromiseTotal"));
+                quantityOnHandTotal = quantityOnHandTotal.add(total.getBigDecimal("quantityOnHandTotal"));
+            }
+        }
+        return UtilMisc.<String, Object>toMap("availableToPromiseTotal", availableToPromiseTotal, "quantityOnHandTotal", quantityOnHandTotal);
+    }
+
+    /**
+     * Entity ECA service for InventoryItem create and store, run before the change is written:
+     * moves the item's previous contribution out of the totals and adds its new one.
+     */
+    public static Map<String, Object> updateProductInventoryTotal(DispatchContext dctx, Map<String, ? extends Object> context) {
+        return applyItemChange(dctx.getDelegator(), (GenericValue) context.get("inventoryItem"), false);
+    }
+
+    /**
+     * Entity ECA service for InventoryItem remove, run before the change is written:
+     * removes the item's contribution from the totals.
+     */
+    public static Map<String, Object> removeProductInventoryTotal(DispatchContext dctx, Map<String, ? extends Object> context) {
+        return applyItemChange(dctx.getDelegator(), (GenericValue) context.get("inventoryItem"), true);
+    }
+
+    private static Map<String, Object> applyItemChange(Delegator delegator, GenericValue inventoryItem, boolean remove) {
+        if (!isEnabled() || inventoryItem == null) {
+            return ServiceUtil.returnSuccess();
+        }
+        try {
+            GenericValue oldItem = EntityQuery.use(delegator).from("InventoryItem")
+                    .where("inventoryItemId", inventoryItem.get("inventoryItemId")).queryOne();
+            Map<String, Object> newItem = null;
+            if (!remove) {
+                // a store only writes the fields present in the value, so overlay them on the current row
+                newItem = new HashMap<String, Object>();
+                if (oldItem != null) {
+                    newItem.putAll(oldItem);
+                }
+                for (String fieldName : new String[] { "productId", "facilityId", "statusId", "inventoryItemTypeId", "availableToPromiseTotal", "quantityOnHandTotal" }) {
+                    if (inventoryItem.containsKey(fieldName)) {
+                        newItem.put(fieldName, inventoryItem.get(fieldName));
+                    }
+                }
+            }
+            Map<String, String> oldKey = makeKey(oldItem);
+            Map<String, String> newKey = makeKey(newItem);
+            if (oldKey != null && oldKey.equals(newKey)) {
+                addToTotal(delegator, newKey, getQuantity(newItem, "availableToPromiseTotal").subtract(getQuantity(oldItem, "availableToPromiseTotal")),
+                        getQuantity(newItem, "quantityOnHandTotal").subtract(getQuantity(oldItem, "quantityOnHandTotal")));
+            } else {
+                if (oldKey != null) {
+                    addToTotal(delegator, oldKey, getQuantity(oldItem, "availableToPromiseTotal").negate(), getQuantity(oldItem, "quantityOnHandTotal").negate());
+                }
+                if (newKey != null) {
+                    addToTotal(delegator, newKey, getQuantity(newItem, "availableToPromiseTotal"), getQuantity(newItem, "quantityOnHandTotal"));
+                }
+            }
+        } catch (GenericEntityException e) {
+            // failure rather than error so the inventory change itself is not rolled back; the rebuild job corrects the totals
+            Debug.logError(e, "Error updating ProductInventoryTotal for InventoryItem [" + inventoryItem.get("inventoryItemId") + "]", module);
+            return ServiceUtil.returnFailure(e.getMessage());
+        }
+        return ServiceUtil.returnSuccess();
+    }
+
+    private static Map<String, String> makeKey(Map<String, ? extends Object> item) {
+        if (item == null || UtilValidate.isEmpty(item.get("productId"))) {
+            return null;
+        }
+        Map<String, String> key = new HashMap<String, String>();
+        for (String fieldName : keyFieldNames) {
+            String value = (String) item.get(fieldName);
+            key.put(fieldName, UtilValidate.isNotEmpty(value) ? value : NA);
+        }
+        return key;
+    }
+
+    private static BigDecimal getQuantity(Map<String, ? extends Object> item, String fieldName) {
+        BigDecimal quantity = (item != null) ? (BigDecimal) item.get(fieldName) : null;
+        return (quantity != null) ? quantity : BigDecimal.ZERO;
+    }
+
+    private static void addToTotal(Delegator delegator, Map<String, String> key, BigDecimal availableToPromiseDiff, BigDecimal quantityOnHandDiff) throws GenericEntityException {
+        if (availableToPromiseDiff.signum() == 0 && quantityOnHandDiff.signum() == 0) {
+            return;
+        }
+        if (EntityQuery.use(delegator).from("ProductInventoryTotal").where(key).queryOne() == null) {
+            // first item of the key: serialize with the other changes of the product, then check again
+            lockProduct(delegator, key.get("productId"));
+            if (EntityQuery.use(delegator).from("ProductInventoryTotal").where(key).queryOne() == null) {
+                GenericValue total = delegator.makeValue("ProductInventoryTotal", key);
+                total.set("availableToPromiseTotal", availableToPromiseDiff);
+                total.set("quantityOnHandTotal", quantityOnHandDiff);
+                total.create();
+                return;
+            }
+        }
+        // touch the row first so it is locked until commit; the read below then sees the latest committed totals
+        int touched = delegator.storeByCondition("ProductInventoryTotal", UtilMisc.toMap("productId", key.get("productId")), EntityCondition.makeCondition(key));
+        if (touched == 0) {
+            throw new GenericEntityException("Could not find ProductInventoryTotal record " + key);
+        }
+        GenericValue total = EntityQuery.use(delegator).from("ProductInventoryTotal").where(key).queryOne();
+        total.set("availableToPromiseTotal", getQuantity(total, "availableToPromiseTotal").add(availableToPromiseDiff));
+        total.set("quantityOnHandTotal", getQuantity(total, "quantityOnHandTotal").add(quantityOnHandDiff));
+        total.store();
+    }
+
+    /**
+     * Locks the Product record until the end of the current transaction, so that the item changes creating
+     * the first ProductInventoryTotal record of a key, and the rebuild, run one after the other instead of
+     * failing on the duplicate key. The lock is taken in the caller's transaction, which may itself have
+     * created the product. The record keeps its values, so the entity cache is not cleared.
+     */
+    @SuppressWarnings("deprecation")
+    private static void lockProduct(Delegator delegator, String productId) throws GenericEntityException {
+        delegator.storeByCondition("Product", UtilMisc.toMap("productId", productId), EntityCondition.makeCondition("productId", productId), false);
+    }
+
+    /**
+     * Rebuilds the ProductInventoryTotal records of one product, or of all products, from the
+     * InventoryItem records, correcting any drift. Each product is reconciled in its own transaction.
+     */
+    public static Map<String, Object> rebuildProductInventoryTotals(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Delegator delegator = dctx.getDelegator();
+        String productId = (String) context.get("productId");
+
+        Set<String> productIds = new TreeSet<String>();
+        try {
+            if (UtilValidate.isNotEmpty(productId)) {
+                productIds.add(productId);
+            } else {
+                // both sides, so totals of products without items any more are removed too
+                boolean beganTransaction = TransactionUtil.begin();
+                try {
+                    collectProductIds(delegator, "InventoryItem", productIds);
+                    collectProductIds(delegator, "ProductInventoryTotal", productIds);
+                } finally {
+                    TransactionUtil.commit(beganTransaction);
+                }
+            }
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Error reading products for ProductInventoryTotal rebuild", module);
+            return ServiceUtil.returnError(e.getMessage());
+        }
+
+        int productsCorrected = 0;
+        int totalsCorrected = 0;
+        List<String> errorProductIds = new ArrayList<String>();
+        for (String curProductId : productIds) {
+            boolean beganTransaction = false;
+            try {
+                beganTransaction = TransactionUtil.begin();
+                int corrected = rebuildProductTotals(delegator, curProductId);
+                TransactionUtil.commit(beganTransaction);
+                if (corrected > 0) {
+                    productsCorrected++;
+                    totalsCorrected += corrected;
+                }
+            } catch (GenericEntityException e) {
+                String errMsg = "Error rebuilding ProductInventoryTotal for product [" + curProductId + "]";
+                Debug.logError(e, errMsg, module);
+                errorProductIds.add(curProductId);
+                try {
+                    TransactionUtil.rollback(beganTransaction, errMsg, e);
+                } catch (GenericEntityException e2) {
+                    Debug.logError(e2, "Could not rollback transaction: " + e2.toString(), module);
+                }
+            }
+        }
+        if (totalsCorrected > 0) {
+            Debug.logWarning("Corrected " + totalsCorrected + " ProductInventoryTotal records for " + productsCorrected + " products", module);
+        }
+        Debug.logInfo("Rebuilt ProductInventoryTotal for " + productIds.size() + " products", module);
+        if (!errorProductIds.isEmpty()) {
+            return ServiceUtil.returnError("Error rebuilding ProductInventoryTotal for products: " + errorProductIds);
+        }
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("productsCorrected", productsCorrected);
+        result.put("totalsCorrected", totalsCorrected);
+        return result;
+    }
+
+    private static void collectProductIds(Delegator delegator, String entityName, Set<String> productIds) throws GenericEntityException {
+        EntityListIterator eli = EntityQuery.use(delegator).select("productId").from(entityName)
+                .where(EntityCondition.makeCondition("productId", EntityOperator.NOT_EQUAL, null)).distinct().queryIterator();
+        try {
+            GenericValue value;
+            while ((value = eli.next()) != null) {
+                productIds.add(value.getString("productId"));
+            }
+        } finally {
+            eli.close();
+        }
+    }
+
+    private static int rebuildProductTotals(Delegator delegator, String productId) throws GenericEntityException {
+        // lock the product and the existing totals first so concurrent item changes apply their deltas after this rebuild
+        lockProduct(delegator, productId);
+        delegator.storeByCondition("ProductInventoryTotal", UtilMisc.toMap("productId", productId), EntityCondition.makeCondition("productId", productId));
+
+        DynamicViewEntity sumView = new DynamicViewEntity();
+        sumView.addMemberEntity("II", "InventoryItem");
+        sumView.addAlias("II", "productId", null, null, null, Boolean.TRUE, null);
+        sumView.addAlias("II", "facilityId", null, null, null, Boolean.TRUE, null);
+        sumView.addAlias("II", "statusId", null, null, null, Boolean.TRUE, null);
+        sumView.addAlias("II", "inventoryItemTypeId", null, null, null, Boolean.TRUE, null);
+        sumView.addAlias("II", "availableToPromiseTotal", null, null, null, null, "sum");
+        sumView.addAlias("II", "quantityOnHandTotal", null, null, null, null, "sum");
+
+        Map<Map<String, String>, BigDecimal[]> expected = new HashMap<Map<String, String>, BigDecimal[]>();
+        for (GenericValue sum : EntityQuery.use(delegator).from(sumView).where("productId", productId).queryList()) {
+            Map<String, String> key = makeKey(sum);
+            BigDecimal[] quantities = expected.get(key);
+            if (quantities == null) {
+                quantities = new BigDecimal[] { BigDecimal.ZERO, BigDecimal.ZERO };
+                expected.put(key, quantities);
+            }
+            quantities[0] = quantities[0].add(getQuantity(sum, "availableToPromiseTotal"));
+            quantities[1] = quantities[1].add(getQuantity(sum, "quantityOnHandTotal"));
+        }
+
+        int corrected = 0;
+        for (GenericValue total : EntityQuery.use(delegator).from("ProductInventoryTotal").where("productId", productId).queryList()) {
+            BigDecimal[] quantities = expected.remove(makeKey(total));
+            if (quantities == null) {
+                total.remove();
+                if (getQuantity(total, "availableToPromiseTotal").signum() != 0 || getQuantity(total, "quantityOnHandTotal").signum() != 0) {
+                    corrected++;
+                }
+            } else if (getQuantity(total, "availableToPromiseTotal").compareTo(quantities[0]) != 0
+                    || getQuantity(total, "quantityOnHandTotal").compareTo(quantities[1]) != 0) {
+                total.set("availableToPromiseTotal", quantities[0]);
+                total.set("quantityOnHandTotal", quantities[1]);
+                total.store();
+                corrected++;
+            }
+        }
+        for (Map.Entry<Map<String, String>, BigDecimal[]> entry : expected.entrySet()) {
+            GenericValue total = delegator.makeValue("ProductInventoryTotal", entry.getKey());
+            total.set("availableToPromiseTotal", entry.getValue()[0]);
+            total.set("quantityOnHandTotal", entry.getValue()[1]);
+            total.create();
+            if (entry.getValue()[0].signum() != 0 || entry.getValue()[1].signum() != 0) {
+                corrected++;
+            }
+        }
+        return corrected;
+    }
+}
@@ -208,6 +208,9 @@ public class KeywordIndex {
 
             delegator.storeAll(toBeStored);
         }
+
+        // SCIPIO: keep the embedded product search index in sync (no-op unless it has been built)
+        ProductSearchIndex.refreshProductKeywords(delegator, productId);
     }
 
     public static void addWeightedDataResourceString(GenericValue drView, int weight, List<String> strings, Delegator delegator, GenericValue product) {
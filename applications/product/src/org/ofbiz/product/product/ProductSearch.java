@@ -52,8 +52,6 @@ import org.ofbiz.entity.model.DynamicViewEntity;
 import org.ofbiz.entity.model.ModelKeyMap;
 import org.ofbiz.entity.model.ModelViewEntity.ComplexAlias;
 import org.ofbiz.entity.model.ModelViewEntity.ComplexAliasField;
-import org.ofbiz.entity.transaction.GenericTransactionException;
-import org.ofbiz.entity.transaction.TransactionUtil;
 import org.ofbiz.entity.util.EntityFindOptions;
 import org.ofbiz.entity.util.EntityListIterator;
 import org.ofbiz.entity.util.EntityQuery;
@@ -223,14 +221,18 @@ public class ProductSearch {
         public ArrayList<String> doSearch() {
             long startMillis = System.currentTimeMillis();
 
-            // do the query
-            EntityListIterator eli = this.doQuery(delegator);
-            ArrayList<String> productIds = this.makeProductIdList(eli);
-            if (eli != null) {
-                try {
-                    eli.close();
-                } catch (GenericEntityException e) {
-                    Debug.logError(e, "Error closing ProductSearch EntityListIterator");
+            // SCIPIO: use the embedded index when enabled and the constraints allow it, otherwise the SQL query
+            ArrayList<String> productIds = this.doIndexSearch();
+            if (productIds == null) {
+                // do the query
+                EntityListIterator eli = this.doQuery(delegator);
+                productIds = this.makeProductIdList(eli);
+                if (eli != null) {
+                    try {
+                        eli.close();
+                    } catch (GenericEntityException e) {
+                        Debug.logError(e, "Error closing ProductSearch EntityListIterator");
+                    }
                 }
             }
 
@@ -243,6 +245,25 @@ public class ProductSearch {
             return productIds;
         }
 
+        /**
+         * SCIPIO: Runs the search against the embedded {@link ProductSearchIndex}, returning null if the index
+         * is disabled or cannot evaluate the constraints of this search.
+         */
+        protected ArrayList<String> doIndexSearch() {
+            if (!ProductSearchIndex.isEnabled(delegator) || !ProductSearchIndex.canSearch(this)) {
+                return null;
+            }
+            ProductSearchIndex searchIndex = ProductSearchIndex.getIndex(delegator);
+            if (searchIndex == null) {
+                return null;
+            }
+            ArrayList<String> productIds = searchIndex.search(this);
+            if (productIds != null && Debug.infoOn()) {
+                Debug.logInfo("Got search values from the product search index, numRetreived=" + productIds.size() + ", totalResults=" + totalResults + ", maxResults=" + maxResults + ", resultOffset=" + resultOffset, module);
+            }
+            return productIds;
+        }
+
         public void finishKeywordConstraints() {
             if (orKeywordFixedSet.size() == 0 && andKeywordFixedSet.size() == 0 && keywordFixedOrSetAndList.size() == 0) {
                 return;
@@ -795,44 +816,22 @@ public class ProductSearch {
 
         public void saveSearchResultInfo(Long numResults, Double secondsTotal) {
             // uses entities: ProductSearchResult and ProductSearchConstraint
+            // SCIPIO: count the search in memory, then hand the rows to the (by default asynchronous) search log writer
+            ProductSearchStats.getStats(delegator.getDelegatorName()).record(productSearchConstraintList, (numResults != null) ? numResults : 0);
+            if (!ProductSearchLogger.isEnabled()) {
+                return;
+            }
 
-            try {
-                // make sure this is in a transaction
-                boolean beganTransaction = TransactionUtil.begin();
-
-                try {
-
-                    GenericValue productSearchResult = delegator.makeValue("ProductSearchResult");
-                    String productSearchResultId = delegator.getNextSeqId("ProductSearchResult");
-
-                    productSearchResult.set("productSearchResultId", productSearchResultId);
-                    productSearchResult.set("visitId", this.visitId);
-                    if (this.resultSortOrder != null) {
-                        productSearchResult.set("orderByName", this.resultSortOrder.getOrderName());
-                        productSearchResult.set("isAscending", this.resultSortOrder.isAscending() ? "Y" : "N");
-                    }
-                    productSearchResult.set("numResults", numResults);
-                    productSearchResult.set("secondsTotal", secondsTotal);
-                    productSearchResult.set("searchDate", nowTimestamp);
-                    productSearchResult.create();
-
-                    int seqId = 1;
-                    for (GenericValue productSearchConstraint: productSearchConstraintList) {
-                        productSearchConstraint.set("productSearchResultId", productSearchResultId);
-                        productSearchConstraint.set("constraintSeqId", Integer.toString(seqId));
-                        productSearchConstraint.create();
-                        seqId++;
-                    }
-
-                    TransactionUtil.commit(beganTransaction);
-                } catch (GenericEntityException e1) {
-                    String errMsg = "Error saving product search result info/stats";
-                    Debug.logError(e1, errMsg, module);
-                    TransactionUtil.rollback(beganTransaction, errMsg, e1);
-                }
-            } catch (GenericTransactionException e) {
-                Debug.logError(e, "Error saving product search result info/stats", module);
+            GenericValue productSearchResult = delegator.makeValue("ProductSearchResult");
+            productSearchResult.set("visitId", this.visitId);
+            if (this.resultSortOrder != null) {
+                productSearchResult.set("orderByName", this.resultSortOrder.getOrderName());
+                productSearchResult.set("isAscending", this.resultSortOrder.isAscending() ? "Y" : "N");
             }
+            productSearchResult.set("numResults", numResults);
+            productSearchResult.set("secondsTotal", secondsTotal);
+            productSearchResult.set("searchDate", nowTimestamp);
+            ProductSearchLogger.log(delegator, productSearchResult, productSearchConstraintList);
         }
     }
 
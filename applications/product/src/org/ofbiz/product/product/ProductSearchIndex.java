@@ -0,0 +1,768 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.ofbiz.product.product;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.cache.UtilCache;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.util.EntityListIterator;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.entity.util.EntityUtilProperties;
+import org.ofbiz.product.product.ProductSearch.ProductSearchContext;
+import org.ofbiz.product.product.ProductSearch.SortKeywordRelevancy;
+
+/**
+ * SCIPIO: Embedded inverted index used by {@link ProductSearchContext#doSearch()} instead of the
+ * ProductKeyword/ProductCategoryMember/ProductFeatureAppl SQL joins.
+ * <p>
+ * Products are numbered with dense ordinals; the index holds a sorted posting list (ordinal plus
+ * relevancy weight) per keyword and a membership bitmap per category and feature. Memberships with a
+ * thruDate or a future fromDate are kept aside and checked against the search timestamp, so the
+ * effective dating matches the SQL path. The index is built lazily per delegator on the first search
+ * and then kept up to date one product at a time: {@link KeywordIndex} refreshes the keywords after
+ * indexing a product, and entity/service ECAs refresh the category and feature memberships and the
+ * manually maintained keywords. Clearing the "product.search.index" cache forces a rebuild.
+ * <p>
+ * The index only answers searches made of keyword, category and feature constraints sorted by
+ * relevancy (or unsorted), which is the common storefront case; anything else, including keyword type
+ * or status filters and feature category/group constraints, returns null from {@link #search} and the
+ * caller uses the SQL query. Enabled with <code>index.embedded.enable</code> in prodsearch.properties.
+ * <p>
+ * Relevancy sorted searches are only answered where the index relevancy is the one the SQL query
+ * computes: a single keyword OR set (the sum of its matching keyword weights), or AND keywords each
+ * matching a single ProductKeyword row of the product (the sum of those rows). The SQL query sums an OR
+ * set over all the joined rows, so with several OR sets, an OR set plus AND keywords, or an OR set plus
+ * category/feature includes, each sum is multiplied by the row counts of the other aliases; those
+ * searches, and AND keywords matching several rows of a product (several keyword types or wildcard
+ * matches), fall back to the SQL query. Unsorted searches, and ties, are ordered by productId, where the
+ * SQL order is up to the database.
+ * <p>
+ * Note the index is held in memory, per JVM: updates done by ECAs in a transaction that is later rolled
+ * back are not undone, and updates done on another server of a cluster are not seen, because the
+ * "product.search.index" cache is not distributed. Clear the cache after bulk imports or failed batch
+ * updates, and only enable the index on a single server, or where catalog changes are made on every
+ * server (or followed by a cache clear on each).
+ */
+public class ProductSearchIndex {
+
+    public static final String module = ProductSearchIndex.class.getName();
+
+    private static final UtilCache<String, ProductSearchIndex> indexCache = UtilCache.createUtilCache("product.search.index", 0, 0, false);
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final Map<String, Integer> ordinals = new HashMap<String, Integer>();
+    private final List<String> productIds = new ArrayList<String>();
+
+    private final TreeMap<String, Postings> postings = new TreeMap<String, Postings>();
+    /** Forward index (by ordinal) of the keywords of each product, used to remove them on refresh. */
+    private final List<String[]> productKeywords = new ArrayList<String[]>();
+
+    private final Map<String, Members> categoryMembers = new HashMap<String, Members>();
+    private final Map<String, Members> featureMembers = new HashMap<String, Members>();
+    private final List<String[]> productCategories = new ArrayList<String[]>();
+    private final List<String[]> productFeatures = new ArrayList<String[]>();
+
+    protected ProductSearchIndex() {
+    }
+
+    public static boolean isEnabled(Delegator delegator) {
+        return "true".equals(EntityUtilProperties.getPropertyValue("prodsearch", "index.embedded.enable", "false", delegator));
+    }
+
+    /**
+     * Returns the index for the delegator, building it on first use, or null if the index is disabled
+     * or could not be built.
+     */
+    public static ProductSearchIndex getIndex(Delegator delegator) {
+        if (!isEnabled(delegator)) {
+            return null;
+        }
+        ProductSearchIndex index = indexCache.get(delegator.getDelegatorName());
+        if (index != null) {
+            return index;
+        }
+        synchronized (ProductSearchIndex.class) {
+            index = indexCache.get(delegator.getDelegatorName());
+            if (index == null) {
+                long startMillis = System.currentTimeMillis();
+                index = new ProductSearchIndex();
+                try {
+                    index.build(delegator);
+                } catch (GenericEntityException e) {
+                    Debug.logError(e, "Error building the product search index; using the SQL product search", module);
+                    return null;
+                }
+                index = indexCache.putIfAbsentAndGet(delegator.getDelegatorName(), index);
+                Debug.logInfo("Built product search index: " + index.productIds.size() + " products, " + index.postings.size() + " keywords, "
+                        + index.categoryMembers.size() + " categories, " + index.featureMembers.size() + " features in "
+                        + (System.currentTimeMillis() - startMillis) + "ms", module);
+            }
+        }
+        return index;
+    }
+
+    /** Drops the index of the delegator; the next search rebuilds it. */
+    public static void clearIndex(Delegator delegator) {
+        indexCache.remove(delegator.getDelegatorName());
+    }
+
+    /**
+     * Reloads the keywords of a product into the index, if the index has been built for the delegator.
+     */
+    public static void refreshProductKeywords(Delegator delegator, String productId) throws GenericEntityException {
+        ProductSearchIndex index = indexCache.get(delegator.getDelegatorName());
+        if (index == null || productId == null) {
+            return;
+        }
+        Map<String, int[]> keywords = new HashMap<String, int[]>();
+        EntityListIterator eli = EntityQuery.use(delegator).select("keyword", "relevancyWeight").from("ProductKeyword")
+                .where("productId", productId).queryIterator();
+        try {
+            GenericValue productKeyword;
+            while ((productKeyword = eli.next()) != null) {
+                addWeight(keywords, productKeyword.getString("keyword"), productKeyword.getLong("relevancyWeight"));
+            }
+        } finally {
+            eli.close();
+        }
+        index.lock.writeLock().lock();
+        try {
+            index.setKeywords(index.getOrdinal(productId), keywords);
+        } finally {
+            index.lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reloads the category and feature memberships of a product into the index, if the index has been
+     * built for the delegator.
+     */
+    public static void refreshProductMembers(Delegator delegator, String productId) throws GenericEntityException {
+        ProductSearchIndex index = indexCache.get(delegator.getDelegatorName());
+        if (index == null || productId == null) {
+            return;
+        }
+        List<GenericValue> categories = EntityQuery.use(delegator).select("productCategoryId", "fromDate", "thruDate")
+                .from("ProductCategoryMember").where("productId", productId).queryList();
+        List<GenericValue> features = EntityQuery.use(delegator).select("productFeatureId", "fromDate", "thruDate")
+                .from("ProductFeatureAppl").where("productId", productId).queryList();
+        index.lock.writeLock().lock();
+        try {
+            int ordinal = index.getOrdinal(productId);
+            index.setMembers(ordinal, categories, "productCategoryId", index.categoryMembers, index.productCategories);
+            index.setMembers(ordinal, features, "productFeatureId", index.featureMembers, index.productFeatures);
+        } finally {
+            index.lock.writeLock().unlock();
+        }
+    }
+
+    protected void build(Delegator delegator) throws GenericEntityException {
+        // keywords: rows of the same product are not necessarily adjacent, so accumulate per product first
+        Map<Integer, Map<String, int[]>> keywordsByOrdinal = new HashMap<Integer, Map<String, int[]>>();
+        EntityListIterator eli = EntityQuery.use(delegator).select("productId", "keyword", "relevancyWeight").from("ProductKeyword").queryIterator();
+        try {
+            GenericValue productKeyword;
+            while ((productKeyword = eli.next()) != null) {
+                Integer ordinal = getOrdinal(productKeyword.getString("productId"));
+                Map<String, int[]> keywords = keywordsByOrdinal.get(ordinal);
+                if (keywords == null) {
+                    keywords = new HashMap<String, int[]>();
+                    keywordsByOrdinal.put(ordinal, keywords);
+                }
+                addWeight(keywords, productKeyword.getString("keyword"), productKeyword.getLong("relevancyWeight"));
+            }
+        } finally {
+            eli.close();
+        }
+        // in ascending ordinal order, so the appended postings are sorted
+        for (int ordinal = 0; ordinal < productIds.size(); ordinal++) {
+            Map<String, int[]> productKeywordMap = keywordsByOrdinal.get(ordinal);
+            if (productKeywordMap == null) {
+                continue;
+            }
+            String[] keywords = new String[productKeywordMap.size()];
+            int i = 0;
+            for (Map.Entry<String, int[]> keywordEntry : productKeywordMap.entrySet()) {
+                Postings keywordPostings = postings.get(keywordEntry.getKey());
+                if (keywordPostings == null) {
+                    keywordPostings = new Postings();
+                    postings.put(keywordEntry.getKey(), keywordPostings);
+                }
+                keywordPostings.append(ordinal, keywordEntry.getValue()[0], keywordEntry.getValue()[1]);
+                keywords[i++] = keywordEntry.getKey();
+            }
+            productKeywords.set(ordinal, keywords);
+        }
+
+        buildMembers(delegator, "ProductCategoryMember", "productCategoryId", categoryMembers, productCategories);
+        buildMembers(delegator, "ProductFeatureAppl", "productFeatureId", featureMembers, productFeatures);
+    }
+
+    private void buildMembers(Delegator delegator, String entityName, String idField, Map<String, Members> membersById, List<String[]> idsByOrdinal) throws GenericEntityException {
+        Timestamp nowTimestamp = new Timestamp(System.currentTimeMillis());
+        Map<Integer, Set<String>> ids = new HashMap<Integer, Set<String>>();
+        EntityListIterator eli = EntityQuery.use(delegator).select("productId", idField, "fromDate", "thruDate").from(entityName).queryIterator();
+        try {
+            GenericValue member;
+            while ((member = eli.next()) != null) {
+                int ordinal = getOrdinal(member.getString("productId"));
+                String id = member.getString(idField);
+                addMember(membersById, id, ordinal, member, nowTimestamp);
+                Set<String> productIdSet = ids.get(ordinal);
+                if (productIdSet == null) {
+                    productIdSet = new HashSet<String>();
+                    ids.put(ordinal, productIdSet);
+                }
+                productIdSet.add(id);
+            }
+        } finally {
+            eli.close();
+        }
+        for (Map.Entry<Integer, Set<String>> entry : ids.entrySet()) {
+            idsByOrdinal.set(entry.getKey(), entry.getValue().toArray(new String[entry.getValue().size()]));
+        }
+    }
+
+    /** Adds a ProductKeyword row to the summed weight and row count of its keyword. */
+    private static void addWeight(Map<String, int[]> keywords, String keyword, Long relevancyWeight) {
+        if (keyword == null) {
+            return;
+        }
+        int[] weightAndRows = keywords.get(keyword);
+        if (weightAndRows == null) {
+            weightAndRows = new int[2];
+            keywords.put(keyword, weightAndRows);
+        }
+        weightAndRows[0] += (relevancyWeight != null) ? relevancyWeight.intValue() : 0;
+        weightAndRows[1]++;
+    }
+
+    private int getOrdinal(String productId) {
+        Integer ordinal = ordinals.get(productId);
+        if (ordinal == null) {
+            ordinal = productIds.size();
+            ordinals.put(productId, ordinal);
+            productIds.add(productId);
+            productKeywords.add(null);
+            productCategories.add(null);
+            productFeatures.add(null);
+        }
+        return ordinal;
+    }
+
+    private void setKeywords(int ordinal, Map<String, int[]> keywords) {
+        String[] oldKeywords = productKeywords.get(ordinal);
+        if (oldKeywords != null) {
+            for (String keyword : oldKeywords) {
+                Postings keywordPostings = postings.get(keyword);
+                if (keywordPostings != null && keywordPostings.remove(ordinal) && keywordPostings.size == 0) {
+                    postings.remove(keyword);
+                }
+            }
+        }
+        String[] newKeywords = null;
+        if (!keywords.isEmpty()) {
+            newKeywords = new String[keywords.size()];
+            int i = 0;
+            for (Map.Entry<String, int[]> entry : keywords.entrySet()) {
+                Postings keywordPostings = postings.get(entry.getKey());
+                if (keywordPostings == null) {
+                    keywordPostings = new Postings();
+                    postings.put(entry.getKey(), keywordPostings);
+                }
+                keywordPostings.insert(ordinal, entry.getValue()[0], entry.getValue()[1]);
+                newKeywords[i++] = entry.getKey();
+            }
+        }
+        productKeywords.set(ordinal, newKeywords);
+    }
+
+    private void setMembers(int ordinal, List<GenericValue> values, String idField, Map<String, Members> membersById, List<String[]> idsByOrdinal) {
+        String[] oldIds = idsByOrdinal.get(ordinal);
+        if (oldIds != null) {
+            for (String id : oldIds) {
+                Members members = membersById.get(id);
+                if (members != null) {
+                    members.remove(ordinal);
+                }
+            }
+        }
+        Timestamp nowTimestamp = new Timestamp(System.currentTimeMillis());
+        Set<String> newIds = new HashSet<String>();
+        for (GenericValue value : values) {
+            String id = value.getString(idField);
+            addMember(membersById, id, ordinal, value, nowTimestamp);
+            newIds.add(id);
+        }
+        idsByOrdinal.set(ordinal, newIds.isEmpty() ? null : newIds.toArray(new String[newIds.size()]));
+    }
+
+    private static void addMember(Map<String, Members> membersById, String id, int ordinal, GenericValue value, Timestamp nowTimestamp) {
+        Members members = membersById.get(id);
+        if (members == null) {
+            members = new Members();
+            membersById.put(id, members);
+        }
+        members.add(ordinal, value.getTimestamp("fromDate"), value.getTimestamp("thruDate"), nowTimestamp);
+    }
+
+    /**
+     * Runs the keyword, category and feature constraints of the search context against the index,
+     * applying the same logic as finishKeywordConstraints and finishCategoryAndFeatureConstraints, and
+     * returns the requested page of product IDs, or null if the search has constraints the index does
+     * not cover (the caller must then use the SQL query). Sets the context total results.
+     */
+    public ArrayList<String> search(ProductSearchContext context) {
+        if (!canSearch(context)) {
+            return null;
+        }
+        // same normalization as finishKeywordConstraints: OR sets of one keyword become AND keywords
+        List<Set<String>> keywordOrSets = new ArrayList<Set<String>>();
+        Set<String> andKeywords = new LinkedHashSet<String>(context.andKeywordFixedSet);
+        List<Set<String>> orSets = new ArrayList<Set<String>>(context.keywordFixedOrSetAndList);
+        orSets.add(context.orKeywordFixedSet);
+        for (Set<String> orSet : orSets) {
+            if (orSet.size() == 1) {
+                andKeywords.addAll(orSet);
+            } else if (orSet.size() > 1) {
+                keywordOrSets.add(orSet);
+            }
+        }
+
+        boolean hasIncludes = !context.includeCategoryIds.isEmpty() || !context.includeFeatureIds.isEmpty()
+                || !context.includeCategoryIdOrSetAndList.isEmpty() || !context.includeFeatureIdOrSetAndList.isEmpty();
+        boolean hasExcludes = !context.excludeCategoryIds.isEmpty() || !context.excludeFeatureIds.isEmpty();
+        boolean hasAlwaysIncludes = !context.alwaysIncludeCategoryIds.isEmpty() || !context.alwaysIncludeFeatureIds.isEmpty()
+                || !context.alwaysIncludeCategoryIdOrSetAndList.isEmpty() || !context.alwaysIncludeFeatureIdOrSetAndList.isEmpty();
+        if (keywordOrSets.isEmpty() && andKeywords.isEmpty() && !hasIncludes && (hasExcludes || !hasAlwaysIncludes)) {
+            // would need the whole Product table as the candidate set
+            return null;
+        }
+        boolean sortByRelevancy = context.resultSortOrder != null && (!keywordOrSets.isEmpty() || !andKeywords.isEmpty());
+        if (sortByRelevancy && !keywordOrSets.isEmpty() && (keywordOrSets.size() > 1 || !andKeywords.isEmpty() || hasIncludes || hasAlwaysIncludes)) {
+            // the SQL relevancy of an OR set is a SUM over the joined rows, so each sum is multiplied by the
+            // matching rows of the other keyword and include aliases; only a single OR set on its own is a plain sum
+            return null;
+        }
+
+        Timestamp nowTimestamp = context.nowTimestamp;
+        BitSet result = null;
+        long[] relevancy = null;
+        List<int[]> andKeywordRows = new ArrayList<int[]>();
+        lock.readLock().lock();
+        try {
+            if (!keywordOrSets.isEmpty() || !andKeywords.isEmpty()) {
+                relevancy = new long[productIds.size()];
+                for (Set<String> keywordOrSet : keywordOrSets) {
+                    result = and(result, matchKeywords(keywordOrSet, relevancy, null));
+                }
+                for (String keyword : andKeywords) {
+                    int[] rows = sortByRelevancy ? new int[productIds.size()] : null;
+                    result = and(result, matchKeywords(Collections.singleton(keyword), relevancy, rows));
+                    if (rows != null) {
+                        andKeywordRows.add(rows);
+                    }
+                }
+            }
+
+            if (hasIncludes || hasExcludes || hasAlwaysIncludes) {
+                // ((each category and feature include) AND NOT (any exclude)) OR (always includes)
+                BitSet incExc = null;
+                if (hasIncludes || hasExcludes) {
+                    incExc = (result != null) ? (BitSet) result.clone() : null;
+                    for (String categoryId : context.includeCategoryIds) {
+                        incExc = and(incExc, members(categoryMembers, categoryId, nowTimestamp));
+                    }
+                    for (String featureId : context.includeFeatureIds) {
+                        incExc = and(incExc, members(featureMembers, featureId, nowTimestamp));
+                    }
+                    for (Set<String> featureIdOrSet : context.includeFeatureIdOrSetAndList) {
+                        incExc = and(incExc, members(featureMembers, featureIdOrSet, nowTimestamp));
+                    }
+                    for (Set<String> categoryIdOrSet : context.includeCategoryIdOrSetAndList) {
+                        incExc = and(incExc, members(categoryMembers, categoryIdOrSet, nowTimestamp));
+                    }
+                    if (!context.excludeCategoryIds.isEmpty()) {
+                        incExc.andNot(members(categoryMembers, context.excludeCategoryIds, nowTimestamp));
+                    }
+                    if (!context.excludeFeatureIds.isEmpty()) {
+                        incExc.andNot(members(featureMembers, context.excludeFeatureIds, nowTimestamp));
+                    }
+                }
+                BitSet alwInc = null;
+                if (hasAlwaysIncludes) {
+                    alwInc = (result != null) ? (BitSet) result.clone() : null;
+                    if (!context.alwaysIncludeCategoryIds.isEmpty()) {
+                        alwInc = and(alwInc, members(categoryMembers, context.alwaysIncludeCategoryIds, nowTimestamp));
+                    }
+                    if (!context.alwaysIncludeFeatureIds.isEmpty()) {
+                        alwInc = and(alwInc, members(featureMembers, context.alwaysIncludeFeatureIds, nowTimestamp));
+                    }
+                    for (Set<String> featureIdOrSet : context.alwaysIncludeFeatureIdOrSetAndList) {
+                        alwInc = and(alwInc, members(featureMembers, featureIdOrSet, nowTimestamp));
+                    }
+                    for (Set<String> categoryIdOrSet : context.alwaysIncludeCategoryIdOrSetAndList) {
+                        alwInc = and(alwInc, members(categoryMembers, categoryIdOrSet, nowTimestamp));
+                    }
+                }
+                if (incExc != null && alwInc != null) {
+                    incExc.or(alwInc);
+                    result = incExc;
+                    // the SQL path inner joins a ProductCategoryMember/ProductFeatureAppl alias for every include
+                    // and always include, so a product matched by either branch still needs a (possibly expired)
+                    // row in each joined entity; do the same so both paths return the same products
+                    if (!context.includeCategoryIds.isEmpty() || !context.includeCategoryIdOrSetAndList.isEmpty()
+                            || !context.alwaysIncludeCategoryIds.isEmpty() || !context.alwaysIncludeCategoryIdOrSetAndList.isEmpty()) {
+                        result.and(withMembers(productCategories));
+                    }
+                    if (!context.includeFeatureIds.isEmpty() || !context.includeFeatureIdOrSetAndList.isEmpty()
+                            || !context.alwaysIncludeFeatureIds.isEmpty() || !context.alwaysIncludeFeatureIdOrSetAndList.isEmpty()) {
+                        result.and(withMembers(productFeatures));
+                    }
+                } else {
+                    result = (incExc != null) ? incExc : alwInc;
+                }
+            }
+
+            // the SQL relevancy of AND keywords is per joined row (the sum of one ProductKeyword row per keyword)
+            // and a product keeps its best row; that is the index weight only if each keyword matched one row
+            for (int[] rows : andKeywordRows) {
+                for (int ordinal = result.nextSetBit(0); ordinal >= 0; ordinal = result.nextSetBit(ordinal + 1)) {
+                    if (rows[ordinal] > 1) {
+                        if (Debug.verboseOn()) {
+                            Debug.logVerbose("Product [" + productIds.get(ordinal) + "] matches a search keyword in several ProductKeyword rows;"
+                                    + " using the SQL product search", module);
+                        }
+                        return null;
+                    }
+                }
+            }
+
+            return page(context, result, relevancy);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns true if the search context only has constraints the index can evaluate. Must be called
+     * before the context query is finished (doQuery), which adds the SQL conditions.
+     */
+    public static boolean canSearch(ProductSearchContext context) {
+        if (!context.entityConditionList.isEmpty() || !context.keywordTypeIds.isEmpty() || context.statusId != null) {
+            return false;
+        }
+        if (context.resultSortOrder != null && !(context.resultSortOrder instanceof SortKeywordRelevancy)) {
+            return false;
+        }
+        if (!context.includeFeatureCategoryIds.isEmpty() || !context.excludeFeatureCategoryIds.isEmpty() || !context.alwaysIncludeFeatureCategoryIds.isEmpty()
+                || !context.includeFeatureGroupIds.isEmpty() || !context.excludeFeatureGroupIds.isEmpty() || !context.alwaysIncludeFeatureGroupIds.isEmpty()) {
+            return false;
+        }
+        // only the PROD and PRODCI members added by the context constructor; other constraints join their own entities
+        int memberCount = 0;
+        Iterator<?> memberIt = context.dynamicViewEntity.getModelMemberEntitiesEntryIter();
+        while (memberIt.hasNext()) {
+            memberIt.next();
+            memberCount++;
+        }
+        return memberCount <= 2;
+    }
+
+    /**
+     * Returns the products having a keyword matching any of the patterns, adding the weight of each
+     * matching keyword once to their relevancy and, if rows is not null, the matching ProductKeyword rows.
+     */
+    private BitSet matchKeywords(Set<String> keywordOrSet, long[] relevancy, int[] rows) {
+        BitSet matches = new BitSet(productIds.size());
+        Set<String> matchedKeywords = new HashSet<String>();
+        for (String pattern : keywordOrSet) {
+            int wildcard = indexOfWildcard(pattern);
+            if (wildcard < 0) {
+                if (postings.containsKey(pattern)) {
+                    matchedKeywords.add(pattern);
+                }
+            } else if (wildcard == pattern.length() - 1 && pattern.charAt(wildcard) == '%') {
+                String prefix = pattern.substring(0, wildcard);
+                matchedKeywords.addAll(postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false).keySet());
+            } else {
+                String prefix = pattern.substring(0, wildcard);
+                Collection<String> candidates = prefix.isEmpty() ? postings.keySet() : postings.subMap(prefix, true, prefix + Character.MAX_VALUE, false).keySet();
+                for (String keyword : candidates) {
+                    if (like(keyword, 0, pattern, 0)) {
+                        matchedKeywords.add(keyword);
+                    }
+                }
+            }
+        }
+        for (String keyword : matchedKeywords) {
+            Postings keywordPostings = postings.get(keyword);
+            for (int i = 0; i < keywordPostings.size; i++) {
+                int ordinal = keywordPostings.ordinals[i];
+                matches.set(ordinal);
+                relevancy[ordinal] += keywordPostings.weights[i];
+                if (rows != null) {
+                    rows[ordinal] += keywordPostings.rows[i];
+                }
+            }
+        }
+        return matches;
+    }
+
+    private static int indexOfWildcard(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '%' || c == '_') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** SQL LIKE matching with the % and _ wildcards. */
+    static boolean like(String value, int valueIndex, String pattern, int patternIndex) {
+        while (patternIndex < pattern.length()) {
+            char p = pattern.charAt(patternIndex);
+            if (p == '%') {
+                patternIndex++;
+                if (patternIndex == pattern.length()) {
+                    return true;
+                }
+                for (int i = valueIndex; i <= value.length(); i++) {
+                    if (like(value, i, pattern, patternIndex)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            if (valueIndex >= value.length() || (p != '_' && p != value.charAt(valueIndex))) {
+                return false;
+            }
+            valueIndex++;
+            patternIndex++;
+        }
+        return valueIndex == value.length();
+    }
+
+    private static BitSet and(BitSet current, BitSet other) {
+        if (current == null) {
+            return other;
+        }
+        current.and(other);
+        return current;
+    }
+
+    private BitSet members(Map<String, Members> membersById, String id, Timestamp nowTimestamp) {
+        BitSet result = new BitSet(productIds.size());
+        Members members = membersById.get(id);
+        if (members != null) {
+            members.addTo(result, nowTimestamp);
+        }
+        return result;
+    }
+
+    private BitSet members(Map<String, Members> membersById, Collection<String> ids, Timestamp nowTimestamp) {
+        BitSet result = new BitSet(productIds.size());
+        for (String id : ids) {
+            Members members = membersById.get(id);
+            if (members != null) {
+                members.addTo(result, nowTimestamp);
+            }
+        }
+        return result;
+    }
+
+    private BitSet withMembers(List<String[]> idsByOrdinal) {
+        BitSet result = new BitSet(idsByOrdinal.size());
+        for (int ordinal = 0; ordinal < idsByOrdinal.size(); ordinal++) {
+            if (idsByOrdinal.get(ordinal) != null) {
+                result.set(ordinal);
+            }
+        }
+        return result;
+    }
+
+    private ArrayList<String> page(ProductSearchContext context, BitSet result, final long[] relevancy) {
+        int total = result.cardinality();
+        List<Integer> order = new ArrayList<Integer>(total);
+        for (int ordinal = result.nextSetBit(0); ordinal >= 0; ordinal = result.nextSetBit(ordinal + 1)) {
+            order.add(ordinal);
+        }
+        // ties (and unsorted searches) are ordered by productId so pages are stable
+        final List<String> ids = productIds;
+        if (relevancy != null && context.resultSortOrder != null) {
+            Collections.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    long r1 = relevancy[o1];
+                    long r2 = relevancy[o2];
+                    if (r1 != r2) {
+                        return (r1 > r2) ? -1 : 1;
+                    }
+                    return ids.get(o1).compareTo(ids.get(o2));
+                }
+            });
+        } else {
+            Collections.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    return ids.get(o1).compareTo(ids.get(o2));
+                }
+            });
+        }
+
+        int offset = (context.resultOffset != null && context.resultOffset > 1) ? context.resultOffset - 1 : 0;
+        int end = (context.maxResults != null) ? (int) Math.min((long) offset + context.maxResults, total) : total;
+        ArrayList<String> productIdList = new ArrayList<String>(Math.max(0, end - offset));
+        for (int i = offset; i < end; i++) {
+            productIdList.add(ids.get(order.get(i)));
+        }
+        context.totalResults = total;
+        return productIdList;
+    }
+
+    /**
+     * Posting list of a keyword: product ordinals in ascending order, with the relevancy weight of each
+     * (summed over the ProductKeyword rows of the product, one per keyword type) and the number of rows.
+     */
+    private static class Postings {
+        int[] ordinals = new int[4];
+        int[] weights = new int[4];
+        int[] rows = new int[4];
+        int size = 0;
+
+        /** Appends a posting; build appends in ascending ordinal order. */
+        void append(int ordinal, int weight, int rowCount) {
+            ensureCapacity(size + 1);
+            ordinals[size] = ordinal;
+            weights[size] = weight;
+            rows[size] = rowCount;
+            size++;
+        }
+
+        void insert(int ordinal, int weight, int rowCount) {
+            int pos = Arrays.binarySearch(ordinals, 0, size, ordinal);
+            if (pos >= 0) {
+                weights[pos] = weight;
+                rows[pos] = rowCount;
+                return;
+            }
+            pos = -(pos + 1);
+            ensureCapacity(size + 1);
+            System.arraycopy(ordinals, pos, ordinals, pos + 1, size - pos);
+            System.arraycopy(weights, pos, weights, pos + 1, size - pos);
+            System.arraycopy(rows, pos, rows, pos + 1, size - pos);
+            ordinals[pos] = ordinal;
+            weights[pos] = weight;
+            rows[pos] = rowCount;
+            size++;
+        }
+
+        boolean remove(int ordinal) {
+            int pos = Arrays.binarySearch(ordinals, 0, size, ordinal);
+            if (pos < 0) {
+                return false;
+            }
+            System.arraycopy(ordinals, pos + 1, ordinals, pos, size - pos - 1);
+            System.arraycopy(weights, pos + 1, weights, pos, size - pos - 1);
+            System.arraycopy(rows, pos + 1, rows, pos, size - pos - 1);
+            size--;
+            return true;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity > ordinals.length) {
+                int newLength = Math.max(capacity, ordinals.length * 2);
+                ordinals = Arrays.copyOf(ordinals, newLength);
+                weights = Arrays.copyOf(weights, newLength);
+                rows = Arrays.copyOf(rows, newLength);
+            }
+        }
+    }
+
+    /**
+     * Members of a category or feature: a bitmap of the products whose membership was already effective
+     * and open-ended when added, plus the dated memberships, which are checked at search time.
+     */
+    private static class Members {
+        final BitSet current = new BitSet();
+        final List<DatedMember> dated = new ArrayList<DatedMember>();
+
+        void add(int ordinal, Timestamp fromDate, Timestamp thruDate, Timestamp nowTimestamp) {
+            if (thruDate == null && fromDate != null && fromDate.before(nowTimestamp)) {
+                current.set(ordinal);
+            } else {
+                dated.add(new DatedMember(ordinal, fromDate, thruDate));
+            }
+        }
+
+        void remove(int ordinal) {
+            current.clear(ordinal);
+            Iterator<DatedMember> it = dated.iterator();
+            while (it.hasNext()) {
+                if (it.next().ordinal == ordinal) {
+                    it.remove();
+                }
+            }
+        }
+
+        void addTo(BitSet result, Timestamp nowTimestamp) {
+            result.or(current);
+            for (DatedMember member : dated) {
+                // same as the SQL conditions: fromDate < now AND (thruDate IS NULL OR thruDate > now)
+                if (member.fromDate != null && member.fromDate.before(nowTimestamp) && (member.thruDate == null || member.thruDate.after(nowTimestamp))) {
+                    result.set(member.ordinal);
+                }
+            }
+        }
+    }
+
+    private static class DatedMember {
+        final int ordinal;
+        final Timestamp fromDate;
+        final Timestamp thruDate;
+
+        DatedMember(int ordinal, Timestamp fromDate, Timestamp thruDate) {
+            this.ordinal = ordinal;
+            this.fromDate = fromDate;
+            this.thruDate = thruDate;
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.ofbiz.product.product;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.DelegatorFactory;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.transaction.TransactionUtil;
+
+/**
+ * SCIPIO: Writes the ProductSearchResult and ProductSearchConstraint rows of product searches.
+ * <p>
+ * By default the rows are not written in the searching request: {@link #log} puts them on a bounded
+ * queue and a background task stores them in batches (one transaction and one batch insert per
+ * entity), every <code>search.log.flush.interval</code> ms. When the queue is full (the database cannot
+ * keep up) new entries are dropped and counted rather than slowing down searches. Entries still queued
+ * when the server stops are lost; they are analytics, not business data.
+ * <p>
+ * Settings are in prodsearch.properties: <code>search.log.enable</code>, <code>search.log.async</code>
+ * (false restores the synchronous write), <code>search.log.queue.size</code>, <code>search.log.batch.size</code>
+ * and <code>search.log.flush.interval</code>.
+ */
+public final class ProductSearchLogger {
+
+    public static final String module = ProductSearchLogger.class.getName();
+
+    private static final boolean enabled = UtilProperties.getPropertyAsBoolean("prodsearch", "search.log.enable", true);
+    private static final boolean async = UtilProperties.getPropertyAsBoolean("prodsearch", "search.log.async", true);
+    private static final int batchSize = Math.max(1, UtilProperties.getPropertyAsInteger("prodsearch", "search.log.batch.size", 500));
+    private static final long flushInterval = UtilProperties.getPropertyAsLong("prodsearch", "search.log.flush.interval", 2000L);
+
+    private static final BlockingQueue<LogEntry> queue = new ArrayBlockingQueue<LogEntry>(Math.max(1, UtilProperties.getPropertyAsInteger("prodsearch", "search.log.queue.size", 10000)));
+
+    private static final AtomicLong droppedCount = new AtomicLong();
+    private static final AtomicLong writtenCount = new AtomicLong();
+
+    private static final Object flushLock = new Object();
+
+    private static volatile ScheduledExecutorService flushExecutor = null;
+
+    private ProductSearchLogger() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Logs a search: productSearchResult is a ProductSearchResult value without its ID, and constraints the
+     * ProductSearchConstraint values without result ID and sequence; both are set when the rows are stored.
+     * @return false if the entry was dropped because the queue is full or it could not be stored
+     */
+    public static boolean log(Delegator delegator, GenericValue productSearchResult, List<GenericValue> constraints) {
+        if (!enabled) {
+            return false;
+        }
+        LogEntry entry = new LogEntry(delegator.getDelegatorName(), productSearchResult, new ArrayList<GenericValue>(constraints));
+        if (!async) {
+            return store(delegator, Collections.singletonList(entry));
+        }
+        if (!queue.offer(entry)) {
+            long dropped = droppedCount.incrementAndGet();
+            // warn on the first drop and then once in a while, not on every search
+            if (dropped == 1 || dropped % 1000 == 0) {
+                Debug.logWarning("Product search log queue is full; dropped " + dropped + " search log entries so far", module);
+            }
+            return false;
+        }
+        startFlushExecutor();
+        return true;
+    }
+
+    /**
+     * Stores all the queued entries now (in batches).
+     * @return the number of searches stored
+     */
+    public static int flush() {
+        // one flush at a time so batches from the scheduled and an explicit flush do not interleave
+        synchronized (flushLock) {
+            int count = 0;
+            List<LogEntry> batch = new ArrayList<LogEntry>(Math.min(batchSize, queue.size() + 1));
+            while (queue.drainTo(batch, batchSize) > 0) {
+                // group by delegator, keeping the search order
+                Map<String, List<LogEntry>> byDelegator = new LinkedHashMap<String, List<LogEntry>>();
+                for (LogEntry entry : batch) {
+                    List<LogEntry> entries = byDelegator.get(entry.delegatorName);
+                    if (entries == null) {
+                        entries = new ArrayList<LogEntry>();
+                        byDelegator.put(entry.delegatorName, entries);
+                    }
+                    entries.add(entry);
+                }
+                for (Map.Entry<String, List<LogEntry>> delegatorEntries : byDelegator.entrySet()) {
+                    Delegator delegator = DelegatorFactory.getDelegator(delegatorEntries.getKey());
+                    if (delegator != null && store(delegator, delegatorEntries.getValue())) {
+                        count += delegatorEntries.getValue().size();
+                    }
+                }
+                batch.clear();
+            }
+            return count;
+        }
+    }
+
+    public static long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public static long getWrittenCount() {
+        return writtenCount.get();
+    }
+
+    public static int getQueueSize() {
+        return queue.size();
+    }
+
+    private static boolean store(Delegator delegator, List<LogEntry> entries) {
+        // results first, then constraints, so createAll sends one batch insert per entity
+        List<GenericValue> results = new ArrayList<GenericValue>(entries.size());
+        List<GenericValue> constraints = new ArrayList<GenericValue>();
+        for (LogEntry entry : entries) {
+            String productSearchResultId = delegator.getNextSeqId("ProductSearchResult");
+            entry.productSearchResult.set("productSearchResultId", productSearchResultId);
+            results.add(entry.productSearchResult);
+            int seqId = 1;
+            for (GenericValue productSearchConstraint : entry.constraints) {
+                productSearchConstraint.set("productSearchResultId", productSearchResultId);
+                productSearchConstraint.set("constraintSeqId", Integer.toString(seqId));
+                constraints.add(productSearchConstraint);
+                seqId++;
+            }
+        }
+        List<GenericValue> values = new ArrayList<GenericValue>(results.size() + constraints.size());
+        values.addAll(results);
+        values.addAll(constraints);
+        try {
+            boolean beganTransaction = TransactionUtil.begin();
+            try {
+                delegator.createAll(values);
+                TransactionUtil.commit(beganTransaction);
+            } catch (GenericEntityException e) {
+                String errMsg = "Error saving product search result info/stats";
+                TransactionUtil.rollback(beganTransaction, errMsg, e);
+                throw e;
+            }
+        } catch (GenericEntityException e) {
+            // not retried: a failing entry would otherwise block the queue
+            Debug.logError(e, "Error saving product search result info/stats; dropped " + entries.size() + " search log entries", module);
+            droppedCount.addAndGet(entries.size());
+            return false;
+        }
+        writtenCount.addAndGet(entries.size());
+        return true;
+    }
+
+    private static void startFlushExecutor() {
+        if (flushExecutor == null) {
+            synchronized (ProductSearchLogger.class) {
+                if (flushExecutor == null) {
+                    ScheduledExecutorService executor = ExecutionPool.getScheduledExecutor(null, "product-search-log", 1, 0, false);
+                    executor.scheduleWithFixedDelay(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                flush();
+                            } catch (Throwable t) {
+                                Debug.logError(t, "Error writing the product search log", module);
+                            }
+                        }
+                    }, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+                    flushExecutor = executor;
+                }
+            }
+        }
+    }
+
+    private static final class LogEntry {
+        final String delegatorName;
+        final GenericValue productSearchResult;
+        final List<GenericValue> constraints;
+
+        LogEntry(String delegatorName, GenericValue productSearchResult, List<GenericValue> constraints) {
+            this.delegatorName = delegatorName;
+            this.productSearchResult = productSearchResult;
+            this.constraints = constraints;
+        }
+    }
+}
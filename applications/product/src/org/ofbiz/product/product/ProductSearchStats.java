@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.ofbiz.product.product;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.product.product.ProductSearch.KeywordConstraint;
+
+/**
+ * SCIPIO: In-memory product search counters, per delegator: total and zero-result searches, and per
+ * keyword query (the normalized keyword constraint text) the number of searches and of zero-result
+ * searches, for top query and zero-result query reports without querying the ProductSearchResult rows.
+ * <p>
+ * The number of distinct queries tracked is capped by <code>search.stats.max.queries</code> in
+ * prodsearch.properties; once reached, new queries are only counted in the untracked total. The counters
+ * are per server and reset on restart or with {@link #reset()}.
+ */
+public final class ProductSearchStats {
+
+    public static final String module = ProductSearchStats.class.getName();
+
+    private static final int maxQueries = UtilProperties.getPropertyAsInteger("prodsearch", "search.stats.max.queries", 10000);
+
+    private static final ConcurrentMap<String, ProductSearchStats> statsByDelegator = new ConcurrentHashMap<String, ProductSearchStats>();
+
+    private final AtomicLong searchCount = new AtomicLong();
+    private final AtomicLong zeroResultCount = new AtomicLong();
+    private final AtomicLong untrackedCount = new AtomicLong();
+    private final ConcurrentMap<String, QueryCounter> queries = new ConcurrentHashMap<String, QueryCounter>();
+
+    private ProductSearchStats() {
+    }
+
+    public static ProductSearchStats getStats(String delegatorName) {
+        ProductSearchStats stats = statsByDelegator.get(delegatorName);
+        if (stats == null) {
+            stats = new ProductSearchStats();
+            ProductSearchStats existing = statsByDelegator.putIfAbsent(delegatorName, stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Counts a search, given its ProductSearchConstraint values and number of results.
+     */
+    public void record(List<GenericValue> constraints, long numResults) {
+        searchCount.incrementAndGet();
+        boolean zeroResults = (numResults == 0);
+        if (zeroResults) {
+            zeroResultCount.incrementAndGet();
+        }
+        String query = makeQueryString(constraints);
+        if (query == null) {
+            return;
+        }
+        QueryCounter counter = queries.get(query);
+        if (counter == null) {
+            if (queries.size() >= maxQueries) {
+                untrackedCount.incrementAndGet();
+                return;
+            }
+            counter = new QueryCounter();
+            QueryCounter existing = queries.putIfAbsent(query, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        counter.count.incrementAndGet();
+        if (zeroResults) {
+            counter.zeroResultCount.incrementAndGet();
+        }
+        counter.lastNumResults = numResults;
+    }
+
+    /** Returns the keyword text of the search, lower case with single spaces, or null for searches without keywords. */
+    private static String makeQueryString(List<GenericValue> constraints) {
+        StringBuilder sb = null;
+        for (GenericValue constraint : constraints) {
+            if (KeywordConstraint.constraintName.equals(constraint.getString("constraintName"))) {
+                String infoString = constraint.getString("infoString");
+                if (infoString == null) {
+                    continue;
+                }
+                String keywords = infoString.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+                if (keywords.isEmpty()) {
+                    continue;
+                }
+                if (sb == null) {
+                    sb = new StringBuilder(keywords);
+                } else {
+                    sb.append(' ').append(keywords);
+                }
+            }
+        }
+        return (sb != null) ? sb.toString() : null;
+    }
+
+    public long getSearchCount() {
+        return searchCount.get();
+    }
+
+    public long getZeroResultCount() {
+        return zeroResultCount.get();
+    }
+
+    public long getUntrackedCount() {
+        return untrackedCount.get();
+    }
+
+    /**
+     * Returns the most frequent queries, as maps with query, count, zeroResultCount and lastNumResults.
+     */
+    public List<Map<String, Object>> getTopQueries(int limit) {
+        return getTop(limit, false);
+    }
+
+    /**
+     * Returns the queries that most often returned no results, as maps with query, count, zeroResultCount
+     * and lastNumResults.
+     */
+    public List<Map<String, Object>> getTopZeroResultQueries(int limit) {
+        return getTop(limit, true);
+    }
+
+    private List<Map<String, Object>> getTop(int limit, final boolean zeroResults) {
+        List<Map.Entry<String, QueryCounter>> entries = new ArrayList<Map.Entry<String, QueryCounter>>();
+        for (Map.Entry<String, QueryCounter> entry : queries.entrySet()) {
+            if (!zeroResults || entry.getValue().zeroResultCount.get() > 0) {
+                entries.add(entry);
+            }
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String, QueryCounter>>() {
+            @Override
+            public int compare(Map.Entry<String, QueryCounter> o1, Map.Entry<String, QueryCounter> o2) {
+                long c1 = zeroResults ? o1.getValue().zeroResultCount.get() : o1.getValue().count.get();
+                long c2 = zeroResults ? o2.getValue().zeroResultCount.get() : o2.getValue().count.get();
+                if (c1 != c2) {
+                    return (c1 > c2) ? -1 : 1;
+                }
+                return o1.getKey().compareTo(o2.getKey());
+            }
+        });
+        List<Map<String, Object>> top = new ArrayList<Map<String, Object>>(Math.min(limit, entries.size()));
+        for (Map.Entry<String, QueryCounter> entry : entries) {
+            if (top.size() >= limit) {
+                break;
+            }
+            Map<String, Object> queryInfo = new HashMap<String, Object>();
+            queryInfo.put("query", entry.getKey());
+            queryInfo.put("count", entry.getValue().count.get());
+            queryInfo.put("zeroResultCount", entry.getValue().zeroResultCount.get());
+            queryInfo.put("lastNumResults", entry.getValue().lastNumResults);
+            top.add(queryInfo);
+        }
+        return top;
+    }
+
+    public void reset() {
+        searchCount.set(0);
+        zeroResultCount.set(0);
+        untrackedCount.set(0);
+        queries.clear();
+    }
+
+    private static final class QueryCounter {
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong zeroResultCount = new AtomicLong();
+        volatile long lastNumResults;
+    }
+}
@@ -1466,4 +1466,71 @@ public class ProductServices {
         }
         return ServiceUtil.returnSuccess();
     }
+
+    /**
+     * SCIPIO: Reloads the keywords of a product into the embedded product search index, for keywords maintained
+     * outside of KeywordIndex (which updates the index itself). Does nothing if the index is not in use.
+     */
+    public static Map<String, Object> updateProductSearchIndexKeywords(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Delegator delegator = dctx.getDelegator();
+        try {
+            ProductSearchIndex.refreshProductKeywords(delegator, (String) context.get("productId"));
+        } catch (GenericEntityException e) {
+            Debug.logError(e, module);
+            return ServiceUtil.returnError(e.getMessage());
+        }
+        return ServiceUtil.returnSuccess();
+    }
+
+    /**
+     * SCIPIO: Reloads the category and feature memberships of a product into the embedded product search index.
+     * Does nothing if the index is not in use.
+     */
+    public static Map<String, Object> updateProductSearchIndexMembers(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Delegator delegator = dctx.getDelegator();
+        try {
+            ProductSearchIndex.refreshProductMembers(delegator, (String) context.get("productId"));
+        } catch (GenericEntityException e) {
+            Debug.logError(e, module);
+            return ServiceUtil.returnError(e.getMessage());
+        }
+        return ServiceUtil.returnSuccess();
+    }
+
+    /**
+     * SCIPIO: Returns the in-memory product search counters of this server and the state of the search log writer.
+     */
+    public static Map<String, Object> getProductSearchStats(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Delegator delegator = dctx.getDelegator();
+        Integer limit = (Integer) context.get("limit");
+        ProductSearchStats stats = ProductSearchStats.getStats(delegator.getDelegatorName());
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("searchCount", stats.getSearchCount());
+        result.put("zeroResultCount", stats.getZeroResultCount());
+        result.put("untrackedQueryCount", stats.getUntrackedCount());
+        result.put("topQueries", stats.getTopQueries(limit != null ? limit : 20));
+        result.put("topZeroResultQueries", stats.getTopZeroResultQueries(limit != null ? limit : 20));
+        result.put("logQueueSize", ProductSearchLogger.getQueueSize());
+        result.put("logWrittenCount", ProductSearchLogger.getWrittenCount());
+        result.put("logDroppedCount", ProductSearchLogger.getDroppedCount());
+        return result;
+    }
+
+    /**
+     * SCIPIO: Resets the in-memory product search counters of this server.
+     */
+    public static Map<String, Object> resetProductSearchStats(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Delegator delegator = dctx.getDelegator();
+        ProductSearchStats.getStats(delegator.getDelegatorName()).reset();
+        return ServiceUtil.returnSuccess();
+    }
+
+    /**
+     * SCIPIO: Stores the queued product search log entries now.
+     */
+    public static Map<String, Object> flushProductSearchLog(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("flushedCount", ProductSearchLogger.flush());
+        return result;
+    }
 }
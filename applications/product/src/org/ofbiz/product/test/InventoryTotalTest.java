@@ -0,0 +1,159 @@
+/*
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package org.ofbiz.product.test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.product.inventory.InventoryTotalServices;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * SCIPIO: ProductInventoryTotal maintenance tests.
+ */
+public class InventoryTotalTest extends OFBizTestCase {
+
+    protected static final String facilityId = "ScipioShopWarehouse";
+
+    public InventoryTotalTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+    }
+
+    public void testTotalCreatedThenUpdated() throws Exception {
+        String productId = createTestProduct();
+        Map<String, String> key = UtilMisc.toMap("productId", productId, "facilityId", facilityId,
+                "statusId", InventoryTotalServices.NA, "inventoryItemTypeId", "NON_SERIAL_INV_ITEM");
+        assertNull(EntityQuery.use(delegator).from("ProductInventoryTotal").where(key).queryOne());
+
+        // the first item of the key creates the total
+        GenericValue item1 = createTestItem(productId, "5", "5");
+        assertTotal(key, "5", "5");
+
+        // changes update it
+        item1.set("availableToPromiseTotal", new BigDecimal("3"));
+        item1.store();
+        assertTotal(key, "3", "5");
+
+        createTestItem(productId, "2", "4");
+        assertTotal(key, "5", "9");
+
+        Map<String, Object> available = InventoryTotalServices.getAvailableFromTotals(delegator,
+                UtilMisc.toMap("productId", productId, "facilityId", facilityId));
+        assertEquals(0, new BigDecimal("5").compareTo((BigDecimal) available.get("availableToPromiseTotal")));
+        assertEquals(0, new BigDecimal("9").compareTo((BigDecimal) available.get("quantityOnHandTotal")));
+
+        delegator.removeByAnd("InventoryItemDetail", UtilMisc.toMap("inventoryItemId", item1.get("inventoryItemId")));
+        item1.remove();
+        assertTotal(key, "2", "4");
+    }
+
+    public void testConcurrentFirstItems() throws Exception {
+        final String productId = createTestProduct();
+        final int threadCount = 4;
+        final CyclicBarrier barrier = new CyclicBarrier(threadCount);
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < threadCount; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    boolean beganTransaction = false;
+                    try {
+                        beganTransaction = TransactionUtil.begin();
+                        barrier.await();
+                        createTestItem(productId, "1", "2");
+                        TransactionUtil.commit(beganTransaction);
+                    } catch (Throwable t) {
+                        synchronized (errors) {
+                            errors.add(t);
+                        }
+                        try {
+                            TransactionUtil.rollback(beganTransaction, t.getMessage(), t);
+                        } catch (Exception e) {
+                            // already reported
+                        }
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue("Item creation failed: " + errors, errors.isEmpty());
+        assertEquals(threadCount, EntityQuery.use(delegator).from("InventoryItem").where("productId", productId).queryCount());
+        Map<String, String> key = UtilMisc.toMap("productId", productId, "facilityId", facilityId,
+                "statusId", InventoryTotalServices.NA, "inventoryItemTypeId", "NON_SERIAL_INV_ITEM");
+        assertTotal(key, String.valueOf(threadCount), String.valueOf(threadCount * 2));
+    }
+
+    public void testProductAndItemInOneTransaction() throws Exception {
+        // the product is not committed when the item creates the first total, as when loading data
+        String productId;
+        boolean beganTransaction = TransactionUtil.begin();
+        try {
+            productId = createTestProduct();
+            createTestItem(productId, "2", "3");
+            TransactionUtil.commit(beganTransaction);
+        } catch (Exception e) {
+            TransactionUtil.rollback(beganTransaction, e.getMessage(), e);
+            throw e;
+        }
+        Map<String, String> key = UtilMisc.toMap("productId", productId, "facilityId", facilityId,
+                "statusId", InventoryTotalServices.NA, "inventoryItemTypeId", "NON_SERIAL_INV_ITEM");
+        assertTotal(key, "2", "3");
+    }
+
+    protected String createTestProduct() throws Exception {
+        String productId = "INVTOT_" + delegator.getNextSeqId("Product");
+        delegator.create("Product", "productId", productId, "productTypeId", "FINISHED_GOOD", "internalName", "Inventory total test product");
+        return productId;
+    }
+
+    protected GenericValue createTestItem(String productId, String availableToPromise, String quantityOnHand) throws Exception {
+        GenericValue item = delegator.makeValue("InventoryItem", UtilMisc.toMap("inventoryItemId", delegator.getNextSeqId("InventoryItem"),
+                "productId", productId, "facilityId", facilityId, "inventoryItemTypeId", "NON_SERIAL_INV_ITEM",
+                "availableToPromiseTotal", new BigDecimal(availableToPromise), "quantityOnHandTotal", new BigDecimal(quantityOnHand)));
+        return item.create();
+    }
+
+    protected void assertTotal(Map<String, String> key, String availableToPromise, String quantityOnHand) throws Exception {
+        GenericValue total = EntityQuery.use(delegator).from("ProductInventoryTotal").where(key).queryOne();
+        assertNotNull("ProductInventoryTotal " + key, total);
+        assertEquals(0, new BigDecimal(availableToPromise).compareTo(total.getBigDecimal("availableToPromiseTotal")));
+        assertEquals(0, new BigDecimal(quantityOnHand).compareTo(total.getBigDecimal("quantityOnHandTotal")));
+    }
+}
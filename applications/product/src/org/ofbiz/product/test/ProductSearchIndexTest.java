@@ -0,0 +1,216 @@
+/*
+ Licensed to the Apache Software Foundation (ASF) under one
+ or more contributor license agreements.  See the NOTICE file
+ distributed with this work for additional information
+ regarding copyright ownership.  The ASF licenses this file
+ to you under the Apache License, Version 2.0 (the
+ "License"); you may not use this file except in compliance
+ with the License.  You may obtain a copy of the License at
+
+ http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing,
+ software distributed under the License is distributed on an
+ "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ KIND, either express or implied.  See the License for the
+ specific language governing permissions and limitations
+ under the License.
+ */
+
+package org.ofbiz.product.test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.product.product.ProductSearch.CategoryConstraint;
+import org.ofbiz.product.product.ProductSearch.FeatureConstraint;
+import org.ofbiz.product.product.ProductSearch.KeywordConstraint;
+import org.ofbiz.product.product.ProductSearch.ProductSearchConstraint;
+import org.ofbiz.product.product.ProductSearch.ProductSearchContext;
+import org.ofbiz.product.product.ProductSearch.ResultSortOrder;
+import org.ofbiz.product.product.ProductSearch.SortKeywordRelevancy;
+import org.ofbiz.product.product.ProductSearchIndex;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * SCIPIO: Runs the same product searches against the SQL query and the embedded {@link ProductSearchIndex}
+ * and compares the results, page by page. Uses the ProductSearchTestData.xml products.
+ */
+public class ProductSearchIndexTest extends OFBizTestCase {
+
+    protected String savedEnable;
+
+    public ProductSearchIndexTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        savedEnable = UtilProperties.getPropertyValue("prodsearch", "index.embedded.enable", "false");
+        ProductSearchIndex.clearIndex(delegator);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        UtilProperties.setPropertyValueInMemory("prodsearch", "index.embedded.enable", savedEnable);
+        ProductSearchIndex.clearIndex(delegator);
+    }
+
+    public void testAndKeywords() throws Exception {
+        assertIndexed(true, and("psiwidget"));
+        assertIndexed(true, and("psigadget"));
+        assertIndexed(true, and("psiwidget psigadget"));
+        // LIKE wildcards, matching psiwidget and psiwidgets (one row per product)
+        assertIndexed(true, and("psiwid*"));
+        assertIndexed(true, and("*gadget"));
+        assertIndexed(true, and("psi?adget"));
+        assertIndexed(false, and("psiwid*"));
+    }
+
+    public void testOrKeywords() throws Exception {
+        assertIndexed(true, or("psiwidget psigadget"));
+        assertIndexed(true, or("psiwid* psigadget"));
+        assertIndexed(false, or("psiwidget psigadget"));
+    }
+
+    public void testCategoryAndFeatureConstraints() throws Exception {
+        // includes (the PSI_P06 membership of PSI_CAT_A is expired) and excludes
+        assertIndexed(true, and("psiwidget"), new CategoryConstraint("PSI_CAT_A", false, null));
+        assertIndexed(true, and("psiwidget"), new CategoryConstraint("PSI_CAT_B", false, Boolean.TRUE));
+        assertIndexed(true, and("psiwid*"), new FeatureConstraint("PSI_RED", null));
+        assertIndexed(true, and("psiwidget"), new FeatureConstraint("PSI_BLUE", Boolean.TRUE));
+        assertIndexed(true, and("psiwidget"), new CategoryConstraint("PSI_CAT_A", false, null), new FeatureConstraint("PSI_BLUE", Boolean.TRUE));
+        assertIndexed(true, and("psigadget"), new CategoryConstraint("PSI_CAT_B", false, null), new FeatureConstraint("PSI_RED", null));
+        // always includes, alone and with includes
+        assertIndexed(true, and("psiwidget"), new CategoryConstraint("PSI_CAT_B", false, Boolean.FALSE));
+        assertIndexed(true, and("psiwidget"), new FeatureConstraint("PSI_RED", null), new CategoryConstraint("PSI_CAT_B", false, Boolean.FALSE));
+        // an OR set with excludes only is still a plain sum
+        assertIndexed(true, or("psiwidget psigadget"), new CategoryConstraint("PSI_CAT_A", false, Boolean.TRUE));
+        // no keywords: the SQL order is up to the database, so only the sets and totals are compared
+        assertIndexed(false, new CategoryConstraint("PSI_CAT_A", false, null));
+        assertIndexed(false, new CategoryConstraint("PSI_CAT_B", false, null), new FeatureConstraint("PSI_RED", Boolean.TRUE));
+        assertIndexed(false, new FeatureConstraint("PSI_RED", null), new CategoryConstraint("PSI_CAT_A", false, Boolean.TRUE));
+    }
+
+    public void testSqlFallback() throws Exception {
+        // several OR sets: the entered keywords expand to psifoo/psiwidget and psibar/psigadget
+        assertFallback(true, and("psifoo psibar"));
+        // an OR set plus an AND keyword; the SQL query selects the AND weights ungrouped, which strict
+        // databases (e.g. Derby) reject, so only check that the index declines it
+        assertNull(indexSearch(makeContext(true, Arrays.<ProductSearchConstraint>asList(or("psiwidget psigadget"), and("psiwid*")), null, null)));
+        // an OR set plus an include, whose join multiplies the SQL sum
+        assertFallback(true, or("psiwidget psigadget"), new CategoryConstraint("PSI_CAT_A", false, null));
+        // a keyword matching two rows (keyword types) of PSI_P10
+        assertFallback(true, and("psimulti"));
+        // ... unless the product is not in the result
+        assertIndexed(true, and("psimulti"), new CategoryConstraint("PSI_CAT_A", false, null));
+        // unsorted searches have no relevancy, so the index answers them
+        assertIndexed(false, and("psifoo psibar"));
+        assertIndexed(false, or("psiwidget psigadget"), and("psiwid*"));
+        assertIndexed(false, and("psimulti"));
+    }
+
+    protected static ProductSearchConstraint and(String keywords) {
+        return new KeywordConstraint(keywords, false, false, Boolean.FALSE, true);
+    }
+
+    protected static ProductSearchConstraint or(String keywords) {
+        return new KeywordConstraint(keywords, false, false, Boolean.FALSE, false);
+    }
+
+    /**
+     * Checks that the index answers the search and returns the same products and totals as the SQL query,
+     * for the whole result and for pages of 3 at each offset; sorted results are compared in order.
+     */
+    protected void assertIndexed(boolean sorted, ProductSearchConstraint... constraints) throws Exception {
+        List<ProductSearchConstraint> constraintList = Arrays.asList(constraints);
+        List<String> all = assertSamePage(sorted, constraintList, null, null);
+        assertFalse("Search " + constraintList + " has no results", all.isEmpty());
+        for (int offset = 1; offset <= all.size(); offset += 2) {
+            List<String> page = assertSamePage(sorted, constraintList, offset, 3);
+            if (sorted) {
+                assertEquals(all.subList(offset - 1, Math.min(offset + 2, all.size())), page);
+            }
+        }
+    }
+
+    protected List<String> assertSamePage(boolean sorted, List<ProductSearchConstraint> constraintList, Integer offset, Integer maxResults) throws Exception {
+        String message = "Search " + constraintList + " offset " + offset + " max " + maxResults;
+        ProductSearchContext sqlContext = makeContext(sorted, constraintList, offset, maxResults);
+        List<String> sqlIds = sqlSearch(sqlContext);
+        ProductSearchContext indexContext = makeContext(sorted, constraintList, offset, maxResults);
+        List<String> indexIds = indexSearch(indexContext);
+        assertNotNull(message + ": not answered by the index", indexIds);
+        if (sorted) {
+            assertEquals(message, sqlIds, indexIds);
+        } else {
+            assertEquals(message, sqlIds.size(), indexIds.size());
+            if (offset == null) {
+                assertEquals(message, sorted(sqlIds), sorted(indexIds));
+            }
+        }
+        assertEquals(message + ": total results", sqlContext.getTotalResults(), indexContext.getTotalResults());
+        return indexIds;
+    }
+
+    /**
+     * Checks that the index declines the search, and that the search with the index enabled (which then
+     * runs the SQL query) returns the SQL results.
+     */
+    protected void assertFallback(boolean sorted, ProductSearchConstraint... constraints) throws Exception {
+        List<ProductSearchConstraint> constraintList = Arrays.asList(constraints);
+        assertNull("Search " + constraintList + " answered by the index", indexSearch(makeContext(sorted, constraintList, null, null)));
+        List<String> sqlIds = sqlSearch(makeContext(sorted, constraintList, null, null));
+        assertFalse("Search " + constraintList + " has no results", sqlIds.isEmpty());
+        UtilProperties.setPropertyValueInMemory("prodsearch", "index.embedded.enable", "true");
+        assertEquals("Search " + constraintList, sqlIds, doSearch(makeContext(sorted, constraintList, null, null)));
+    }
+
+    protected ProductSearchContext makeContext(boolean sorted, List<ProductSearchConstraint> constraintList, Integer offset, Integer maxResults) {
+        ProductSearchContext context = new ProductSearchContext(delegator, null);
+        context.addProductSearchConstraints(constraintList);
+        ResultSortOrder resultSortOrder = sorted ? new SortKeywordRelevancy() : null;
+        context.setResultSortOrder(resultSortOrder);
+        context.setResultOffset(offset);
+        context.setMaxResults(maxResults);
+        return context;
+    }
+
+    protected List<String> sqlSearch(ProductSearchContext context) throws Exception {
+        UtilProperties.setPropertyValueInMemory("prodsearch", "index.embedded.enable", "false");
+        return doSearch(context);
+    }
+
+    /** Runs the search in a transaction, as the SQL query returns an EntityListIterator. */
+    protected static List<String> doSearch(ProductSearchContext context) throws Exception {
+        boolean beganTransaction = TransactionUtil.begin();
+        try {
+            return context.doSearch();
+        } finally {
+            TransactionUtil.commit(beganTransaction);
+        }
+    }
+
+    protected List<String> indexSearch(ProductSearchContext context) throws Exception {
+        UtilProperties.setPropertyValueInMemory("prodsearch", "index.embedded.enable", "true");
+        assertTrue(ProductSearchIndex.canSearch(context));
+        boolean beganTransaction = TransactionUtil.begin();
+        try {
+            ProductSearchIndex index = ProductSearchIndex.getIndex(delegator);
+            assertNotNull(index);
+            return index.search(context);
+        } finally {
+            TransactionUtil.commit(beganTransaction);
+        }
+    }
+
+    protected static List<String> sorted(List<String> productIds) {
+        List<String> sortedIds = new ArrayList<String>(productIds);
+        Collections.sort(sortedIds);
+        return sortedIds;
+    }
+}
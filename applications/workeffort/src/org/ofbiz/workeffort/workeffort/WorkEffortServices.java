@@ -20,6 +20,7 @@
 package org.ofbiz.workeffort.workeffort;
 
 import java.sql.Timestamp;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
@@ -854,7 +855,7 @@ public class WorkEffortServices {
         // period start is the key
         List<Map<String, Object>> periods = FastList.newInstance();
         if (validWorkEfforts != null) {
-            List<DateRange> periodRanges = FastList.newInstance();
+            List<DateRange> periodRanges = new ArrayList<DateRange>(numPeriods);
             for (int i = 0; i < numPeriods; i++) {
                 Timestamp curPeriodStart = UtilDateTime.adjustTimestamp(startStamp, periodType, i, timeZone, locale);
                 Timestamp curPeriodEnd = UtilDateTime.adjustTimestamp(curPeriodStart, periodType, 1, timeZone, locale);
@@ -865,7 +866,6 @@ public class WorkEffortServices {
                 // Process recurring work efforts
                 Set<GenericValue> exclusions = FastSet.newInstance();
                 Set<GenericValue> inclusions = FastSet.newInstance();
-                DateRange range = new DateRange(startStamp, endStamp);
                 Calendar cal = UtilDateTime.toCalendar(startStamp, timeZone, locale);
                 for (GenericValue workEffort : validWorkEfforts) {
                     if (UtilValidate.isNotEmpty(workEffort.getString("tempExprId"))) {
@@ -884,9 +884,18 @@ public class WorkEffortServices {
                         TemporalExpression tempExpr = TemporalExpressionWorker.getTemporalExpression(delegator, workEffort.getString("tempExprId"));
                         DateRange weRange = new DateRange(workEffort.getTimestamp("estimatedStartDate"), workEffort.getTimestamp("estimatedCompletionDate"));
 
-                        Set<Date> occurrences = tempExpr.getRange(range, cal);
+                        // SCIPIO: occurrences and periods are both in ascending order, so the periods
+                        // before an occurrence do not have to be checked again for the next ones
+                        List<Date> occurrences = tempExpr.occurrencesBetween(cal, endStamp);
+                        int firstPeriodIndex = 0;
                         for (Date occurrence : occurrences) {
-                            for (DateRange periodRange : periodRanges) {
+                            while (firstPeriodIndex < periodRanges.size() && periodRanges.get(firstPeriodIndex).end().before(occurrence)) {
+                                firstPeriodIndex++;
+                            }
+                            for (DateRange periodRange : periodRanges.subList(firstPeriodIndex, periodRanges.size())) {
+                                if (periodRange.start().after(occurrence)) {
+                                    break;
+                                }
                                 if (periodRange.includesDate(occurrence)) {
                                     GenericValue cloneWorkEffort = (GenericValue) workEffort.clone();
                                     TimeDuration duration = TimeDuration.fromNumber(workEffort.getDouble("estimatedMilliSeconds"));
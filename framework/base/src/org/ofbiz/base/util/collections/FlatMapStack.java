@@ -0,0 +1,522 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.util.collections;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.ofbiz.base.util.Debug;
+
+/**
+ * SCIPIO: Map Stack with a flattened lookup table.
+ * <p>
+ * Keeps the same stack of Maps as {@link MapStack} (so it can be shared with plain MapStacks),
+ * plus a single table with the visible value of each key, so that get and containsKey do
+ * one hash lookup whatever the depth of the stack. Each level has an undo log holding the value
+ * each key had before the level first set it, so push and pop only cost the number of keys
+ * changed in the popped level; keys without an undo record (levels shared from another stack,
+ * keys set by others) are looked up again in the remaining levels. Shadowing is the same as
+ * MapStack: a key set to null in an upper level hides the value of a lower level.
+ * <p>
+ * The levels created by this stack notify the other stacks that share them (stand-alone stacks,
+ * plain MapStacks created from this one) of their changes, which resolve the changed keys again
+ * on their next access. Maps pushed from outside with {@link #push(Map)}, {@link #addToBottom(Map)}
+ * or {@link #create(Map)} are indexed when added: changes made to them afterwards other than
+ * through this stack are not seen, nor are changes made through the entries of {@link #entrySet()}.
+ * <p>
+ * Creating a stand-alone stack copies the lookup table, so it costs the number of visible keys
+ * rather than the number of levels; it pays off when the context is read much more than it is
+ * forked, as is the case of screen rendering.
+ */
+public class FlatMapStack<K> extends MapStack<K> {
+
+    public static final String module = FlatMapStack.class.getName();
+
+    /** Undo log marker for a key that was not visible before the level set it */
+    private static final Object ABSENT = new Object();
+
+    public static <K> FlatMapStack<K> create() {
+        FlatMapStack<K> newValue = new FlatMapStack<K>();
+        // initialize with a single entry
+        newValue.push();
+        return newValue;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K> FlatMapStack<K> create(Map<K, Object> baseMap) {
+        if (baseMap instanceof FlatMapStack) {
+            return ((FlatMapStack<K>) baseMap).standAloneStack();
+        }
+        FlatMapStack<K> newValue = new FlatMapStack<K>();
+        if (baseMap instanceof MapContext) {
+            for (Map<K, Object> level : ((MapContext<K, Object>) baseMap).stackList) {
+                newValue.addLevel(newValue.stackList.size(), level);
+            }
+        } else {
+            newValue.addLevel(0, baseMap);
+        }
+        newValue.rebuild();
+        return newValue;
+    }
+
+    /** Does a shallow copy of the internal stack of the passed MapStack; enables simultaneous stacks that share common parent Maps */
+    public static <K> FlatMapStack<K> create(MapStack<K> source) {
+        return create((Map<K, Object>) source);
+    }
+
+    /** Resolved value of each visible key */
+    private HashMap<Object, Object> flat = new HashMap<Object, Object>();
+    /** Undo log of each level, in the same order as stackList (top first); null until the level is changed through this stack */
+    private LinkedList<HashMap<Object, Object>> undoLogs = new LinkedList<HashMap<Object, Object>>();
+    /** Keys changed in shared levels by others, to resolve again on next access */
+    private final Set<Object> dirtyKeys = new HashSet<Object>();
+    private boolean dirtyAll = false;
+    /** Number of LocalizedMap levels; get(String, Locale) has to walk the levels when there are some */
+    private int localizedLevels = 0;
+
+    protected FlatMapStack() {
+        super();
+    }
+
+    @Override
+    public void reset() {
+        for (Map<K, Object> level : this.stackList) {
+            unobserve(level);
+        }
+        super.reset();
+        this.flat = new HashMap<Object, Object>();
+        this.undoLogs = new LinkedList<HashMap<Object, Object>>();
+        this.dirtyKeys.clear();
+        this.dirtyAll = false;
+        this.localizedLevels = 0;
+    }
+
+    /** Puts a new Map on the top of the stack */
+    @Override
+    public void push() {
+        addLevel(0, new Level<K>());
+    }
+
+    /** Puts an existing Map on the top of the stack (top meaning will override lower layers on the stack) */
+    @Override
+    public void push(Map<K, Object> existingMap) {
+        if (existingMap == null) {
+            throw new IllegalArgumentException("Error: cannot push null existing Map onto a MapContext");
+        }
+        sync();
+        addLevel(0, existingMap);
+        HashMap<Object, Object> undoLog = getUndoLog();
+        for (Map.Entry<K, Object> entry : existingMap.entrySet()) {
+            undoLog.put(entry.getKey(), getFlatValue(entry.getKey()));
+            this.flat.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /** Puts an existing Map on the BOTTOM of the stack (bottom meaning will be overriden by lower layers on the stack, ie everything else already there) */
+    @Override
+    public void addToBottom(Map<K, Object> existingMap) {
+        if (existingMap == null) {
+            throw new IllegalArgumentException("Error: cannot add null existing Map to bottom of a MapContext");
+        }
+        addLevel(this.stackList.size(), existingMap);
+        // the undo logs of all the levels above may change; rare, so rebuild everything on next access
+        this.dirtyAll = true;
+    }
+
+    /** Remove and returns the Map from the top of the stack; if there is only one Map on the stack it returns null and does not remove it */
+    @Override
+    public Map<K, Object> pop() {
+        // always leave at least one Map in the List, ie never pop off the last Map
+        if (this.stackList.size() <= 1) {
+            return null;
+        }
+        sync();
+        Map<K, Object> top = this.stackList.remove(0);
+        HashMap<Object, Object> undoLog = this.undoLogs.removeFirst();
+        unobserve(top);
+        for (K key : top.keySet()) {
+            if (undoLog != null && undoLog.containsKey(key)) {
+                setFlatValue(key, undoLog.get(key));
+            } else {
+                // shared level or set by others: no undo record, look it up in the remaining levels
+                resolve(key);
+            }
+        }
+        return top;
+    }
+
+    /**
+     * Creates a FlatMapStack object that has the same Map objects on its stack
+     * and a copy of the lookup table; see {@link MapStack#standAloneStack()}.
+     * The undo logs are not copied: popping the shared levels from the new stack
+     * looks their keys up again.
+     */
+    @Override
+    public FlatMapStack<K> standAloneStack() {
+        sync();
+        FlatMapStack<K> standAlone = new FlatMapStack<K>();
+        for (Map<K, Object> level : this.stackList) {
+            standAlone.addLevel(standAlone.stackList.size(), level);
+        }
+        standAlone.flat = new HashMap<Object, Object>(this.flat);
+        return standAlone;
+    }
+
+    /**
+     * Creates a FlatMapStack object that has the same Map objects on its stack,
+     * but with a new Map pushed on the top; see {@link MapStack#standAloneChildStack()}.
+     */
+    @Override
+    public FlatMapStack<K> standAloneChildStack() {
+        FlatMapStack<K> standAloneChild = standAloneStack();
+        standAloneChild.push();
+        return standAloneChild;
+    }
+
+    @Override
+    public int size() {
+        sync();
+        return this.flat.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        sync();
+        return this.flat.isEmpty();
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        sync();
+        return this.flat.containsKey(key);
+    }
+
+    @Override
+    public Object get(Object key) {
+        if ("context".equals(key)) {
+            return this;
+        }
+        sync();
+        return this.flat.get(key);
+    }
+
+    @Override
+    public Object get(String name, Locale locale) {
+        if (this.localizedLevels > 0) {
+            return super.get(name, locale);
+        }
+        return get(name);
+    }
+
+    @Override
+    public Object put(K key, Object value) {
+        if ("context".equals(key)) {
+            if (value == null || this != value) {
+                Debug.logWarning("Putting a value in a MapStack with key [context] that is not this MapStack, will be hidden by the current MapStack self-reference: " + value, module);
+            }
+        }
+        sync();
+        Map<K, Object> top = this.stackList.get(0);
+        if (!top.containsKey(key)) {
+            // the undo log only has keys of the level, so none for this one yet
+            getUndoLog().put(key, getFlatValue(key));
+        }
+        this.flat.put(key, value);
+        if (top instanceof Level) {
+            return ((Level<K>) top).put(key, value, this);
+        }
+        return top.put(key, value);
+    }
+
+    @Override
+    public Object remove(Object key) {
+        sync();
+        Map<K, Object> top = this.stackList.get(0);
+        if (!top.containsKey(key)) {
+            return null;
+        }
+        Object value = (top instanceof Level) ? ((Level<K>) top).remove(key, this) : top.remove(key);
+        HashMap<Object, Object> undoLog = this.undoLogs.getFirst();
+        if (undoLog != null && undoLog.containsKey(key)) {
+            setFlatValue(key, undoLog.remove(key));
+        } else {
+            resolve(key);
+        }
+        return value;
+    }
+
+    @Override
+    public void putAll(Map<? extends K, ? extends Object> arg0) {
+        for (Map.Entry<? extends K, ? extends Object> entry : arg0.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void clear() {
+        sync();
+        Map<K, Object> top = this.stackList.get(0);
+        List<K> keys = new ArrayList<K>(top.keySet());
+        HashMap<Object, Object> undoLog = this.undoLogs.getFirst();
+        if (top instanceof Level) {
+            ((Level<K>) top).clear(this);
+        } else {
+            top.clear();
+        }
+        for (K key : keys) {
+            if (undoLog != null && undoLog.containsKey(key)) {
+                setFlatValue(key, undoLog.get(key));
+            } else {
+                resolve(key);
+            }
+        }
+        this.undoLogs.set(0, null);
+    }
+
+    @Override
+    public Set<K> keySet() {
+        sync();
+        Set<K> resultSet = new HashSet<K>();
+        for (Object key : this.flat.keySet()) {
+            @SuppressWarnings("unchecked")
+            K typedKey = (K) key;
+            resultSet.add(typedKey);
+        }
+        return Collections.unmodifiableSet(resultSet);
+    }
+
+    private void addLevel(int index, Map<K, Object> level) {
+        this.stackList.add(index, level);
+        this.undoLogs.add(index, null);
+        if (level instanceof Level) {
+            ((Level<K>) level).addObserver(this);
+        } else if (level instanceof LocalizedMap) {
+            this.localizedLevels++;
+        }
+    }
+
+    private void unobserve(Map<K, Object> level) {
+        if (level instanceof Level) {
+            ((Level<K>) level).removeObserver(this);
+        } else if (level instanceof LocalizedMap) {
+            this.localizedLevels--;
+        }
+    }
+
+    /** Undo log of the top level, created on first use */
+    private HashMap<Object, Object> getUndoLog() {
+        HashMap<Object, Object> undoLog = this.undoLogs.getFirst();
+        if (undoLog == null) {
+            undoLog = new HashMap<Object, Object>();
+            this.undoLogs.set(0, undoLog);
+        }
+        return undoLog;
+    }
+
+    /** Visible value of the key, or ABSENT */
+    private Object getFlatValue(Object key) {
+        Object value = this.flat.get(key);
+        if (value == null && !this.flat.containsKey(key)) {
+            return ABSENT;
+        }
+        return value;
+    }
+
+    private void setFlatValue(Object key, Object value) {
+        if (value == ABSENT) {
+            this.flat.remove(key);
+        } else {
+            this.flat.put(key, value);
+        }
+    }
+
+    /** Looks up the key in the levels of the stack, top first, and updates the lookup table */
+    private void resolve(Object key) {
+        for (Map<K, Object> level : this.stackList) {
+            if (level.containsKey(key)) {
+                this.flat.put(key, level.get(key));
+                return;
+            }
+        }
+        this.flat.remove(key);
+    }
+
+    /** Applies the changes made to shared levels by others */
+    private void sync() {
+        if (this.dirtyAll) {
+            rebuild();
+        } else if (!this.dirtyKeys.isEmpty()) {
+            for (Object key : this.dirtyKeys) {
+                resolve(key);
+            }
+            this.dirtyKeys.clear();
+        }
+    }
+
+    /** Rebuilds the lookup table and the undo logs from the levels, bottom first */
+    private void rebuild() {
+        this.flat.clear();
+        List<Map<K, Object>> levels = new ArrayList<Map<K, Object>>(this.stackList);
+        Collections.reverse(levels);
+        this.undoLogs.clear();
+        for (int i = 0; i < levels.size(); i++) {
+            HashMap<Object, Object> undoLog = new HashMap<Object, Object>();
+            this.undoLogs.addFirst(undoLog);
+            for (Map.Entry<K, Object> entry : levels.get(i).entrySet()) {
+                undoLog.put(entry.getKey(), getFlatValue(entry.getKey()));
+                this.flat.put(entry.getKey(), entry.getValue());
+            }
+        }
+        this.dirtyKeys.clear();
+        this.dirtyAll = false;
+    }
+
+    /** Called when a key of a shared level is changed by others (ABSENT when cleared): the undo records of the key may be stale too */
+    void levelChanged(Object key) {
+        if (key == ABSENT) {
+            this.dirtyAll = true;
+        }
+        if (this.dirtyAll) {
+            return;
+        }
+        this.dirtyKeys.add(key);
+        for (HashMap<Object, Object> undoLog : this.undoLogs) {
+            if (undoLog != null) {
+                undoLog.remove(key);
+            }
+        }
+    }
+
+    /**
+     * A stack level created by a FlatMapStack; notifies the other stacks it is part of
+     * of the changes made to it.
+     */
+    @SuppressWarnings("serial")
+    static final class Level<K> extends HashMap<K, Object> {
+
+        /** The stack which pushed the level, if it is still on it */
+        private FlatMapStack<?> owner;
+        /** Other stacks sharing the level, weakly referenced as stand-alone stacks are dropped without popping */
+        private List<WeakReference<FlatMapStack<?>>> sharers;
+        /** Number of sharers above which the collected ones are pruned on add */
+        private int sharersPruneSize = 8;
+
+        void addObserver(FlatMapStack<?> stack) {
+            if (owner == null) {
+                owner = stack;
+                return;
+            }
+            if (sharers == null) {
+                sharers = new ArrayList<WeakReference<FlatMapStack<?>>>(2);
+            } else if (sharers.size() >= sharersPruneSize) {
+                Iterator<WeakReference<FlatMapStack<?>>> it = sharers.iterator();
+                while (it.hasNext()) {
+                    if (it.next().get() == null) {
+                        it.remove();
+                    }
+                }
+                sharersPruneSize = Math.max(8, sharers.size() * 2);
+            }
+            sharers.add(new WeakReference<FlatMapStack<?>>(stack));
+        }
+
+        void removeObserver(FlatMapStack<?> stack) {
+            if (owner == stack) {
+                owner = null;
+            } else if (sharers != null) {
+                Iterator<WeakReference<FlatMapStack<?>>> it = sharers.iterator();
+                while (it.hasNext()) {
+                    FlatMapStack<?> sharer = it.next().get();
+                    if (sharer == null || sharer == stack) {
+                        it.remove();
+                    }
+                }
+            }
+        }
+
+        @Override
+        public Object put(K key, Object value) {
+            return put(key, value, null);
+        }
+
+        Object put(K key, Object value, FlatMapStack<?> source) {
+            Object previous = super.put(key, value);
+            notifyChanged(key, source);
+            return previous;
+        }
+
+        @Override
+        public Object remove(Object key) {
+            return remove(key, null);
+        }
+
+        Object remove(Object key, FlatMapStack<?> source) {
+            if (!containsKey(key)) {
+                return null;
+            }
+            Object previous = super.remove(key);
+            notifyChanged(key, source);
+            return previous;
+        }
+
+        @Override
+        public void putAll(Map<? extends K, ? extends Object> m) {
+            for (Map.Entry<? extends K, ? extends Object> entry : m.entrySet()) {
+                put(entry.getKey(), entry.getValue(), null);
+            }
+        }
+
+        @Override
+        public void clear() {
+            clear(null);
+        }
+
+        void clear(FlatMapStack<?> source) {
+            super.clear();
+            notifyChanged(ABSENT, source);
+        }
+
+        /** Notifies the stacks other than source of a change of the key; ABSENT for all keys */
+        private void notifyChanged(Object key, FlatMapStack<?> source) {
+            if (owner != null && owner != source) {
+                owner.levelChanged(key);
+            }
+            if (sharers != null) {
+                Iterator<WeakReference<FlatMapStack<?>>> it = sharers.iterator();
+                while (it.hasNext()) {
+                    FlatMapStack<?> sharer = it.next().get();
+                    if (sharer == null) {
+                        it.remove();
+                    } else if (sharer != source) {
+                        sharer.levelChanged(key);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,333 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.util.collections.test;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.ofbiz.base.test.GenericTestCaseBase;
+import org.ofbiz.base.util.collections.FlatMapStack;
+import org.ofbiz.base.util.collections.MapStack;
+
+/**
+ * SCIPIO: Checks that {@link FlatMapStack} gives the same view as {@link MapStack} for the same
+ * operations: each test runs the same steps on both and compares them after each step.
+ */
+public class FlatMapStackTests extends GenericTestCaseBase {
+
+    private static final String[] probeKeys = { "a", "b", "c", "d", "e", "missing" };
+
+    public FlatMapStackTests(String name) {
+        super(name);
+    }
+
+    public void testShadowing() {
+        MapStack<String> expected = MapStack.create();
+        MapStack<String> actual = FlatMapStack.create();
+        for (MapStack<String> stack : pair(expected, actual)) {
+            stack.put("a", "1");
+            stack.put("b", "2");
+            stack.push();
+            stack.put("a", "10");
+        }
+        assertSameView("shadow", expected, actual);
+        assertEquals("shadowing value", "10", actual.get("a"));
+        for (MapStack<String> stack : pair(expected, actual)) {
+            stack.put("b", null);
+        }
+        assertSameView("null-override", expected, actual);
+        assertTrue("null-override key still there", actual.containsKey("b"));
+        assertNull("null-override hides lower level", actual.get("b"));
+        for (MapStack<String> stack : pair(expected, actual)) {
+            stack.pop();
+        }
+        assertSameView("pop-shadow", expected, actual);
+        assertEquals("lower value back", "2", actual.get("b"));
+    }
+
+    public void testPushPopRemoveClear() {
+        MapStack<String> expected = MapStack.create();
+        MapStack<String> actual = FlatMapStack.create();
+        for (MapStack<String> stack : pair(expected, actual)) {
+            stack.put("a", "1");
+            stack.put("b", "2");
+            stack.push();
+            stack.put("a", "10");
+            stack.put("c", "30");
+            stack.push();
+            stack.put("a", null);
+            stack.put("d", "40");
+        }
+        assertSameView("pushed", expected, actual);
+        for (MapStack<String> stack : pair(expected, actual)) {
+            // key only set in a lower level: not removed
+            assertNull("remove-lower", stack.remove("b"));
+            assertNull("remove-null-override", stack.remove("a"));
+        }
+        assertSameView("remove", expected, actual);
+        assertEquals("removed null-override shows lower level", "10", actual.get("a"));
+        for (MapStack<String> stack : pair(expected, actual)) {
+            stack.put("a", "100");
+            stack.clear();
+        }
+        assertSameView("clear", expected, actual);
+        assertEquals("cleared level shows lower level", "10", actual.get("a"));
+        for (MapStack<String> stack : pair(expected, actual)) {
+            stack.put("e", "50");
+            stack.pop();
+        }
+        assertSameView("pop", expected, actual);
+        for (MapStack<String> stack : pair(expected, actual)) {
+            stack.pop();
+            assertNull("last level never popped", stack.pop());
+        }
+        assertSameView("pop-last", expected, actual);
+    }
+
+    public void testPushExistingMap() {
+        MapStack<String> expected = MapStack.create();
+        MapStack<String> actual = FlatMapStack.create();
+        Map<String, Object> expectedExisting = mapOf("a", "existing", "c", null);
+        Map<String, Object> actualExisting = mapOf("a", "existing", "c", null);
+        for (MapStack<String> stack : pair(expected, actual)) {
+            stack.put("a", "1");
+            stack.put("c", "3");
+        }
+        expected.push(expectedExisting);
+        actual.push(actualExisting);
+        assertSameView("push-existing", expected, actual);
+        for (MapStack<String> stack : pair(expected, actual)) {
+            stack.put("b", "2");
+        }
+        assertSameView("put-in-existing", expected, actual);
+        assertEquals("written to the pushed map", "2", actualExisting.get("b"));
+        assertSame("pop returns the pushed map", expectedExisting, expected.pop());
+        assertSame("pop returns the pushed map", actualExisting, actual.pop());
+        assertSameView("pop-existing", expected, actual);
+    }
+
+    public void testAddToBottom() {
+        MapStack<String> expected = MapStack.create();
+        MapStack<String> actual = FlatMapStack.create();
+        Map<String, Object> bottom = new HashMap<String, Object>();
+        bottom.put("a", "bottom");
+        bottom.put("e", "bottom");
+        for (MapStack<String> stack : pair(expected, actual)) {
+            stack.put("a", "1");
+            stack.push();
+            stack.put("b", "2");
+            stack.addToBottom(bottom);
+        }
+        assertSameView("add-to-bottom", expected, actual);
+        assertEquals("bottom level hidden", "1", actual.get("a"));
+        assertEquals("bottom level visible", "bottom", actual.get("e"));
+        for (MapStack<String> stack : pair(expected, actual)) {
+            stack.put("e", "top");
+            stack.pop();
+        }
+        assertSameView("pop-after-add-to-bottom", expected, actual);
+        for (MapStack<String> stack : pair(expected, actual)) {
+            stack.remove("a");
+        }
+        assertSameView("remove-after-add-to-bottom", expected, actual);
+        assertEquals("bottom level shown", "bottom", actual.get("a"));
+    }
+
+    public void testStandAloneStackWrites() {
+        // the globalContext case: a stand-alone stack sharing the levels of the owning stack, written while the owner pushes
+        MapStack<String> expected = MapStack.create();
+        MapStack<String> actual = FlatMapStack.create();
+        MapStack<String> expectedGlobal = expected.standAloneStack();
+        MapStack<String> actualGlobal = actual.standAloneStack();
+        for (MapStack<String> stack : pair(expected, actual)) {
+            stack.put("a", "1");
+            stack.push();
+            stack.put("b", "2");
+        }
+        assertSameView("global-before", expectedGlobal, actualGlobal);
+        expectedGlobal.put("c", "global");
+        actualGlobal.put("c", "global");
+        expectedGlobal.put("a", "global");
+        actualGlobal.put("a", "global");
+        expectedGlobal.put("b", "global");
+        actualGlobal.put("b", "global");
+        assertSameView("global-written", expected, actual);
+        assertEquals("global write seen by the owning stack", "global", actual.get("c"));
+        assertEquals("global write shadowed by the owning stack", "2", actual.get("b"));
+        for (MapStack<String> stack : pair(expected, actual)) {
+            stack.pop();
+        }
+        assertSameView("global-pop", expected, actual);
+        assertEquals("global write seen after pop", "global", actual.get("b"));
+        expectedGlobal.remove("a");
+        actualGlobal.remove("a");
+        assertSameView("global-remove", expected, actual);
+        for (MapStack<String> stack : pair(expected, actual)) {
+            stack.put("d", "owner");
+        }
+        assertSameView("owner-write-seen-by-global", expectedGlobal, actualGlobal);
+        expectedGlobal.clear();
+        actualGlobal.clear();
+        assertSameView("global-clear", expected, actual);
+    }
+
+    public void testSharedLevelWrites() {
+        // levels shared with a plain MapStack, or written directly, as other code does with context levels
+        MapStack<String> expected = MapStack.create();
+        MapStack<String> actual = FlatMapStack.create();
+        for (MapStack<String> stack : pair(expected, actual)) {
+            stack.put("a", "1");
+        }
+        MapStack<String> expectedPlain = MapStack.create((Map<String, Object>) expected);
+        MapStack<String> actualPlain = MapStack.create((Map<String, Object>) actual);
+        for (MapStack<String> stack : pair(expected, actual)) {
+            stack.push();
+            stack.put("b", "2");
+        }
+        expectedPlain.put("c", "plain");
+        actualPlain.put("c", "plain");
+        expectedPlain.put("b", "plain");
+        actualPlain.put("b", "plain");
+        assertSameView("plain-written", expected, actual);
+        expectedPlain.putAll(mapOf("d", "plain", "a", null));
+        actualPlain.putAll(mapOf("d", "plain", "a", null));
+        assertSameView("plain-putAll", expected, actual);
+        for (MapStack<String> stack : pair(expected, actual)) {
+            stack.pop();
+        }
+        assertSameView("plain-pop", expected, actual);
+        assertTrue("null written through the shared level", actual.containsKey("a"));
+        assertNull(actual.get("a"));
+    }
+
+    public void testStandAloneChildStack() {
+        MapStack<String> expected = MapStack.create();
+        MapStack<String> actual = FlatMapStack.create();
+        for (MapStack<String> stack : pair(expected, actual)) {
+            stack.put("a", "1");
+        }
+        MapStack<String> expectedChild = expected.standAloneChildStack();
+        MapStack<String> actualChild = actual.standAloneChildStack();
+        expectedChild.put("a", "child");
+        actualChild.put("a", "child");
+        expectedChild.put("b", "child");
+        actualChild.put("b", "child");
+        assertSameView("child", expectedChild, actualChild);
+        assertSameView("parent-unchanged", expected, actual);
+        assertEquals("child write not seen by the parent", "1", actual.get("a"));
+        for (MapStack<String> stack : pair(expected, actual)) {
+            stack.put("c", "parent");
+        }
+        assertSameView("parent-write-seen-by-child", expectedChild, actualChild);
+    }
+
+    public void testCreateFromMap() {
+        Map<String, Object> base = mapOf("a", "1", "b", null);
+        MapStack<String> expected = MapStack.create(new HashMap<String, Object>(base));
+        MapStack<String> actual = FlatMapStack.create(new HashMap<String, Object>(base));
+        assertSameView("create-map", expected, actual);
+        for (MapStack<String> stack : pair(expected, actual)) {
+            stack.push();
+            stack.put("b", "2");
+        }
+        assertSameView("create-map-push", expected, actual);
+        MapStack<String> expectedCopy = MapStack.create(expected);
+        MapStack<String> actualCopy = FlatMapStack.create(actual);
+        assertSameView("create-stack", expectedCopy, actualCopy);
+    }
+
+    public void testRandomOperations() {
+        Random random = new Random(42);
+        MapStack<String> expected = MapStack.create();
+        MapStack<String> actual = FlatMapStack.create();
+        MapStack<String> expectedGlobal = expected.standAloneStack();
+        MapStack<String> actualGlobal = actual.standAloneStack();
+        for (int i = 0; i < 2000; i++) {
+            int op = random.nextInt(10);
+            String key = probeKeys[random.nextInt(probeKeys.length - 1)];
+            String value = random.nextInt(5) == 0 ? null : "v" + i;
+            String label = "step " + i + " op " + op + " key " + key;
+            switch (op) {
+            case 0:
+                expected.push();
+                actual.push();
+                break;
+            case 1:
+                expected.pop();
+                actual.pop();
+                break;
+            case 2:
+                assertEquals(label, expected.remove(key), actual.remove(key));
+                break;
+            case 3:
+                if (random.nextInt(4) == 0) {
+                    expected.clear();
+                    actual.clear();
+                }
+                break;
+            case 4:
+                expectedGlobal.put(key, value);
+                actualGlobal.put(key, value);
+                break;
+            case 5:
+                if (random.nextInt(8) == 0) {
+                    expected.addToBottom(mapOf(key, value));
+                    actual.addToBottom(mapOf(key, value));
+                }
+                break;
+            default:
+                assertEquals(label, expected.put(key, value), actual.put(key, value));
+            }
+            assertSameView(label, expected, actual);
+            assertSameView(label + " global", expectedGlobal, actualGlobal);
+        }
+    }
+
+    private static Map<String, Object> mapOf(String key, Object value) {
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put(key, value);
+        return map;
+    }
+
+    private static Map<String, Object> mapOf(String key1, Object value1, String key2, Object value2) {
+        Map<String, Object> map = mapOf(key1, value1);
+        map.put(key2, value2);
+        return map;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static MapStack<String>[] pair(MapStack<String> expected, MapStack<String> actual) {
+        return new MapStack[] { expected, actual };
+    }
+
+    private static void assertSameView(String label, MapStack<String> expected, MapStack<String> actual) {
+        Set<String> keys = new HashSet<String>(expected.keySet());
+        assertEquals(label + ":keySet", keys, new HashSet<String>(actual.keySet()));
+        assertEquals(label + ":size", expected.size(), actual.size());
+        assertEquals(label + ":isEmpty", expected.isEmpty(), actual.isEmpty());
+        for (String key : probeKeys) {
+            assertEquals(label + ":containsKey " + key, expected.containsKey(key), actual.containsKey(key));
+            assertEquals(label + ":get " + key, expected.get(key), actual.get(key));
+        }
+        assertSame(label + ":context", actual, actual.get("context"));
+    }
+}
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.base.util.collections.test;
+
+import org.ofbiz.base.util.collections.FlatMapStack;
+import org.ofbiz.base.util.collections.MapStack;
+
+/**
+ * SCIPIO: Micro-benchmark of MapStack against FlatMapStack for render context access patterns.
+ * <p>
+ * Simulates a screen render: a request context level with a few dozen entries, then one level
+ * per nested screen/decorator/section (each setting a few variables), and measures variable
+ * lookups (hits at every depth and misses, as templates often check optional variables),
+ * push/put/pop cycles and stand-alone child stack creation, for several stack depths.
+ * <p>
+ * Run with: java -cp &lt;base classes&gt; org.ofbiz.base.util.collections.test.MapStackBenchmark [iterations]
+ */
+public class MapStackBenchmark {
+
+    private static final int[] DEPTHS = { 4, 8, 16, 32 };
+    private static final int BASE_KEYS = 60;
+    private static final int LEVEL_KEYS = 8;
+
+    private static volatile Object sink;
+
+    public static void main(String[] args) {
+        int iterations = (args.length > 0) ? Integer.parseInt(args[0]) : 200000;
+        // warm up both implementations before measuring
+        for (int depth : DEPTHS) {
+            run(false, depth, iterations / 10, false);
+            run(true, depth, iterations / 10, false);
+        }
+        System.out.println(String.format("%-14s %6s %12s %12s %12s %12s", "impl", "depth", "get ns/op", "miss ns/op", "push ns/op", "child ns/op"));
+        for (int depth : DEPTHS) {
+            run(false, depth, iterations, true);
+            run(true, depth, iterations, true);
+        }
+    }
+
+    private static MapStack<String> makeStack(boolean flat, int depth) {
+        MapStack<String> stack = flat ? FlatMapStack.<String>create() : MapStack.<String>create();
+        for (int i = 0; i < BASE_KEYS; i++) {
+            stack.put("request" + i, "value" + i);
+        }
+        for (int level = 1; level < depth; level++) {
+            stack.push();
+            for (int i = 0; i < LEVEL_KEYS; i++) {
+                // some keys shadow the same names at each level (title, parameters-like), others are level specific
+                stack.put((i < 2) ? "shared" + i : "level" + level + "_" + i, "value" + level);
+            }
+        }
+        return stack;
+    }
+
+    private static void run(boolean flat, int depth, int iterations, boolean print) {
+        MapStack<String> stack = makeStack(flat, depth);
+        String[] hitKeys = new String[16];
+        for (int i = 0; i < hitKeys.length; i++) {
+            hitKeys[i] = (i % 2 == 0) ? "request" + (i * 3) : "level" + (1 + (i % Math.max(1, depth - 1))) + "_" + (2 + (i % 6));
+        }
+        String[] missKeys = new String[16];
+        for (int i = 0; i < missKeys.length; i++) {
+            missKeys[i] = "optional" + i;
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink = stack.get(hitKeys[i & 15]);
+        }
+        long getNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            sink = stack.get(missKeys[i & 15]);
+        }
+        long missNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            stack.push();
+            stack.put("shared0", "inner");
+            stack.put("item", "item" + (i & 7));
+            stack.put("index", "x");
+            sink = stack.get("item");
+            stack.pop();
+        }
+        long pushNanos = System.nanoTime() - start;
+
+        int childIterations = Math.max(1, iterations / 10);
+        start = System.nanoTime();
+        for (int i = 0; i < childIterations; i++) {
+            MapStack<String> child = stack.standAloneChildStack();
+            child.put("shared1", "child");
+            sink = child.get("request1");
+        }
+        long childNanos = System.nanoTime() - start;
+
+        if (print) {
+            System.out.println(String.format("%-14s %6d %12.1f %12.1f %12.1f %12.1f", flat ? "FlatMapStack" : "MapStack", depth,
+                    (double) getNanos / iterations, (double) missNanos / iterations, (double) pushNanos / iterations, (double) childNanos / childIterations));
+        }
+    }
+}
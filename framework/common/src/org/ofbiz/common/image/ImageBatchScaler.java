@@ -0,0 +1,418 @@
+package org.ofbiz.common.image;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.service.ServiceUtil;
+
+/**
+ * SCIPIO: Pipelined batch image scaler, for bulk imports where many originals must be scaled
+ * into all their size types.
+ * <p>
+ * Each {@link Job} goes through three stages, each on its own bounded worker pool:
+ * <ol>
+ * <li>decode: reads the original once into a single {@link BufferedImage}</li>
+ * <li>scale: produces all size types from that image, largest first; with progressive
+ *     downscaling each size is scaled from the smallest already-scaled image that is
+ *     still at least as big as its target, instead of from the full original</li>
+ * <li>write: encodes and writes the scaled images</li>
+ * </ol>
+ * Stage queues are bounded and overflow runs in the submitting thread, so a fast stage cannot
+ * pile up decoded images ahead of a slow one. In addition, the number of original pixels
+ * in flight is limited by a semaphore (read from the image header before decoding), so that
+ * several very large originals cannot be decoded at the same time.
+ * <p>
+ * Defaults are read from imagecommon.properties (<code>image.batch.*</code>).
+ * Instances are single-use: {@link #run} shuts down the pools when done.
+ */
+public class ImageBatchScaler {
+
+    public static final String module = ImageBatchScaler.class.getName();
+
+    private static final int PIXEL_PERMIT_UNIT = 1024; // semaphore permits are counted in kilopixels
+
+    protected final ThreadPoolExecutor decodeExecutor;
+    protected final ThreadPoolExecutor scaleExecutor;
+    protected final ThreadPoolExecutor writeExecutor;
+    protected final Semaphore pixelPermits;
+    protected final int maxPixelPermits;
+    protected final boolean progressive;
+
+    public ImageBatchScaler(int decodeThreads, int scaleThreads, int writeThreads, int queueSize, long maxPixelsInFlight, boolean progressive) {
+        this.decodeExecutor = makeExecutor("decode", decodeThreads, queueSize);
+        this.scaleExecutor = makeExecutor("scale", scaleThreads, queueSize);
+        this.writeExecutor = makeExecutor("write", writeThreads, queueSize);
+        this.maxPixelPermits = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxPixelsInFlight / PIXEL_PERMIT_UNIT));
+        this.pixelPermits = new Semaphore(this.maxPixelPermits, true);
+        this.progressive = progressive;
+    }
+
+    /**
+     * Creates a scaler using the defaults from imagecommon.properties.
+     */
+    public static ImageBatchScaler fromProperties() {
+        int cpus = Runtime.getRuntime().availableProcessors();
+        String res = ImageUtil.IMAGECOMMON_PROP_RESOURCE;
+        return new ImageBatchScaler(
+                UtilProperties.getPropertyAsInteger(res, "image.batch.decodeThreads", Math.max(1, cpus / 2)),
+                UtilProperties.getPropertyAsInteger(res, "image.batch.scaleThreads", cpus),
+                UtilProperties.getPropertyAsInteger(res, "image.batch.writeThreads", Math.max(1, cpus / 2)),
+                UtilProperties.getPropertyAsInteger(res, "image.batch.queueSize", cpus * 2),
+                UtilProperties.getPropertyAsLong(res, "image.batch.maxPixelsInFlight", 256L * 1024L * 1024L),
+                UtilProperties.getPropertyAsBoolean(res, "image.batch.progressive", true));
+    }
+
+    private static ThreadPoolExecutor makeExecutor(final String stage, int threads, int queueSize) {
+        threads = Math.max(1, threads);
+        return new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger(1);
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "Scipio-ImageBatch-" + stage + "-" + count.getAndIncrement());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * A scaling target: one size type of a job, written to the given file.
+     */
+    public static class Target {
+        protected final String sizeType;
+        protected final File outFile;
+        protected final String formatName;
+        protected final String url;
+
+        public Target(String sizeType, File outFile, String formatName, String url) {
+            this.sizeType = sizeType;
+            this.outFile = outFile;
+            this.formatName = formatName;
+            this.url = url;
+        }
+
+        public Target(String sizeType, File outFile, String formatName) {
+            this(sizeType, outFile, formatName, null);
+        }
+
+        public String getSizeType() {
+            return sizeType;
+        }
+
+        public File getOutFile() {
+            return outFile;
+        }
+
+        public String getFormatName() {
+            return formatName;
+        }
+
+        /**
+         * Returns the public URL of the written file, if the caller provided one.
+         */
+        public String getUrl() {
+            return url;
+        }
+    }
+
+    /**
+     * One original image and the size types to produce from it; also holds the per-image result.
+     * The <code>key</code> is an opaque caller identifier (e.g. productId) returned with the result.
+     */
+    public static class Job {
+        protected final Object key;
+        protected final File source;
+        protected final ImageVariantConfig variantConfig;
+        protected final List<Target> targets;
+        protected final Map<String, Object> scalingOptions;
+
+        protected volatile long decodeTime = -1;
+        protected volatile long scaleTime = -1;
+        protected volatile long writeTime = -1;
+        protected volatile String errorMessage = null;
+        protected final List<String> writtenSizeTypes = Collections.synchronizedList(new ArrayList<String>());
+
+        // stage hand-off state; only touched by the stage that currently owns the job
+        protected BufferedImage image;
+        protected int permits;
+        protected Map<Target, BufferedImage> scaled;
+
+        public Job(Object key, File source, ImageVariantConfig variantConfig, List<Target> targets, Map<String, Object> scalingOptions) {
+            this.key = key;
+            this.source = source;
+            this.variantConfig = variantConfig;
+            this.targets = targets;
+            this.scalingOptions = scalingOptions;
+        }
+
+        public Object getKey() {
+            return key;
+        }
+
+        public File getSource() {
+            return source;
+        }
+
+        public List<Target> getTargets() {
+            return targets;
+        }
+
+        public boolean isSuccess() {
+            return errorMessage == null;
+        }
+
+        public String getErrorMessage() {
+            return errorMessage;
+        }
+
+        /**
+         * Returns the size types actually written, in write order.
+         */
+        public List<String> getWrittenSizeTypes() {
+            return writtenSizeTypes;
+        }
+
+        /**
+         * Returns a map of written size types to their target URLs, for targets that have one.
+         */
+        public Map<String, String> getWrittenUrlMap() {
+            Map<String, String> urlMap = new LinkedHashMap<>();
+            for (Target target : targets) {
+                if (target.url != null && writtenSizeTypes.contains(target.sizeType)) {
+                    urlMap.put(target.sizeType, target.url);
+                }
+            }
+            return urlMap;
+        }
+
+        /**
+         * Returns a map with the per-stage times in milliseconds (-1 if the stage did not run).
+         */
+        public Map<String, Long> getTimings() {
+            Map<String, Long> timings = new LinkedHashMap<>();
+            timings.put("decodeMs", decodeTime);
+            timings.put("scaleMs", scaleTime);
+            timings.put("writeMs", writeTime);
+            return timings;
+        }
+    }
+
+    /**
+     * Runs all jobs through the pipeline and blocks until every job has completed or failed,
+     * then shuts down the worker pools. Per-job failures are recorded on the job and do not
+     * abort the batch.
+     */
+    public List<Job> run(List<Job> jobs) throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(jobs.size());
+        try {
+            for (final Job job : jobs) {
+                decodeExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        decode(job, done);
+                    }
+                });
+            }
+            done.await();
+        } finally {
+            decodeExecutor.shutdownNow();
+            scaleExecutor.shutdownNow();
+            writeExecutor.shutdownNow();
+        }
+        return jobs;
+    }
+
+    protected void decode(final Job job, final CountDownLatch done) {
+        try {
+            job.permits = acquirePixelPermits(job.source);
+            long startTime = System.nanoTime();
+            BufferedImage image = ImageIO.read(job.source);
+            job.decodeTime = (System.nanoTime() - startTime) / 1000000;
+            if (image == null) {
+                throw new IOException("Unsupported or unreadable image: " + job.source);
+            }
+            if (image.getWidth() <= 0 || image.getHeight() <= 0) {
+                throw new IOException("Image has a null dimension: " + job.source);
+            }
+            job.image = image;
+            scaleExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    scale(job, done);
+                }
+            });
+        } catch (Throwable t) {
+            fail(job, done, t);
+        }
+    }
+
+    protected void scale(final Job job, final CountDownLatch done) {
+        try {
+            long startTime = System.nanoTime();
+            double origWidth = job.image.getWidth();
+            double origHeight = job.image.getHeight();
+            Map<String, Map<String, String>> dimensionMap = job.variantConfig.getVariantStringMap();
+
+            // largest first, so that smaller sizes can be derived from already-scaled images
+            List<Target> targets = new ArrayList<>(job.targets);
+            Collections.sort(targets, new Comparator<Target>() {
+                @Override
+                public int compare(Target o1, Target o2) {
+                    return Long.compare(getNumPixels(o2, job), getNumPixels(o1, job));
+                }
+            });
+            Map<Target, BufferedImage> scaled = new LinkedHashMap<>();
+            List<BufferedImage> intermediates = new ArrayList<>();
+            for (Target target : targets) {
+                if (!job.variantConfig.hasVariant(target.sizeType)) {
+                    Debug.logWarning("sizeType " + target.sizeType + " is not part of " + job.variantConfig.getName() + "; ignoring", module);
+                    continue;
+                }
+                BufferedImage sourceImage = job.image;
+                if (progressive) {
+                    double[] targetDims = getTargetDimensions(job.variantConfig.getVariant(target.sizeType), origWidth, origHeight);
+                    for (BufferedImage intermediate : intermediates) {
+                        if (intermediate.getWidth() >= targetDims[0] && intermediate.getHeight() >= targetDims[1]
+                                && intermediate.getWidth() * intermediate.getHeight() < sourceImage.getWidth() * sourceImage.getHeight()) {
+                            sourceImage = intermediate;
+                        }
+                    }
+                }
+                // NOTE: the original dimensions are passed so the target size is always computed from the original
+                Map<String, Object> scaleResult = ImageTransform.scaleImage(sourceImage, origHeight, origWidth,
+                        dimensionMap, target.sizeType, Locale.ENGLISH, job.scalingOptions);
+                if (!"success".equals(scaleResult.get("responseMessage"))) {
+                    throw new IOException("Could not scale to '" + target.sizeType + "': " + ServiceUtil.getErrorMessage(scaleResult));
+                }
+                BufferedImage scaledImage = (BufferedImage) scaleResult.get("bufferedImage");
+                scaled.put(target, scaledImage);
+                intermediates.add(scaledImage);
+            }
+            job.scaleTime = (System.nanoTime() - startTime) / 1000000;
+            job.scaled = scaled;
+            // the original is no longer needed; let it be collected before writing
+            job.image = null;
+            releasePixelPermits(job);
+            writeExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    write(job, done);
+                }
+            });
+        } catch (Throwable t) {
+            fail(job, done, t);
+        }
+    }
+
+    protected void write(Job job, CountDownLatch done) {
+        try {
+            long startTime = System.nanoTime();
+            for (Map.Entry<Target, BufferedImage> entry : job.scaled.entrySet()) {
+                Target target = entry.getKey();
+                File targetDir = target.outFile.getParentFile();
+                if (targetDir != null && !targetDir.exists() && !targetDir.mkdirs() && !targetDir.exists()) {
+                    throw new IOException("Unable to create target directory: " + targetDir);
+                }
+                if (!ImageIO.write(entry.getValue(), target.formatName, target.outFile)) {
+                    throw new IOException("No image writer found for format: " + target.formatName);
+                }
+                job.writtenSizeTypes.add(target.sizeType);
+            }
+            job.writeTime = (System.nanoTime() - startTime) / 1000000;
+            job.scaled = null;
+            done.countDown();
+        } catch (Throwable t) {
+            fail(job, done, t);
+        }
+    }
+
+    protected void fail(Job job, CountDownLatch done, Throwable t) {
+        Debug.logError(t, "Batch image scaling failed for " + job.source + ": " + t.getMessage(), module);
+        job.errorMessage = t.getMessage() != null ? t.getMessage() : t.toString();
+        job.image = null;
+        job.scaled = null;
+        releasePixelPermits(job);
+        done.countDown();
+    }
+
+    /**
+     * Reserves the original's pixel count (from the image header) against the in-flight limit.
+     * An image bigger than the whole limit takes all permits, so it runs alone.
+     */
+    protected int acquirePixelPermits(File source) throws IOException, InterruptedException {
+        long pixels = readNumPixels(source);
+        int permits = (int) Math.max(1, Math.min(maxPixelPermits, pixels / PIXEL_PERMIT_UNIT));
+        pixelPermits.acquire(permits);
+        return permits;
+    }
+
+    protected void releasePixelPermits(Job job) {
+        if (job.permits > 0) {
+            pixelPermits.release(job.permits);
+            job.permits = 0;
+        }
+    }
+
+    protected static long readNumPixels(File source) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(source)) {
+            if (in == null) {
+                throw new IOException("Cannot open image: " + source);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("Unsupported image format: " + source);
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                return (long) reader.getWidth(0) * reader.getHeight(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static long getNumPixels(Target target, Job job) {
+        ImageVariantConfig.VariantInfo variant = job.variantConfig.getVariant(target.sizeType);
+        return variant != null ? variant.getNumPixels() : 0;
+    }
+
+    /**
+     * Returns the {width, height} that {@link ImageTransform#scaleImage} will produce for the variant;
+     * a non-positive variant dimension is treated as unconstrained.
+     */
+    protected static double[] getTargetDimensions(ImageVariantConfig.VariantInfo variant, double imgWidth, double imgHeight) {
+        double scaleFactor;
+        if (variant.getHeight() <= 0) {
+            scaleFactor = variant.getWidth() / imgWidth;
+        } else if (variant.getWidth() <= 0) {
+            scaleFactor = variant.getHeight() / imgHeight;
+        } else {
+            scaleFactor = Math.min(variant.getWidth() / imgWidth, variant.getHeight() / imgHeight);
+        }
+        return new double[] { (int) (imgWidth * scaleFactor), (int) (imgHeight * scaleFactor) };
+    }
+}
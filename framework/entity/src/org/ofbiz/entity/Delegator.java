@@ -179,6 +179,19 @@ public interface Delegator {
      */
     GenericValue create(GenericValue value) throws GenericEntityException;
 
+    /**
+     * SCIPIO: Creates all the values using batched JDBC inserts, one batch per run of
+     * consecutive values of the same entity. This is a bulk-load fast path: unlike
+     * {@link #storeAll(List)} there is no existence check per value, so any value that
+     * already exists fails the whole operation. Entity ECAs and cache clearing run as for
+     * {@link #create(GenericValue)}.
+     *
+     * @param values
+     *            The GenericValues to create
+     * @return int representing number of values created
+     */
+    int createAll(List<GenericValue> values) throws GenericEntityException;
+
     /**
      * Creates a Entity in the form of a GenericValue and write it to the
      * datasource
@@ -927,6 +927,65 @@ public class GenericDelegator implements Delegator {
         }
     }
 
+    /* (non-Javadoc)
+     * @see org.ofbiz.entity.Delegator#createAll(java.util.List)
+     */
+    @Override
+    public int createAll(List<GenericValue> values) throws GenericEntityException {
+        if (UtilValidate.isEmpty(values)) {
+            return 0;
+        }
+        boolean beganTransaction = false;
+        try {
+            beganTransaction = TransactionUtil.begin();
+
+            int start = 0;
+            while (start < values.size()) {
+                String entityName = values.get(start).getEntityName();
+                int end = start + 1;
+                while (end < values.size() && entityName.equals(values.get(end).getEntityName())) {
+                    end++;
+                }
+                List<GenericValue> entityValues = values.subList(start, end);
+
+                EntityEcaRuleRunner<?> ecaRunner = this.getEcaRuleRunner(entityName);
+                for (GenericValue value : entityValues) {
+                    ecaRunner.evalRules(EntityEcaHandler.EV_VALIDATE, EntityEcaHandler.OP_CREATE, value, false);
+                    ecaRunner.evalRules(EntityEcaHandler.EV_RUN, EntityEcaHandler.OP_CREATE, value, false);
+                    value.setDelegator(this);
+                    // if audit log on for any fields, save new value with no old value because it's a create
+                    if (value.getModelEntity().getHasFieldWithAuditLog()) {
+                        createEntityAuditLogAll(value, false, false);
+                    }
+                }
+
+                getEntityHelper(entityName).createAll(entityValues);
+
+                for (GenericValue value : entityValues) {
+                    if (testMode) {
+                        storeForTestRollback(new TestOperation(OperationType.INSERT, value));
+                    }
+                    // as in create(), pick up the values set by the database for optimistic locking
+                    if (value.lockEnabled()) {
+                        refresh(value, true);
+                    } else {
+                        ecaRunner.evalRules(EntityEcaHandler.EV_CACHE_CLEAR, EntityEcaHandler.OP_CREATE, value, false);
+                        this.clearCacheLine(value);
+                    }
+                    ecaRunner.evalRules(EntityEcaHandler.EV_RETURN, EntityEcaHandler.OP_CREATE, value, false);
+                }
+                start = end;
+            }
+            TransactionUtil.commit(beganTransaction);
+            return values.size();
+        } catch (Exception e) {
+            String errMsg = "Failure in createAll operation for " + values.size() + " values: " + e.toString() + ". Rolling back transaction.";
+            Debug.logError(errMsg, module);
+            TransactionUtil.rollback(beganTransaction, errMsg, e);
+            throw new GenericEntityException(e);
+        }
+    }
+
     /* (non-Javadoc)
      * @see org.ofbiz.entity.Delegator#createOrStore(org.ofbiz.entity.GenericValue, boolean)
      * @deprecated use {@link #createOrStore(GenericValue value)}
@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.condition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericModelException;
+import org.ofbiz.entity.config.model.Datasource;
+import org.ofbiz.entity.model.ModelEntity;
+import org.ofbiz.entity.model.ModelField;
+
+/**
+ * SCIPIO: Keyset ("seek") pagination condition: matches the rows that sort strictly after
+ * the given last-row values for an ordered list of fields.
+ * <p>
+ * On databases that support row value comparisons, and when all fields sort in the same direction,
+ * this renders as <code>(A, B) &gt; (?, ?)</code>; otherwise it renders the equivalent expanded
+ * form <code>A &gt;= ? AND (A &gt; ? OR (A = ? AND B &gt; ?))</code>. The leading bound
+ * lets the database use an index on the first field in both cases.
+ * <p>
+ * The fields must not be null in the result rows, and the field list should end with a unique key
+ * (usually the primary key) so that no rows are skipped between pages.
+ */
+@SuppressWarnings("serial")
+public final class EntityKeysetCondition extends EntityCondition {
+
+    /**
+     * Values of <code>field-type-name</code> for datasources whose SQL dialect supports
+     * row value (tuple) comparisons with &lt; and &gt;.
+     */
+    private static final Set<String> rowValueFieldTypes = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            "postgres", "postnew", "mysql", "hsql")));
+
+    protected final List<String> fieldNames;
+    protected final List<Boolean> descending;
+    protected final List<Object> values;
+
+    /**
+     * Main constructor.
+     * @param fieldNames the order-by field names, most significant first
+     * @param descending for each field, whether it sorts descending
+     * @param values for each field, the value of the last row of the previous page; must not be null
+     */
+    public EntityKeysetCondition(List<String> fieldNames, List<Boolean> descending, List<? extends Object> values) {
+        if (fieldNames.isEmpty()) {
+            throw new IllegalArgumentException("Keyset condition requires at least one order-by field");
+        }
+        if (fieldNames.size() != descending.size() || fieldNames.size() != values.size()) {
+            throw new IllegalArgumentException("Keyset condition field names, directions and values must have the same size");
+        }
+        for (int i = 0; i < values.size(); i++) {
+            if (values.get(i) == null) {
+                throw new IllegalArgumentException("Keyset condition value for field [" + fieldNames.get(i) + "] is null; keyset order-by fields must not be null");
+            }
+        }
+        this.fieldNames = Collections.unmodifiableList(new ArrayList<String>(fieldNames));
+        this.descending = Collections.unmodifiableList(new ArrayList<Boolean>(descending));
+        this.values = Collections.unmodifiableList(new ArrayList<Object>(values));
+    }
+
+    public List<String> getFieldNames() {
+        return fieldNames;
+    }
+
+    public List<Boolean> getDescending() {
+        return descending;
+    }
+
+    public List<Object> getValues() {
+        return values;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return false;
+    }
+
+    @Override
+    public String makeWhereString(ModelEntity modelEntity, List<EntityConditionParam> entityConditionParams, Datasource datasourceInfo) {
+        if (modelEntity != null && datasourceInfo != null && fieldNames.size() > 1 && isUniformDirection()
+                && rowValueFieldTypes.contains(datasourceInfo.getFieldTypeName())) {
+            return makeRowValueWhereString(modelEntity, entityConditionParams, datasourceInfo);
+        }
+        return makeCondition().makeWhereString(modelEntity, entityConditionParams, datasourceInfo);
+    }
+
+    private String makeRowValueWhereString(ModelEntity modelEntity, List<EntityConditionParam> entityConditionParams, Datasource datasourceInfo) {
+        StringBuilder sql = new StringBuilder();
+        sql.append('(');
+        for (int i = 0; i < fieldNames.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            EntityFieldValue.makeFieldValue(fieldNames.get(i)).addSqlValue(sql, modelEntity, entityConditionParams, false, datasourceInfo);
+        }
+        sql.append(descending.get(0) ? ") < (" : ") > (");
+        for (int i = 0; i < fieldNames.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            ModelField field = modelEntity.getField(fieldNames.get(i));
+            addValue(sql, field, values.get(i), entityConditionParams);
+        }
+        sql.append(')');
+        return sql.toString();
+    }
+
+    @Override
+    public void checkCondition(ModelEntity modelEntity) throws GenericModelException {
+        makeCondition().checkCondition(modelEntity);
+    }
+
+    @Override
+    public boolean mapMatches(Delegator delegator, Map<String, ? extends Object> map) {
+        return makeCondition().mapMatches(delegator, map);
+    }
+
+    @Override
+    public void visit(EntityConditionVisitor visitor) {
+        makeCondition().visit(visitor);
+    }
+
+    @Override
+    public void accept(EntityConditionVisitor visitor) {
+        makeCondition().accept(visitor);
+    }
+
+    @Override
+    public EntityCondition freeze() {
+        return this;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof EntityKeysetCondition)) return false;
+        EntityKeysetCondition other = (EntityKeysetCondition) obj;
+        return fieldNames.equals(other.fieldNames) && descending.equals(other.descending) && values.equals(other.values);
+    }
+
+    @Override
+    public int hashCode() {
+        return fieldNames.hashCode() ^ descending.hashCode() ^ values.hashCode();
+    }
+
+    private boolean isUniformDirection() {
+        for (Boolean desc : descending) {
+            if (!desc.equals(descending.get(0))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Builds the portable expanded form of the condition, used for evaluation in memory
+     * and on databases without row value comparisons.
+     */
+    protected EntityCondition makeCondition() {
+        List<EntityCondition> alternatives = new ArrayList<EntityCondition>(fieldNames.size());
+        for (int i = 0; i < fieldNames.size(); i++) {
+            List<EntityCondition> terms = new ArrayList<EntityCondition>(i + 1);
+            for (int j = 0; j < i; j++) {
+                terms.add(EntityCondition.makeCondition(fieldNames.get(j), EntityOperator.EQUALS, values.get(j)));
+            }
+            terms.add(EntityCondition.makeCondition(fieldNames.get(i), descending.get(i) ? EntityOperator.LESS_THAN : EntityOperator.GREATER_THAN, values.get(i)));
+            alternatives.add(EntityCondition.makeCondition(terms, EntityOperator.AND));
+        }
+        EntityCondition seek = EntityCondition.makeCondition(alternatives, EntityOperator.OR);
+        if (fieldNames.size() == 1) {
+            return seek;
+        }
+        // the redundant leading bound gives the database an index range to start from
+        EntityCondition leadingBound = EntityCondition.makeCondition(fieldNames.get(0),
+                descending.get(0) ? EntityOperator.LESS_THAN_EQUAL_TO : EntityOperator.GREATER_THAN_EQUAL_TO, values.get(0));
+        return EntityCondition.makeCondition(leadingBound, EntityOperator.AND, seek);
+    }
+}
@@ -20,6 +20,7 @@ package org.ofbiz.entity.datasource;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.sql.Timestamp;
 import java.util.Collection;
 import java.util.Collections;
@@ -128,6 +129,30 @@ public class GenericDAO {
             return singleUpdateView(entity, (ModelViewEntity) modelEntity, fieldsToSave, sqlP);
         }
 
+        setInsertStamps(entity, modelEntity, fieldsToSave);
+
+        StringBuilder sqlB = new StringBuilder("INSERT INTO ").append(modelEntity.getTableName(datasource)).append(" (");
+
+        modelEntity.colNameString(fieldsToSave, sqlB, "");
+        sqlB.append(") VALUES (");
+        modelEntity.fieldsStringList(fieldsToSave, sqlB, "?", ", ");
+        String sql = sqlB.append(")").toString();
+
+        try {
+            sqlP.prepareStatement(sql);
+            SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
+            int retVal = sqlP.executeUpdate();
+
+            entity.synchronizedWithDatasource();
+            return retVal;
+        } catch (GenericEntityException e) {
+            throw new GenericEntityException("Error while inserting: " + entity.toString(), e);
+        } finally {
+            sqlP.close();
+        }
+    }
+
+    private void setInsertStamps(GenericEntity entity, ModelEntity modelEntity, List<ModelField> fieldsToSave) {
         // if we have a STAMP_TX_FIELD or CREATE_STAMP_TX_FIELD then set it with NOW, always do this before the STAMP_FIELD
         // NOTE: these fairly complicated if statements have a few objectives:
         //   1. don't run the TransationUtil.getTransaction*Stamp() methods when we don't need to
@@ -160,9 +185,52 @@ public class GenericDAO {
                 addFieldIfMissing(fieldsToSave, ModelEntity.CREATE_STAMP_FIELD, modelEntity);
             }
         }
+    }
 
-        StringBuilder sqlB = new StringBuilder("INSERT INTO ").append(modelEntity.getTableName(datasource)).append(" (");
+    /**
+     * SCIPIO: Inserts all the entities using JDBC batches: each run of consecutive entities of the same entity
+     * is inserted through one prepared statement with all its fields. Does no existence check, so this is meant
+     * for bulk loads into empty tables; any duplicate key fails the whole batch.
+     * @return the sum of the batch update counts (drivers that report SUCCESS_NO_INFO count one per row)
+     */
+    public int insertAll(List<? extends GenericEntity> entities) throws GenericEntityException {
+        int retVal = 0;
+        int start = 0;
+        while (start < entities.size()) {
+            GenericEntity first = entities.get(start);
+            ModelEntity modelEntity = first.getModelEntity();
+            if (modelEntity == null) {
+                throw new GenericModelException("Could not find ModelEntity record for entityName: " + first.getEntityName());
+            }
+            int end = start + 1;
+            while (end < entities.size() && modelEntity.getEntityName().equals(entities.get(end).getEntityName())) {
+                end++;
+            }
+            SQLProcessor sqlP = new SQLProcessor(first.getDelegator(), helperInfo);
+            try {
+                retVal += batchInsert(entities.subList(start, end), modelEntity, sqlP);
+            } catch (GenericEntityException e) {
+                sqlP.rollback();
+                throw e;
+            } finally {
+                sqlP.close();
+            }
+            start = end;
+        }
+        return retVal;
+    }
+
+    private int batchInsert(List<? extends GenericEntity> entities, ModelEntity modelEntity, SQLProcessor sqlP) throws GenericEntityException {
+        if (modelEntity instanceof ModelViewEntity) {
+            int retVal = 0;
+            for (GenericEntity entity : entities) {
+                retVal += singleUpdateView(entity, (ModelViewEntity) modelEntity, modelEntity.getFieldsUnmodifiable(), sqlP);
+            }
+            return retVal;
+        }
+        List<ModelField> fieldsToSave = modelEntity.getFieldsUnmodifiable();
 
+        StringBuilder sqlB = new StringBuilder("INSERT INTO ").append(modelEntity.getTableName(datasource)).append(" (");
         modelEntity.colNameString(fieldsToSave, sqlB, "");
         sqlB.append(") VALUES (");
         modelEntity.fieldsStringList(fieldsToSave, sqlB, "?", ", ");
@@ -170,15 +238,21 @@ public class GenericDAO {
 
         try {
             sqlP.prepareStatement(sql);
-            SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
-            int retVal = sqlP.executeUpdate();
-
-            entity.synchronizedWithDatasource();
+            for (GenericEntity entity : entities) {
+                setInsertStamps(entity, modelEntity, fieldsToSave);
+                SqlJdbcUtil.setValues(sqlP, fieldsToSave, entity, modelFieldTypeReader);
+                sqlP.addBatch();
+            }
+            int retVal = 0;
+            for (int count : sqlP.executeBatch()) {
+                retVal += (count == Statement.SUCCESS_NO_INFO) ? 1 : count;
+            }
+            for (GenericEntity entity : entities) {
+                entity.synchronizedWithDatasource();
+            }
             return retVal;
         } catch (GenericEntityException e) {
-            throw new GenericEntityException("Error while inserting: " + entity.toString(), e);
-        } finally {
-            sqlP.close();
+            throw new GenericEntityException("Error while batch inserting " + entities.size() + " values of entity " + modelEntity.getEntityName(), e);
         }
     }
 
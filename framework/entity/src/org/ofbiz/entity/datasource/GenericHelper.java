@@ -52,6 +52,12 @@ public interface GenericHelper {
      */
     public GenericValue create(GenericValue value) throws GenericEntityException;
 
+    /** SCIPIO: Inserts all the values using JDBC batches, one batch per run of consecutive values of the same entity.
+     * No existence check is done; any duplicate key fails the batch.
+     *@return the number of values inserted
+     */
+    public int createAll(List<GenericValue> values) throws GenericEntityException;
+
     /** Find a Generic Entity by its Primary Key
      *@param primaryKey The primary key to find by.
      *@return The GenericValue corresponding to the primaryKey
@@ -67,6 +67,18 @@ public class GenericHelperDAO implements GenericHelper {
         return value;
     }
 
+    /** SCIPIO: Inserts all the values using JDBC batches, one batch per run of consecutive values of the same entity.
+     *@return the number of values inserted
+     */
+    public int createAll(List<GenericValue> values) throws GenericEntityException {
+        if (values == null) {
+            return 0;
+        }
+        int retVal = genericDAO.insertAll(values);
+        if (Debug.verboseOn()) Debug.logVerbose("Insert All Return Value : " + retVal, module);
+        return values.size();
+    }
+
     /** Find a Generic Entity by its Primary Key
      *@param primaryKey The primary key to find by.
      *@return The GenericValue corresponding to the primaryKey
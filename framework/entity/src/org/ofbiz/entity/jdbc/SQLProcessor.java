@@ -44,6 +44,7 @@ import org.ofbiz.entity.config.model.EntityConfig;
 import org.ofbiz.entity.datasource.GenericHelperInfo;
 import org.ofbiz.entity.transaction.GenericTransactionException;
 import org.ofbiz.entity.transaction.TransactionFactoryLoader;
+import org.ofbiz.entity.transaction.TransactionTracer;
 import org.ofbiz.entity.transaction.TransactionUtil;
 
 /**
@@ -88,6 +89,9 @@ public class SQLProcessor {
     // / true in case the connection shall be closed.
     private boolean _bDeleteConnection = false;
 
+    // / SCIPIO: Rows read with next() since the last close, for the transaction trace
+    private int _rowsRead = 0;
+
     /**
      * Construct an object based on the helper/datasource
      *
@@ -201,6 +205,9 @@ public class SQLProcessor {
      * @throws GenericDataSourceException
      */
     public void close() throws GenericDataSourceException {
+        TransactionTracer.rowsRead(_rowsRead);
+        _rowsRead = 0;
+
         if (_manualTX) {
             if (Debug.verboseOn()) Debug.logVerbose("SQLProcessor:close() calling commit : _manualTX=" + _manualTX, module);
             commit();
@@ -396,6 +403,7 @@ public class SQLProcessor {
         try {
             // if (Debug.verboseOn()) Debug.logVerbose("[SQLProcessor.executeQuery] ps=" + _ps.toString(), module);
             _rs = _ps.executeQuery();
+            TransactionTracer.statementExecuted(0);
         } catch (SQLException sqle) {
             this.checkLockWaitInfo(sqle);
             throw new GenericDataSourceException("SQL Exception while executing the following:" + _sql, sqle);
@@ -427,7 +435,9 @@ public class SQLProcessor {
         try {
             // if (Debug.verboseOn()) Debug.logVerbose("[SQLProcessor.executeUpdate] ps=" + _ps.toString(), module);
             //TransactionUtil.printAllThreadsTransactionBeginStacks();
-            return _ps.executeUpdate();
+            int rows = _ps.executeUpdate();
+            TransactionTracer.statementExecuted(rows);
+            return rows;
         } catch (SQLException sqle) {
             this.checkLockWaitInfo(sqle);
             // don't display this here, may not be critical, allow handling further up... Debug.logError(sqle, "SQLProcessor.executeUpdate() : ERROR : ", module);
@@ -446,7 +456,9 @@ public class SQLProcessor {
 
         try {
             stmt = _connection.createStatement();
-            return stmt.executeUpdate(sql);
+            int rows = stmt.executeUpdate(sql);
+            TransactionTracer.statementExecuted(rows);
+            return rows;
         } catch (SQLException sqle) {
             // passing on this exception as nested, no need to log it here: Debug.logError(sqle, "SQLProcessor.executeUpdate(sql) : ERROR : ", module);
             throw new GenericDataSourceException("SQL Exception while executing the following:" + _sql, sqle);
@@ -461,6 +473,44 @@ public class SQLProcessor {
         }
     }
 
+    /**
+     * SCIPIO: Adds the values set so far to the batch of the prepared statement, and resets the
+     * parameter index for the next row.
+     *
+     * @throws GenericDataSourceException
+     */
+    public void addBatch() throws GenericDataSourceException {
+        try {
+            _ps.addBatch();
+            _ind = 1;
+        } catch (SQLException sqle) {
+            throw new GenericDataSourceException("SQL Exception while adding batch for the following:" + _sql, sqle);
+        }
+    }
+
+    /**
+     * SCIPIO: Executes the batch of the prepared statement.
+     *
+     * @return  The update counts of the batched rows
+     * @throws GenericDataSourceException
+     */
+    public int[] executeBatch() throws GenericDataSourceException {
+        try {
+            int[] rowCounts = _ps.executeBatch();
+            int rows = 0;
+            for (int rowCount : rowCounts) {
+                if (rowCount > 0) {
+                    rows += rowCount;
+                }
+            }
+            TransactionTracer.statementExecuted(rows);
+            return rowCounts;
+        } catch (SQLException sqle) {
+            this.checkLockWaitInfo(sqle);
+            throw new GenericDataSourceException("SQL Exception while executing batch for the following:" + _sql, sqle);
+        }
+    }
+
     /**
      * Test if there more records available
      *
@@ -470,7 +520,11 @@ public class SQLProcessor {
      */
     public boolean next() throws GenericDataSourceException {
         try {
-            return _rs.next();
+            if (_rs.next()) {
+                _rowsRead++;
+                return true;
+            }
+            return false;
         } catch (SQLException sqle) {
             throw new GenericDataSourceException("SQL Exception while executing the following:" + _sql, sqle);
         }
@@ -517,6 +571,7 @@ public class SQLProcessor {
             boolean keepGoing = true;
 
             while (keepGoing && _rs.next()) {
+                _rowsRead++;
                 keepGoing = aListener.processNextRow(_rs);
             }
 
@@ -0,0 +1,391 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entity.transaction;
+
+import java.lang.ref.WeakReference;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
+
+/**
+ * SCIPIO: Low-overhead tracing of the transactions begun by {@link TransactionUtil}.
+ * <p>
+ * Each thread records its transactions in its own buffers, written only by that thread and
+ * registered once in a lock-free list, so beginning, suspending and ending a transaction takes no
+ * lock. For each transaction the tracer keeps the begin time, duration, statement count, rows
+ * touched (read and updated) and suspend depth; the last transactions of each thread are kept
+ * in a ring buffer, for the "long-running / most expensive transactions" webtools page.
+ * <p>
+ * The begin location (stack trace) of a transaction is only captured for one transaction out of
+ * <code>transaction.trace.stack.sample.rate</code> (entity.properties); the stack of a running
+ * transaction can always be obtained lazily from its thread ({@link TxTrace#getStackTrace()}).
+ */
+public final class TransactionTracer {
+
+    public static final String module = TransactionTracer.class.getName();
+
+    private static final int stackSampleRate = UtilProperties.getPropertyAsInteger("entity", "transaction.trace.stack.sample.rate", 0);
+    private static final int historySize = UtilProperties.getPropertyAsInteger("entity", "transaction.trace.history.size", 50);
+
+    private static final ConcurrentLinkedQueue<ThreadTraces> allThreadTraces = new ConcurrentLinkedQueue<ThreadTraces>();
+    private static final ThreadLocal<ThreadTraces> threadTraces = new ThreadLocal<ThreadTraces>() {
+        @Override
+        protected ThreadTraces initialValue() {
+            ThreadTraces traces = new ThreadTraces(Thread.currentThread());
+            pruneDeadThreads();
+            allThreadTraces.add(traces);
+            return traces;
+        }
+    };
+
+    private static final Comparator<TxTrace> costComparator = new Comparator<TxTrace>() {
+        @Override
+        public int compare(TxTrace trace1, TxTrace trace2) {
+            if (trace1.getStatementCount() != trace2.getStatementCount()) {
+                return (trace1.getStatementCount() > trace2.getStatementCount()) ? -1 : 1;
+            }
+            long rows1 = trace1.getRowCount();
+            long rows2 = trace2.getRowCount();
+            return (rows1 > rows2) ? -1 : ((rows1 < rows2) ? 1 : 0);
+        }
+    };
+
+    private TransactionTracer() {}
+
+    /** The trace of one transaction. The counters are only written by the thread of the transaction. */
+    public static final class TxTrace {
+        private final WeakReference<Thread> thread;
+        private final long threadId;
+        private final String threadName;
+        private final long beginTime;
+        private final long beginNanos;
+        private final int suspendDepth;
+        private final Exception beginLocation;
+        private volatile long endNanos = -1; // set last when the transaction ends, publishing the other fields
+        private boolean committed;
+        private int statementCount; // written by the transaction thread only, may be read slightly stale by others
+        private long rowCount;
+
+        private TxTrace(Thread thread, int suspendDepth, Exception beginLocation) {
+            this.thread = new WeakReference<Thread>(thread);
+            this.threadId = thread.getId();
+            this.threadName = thread.getName();
+            this.beginTime = System.currentTimeMillis();
+            this.beginNanos = System.nanoTime();
+            this.suspendDepth = suspendDepth;
+            this.beginLocation = beginLocation;
+        }
+
+        public long getThreadId() {
+            return threadId;
+        }
+
+        public String getThreadName() {
+            return threadName;
+        }
+
+        public Timestamp getBeginTime() {
+            return new Timestamp(beginTime);
+        }
+
+        /** Returns the duration of the transaction, up to now if it is still running. */
+        public long getDurationMillis() {
+            long end = endNanos;
+            return ((end >= 0 ? end : System.nanoTime()) - beginNanos) / 1000000;
+        }
+
+        public boolean isRunning() {
+            return endNanos < 0;
+        }
+
+        public boolean isCommitted() {
+            return committed;
+        }
+
+        /** Returns the number of transactions suspended in the thread when this one began. */
+        public int getSuspendDepth() {
+            return suspendDepth;
+        }
+
+        public int getStatementCount() {
+            return statementCount;
+        }
+
+        /** Returns the number of rows read and updated by the statements of the transaction. */
+        public long getRowCount() {
+            return rowCount;
+        }
+
+        /** Returns the begin location of the transaction, null if it was not sampled. */
+        public Exception getBeginLocation() {
+            return beginLocation;
+        }
+
+        /**
+         * Returns the begin stack of the transaction if it was sampled, otherwise the current stack of its thread
+         * if it is still running (which normally contains the code that began it), otherwise null.
+         */
+        public StackTraceElement[] getStackTrace() {
+            if (beginLocation != null) {
+                return beginLocation.getStackTrace();
+            }
+            Thread txThread = thread.get();
+            if (isRunning() && txThread != null && txThread.isAlive()) {
+                return txThread.getStackTrace();
+            }
+            return null;
+        }
+
+        public Map<String, Object> toMap() {
+            return UtilMisc.<String, Object>toMap("threadId", threadId, "threadName", threadName, "beginTime", getBeginTime(),
+                    "durationMillis", getDurationMillis(), "running", isRunning(), "committed", committed, "suspendDepth", suspendDepth,
+                    "statementCount", statementCount, "rowCount", rowCount, "sampled", beginLocation != null);
+        }
+
+        @Override
+        public String toString() {
+            return "transaction of thread [" + threadId + " " + threadName + "] begun at [" + getBeginTime() + "] (" + getDurationMillis() + " ms, "
+                    + statementCount + " statements, " + rowCount + " rows, suspend depth " + suspendDepth + ")";
+        }
+    }
+
+    /** The duration of a trace taken once before sorting, since the duration of a running transaction keeps changing. */
+    private static final class DurationSnapshot implements Comparable<DurationSnapshot> {
+        private final TxTrace trace;
+        private final long durationMillis;
+
+        private DurationSnapshot(TxTrace trace) {
+            this.trace = trace;
+            this.durationMillis = trace.getDurationMillis();
+        }
+
+        @Override
+        public int compareTo(DurationSnapshot other) {
+            return (durationMillis > other.durationMillis) ? -1 : ((durationMillis < other.durationMillis) ? 1 : 0);
+        }
+    }
+
+    /** Sorts the traces by duration, the longest first. */
+    private static void sortByDuration(List<TxTrace> traces) {
+        List<DurationSnapshot> snapshots = new ArrayList<DurationSnapshot>(traces.size());
+        for (TxTrace trace : traces) {
+            snapshots.add(new DurationSnapshot(trace));
+        }
+        Collections.sort(snapshots);
+        traces.clear();
+        for (DurationSnapshot snapshot : snapshots) {
+            traces.add(snapshot.trace);
+        }
+    }
+
+    /** The buffers of one thread, only written by that thread. */
+    private static final class ThreadTraces {
+        private final WeakReference<Thread> thread;
+        private final LinkedList<TxTrace> suspended = new LinkedList<TxTrace>();
+        private final TxTrace[] history = new TxTrace[Math.max(historySize, 0)];
+        private volatile TxTrace current;
+        private volatile TxTrace[] suspendedSnapshot = new TxTrace[0];
+        private volatile long historyCount;
+        private long beginCount;
+
+        private ThreadTraces(Thread thread) {
+            this.thread = new WeakReference<Thread>(thread);
+        }
+
+        private boolean isDead() {
+            Thread txThread = thread.get();
+            return txThread == null || !txThread.isAlive();
+        }
+
+        private void updateSuspendedSnapshot() {
+            suspendedSnapshot = suspended.toArray(new TxTrace[suspended.size()]);
+        }
+    }
+
+    /** Removes the buffers of the threads which ended (with their history), so that thread churn does not grow the list. */
+    private static void pruneDeadThreads() {
+        Iterator<ThreadTraces> it = allThreadTraces.iterator();
+        while (it.hasNext()) {
+            if (it.next().isDead()) {
+                it.remove();
+            }
+        }
+    }
+
+    /** Returns true if the next captured location of the current thread is sampled; counts the event. */
+    private static boolean sample(ThreadTraces traces) {
+        return stackSampleRate > 0 && (traces.beginCount++ % stackSampleRate) == 0;
+    }
+
+    /** Returns a new location exception if the stack sampling selects it, otherwise null. */
+    static Exception sampleLocation(String message) {
+        return sample(threadTraces.get()) ? new Exception(message) : null;
+    }
+
+    /** Starts the trace of a transaction begun in the current thread; returns the previous trace still in place, if any. */
+    static TxTrace begin() {
+        ThreadTraces traces = threadTraces.get();
+        TxTrace previous = traces.current;
+        traces.current = new TxTrace(Thread.currentThread(), traces.suspended.size(),
+                sample(traces) ? new Exception("Tx Stack Placeholder") : null);
+        return previous;
+    }
+
+    /** Ends the trace of the transaction of the current thread and records it; returns it, or null if none was in place. */
+    static TxTrace end(boolean committed) {
+        ThreadTraces traces = threadTraces.get();
+        TxTrace trace = traces.current;
+        if (trace == null) {
+            return null;
+        }
+        trace.committed = committed;
+        trace.endNanos = System.nanoTime();
+        traces.current = null;
+        if (traces.history.length > 0) {
+            traces.history[(int) (traces.historyCount % traces.history.length)] = trace;
+            traces.historyCount++;
+        }
+        return trace;
+    }
+
+    /** Sets aside the trace of the transaction of the current thread as it is suspended. */
+    static TxTrace suspend() {
+        ThreadTraces traces = threadTraces.get();
+        TxTrace trace = traces.current;
+        traces.suspended.addFirst(trace);
+        traces.updateSuspendedSnapshot();
+        traces.current = null;
+        return trace;
+    }
+
+    /** Restores the trace of the last transaction suspended in the current thread as it is resumed. */
+    static TxTrace resume() {
+        ThreadTraces traces = threadTraces.get();
+        TxTrace trace = traces.suspended.isEmpty() ? null : traces.suspended.removeFirst();
+        traces.updateSuspendedSnapshot();
+        TxTrace previous = traces.current;
+        traces.current = trace;
+        return previous;
+    }
+
+    /** Returns the trace of the transaction of the current thread, null if none. */
+    public static TxTrace getCurrent() {
+        return threadTraces.get().current;
+    }
+
+    /** Returns the traces of the transactions suspended in the current thread, the last suspended first. */
+    public static List<TxTrace> getSuspended() {
+        return new ArrayList<TxTrace>(threadTraces.get().suspended);
+    }
+
+    /** Records a statement executed in the current thread, with the number of rows it updated. */
+    public static void statementExecuted(int updatedRows) {
+        TxTrace trace = threadTraces.get().current;
+        if (trace != null) {
+            trace.statementCount++;
+            if (updatedRows > 0) {
+                trace.rowCount += updatedRows;
+            }
+        }
+    }
+
+    /** Records rows read in the current thread. */
+    public static void rowsRead(int rows) {
+        if (rows > 0) {
+            TxTrace trace = threadTraces.get().current;
+            if (trace != null) {
+                trace.rowCount += rows;
+            }
+        }
+    }
+
+    /** Returns the running transactions of all the threads (including the suspended ones), the longest running first. */
+    public static List<TxTrace> getRunningTransactions() {
+        List<TxTrace> running = new ArrayList<TxTrace>();
+        for (ThreadTraces traces : allThreadTraces) {
+            if (traces.isDead()) {
+                continue;
+            }
+            TxTrace current = traces.current;
+            if (current != null) {
+                running.add(current);
+            }
+            for (TxTrace suspended : traces.suspendedSnapshot) {
+                if (suspended != null) {
+                    running.add(suspended);
+                }
+            }
+        }
+        sortByDuration(running);
+        return running;
+    }
+
+    /** Returns the recently ended transactions of all the threads. */
+    public static List<TxTrace> getRecentTransactions() {
+        List<TxTrace> recent = new ArrayList<TxTrace>();
+        for (ThreadTraces traces : allThreadTraces) {
+            long count = traces.historyCount;
+            for (int i = 0; i < Math.min(count, traces.history.length); i++) {
+                TxTrace trace = traces.history[i];
+                if (trace != null) {
+                    recent.add(trace);
+                }
+            }
+        }
+        return recent;
+    }
+
+    /** Returns the maxCount longest of the recently ended transactions. */
+    public static List<TxTrace> getSlowestTransactions(int maxCount) {
+        List<TxTrace> recent = getRecentTransactions();
+        sortByDuration(recent);
+        return (recent.size() > maxCount) ? recent.subList(0, maxCount) : recent;
+    }
+
+    /** Returns the maxCount recently ended transactions which executed the most statements (then touched the most rows). */
+    public static List<TxTrace> getMostExpensiveTransactions(int maxCount) {
+        List<TxTrace> recent = getRecentTransactions();
+        Collections.sort(recent, costComparator);
+        return (recent.size() > maxCount) ? recent.subList(0, maxCount) : recent;
+    }
+
+    /** Clears the recently ended transactions of all the threads. */
+    public static void clearHistory() {
+        for (ThreadTraces traces : allThreadTraces) {
+            // the owner thread may be recording concurrently; a trace recorded meanwhile is simply kept
+            for (int i = 0; i < traces.history.length; i++) {
+                traces.history[i] = null;
+            }
+        }
+        pruneDeadThreads();
+    }
+
+    public static int getStackSampleRate() {
+        return stackSampleRate;
+    }
+}
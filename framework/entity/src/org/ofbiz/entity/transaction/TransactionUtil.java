@@ -66,8 +66,6 @@ public class TransactionUtil implements Status {
 
     private static ThreadLocal<List<Transaction>> suspendedTxStack = new ThreadLocal<List<Transaction>>();
     private static ThreadLocal<List<Exception>> suspendedTxLocationStack = new ThreadLocal<List<Exception>>();
-    private static ThreadLocal<Exception> transactionBeginStack = new ThreadLocal<Exception>();
-    private static ThreadLocal<List<Exception>> transactionBeginStackSave = new ThreadLocal<List<Exception>>();
     private static ThreadLocal<RollbackOnlyCause> setRollbackOnlyCause = new ThreadLocal<RollbackOnlyCause>();
     private static ThreadLocal<List<RollbackOnlyCause>> setRollbackOnlyCauseSave = new ThreadLocal<List<RollbackOnlyCause>>();
     private static ThreadLocal<Timestamp> transactionStartStamp = new ThreadLocal<Timestamp>();
@@ -75,9 +73,8 @@ public class TransactionUtil implements Status {
 
     private static final boolean debugResources = readDebugResources();
     public static Map<Xid, DebugXaResource> debugResMap = Collections.<Xid, DebugXaResource>synchronizedMap(new HashMap<Xid, DebugXaResource>());
-    // in order to improve performance allThreadsTransactionBeginStack and allThreadsTransactionBeginStackSave are only maintained when logging level INFO is on
-    private static Map<Long, Exception> allThreadsTransactionBeginStack = Collections.<Long, Exception>synchronizedMap(new HashMap<Long, Exception>());
-    private static Map<Long, List<Exception>> allThreadsTransactionBeginStackSave = Collections.<Long, List<Exception>>synchronizedMap(new HashMap<Long, List<Exception>>());
+    // SCIPIO: the transaction begin stacks (and the transaction metrics) are kept by TransactionTracer, without locking;
+    // the stacks are only captured for the transactions sampled by transaction.trace.stack.sample.rate (entity.properties)
 
     public static <V> V doNewTransaction(Callable<V> callable, String ifErrorMessage, int timeout, boolean printException) throws GenericEntityException {
         return noTransaction(inTransaction(callable, ifErrorMessage, timeout, printException)).call();
@@ -133,7 +130,7 @@ public class TransactionUtil implements Status {
                     if (e != null) {
                         Debug.logWarning(e, "Active transaction marked for rollback in place, so no transaction begun; this stack trace shows when the exception began: ", module);
                     } else {
-                        Debug.logWarning("Active transaction marked for rollback in place, so no transaction begun", module);
+                        Debug.logWarning("Active transaction marked for rollback in place, so no transaction begun (" + TransactionTracer.getCurrent() + ")", module);
                     }
 
                     RollbackOnlyCause roc = getSetRollbackOnlyCause();
@@ -250,7 +247,7 @@ public class TransactionUtil implements Status {
                     // clear out the stamps to keep it clean
                     clearTransactionStamps();
                     // clear out the stack too
-                    clearTransactionBeginStack();
+                    clearTransactionBeginStack(true);
                     clearSetRollbackOnlyCause();
 
                     Debug.logVerbose("Transaction committed", module);
@@ -263,7 +260,7 @@ public class TransactionUtil implements Status {
                 if (rollbackOnlyCause != null) {
                     // the transaction is now definitely over, so clear stuff as normal now that we have the info from it that we want
                     clearTransactionStamps();
-                    clearTransactionBeginStack();
+                    clearTransactionBeginStack(false);
                     clearSetRollbackOnlyCause();
 
                     Debug.logError(e, "Rollback Only was set when trying to commit transaction here; throwing rollbackOnly cause exception", module);
@@ -326,7 +323,7 @@ public class TransactionUtil implements Status {
                     // clear out the stamps to keep it clean
                     clearTransactionStamps();
                     // clear out the stack too
-                    clearTransactionBeginStack();
+                    clearTransactionBeginStack(false);
                     clearSetRollbackOnlyCause();
 
                     ut.rollback();
@@ -384,7 +381,7 @@ public class TransactionUtil implements Status {
             if (TransactionUtil.getStatus() != STATUS_NO_TRANSACTION) {
                 TransactionManager txMgr = TransactionFactoryLoader.getInstance().getTransactionManager();
                 if (txMgr != null) {
-                    pushTransactionBeginStackSave(clearTransactionBeginStack());
+                    TransactionTracer.suspend();
                     pushSetRollbackOnlyCauseSave(clearSetRollbackOnlyCause());
                     Transaction trans = txMgr.suspend();
                     pushSuspendedTransaction(trans);
@@ -408,7 +405,7 @@ public class TransactionUtil implements Status {
         TransactionManager txMgr = TransactionFactoryLoader.getInstance().getTransactionManager();
         try {
             if (txMgr != null) {
-                setTransactionBeginStack(popTransactionBeginStackSave());
+                resumeTransactionBeginStack();
                 setSetRollbackOnlyCause(popSetRollbackOnlyCauseSave());
                 txMgr.resume(parentTx);
                 removeSuspendedTransaction(parentTx);
@@ -595,7 +592,8 @@ public class TransactionUtil implements Status {
         List<Transaction> tl = getSuspendedTxStack();
         tl.add(0, t);
         List<Exception> stls = getSuspendedTxLocationsStack();
-        stls.add(0, new Exception("TX Suspend Location"));
+        // SCIPIO: only sampled suspend locations are captured (null otherwise)
+        stls.add(0, TransactionTracer.sampleLocation("TX Suspend Location"));
         // save the current transaction start stamp
         pushTransactionStartStamp(t);
     }
@@ -630,133 +628,99 @@ public class TransactionUtil implements Status {
     // =======================================
     // TRANSACTION BEGIN STACK
     // =======================================
-    private static void pushTransactionBeginStackSave(Exception e) {
-        // use the ThreadLocal one because it is more reliable than the all threads Map
-        List<Exception> el = transactionBeginStackSave.get();
-        if (el == null) {
-            el = new LinkedList<Exception>();
-            transactionBeginStackSave.set(el);
-        }
-        el.add(0, e);
-
-        if (Debug.infoOn()) {
-            Long curThreadId = Thread.currentThread().getId();
-            List<Exception> ctEl = allThreadsTransactionBeginStackSave.get(curThreadId);
-            if (ctEl == null) {
-                ctEl = new LinkedList<Exception>();
-                allThreadsTransactionBeginStackSave.put(curThreadId, ctEl);
-            }
-            ctEl.add(0, e);
-        }
-    }
-
-    private static Exception popTransactionBeginStackSave() {
-        if (Debug.infoOn()) {
-            // do the unofficial all threads Map one first, and don't do a real return
-            Long curThreadId = Thread.currentThread().getId();
-            List<Exception> ctEl = allThreadsTransactionBeginStackSave.get(curThreadId);
-            if (UtilValidate.isNotEmpty(ctEl)) {
-                ctEl.remove(0);
-            }
-        }
-        // then do the more reliable ThreadLocal one
-        List<Exception> el = transactionBeginStackSave.get();
-        if (UtilValidate.isNotEmpty(el)) {
-            return el.remove(0);
-        } else {
-            return null;
-        }
-    }
-
     public static int getTransactionBeginStackSaveSize() {
-        List<Exception> el = transactionBeginStackSave.get();
-        if (el != null) {
-            return el.size();
-        } else {
-            return 0;
-        }
+        return TransactionTracer.getSuspended().size();
     }
 
+    /** Returns the begin stacks of the transactions suspended in the current thread; SCIPIO: only the sampled ones. */
     public static List<Exception> getTransactionBeginStackSave() {
-        List<Exception> el = transactionBeginStackSave.get();
         List<Exception> elClone = new LinkedList<Exception>();
-        elClone.addAll(el);
+        for (TransactionTracer.TxTrace trace : TransactionTracer.getSuspended()) {
+            if (trace != null && trace.getBeginLocation() != null) {
+                elClone.add(trace.getBeginLocation());
+            }
+        }
         return elClone;
     }
 
+    /** Returns the begin stacks of the running transactions of all threads; SCIPIO: only the sampled ones. */
     public static Map<Long, List<Exception>> getAllThreadsTransactionBeginStackSave() {
-        Map<Long, List<Exception>> attbssMap = allThreadsTransactionBeginStackSave;
         Map<Long, List<Exception>> attbssMapClone = new HashMap<Long, List<Exception>>();
-        attbssMapClone.putAll(attbssMap);
+        for (TransactionTracer.TxTrace trace : TransactionTracer.getRunningTransactions()) {
+            if (trace.getBeginLocation() != null) {
+                List<Exception> ctEl = attbssMapClone.get(trace.getThreadId());
+                if (ctEl == null) {
+                    ctEl = new LinkedList<Exception>();
+                    attbssMapClone.put(trace.getThreadId(), ctEl);
+                }
+                ctEl.add(trace.getBeginLocation());
+            }
+        }
         return attbssMapClone;
     }
 
+    /**
+     * Logs the running transactions of all threads with their begin stack; SCIPIO: for the transactions whose begin stack was not
+     * sampled, the current stack of their thread is logged instead, which normally contains the code that began them.
+     */
     public static void printAllThreadsTransactionBeginStacks() {
         if (!Debug.infoOn()) {
             return;
         }
 
-        for (Map.Entry<Long, Exception> attbsMapEntry : allThreadsTransactionBeginStack.entrySet()) {
-            Long curThreadId = attbsMapEntry.getKey();
-            Exception transactionBeginStack = attbsMapEntry.getValue();
-            List<Exception> txBeginStackList = allThreadsTransactionBeginStackSave.get(curThreadId);
-
-            Debug.logInfo(transactionBeginStack, "===================================================\n===================================================\n Current tx begin stack for thread [" + curThreadId + "]:", module);
-
-            if (UtilValidate.isNotEmpty(txBeginStackList)) {
-                int stackLevel = 0;
-                for (Exception stack : txBeginStackList) {
-                    Debug.logInfo(stack, "===================================================\n===================================================\n Tx begin stack history for thread [" + curThreadId + "] history number [" + stackLevel + "]:", module);
-                    stackLevel++;
+        for (TransactionTracer.TxTrace trace : TransactionTracer.getRunningTransactions()) {
+            Exception location = trace.getBeginLocation();
+            if (location == null) {
+                StackTraceElement[] stack = trace.getStackTrace();
+                if (stack != null) {
+                    location = new Exception("Current Thread Stack");
+                    location.setStackTrace(stack);
                 }
-            } else {
-                Debug.logInfo("========================================== No tx begin stack history found for thread [" + curThreadId + "]", module);
             }
+            Debug.logInfo(location, "===================================================\n===================================================\n Running " + trace + ":", module);
         }
     }
 
     private static void setTransactionBeginStack() {
-        Exception e = new Exception("Tx Stack Placeholder");
-        setTransactionBeginStack(e);
+        TransactionTracer.TxTrace previous = TransactionTracer.begin();
+        if (previous != null) {
+            warnTransactionBeginStackInPlace(previous);
+        }
     }
 
-    private static void setTransactionBeginStack(Exception newExc) {
-        if (transactionBeginStack.get() != null) {
-            Exception e = transactionBeginStack.get();
-            Debug.logWarning(e, "In setTransactionBeginStack a stack placeholder was already in place, here is where the transaction began: ", module);
-            Exception e2 = new Exception("Current Stack Trace");
-            Debug.logWarning(e2, "In setTransactionBeginStack a stack placeholder was already in place, here is the current location: ", module);
-        }
-        transactionBeginStack.set(newExc);
-        if (Debug.infoOn()) {
-            Long curThreadId = Thread.currentThread().getId();
-            allThreadsTransactionBeginStack.put(curThreadId, newExc);
+    private static void resumeTransactionBeginStack() {
+        TransactionTracer.TxTrace previous = TransactionTracer.resume();
+        if (previous != null) {
+            warnTransactionBeginStackInPlace(previous);
         }
     }
 
-    private static Exception clearTransactionBeginStack() {
-        if (Debug.infoOn()) {
-            Long curThreadId = Thread.currentThread().getId();
-            allThreadsTransactionBeginStack.remove(curThreadId);
+    private static void warnTransactionBeginStackInPlace(TransactionTracer.TxTrace previous) {
+        if (previous.getBeginLocation() != null) {
+            Debug.logWarning(previous.getBeginLocation(), "In setTransactionBeginStack a stack placeholder was already in place, here is where the transaction began: ", module);
+        } else {
+            Debug.logWarning("In setTransactionBeginStack a stack placeholder was already in place, for the " + previous, module);
         }
-        Exception e = transactionBeginStack.get();
-        if (e == null) {
+        Exception e2 = new Exception("Current Stack Trace");
+        Debug.logWarning(e2, "In setTransactionBeginStack a stack placeholder was already in place, here is the current location: ", module);
+    }
+
+    private static void clearTransactionBeginStack(boolean committed) {
+        if (TransactionTracer.end(committed) == null) {
             Exception e2 = new Exception("Current Stack Trace");
             Debug.logWarning(e2, "In clearTransactionBeginStack no stack placeholder was in place, here is the current location: ", module);
-            return null;
-        } else {
-            transactionBeginStack.set(null);
-            return e;
         }
     }
 
+    /** Returns the begin stack of the transaction of the current thread; SCIPIO: null if it was not sampled. */
     public static Exception getTransactionBeginStack() {
-        Exception e = transactionBeginStack.get();
-        if (e == null) {
+        TransactionTracer.TxTrace trace = TransactionTracer.getCurrent();
+        if (trace == null) {
             Exception e2 = new Exception("Current Stack Trace");
             Debug.logWarning(e2, "In getTransactionBeginStack no stack placeholder was in place, here is the current location: ", module);
+            return null;
         }
-        return e;
+        return trace.getBeginLocation();
     }
 
     // =======================================
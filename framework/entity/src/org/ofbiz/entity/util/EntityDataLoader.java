@@ -228,6 +228,14 @@ public class EntityDataLoader {
     }
 
     public static int loadData(URL dataUrl, String helperName, Delegator delegator, List<Object> errorMessages, int txTimeout, boolean dummyFks, boolean maintainTxs, boolean tryInsert) throws GenericEntityException {
+        return loadData(dataUrl, helperName, delegator, errorMessages, txTimeout, dummyFks, maintainTxs, tryInsert, false);
+    }
+
+    /**
+     * SCIPIO: Loads the data file; with insertOnly, uses the batched insert-only fast path of
+     * {@link EntitySaxReader#setInsertOnly(boolean)}, meant for loading into a fresh database.
+     */
+    public static int loadData(URL dataUrl, String helperName, Delegator delegator, List<Object> errorMessages, int txTimeout, boolean dummyFks, boolean maintainTxs, boolean tryInsert, boolean insertOnly) throws GenericEntityException {
         int rowsChanged = 0;
 
         if (dataUrl == null) {
@@ -254,6 +262,7 @@ public class EntityDataLoader {
             }
             reader.setCreateDummyFks(dummyFks);
             reader.setMaintainTxStamps(maintainTxs);
+            reader.setInsertOnly(insertOnly);
             rowsChanged += reader.parse(dataUrl);
         } catch (Exception e) {
             String xmlError = "[loadData]: Error loading XML Resource \"" + dataUrl.toExternalForm() + "\"; Error was: " + e.getMessage();
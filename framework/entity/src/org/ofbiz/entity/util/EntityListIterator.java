@@ -22,6 +22,7 @@ package org.ofbiz.entity.util;
 
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
@@ -39,6 +40,7 @@ import org.ofbiz.entity.jdbc.SqlJdbcUtil;
 import org.ofbiz.entity.model.ModelEntity;
 import org.ofbiz.entity.model.ModelField;
 import org.ofbiz.entity.model.ModelFieldTypeReader;
+import org.ofbiz.entity.transaction.TransactionTracer;
 
 
 /**
@@ -64,6 +66,7 @@ public class EntityListIterator implements ListIterator<GenericValue> {
 
     private boolean haveShowHasNextWarning = false;
     private Integer resultSize = null;
+    private int rowsRead = 0; // SCIPIO: rows read with next(), for the transaction trace
 
     public EntityListIterator(SQLProcessor sqlp, ModelEntity modelEntity, List<ModelField> selectFields, ModelFieldTypeReader modelFieldTypeReader) {
         this(sqlp, modelEntity, selectFields, modelFieldTypeReader, null, null, null, false);
@@ -150,6 +153,8 @@ public class EntityListIterator implements ListIterator<GenericValue> {
             //maybe not the best way: throw new GenericResultSetClosedException("This EntityListIterator has been closed, this operation cannot be performed");
             Debug.logWarning("This EntityListIterator for Entity [" + modelEntity==null?"":modelEntity.getEntityName() + "] has already been closed, not closing again.", module);
         } else {
+            TransactionTracer.rowsRead(rowsRead);
+            rowsRead = 0;
             if (sqlp != null) {
                 sqlp.close();
                 closed = true;
@@ -222,6 +227,19 @@ public class EntityListIterator implements ListIterator<GenericValue> {
         }
     }
 
+    /** SCIPIO: Returns true if the cursor can be repositioned with absolute, relative and beforeFirst,
+     * that is if the underlying ResultSet is not forward-only.
+     */
+    public boolean isScrollable() throws GenericEntityException {
+        if (closed) throw new GenericResultSetClosedException("This EntityListIterator has been closed, this operation cannot be performed");
+
+        try {
+            return resultSet.getType() != ResultSet.TYPE_FORWARD_ONLY;
+        } catch (SQLException e) {
+            throw new GenericEntityException("Error getting the result set type", e);
+        }
+    }
+
     /** performs the same function as the ResultSet.relative method;
      * if rows is positive, goes forward relative to the current position;
      * if rows is negative, goes backward relative to the current position;
@@ -319,6 +337,7 @@ public class EntityListIterator implements ListIterator<GenericValue> {
     public GenericValue next() {
         try {
             if (resultSet.next()) {
+                rowsRead++;
                 return currentGenericValue();
             } else {
                 return null;
@@ -506,6 +525,45 @@ public class EntityListIterator implements ListIterator<GenericValue> {
         }
     }
 
+    /**
+     * SCIPIO: Approximate variant of {@link #getResultsSizeAfterPartialList()} which stops counting
+     * after <code>maxCount + 1</code> rows, instead of running an exact COUNT over the whole result.
+     * <p>
+     * If the returned value is greater than <code>maxCount</code>, it is a lower bound only and the
+     * result has more rows than that; otherwise it is the exact result size. A <code>maxCount</code>
+     * of zero or less returns the exact size.
+     */
+    public int getResultsSizeAfterPartialList(int maxCount) throws GenericEntityException {
+        if (resultSize != null || maxCount <= 0 || genericDAO == null) {
+            return getResultsSizeAfterPartialList();
+        }
+        EntityFindOptions efo = new EntityFindOptions();
+        efo.setDistinct(distinctQuery);
+        efo.setMaxRows(maxCount + 1);
+        efo.setLimit(maxCount + 1);
+        efo.setOffset(0);
+        List<String> selectFieldNames = new ArrayList<String>(selectFields.size());
+        for (ModelField selectField : selectFields) {
+            selectFieldNames.add(selectField.getName());
+        }
+        EntityListIterator countIterator = genericDAO.selectListIteratorByCondition(sqlp.getDelegator(), modelEntity, whereCondition, havingCondition, selectFieldNames, null, efo);
+        try {
+            int count = 0;
+            // only advance the cursor; no need to make values just to count them
+            while (count <= maxCount && countIterator.resultSet.next()) {
+                count++;
+            }
+            if (count <= maxCount) {
+                resultSize = count;
+            }
+            return count;
+        } catch (SQLException e) {
+            throw new GenericEntityException("Error counting results for entity [" + modelEntity.getEntityName() + "]", e);
+        } finally {
+            countIterator.close();
+        }
+    }
+
     public void add(GenericValue obj) {
         throw new GeneralRuntimeException("CursorListIterator currently only supports read-only access");
     }
@@ -22,6 +22,7 @@ import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -33,7 +34,11 @@ import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityFieldValue;
+import org.ofbiz.entity.condition.EntityKeysetCondition;
+import org.ofbiz.entity.condition.OrderByItem;
 import org.ofbiz.entity.model.DynamicViewEntity;
+import org.ofbiz.entity.model.ModelEntity;
 
 /**
  * Used to setup various options for and subsequently execute entity queries.
@@ -63,6 +68,11 @@ public class EntityQuery {
     private boolean filterByDate = false;
     private Timestamp filterByDateMoment;
     private List<String> filterByFieldNames = null;
+    private boolean keyset = false; // SCIPIO
+    private Map<String, ? extends Object> keysetAfter = null; // SCIPIO
+    private Integer limit = null; // SCIPIO
+    private Integer offset = null; // SCIPIO
+    private Integer approximateCount = null; // SCIPIO
 
 
 
@@ -265,6 +275,58 @@ public class EntityQuery {
         return this;
     }
 
+    /** SCIPIO: Specifies the maximum number of rows the database should return (LIMIT or FETCH FIRST, depending on the
+     * datasource <code>offset-style</code>). Unlike {@link #maxRows(int)}, this is part of the SQL so the database
+     * can stop early; on datasources without an offset style it falls back to maxRows.
+     *
+     * @param limit - the max number of rows to return
+     * @return this EntityQuery object, to enable chaining
+     */
+    public EntityQuery limit(int limit) {
+        this.limit = limit;
+        return this;
+    }
+
+    /** SCIPIO: Specifies the number of rows the database should skip before returning results (OFFSET).
+     *
+     * NOTE: Deep offsets still make the database read all the skipped rows; prefer {@link #after(Map)} for paging
+     * through large results.
+     * @param offset - the number of rows to skip
+     * @return this EntityQuery object, to enable chaining
+     */
+    public EntityQuery offset(int offset) {
+        this.offset = offset;
+        return this;
+    }
+
+    /** SCIPIO: Enables keyset ("seek") pagination: only rows sorting strictly after the given last-row values, using
+     * the orderBy fields, are returned. Typically combined with {@link #limit(int)}; pass the last value of the
+     * previous page, or null for the first page.
+     *
+     * The orderBy fields must be plain (not function) fields that are never null. When querying a named entity, any
+     * primary key fields missing from the orderBy are appended to it, so that the order is total and no rows are
+     * skipped or repeated between pages.
+     * @param lastRowValues - Map containing (at least) the orderBy and primary key field values of the previous page's last row, or null for the first page
+     * @return this EntityQuery object, to enable chaining
+     */
+    public EntityQuery after(Map<String, ? extends Object> lastRowValues) {
+        this.keyset = true;
+        this.keysetAfter = lastRowValues;
+        return this;
+    }
+
+    /** SCIPIO: Makes {@link #queryCount()} approximate: it stops counting after <code>maxCount + 1</code> matching
+     * rows instead of running an exact COUNT over the whole result. A returned count greater than
+     * <code>maxCount</code> is a lower bound only. Zero or less means exact counting (the default).
+     *
+     * @param maxCount - the number of rows above which counting stops
+     * @return this EntityQuery object, to enable chaining
+     */
+    public EntityQuery approximateCount(int maxCount) {
+        this.approximateCount = maxCount;
+        return this;
+    }
+
     /** Specifies that the values returned should be filtered to remove duplicate values.
      * 
      * @return this EntityQuery object, to enable chaining
@@ -389,9 +451,9 @@ public class EntityQuery {
             Debug.logWarning("Call to iterator() with cache, ignoring cache", module);
         }
         if (dynamicViewEntity == null) {
-            return delegator.find(entityName, makeWhereCondition(false), havingEntityCondition, fieldsToSelect, orderBy, makeEntityFindOptions());
+            return delegator.find(entityName, makeWhereCondition(false), havingEntityCondition, fieldsToSelect, makeOrderBy(), makeEntityFindOptions());
         } else {
-            return delegator.findListIteratorByCondition(dynamicViewEntity, makeWhereCondition(false), havingEntityCondition, fieldsToSelect, orderBy, makeEntityFindOptions());
+            return delegator.findListIteratorByCondition(dynamicViewEntity, makeWhereCondition(false), havingEntityCondition, fieldsToSelect, makeOrderBy(), makeEntityFindOptions());
         }
     }
 
@@ -420,15 +482,19 @@ public class EntityQuery {
 
     /** Executes the EntityQuery and returns the result count
      * 
-     * If the query generates more than a single result then an exception is thrown
+     * SCIPIO: The count covers all the rows matched by the query conditions; the keyset (after), limit and offset
+     * settings are not applied. If {@link #approximateCount(int)} was set, counting stops early.
      * 
-     * @return GenericValue representing the only result record from the query
+     * @return the number of rows matched by the query
      */
     public long queryCount() throws GenericEntityException {
-        if (dynamicViewEntity != null) {
+        if (dynamicViewEntity != null || (approximateCount != null && approximateCount > 0)) {
             EntityListIterator iterator = null;
             try {
-                iterator = queryIterator();
+                iterator = queryCountIterator();
+                if (approximateCount != null && approximateCount > 0) {
+                    return iterator.getResultsSizeAfterPartialList(approximateCount);
+                }
                 return iterator.getResultsSizeAfterPartialList();
             } finally {
                 if (iterator != null) {
@@ -436,7 +502,15 @@ public class EntityQuery {
                 }
             }
         }
-        return delegator.findCountByCondition(entityName, makeWhereCondition(false), havingEntityCondition, makeEntityFindOptions());
+        return delegator.findCountByCondition(entityName, makeWhereCondition(false, false), havingEntityCondition, makeCountFindOptions());
+    }
+
+    private EntityListIterator queryCountIterator() throws GenericEntityException {
+        if (dynamicViewEntity == null) {
+            return delegator.find(entityName, makeWhereCondition(false, false), havingEntityCondition, fieldsToSelect, null, makeCountFindOptions());
+        } else {
+            return delegator.findListIteratorByCondition(dynamicViewEntity, makeWhereCondition(false, false), havingEntityCondition, fieldsToSelect, null, makeCountFindOptions());
+        }
     }
 
     private List<GenericValue> query(EntityFindOptions efo) throws GenericEntityException {
@@ -448,7 +522,7 @@ public class EntityQuery {
         }
         List<GenericValue> result = null;
         if (dynamicViewEntity == null) {
-            result = delegator.findList(entityName, makeWhereCondition(useCache), fieldsToSelect, orderBy, findOptions, useCache);
+            result = delegator.findList(entityName, makeWhereCondition(useCache), fieldsToSelect, makeOrderBy(), findOptions, useCache);
         } else {
             EntityListIterator it = queryIterator();
             result = it.getCompleteList();
@@ -460,6 +534,14 @@ public class EntityQuery {
         return result;
     }
     
+    private EntityFindOptions makeCountFindOptions() {
+        EntityFindOptions findOptions = new EntityFindOptions();
+        if (distinct != null) {
+            findOptions.setDistinct(distinct);
+        }
+        return findOptions;
+    }
+
     private EntityFindOptions makeEntityFindOptions() {
         EntityFindOptions findOptions = new EntityFindOptions();
         if (resultSetType != null) {
@@ -474,19 +556,94 @@ public class EntityQuery {
         if (distinct != null) {
             findOptions.setDistinct(distinct);
         }
+        // SCIPIO: limit/offset are emitted in the SQL; maxRows remains the fallback for datasources without an offset-style
+        if (limit != null || offset != null) {
+            findOptions.setOffset(offset != null ? offset : 0);
+            if (limit != null) {
+                findOptions.setLimit(limit);
+                if (maxRows == null) {
+                    findOptions.setMaxRows(limit + (offset != null ? offset : 0));
+                }
+            }
+        }
         return findOptions;
     }
 
     private EntityCondition makeWhereCondition(boolean usingCache) {
+        return makeWhereCondition(usingCache, true);
+    }
+
+    private EntityCondition makeWhereCondition(boolean usingCache, boolean includeKeyset) {
         // we don't use the useCache field here because not all queries will actually use the cache, e.g. findCountByCondition never uses the cache
+        EntityCondition condition = whereEntityCondition;
         if (filterByDate && !usingCache) {
-            if (whereEntityCondition != null) {
-                return EntityCondition.makeCondition(whereEntityCondition, this.makeDateCondition());
+            if (condition != null) {
+                condition = EntityCondition.makeCondition(condition, this.makeDateCondition());
             } else {
-                return this.makeDateCondition();
+                condition = this.makeDateCondition();
+            }
+        }
+        // SCIPIO: keyset pagination
+        if (includeKeyset && keysetAfter != null) {
+            EntityCondition keysetCondition = makeKeysetCondition();
+            condition = (condition != null) ? EntityCondition.makeCondition(condition, keysetCondition) : keysetCondition;
+        }
+        return condition;
+    }
+
+    /**
+     * SCIPIO: Returns the orderBy to use for the query; in keyset mode, this is the orderBy with any missing
+     * primary key fields appended.
+     */
+    private List<String> makeOrderBy() {
+        if (!keyset || entityName == null) {
+            return orderBy;
+        }
+        ModelEntity modelEntity = delegator.getModelEntity(entityName);
+        if (modelEntity == null) {
+            return orderBy;
+        }
+        Set<String> orderByFieldNames = new HashSet<String>();
+        if (orderBy != null) {
+            for (String orderByField : orderBy) {
+                orderByFieldNames.add(getKeysetFieldName(OrderByItem.parse(orderByField)));
+            }
+        }
+        List<String> keysetOrderBy = (orderBy != null) ? new ArrayList<String>(orderBy) : new ArrayList<String>();
+        for (String pkFieldName : modelEntity.getPkFieldNames()) {
+            if (!orderByFieldNames.contains(pkFieldName)) {
+                keysetOrderBy.add(pkFieldName);
+            }
+        }
+        return keysetOrderBy;
+    }
+
+    private EntityCondition makeKeysetCondition() {
+        List<String> keysetOrderBy = makeOrderBy();
+        if (UtilValidate.isEmpty(keysetOrderBy)) {
+            throw new IllegalArgumentException("Keyset pagination (after) requires an orderBy");
+        }
+        List<String> fieldNames = new ArrayList<String>(keysetOrderBy.size());
+        List<Boolean> descending = new ArrayList<Boolean>(keysetOrderBy.size());
+        List<Object> values = new ArrayList<Object>(keysetOrderBy.size());
+        for (String orderByField : keysetOrderBy) {
+            OrderByItem orderByItem = OrderByItem.parse(orderByField);
+            String fieldName = getKeysetFieldName(orderByItem);
+            if (!keysetAfter.containsKey(fieldName)) {
+                throw new IllegalArgumentException("Keyset pagination (after) is missing a value for orderBy field [" + fieldName + "]");
             }
+            fieldNames.add(fieldName);
+            descending.add(orderByItem.getDescending());
+            values.add(keysetAfter.get(fieldName));
+        }
+        return new EntityKeysetCondition(fieldNames, descending, values);
+    }
+
+    private static String getKeysetFieldName(OrderByItem orderByItem) {
+        if (!(orderByItem.getValue() instanceof EntityFieldValue)) {
+            throw new IllegalArgumentException("Keyset pagination (after) only supports plain field orderBy items, not: " + orderByItem);
         }
-        return whereEntityCondition;
+        return ((EntityFieldValue) orderByItem.getValue()).getFieldName();
     }
 
     private EntityCondition makeDateCondition() {
@@ -28,10 +28,13 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
 
 import org.ofbiz.base.location.FlexibleLocation;
 import org.ofbiz.base.util.Base64;
@@ -44,11 +47,15 @@ import org.ofbiz.base.util.template.FreeMarkerWorker;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericEntityNotFoundException;
+import org.ofbiz.entity.GenericPK;
 import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.datasource.GenericHelper;
 import org.ofbiz.entity.eca.EntityEcaHandler;
 import org.ofbiz.entity.model.ModelEntity;
 import org.ofbiz.entity.model.ModelField;
+import org.ofbiz.entity.model.ModelKeyMap;
+import org.ofbiz.entity.model.ModelRelation;
 import org.ofbiz.entity.transaction.GenericTransactionException;
 import org.ofbiz.entity.transaction.TransactionUtil;
 import org.w3c.dom.Document;
@@ -96,6 +103,9 @@ public class EntitySaxReader implements javolution.xml.sax.ContentHandler, Error
     protected boolean maintainTxStamps = false;
     protected boolean createDummyFks = false;
     protected boolean checkDataOnly = false;
+    protected boolean insertOnly = false; // SCIPIO: fresh-database fast path, see setInsertOnly
+    protected Set<GenericPK> knownFkValues = null; // SCIPIO: related values known to exist (insertOnly)
+    protected List<GenericValue> deferredValues = null; // SCIPIO: values waiting for their related values (insertOnly)
     @Deprecated
     protected boolean doCacheClear = true;
     protected boolean disableEeca = false;
@@ -183,6 +193,24 @@ public class EntitySaxReader implements javolution.xml.sax.ContentHandler, Error
         this.checkDataOnly = checkDataOnly;
     }
     
+    public boolean getInsertOnly() {
+        return this.insertOnly;
+    }
+
+    /**
+     * SCIPIO: If true, enables the "fresh database" fast path: values (except deletes) are inserted
+     * with {@link Delegator#createAll(List)} in JDBC batches of <code>valuesPerWrite</code>, without
+     * checking whether they already exist; a value that does exist fails the file.
+     * <p>
+     * FK checks are deferred: a value whose related value (through a "one" relation to the same entity, or any
+     * "one" relation with createDummyFks) does not exist yet is held back and inserted as soon as it does, so
+     * hierarchies need not be in parent-first order. Only values still missing their related values at the
+     * end of the file get place holders created (createDummyFks), instead of checking every row up front.
+     */
+    public void setInsertOnly(boolean insertOnly) {
+        this.insertOnly = insertOnly;
+    }
+
     public void setPlaceholderValues(Map<String,Object> placeholderValues) {
         this.placeholderValues = placeholderValues;
     }
@@ -271,6 +299,9 @@ public class EntitySaxReader implements javolution.xml.sax.ContentHandler, Error
         long numberRead = 0;
         try {
             is = location.openStream();
+            if (location.getPath().toLowerCase().endsWith(".gz")) { // SCIPIO: gzip-compressed exports (see entityExportAll)
+                is = new GZIPInputStream(is, 64 * 1024);
+            }
             numberRead = this.parse(is, location.toString());
         } finally {
             if (is != null) {
@@ -325,6 +356,9 @@ public class EntitySaxReader implements javolution.xml.sax.ContentHandler, Error
                     writeValues(valuesToWrite);
                     valuesToWrite.clear();
                 }
+                if (insertOnly && !checkDataOnly) {
+                    writeDeferredValues();
+                }
                 if (! valuesToDelete.isEmpty()) {
                     delegator.removeAll(valuesToDelete);
                     valuesToDelete.clear();
@@ -351,11 +385,112 @@ public class EntitySaxReader implements javolution.xml.sax.ContentHandler, Error
     protected void writeValues(List<GenericValue> valuesToWrite) throws GenericEntityException {
         if (this.checkDataOnly) {
             EntityDataAssert.checkValueList(valuesToWrite, delegator, this.getMessageList());
+        } else if (this.insertOnly) {
+            createAllDeferred(valuesToWrite);
         } else {
             delegator.storeAll(valuesToWrite, doCacheClear, createDummyFks);
         }
     }
 
+    /**
+     * SCIPIO: Inserts the values whose related values exist, and defers the others (insertOnly).
+     */
+    protected void createAllDeferred(List<GenericValue> values) throws GenericEntityException {
+        if (knownFkValues == null || knownFkValues.size() > 100000) {
+            knownFkValues = new HashSet<GenericPK>();
+        }
+        List<GenericValue> ready = new ArrayList<GenericValue>(values.size());
+        for (GenericValue value : values) {
+            if (hasRelatedValues(value)) {
+                ready.add(value);
+            } else {
+                if (deferredValues == null) {
+                    deferredValues = new ArrayList<GenericValue>();
+                }
+                deferredValues.add(value);
+            }
+        }
+        createAllKnown(ready);
+    }
+
+    private void createAllKnown(List<GenericValue> values) throws GenericEntityException {
+        if (values.isEmpty()) {
+            return;
+        }
+        delegator.createAll(values);
+        for (GenericValue value : values) {
+            knownFkValues.add(value.getPrimaryKey());
+        }
+    }
+
+    /**
+     * SCIPIO: Inserts the deferred values once their related values exist; the rest get place holder
+     * related values if createDummyFks, otherwise they are inserted as-is and fail on the missing FK (insertOnly).
+     */
+    protected void writeDeferredValues() throws GenericEntityException {
+        while (UtilValidate.isNotEmpty(deferredValues)) {
+            List<GenericValue> ready = new ArrayList<GenericValue>();
+            List<GenericValue> remaining = new ArrayList<GenericValue>();
+            for (GenericValue value : deferredValues) {
+                if (hasRelatedValues(value)) {
+                    ready.add(value);
+                } else {
+                    remaining.add(value);
+                }
+            }
+            if (ready.isEmpty()) {
+                break;
+            }
+            createAllKnown(ready);
+            deferredValues = remaining;
+        }
+        if (UtilValidate.isNotEmpty(deferredValues)) {
+            Debug.logInfo("Writing " + deferredValues.size() + " values with missing related values" + (createDummyFks ? ", creating place holders" : ""), module);
+            for (GenericValue value : deferredValues) {
+                if (createDummyFks) {
+                    value.checkFks(true);
+                }
+                // may have been created as a place holder for another deferred value
+                delegator.createOrStore(value);
+            }
+        }
+        deferredValues = null;
+    }
+
+    /**
+     * SCIPIO: Returns true if the values referenced by the value's "one" relations exist (only relations to the
+     * value's own entity, unless createDummyFks), looking each distinct related value up once.
+     */
+    protected boolean hasRelatedValues(GenericValue value) throws GenericEntityException {
+        Iterator<ModelRelation> relItr = value.getModelEntity().getRelationsIterator();
+        while (relItr.hasNext()) {
+            ModelRelation relation = relItr.next();
+            if (!"one".equalsIgnoreCase(relation.getType()) || (!createDummyFks && !relation.getRelEntityName().equals(value.getEntityName()))) {
+                continue;
+            }
+            Map<String, Object> fields = new HashMap<String, Object>();
+            for (ModelKeyMap keyMap : relation.getKeyMaps()) {
+                fields.put(keyMap.getRelFieldName(), value.get(keyMap.getFieldName()));
+            }
+            if (fields.containsValue(null)) {
+                // optional FK not set
+                continue;
+            }
+            GenericPK relatedPk = delegator.makePK(relation.getRelEntityName(), fields);
+            if (knownFkValues.contains(relatedPk)) {
+                continue;
+            }
+            if (relatedPk.equals(value.getPrimaryKey())) {
+                continue; // references itself
+            }
+            if (delegator.findCountByCondition(relation.getRelEntityName(), EntityCondition.makeCondition(fields), null, null) == 0) {
+                return false;
+            }
+            knownFkValues.add(relatedPk);
+        }
+        return true;
+    }
+
     public void characters(char[] values, int offset, int count) throws org.xml.sax.SAXException {
         if (isParseForTemplate) {
             // if null, don't worry about it
@@ -498,7 +633,8 @@ public class EntitySaxReader implements javolution.xml.sax.ContentHandler, Error
                     boolean skip = false;
                     //if verbose on, check if entity exist on database for count each action
                     //It's necessay to check also for specific action CREATE and DELETE to ensure it's ok
-                    if (Action.CREATE == currentAction || Action.DELETE == currentAction || Debug.verboseOn()) {
+                    // SCIPIO: insertOnly assumes a fresh database, so create does not check for existing values
+                    if ((Action.CREATE == currentAction && !this.insertOnly) || Action.DELETE == currentAction || Debug.verboseOn()) {
                         GenericHelper helper = delegator.getEntityHelper(currentValue.getEntityName());
                         if (currentValue.containsPrimaryKey()) {
                             try {
@@ -509,7 +645,7 @@ public class EntitySaxReader implements javolution.xml.sax.ContentHandler, Error
                         else if (Action.DELETE == currentAction && ! exist) { skip = true; }
                     }
                     if (! skip) {
-                        if (this.useTryInsertMethod && !this.checkDataOnly) {
+                        if (this.useTryInsertMethod && !this.checkDataOnly && !this.insertOnly) {
                             if (Action.CREATE == currentAction) { currentValue.create(); }
                             else if (Action.DELETE == currentAction) {
                                 try {
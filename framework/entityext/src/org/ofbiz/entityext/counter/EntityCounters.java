@@ -0,0 +1,350 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.entityext.counter;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.transaction.RollbackException;
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+
+import org.ofbiz.base.concurrent.ExecutionPool;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.DelegatorFactory;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericPK;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.model.ModelEntity;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionFactoryLoader;
+import org.ofbiz.entity.transaction.TransactionUtil;
+
+/**
+ * SCIPIO: Contention-free counters for hot-row totals such as
+ * <code>ProductCalculatedInfo.totalQuantityOrdered</code> and <code>totalTimesViewed</code>.
+ * <p>
+ * Instead of a read-modify-write of the entity row in the caller's transaction, which serializes
+ * all transactions incrementing the same row, {@link #add} accumulates the delta in memory and
+ * a background task periodically adds the accumulated deltas to the rows, one short transaction
+ * per flush. Deltas added inside a transaction are only accumulated once it commits.
+ * <p>
+ * Reads of the entity are eventually consistent: they lag by at most the flush interval
+ * (<code>entity.counter.flush.interval</code> in entityext.properties). {@link #getValue} returns the stored
+ * value plus this server's pending delta, and the <code>flushEntityCounters</code> service flushes immediately.
+ * Pending deltas are lost if the server stops abnormally before they are flushed.
+ */
+public final class EntityCounters {
+
+    public static final String module = EntityCounters.class.getName();
+
+    private static final ConcurrentHashMap<CounterKey, Accumulator> accumulators = new ConcurrentHashMap<CounterKey, Accumulator>();
+
+    private static final Map<Transaction, TransactionDeltas> transactionDeltas = new WeakHashMap<Transaction, TransactionDeltas>();
+
+    private static final Object flushLock = new Object();
+
+    private static volatile ScheduledExecutorService flushExecutor = null;
+
+    private EntityCounters() {
+    }
+
+    /**
+     * Adds the delta to the given numeric field of the entity row with the given primary key; the row is
+     * created on flush if it does not exist. If a transaction is in place, the delta only counts if it commits.
+     */
+    public static void add(Delegator delegator, String entityName, Map<String, ? extends Object> pkFields, String fieldName, BigDecimal delta) throws GenericEntityException {
+        if (delta == null || delta.signum() == 0) {
+            return;
+        }
+        CounterKey key = makeKey(delegator, entityName, pkFields, fieldName);
+        TransactionDeltas txDeltas = getTransactionDeltas();
+        if (txDeltas != null) {
+            txDeltas.add(key, delta);
+        } else {
+            accumulate(key, delta);
+        }
+    }
+
+    /**
+     * Returns the stored value of the counter field plus the delta pending on this server, or null
+     * if there is neither a stored value nor a pending delta.
+     */
+    public static BigDecimal getValue(Delegator delegator, String entityName, Map<String, ? extends Object> pkFields, String fieldName) throws GenericEntityException {
+        CounterKey key = makeKey(delegator, entityName, pkFields, fieldName);
+        GenericValue value = delegator.findOne(entityName, key.pk, false);
+        BigDecimal stored = (value != null) ? toBigDecimal(value.get(fieldName)) : null;
+        Accumulator acc = accumulators.get(key);
+        BigDecimal pending = (acc != null) ? acc.get() : null;
+        if (stored == null) {
+            return pending;
+        }
+        return (pending != null) ? stored.add(pending) : stored;
+    }
+
+    /**
+     * Flushes the deltas pending on this server for the given delegator (all delegators if null) to
+     * the database. Deltas that fail to flush are kept for the next flush.
+     * @return the number of counter rows updated
+     */
+    public static int flush(String delegatorName) {
+        // one flush at a time, so the scheduled and the explicit flush do not lock the same rows against each other
+        synchronized (flushLock) {
+            int count = 0;
+            for (CounterKey key : new ArrayList<CounterKey>(accumulators.keySet())) {
+                if (delegatorName != null && !delegatorName.equals(key.delegatorName)) {
+                    continue;
+                }
+                Accumulator acc = accumulators.get(key);
+                if (acc == null) {
+                    continue;
+                }
+                BigDecimal delta = acc.retire();
+                accumulators.remove(key, acc);
+                if (delta == null || delta.signum() == 0) {
+                    continue;
+                }
+                try {
+                    store(key, delta);
+                    count++;
+                } catch (GenericEntityException e) {
+                    Debug.logError(e, "Could not flush counter " + key + " (delta " + delta + "); will retry on the next flush", module);
+                    accumulate(key, delta);
+                }
+            }
+            if (count > 0 && Debug.verboseOn()) {
+                Debug.logVerbose("Flushed " + count + " entity counters", module);
+            }
+            return count;
+        }
+    }
+
+    private static void store(CounterKey key, BigDecimal delta) throws GenericEntityException {
+        Delegator delegator = DelegatorFactory.getDelegator(key.delegatorName);
+        boolean beganTransaction = TransactionUtil.begin();
+        try {
+            // lock the row before reading it, in case another server flushes the same counter
+            String lockFieldName = key.pk.getModelEntity().getPkFieldNames().get(0);
+            delegator.storeByCondition(key.pk.getEntityName(), UtilMisc.toMap(lockFieldName, key.pk.get(lockFieldName)),
+                    EntityCondition.makeCondition(key.pk.getAllFields()));
+            GenericValue value = delegator.findOne(key.pk.getEntityName(), key.pk, false);
+            if (value == null) {
+                value = delegator.makeValue(key.pk.getEntityName(), key.pk);
+                setNumber(value, key.fieldName, delta);
+                value.create();
+            } else {
+                BigDecimal current = toBigDecimal(value.get(key.fieldName));
+                setNumber(value, key.fieldName, (current != null) ? current.add(delta) : delta);
+                value.store();
+            }
+            TransactionUtil.commit(beganTransaction);
+        } catch (GenericEntityException e) {
+            TransactionUtil.rollback(beganTransaction, "Error flushing entity counter " + key, e);
+            throw e;
+        }
+    }
+
+    private static void setNumber(GenericValue value, String fieldName, BigDecimal number) {
+        // setString converts to the field's java type (BigDecimal, Long, Double...)
+        value.setString(fieldName, (number.signum() == 0) ? "0" : number.stripTrailingZeros().toPlainString());
+    }
+
+    private static BigDecimal toBigDecimal(Object number) {
+        if (number == null) {
+            return null;
+        } else if (number instanceof BigDecimal) {
+            return (BigDecimal) number;
+        }
+        return new BigDecimal(number.toString());
+    }
+
+    private static CounterKey makeKey(Delegator delegator, String entityName, Map<String, ? extends Object> pkFields, String fieldName) throws GenericEntityException {
+        ModelEntity modelEntity = delegator.getModelEntity(entityName);
+        if (modelEntity == null) {
+            throw new GenericEntityException("Entity [" + entityName + "] not found");
+        }
+        if (!modelEntity.isField(fieldName)) {
+            throw new GenericEntityException("Field [" + fieldName + "] not found on entity [" + entityName + "]");
+        }
+        GenericPK pk = delegator.makePK(entityName, pkFields);
+        if (!pk.isPrimaryKey()) {
+            throw new GenericEntityException("Incomplete primary key for counter on entity [" + entityName + "]: " + pkFields);
+        }
+        return new CounterKey(delegator.getDelegatorName(), pk, fieldName);
+    }
+
+    private static void accumulate(CounterKey key, BigDecimal delta) {
+        while (true) {
+            Accumulator acc = accumulators.get(key);
+            if (acc == null) {
+                Accumulator newAcc = new Accumulator();
+                acc = accumulators.putIfAbsent(key, newAcc);
+                if (acc == null) {
+                    acc = newAcc;
+                }
+            }
+            // a retired accumulator is being flushed and was removed from the map; retry with a new one
+            if (acc.add(delta)) {
+                break;
+            }
+        }
+        startFlushExecutor();
+    }
+
+    private static void startFlushExecutor() {
+        if (flushExecutor == null) {
+            synchronized (EntityCounters.class) {
+                if (flushExecutor == null) {
+                    long interval = UtilProperties.getPropertyAsLong("entityext", "entity.counter.flush.interval", 30000L);
+                    ScheduledExecutorService executor = ExecutionPool.getScheduledExecutor(null, "entity-counter-flush", 1, 0, false);
+                    executor.scheduleWithFixedDelay(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                flush(null);
+                            } catch (Throwable t) {
+                                Debug.logError(t, "Error flushing entity counters", module);
+                            }
+                        }
+                    }, interval, interval, TimeUnit.MILLISECONDS);
+                    flushExecutor = executor;
+                }
+            }
+        }
+    }
+
+    private static TransactionDeltas getTransactionDeltas() throws GenericTransactionException {
+        if (TransactionUtil.getStatus() != Status.STATUS_ACTIVE) {
+            return null;
+        }
+        try {
+            Transaction transaction = TransactionFactoryLoader.getInstance().getTransactionManager().getTransaction();
+            if (transaction == null) {
+                return null;
+            }
+            synchronized (transactionDeltas) {
+                TransactionDeltas txDeltas = transactionDeltas.get(transaction);
+                if (txDeltas == null) {
+                    txDeltas = new TransactionDeltas();
+                    transaction.registerSynchronization(txDeltas);
+                    transactionDeltas.put(transaction, txDeltas);
+                }
+                return txDeltas;
+            }
+        } catch (SystemException e) {
+            throw new GenericTransactionException("Could not register entity counter synchronization", e);
+        } catch (RollbackException e) {
+            throw new GenericTransactionException("Could not register entity counter synchronization, transaction marked for rollback", e);
+        }
+    }
+
+    private static final class CounterKey {
+        private final String delegatorName;
+        private final GenericPK pk;
+        private final String fieldName;
+        private final int hashCode;
+
+        CounterKey(String delegatorName, GenericPK pk, String fieldName) {
+            this.delegatorName = delegatorName;
+            this.pk = pk;
+            this.fieldName = fieldName;
+            this.hashCode = delegatorName.hashCode() ^ pk.hashCode() ^ fieldName.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof CounterKey)) return false;
+            CounterKey other = (CounterKey) obj;
+            return delegatorName.equals(other.delegatorName) && fieldName.equals(other.fieldName) && pk.equals(other.pk);
+        }
+
+        @Override
+        public String toString() {
+            return delegatorName + ":" + pk + "." + fieldName;
+        }
+    }
+
+    private static final class Accumulator {
+        private BigDecimal value = BigDecimal.ZERO;
+        private boolean retired = false;
+
+        synchronized boolean add(BigDecimal delta) {
+            if (retired) {
+                return false;
+            }
+            value = value.add(delta);
+            return true;
+        }
+
+        synchronized BigDecimal get() {
+            return retired ? null : value;
+        }
+
+        /** Takes the accumulated value; later adds go to a new accumulator. */
+        synchronized BigDecimal retire() {
+            retired = true;
+            return value;
+        }
+    }
+
+    private static final class TransactionDeltas implements Synchronization {
+        private final Map<CounterKey, BigDecimal> deltas = new HashMap<CounterKey, BigDecimal>();
+
+        synchronized void add(CounterKey key, BigDecimal delta) {
+            BigDecimal existing = deltas.get(key);
+            deltas.put(key, (existing != null) ? existing.add(delta) : delta);
+        }
+
+        @Override
+        public void beforeCompletion() {
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            if (status != Status.STATUS_COMMITTED) {
+                return;
+            }
+            List<Map.Entry<CounterKey, BigDecimal>> entries;
+            synchronized (this) {
+                entries = new ArrayList<Map.Entry<CounterKey, BigDecimal>>(deltas.entrySet());
+            }
+            for (Map.Entry<CounterKey, BigDecimal> entry : entries) {
+                accumulate(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+}
@@ -37,6 +37,7 @@ import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.eca.EntityEcaHandler;
 import org.ofbiz.entityext.EntityServiceFactory;
 import org.ofbiz.service.DispatchContext;
+import org.ofbiz.service.ServiceResultCache;
 
 /**
  * EntityEcaUtil
@@ -89,6 +90,10 @@ public class DelegatorEcaHandler implements EntityEcaHandler<EntityEcaRule> {
     }
 
     public void evalRules(String currentOperation, Map<String, List<EntityEcaRule>> eventMap, String event, GenericEntity value, boolean isError) throws GenericEntityException {
+        // SCIPIO: clear the results of cache="true" services declaring the entity in invalidate-on
+        if (EV_RETURN.equals(event) && !OP_FIND.equals(currentOperation) && !isError) {
+            ServiceResultCache.entityChanged(value.getEntityName());
+        }
         // if the eventMap is passed we save a HashMap lookup, but if not that's okay we'll just look it up now
         if (eventMap == null) eventMap = this.getEntityEventMap(value.getEntityName());
         if (UtilValidate.isEmpty(eventMap)) {
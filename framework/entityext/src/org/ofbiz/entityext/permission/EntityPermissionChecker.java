@@ -24,6 +24,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.ListIterator;
@@ -35,9 +36,11 @@ import javax.servlet.http.HttpSession;
 
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.StringUtil;
+import org.ofbiz.base.util.UtilGenerics;
 import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.base.util.UtilXml;
+import org.ofbiz.base.util.cache.UtilCache;
 import org.ofbiz.base.util.string.FlexibleStringExpander;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
@@ -62,6 +65,13 @@ public class EntityPermissionChecker {
 
     public static final String module = EntityPermissionChecker.class.getName();
 
+    /**
+     * SCIPIO: Shared cache of the checkPermission decisions, keyed by user, content, purposes and operations.
+     * The entries expire after the cache expireTime (see cache.properties) and the cache is cleared
+     * by the ContentRole, ContentAssoc, ContentPurpose and Content ECAs (clearContentPermissionCache service).
+     */
+    private static final UtilCache<String, Boolean> permissionDecisionCache = UtilCache.createUtilCache("entity.PermissionDecisions", 0, 60000, true);
+
     protected FlexibleStringExpander entityIdExdr;
     protected FlexibleStringExpander entityNameExdr;
     protected boolean displayFailCond;
@@ -178,6 +188,161 @@ public class EntityPermissionChecker {
                                   Delegator delegator ,
                                   Security security, String entityAction,
                                   String privilegeEnumId, String quickCheckContentId) {
+        return checkPermission(content, statusList, userLogin, passedPurposes, targetOperations, passedRoles, delegator, security, entityAction, privilegeEnumId, quickCheckContentId, null);
+    }
+
+    /**
+     * SCIPIO: Same as the other checkPermission methods, but the decision is memoized: first in the passed
+     * request-scoped map (if not null), then in the shared, TTL-bounded decision cache.
+     * Only the CONTENTMGR security permission is always checked live.
+     */
+    public static Map<String, Object> checkPermission(GenericValue content, List<String> statusList,
+                                  GenericValue userLogin, List<String> passedPurposes,
+                                  List<String> targetOperations, List<String> passedRoles,
+                                  Delegator delegator ,
+                                  Security security, String entityAction,
+                                  String privilegeEnumId, String quickCheckContentId, Map<String, Boolean> requestDecisions) {
+
+        Map<String, Object> results  = new HashMap<String, Object>();
+        if (userLogin != null && entityAction != null && security.hasEntityPermission("CONTENTMGR", entityAction, userLogin)) {
+            results.put("permissionStatus", "granted");
+            return results;
+        }
+        String decisionKey = makeDecisionKey(delegator, content, userLogin, passedPurposes, targetOperations, privilegeEnumId, quickCheckContentId);
+        if (decisionKey != null) {
+            Boolean granted = (requestDecisions != null) ? requestDecisions.get(decisionKey) : null;
+            if (granted == null) {
+                granted = permissionDecisionCache.get(decisionKey);
+                if (granted != null && requestDecisions != null) {
+                    requestDecisions.put(decisionKey, granted);
+                }
+            }
+            if (granted != null) {
+                results.put("permissionStatus", granted ? "granted" : "rejected");
+                return results;
+            }
+        }
+        // NOTE: checkPermissionMethod may add to the passed purposes, so the key is made first
+        results = checkPermissionUncached(content, userLogin, passedPurposes, targetOperations, delegator, privilegeEnumId, quickCheckContentId);
+        String permissionStatus = (String) results.get("permissionStatus");
+        if (decisionKey != null && permissionStatus != null) {
+            Boolean granted = "granted".equals(permissionStatus);
+            permissionDecisionCache.put(decisionKey, granted);
+            if (requestDecisions != null) {
+                requestDecisions.put(decisionKey, granted);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * SCIPIO: Checks the permission on a whole content subtree in one pass: the root content and its
+     * descendants through the ContentAssoc records (of the given types, or of any type if null) valid now,
+     * down to maxDepth levels (no limit if null). The Content records are read per level and the
+     * decisions are memoized as for {@link #checkPermission}.
+     * @return a Map of contentId to true (granted) or false (rejected), in visit order
+     */
+    public static Map<String, Boolean> checkPermissionTree(String rootContentId, List<String> contentAssocTypes, Integer maxDepth,
+                                  GenericValue userLogin, List<String> passedPurposes, List<String> targetOperations,
+                                  Delegator delegator, Security security, String entityAction,
+                                  String privilegeEnumId, Map<String, Boolean> requestDecisions) throws GenericEntityException {
+        Map<String, Boolean> decisions = new LinkedHashMap<String, Boolean>();
+        if (UtilValidate.isEmpty(rootContentId)) {
+            return decisions;
+        }
+        boolean adminGranted = userLogin != null && entityAction != null && security.hasEntityPermission("CONTENTMGR", entityAction, userLogin);
+        List<String> levelIds = UtilMisc.toList(rootContentId);
+        Set<String> visited = new HashSet<String>(levelIds);
+        int depth = 0;
+        while (!levelIds.isEmpty()) {
+            if (adminGranted) {
+                for (String contentId : levelIds) {
+                    decisions.put(contentId, Boolean.TRUE);
+                }
+            } else {
+                Map<String, GenericValue> contents = new HashMap<String, GenericValue>();
+                for (GenericValue content : EntityQuery.use(delegator).from("Content")
+                        .where(EntityCondition.makeCondition("contentId", EntityOperator.IN, levelIds)).queryList()) {
+                    contents.put(content.getString("contentId"), content);
+                }
+                for (String contentId : levelIds) {
+                    GenericValue content = contents.get(contentId);
+                    if (content == null) {
+                        continue;
+                    }
+                    List<String> purposes = (passedPurposes != null) ? new ArrayList<String>(passedPurposes) : null;
+                    Map<String, Object> results = checkPermission(content, null, userLogin, purposes, targetOperations, null, delegator, security, entityAction, privilegeEnumId, null, requestDecisions);
+                    decisions.put(contentId, "granted".equals(results.get("permissionStatus")));
+                }
+            }
+            depth++;
+            if (maxDepth != null && depth > maxDepth) {
+                break;
+            }
+            EntityCondition assocCond = EntityCondition.makeCondition("contentId", EntityOperator.IN, levelIds);
+            if (UtilValidate.isNotEmpty(contentAssocTypes)) {
+                assocCond = EntityCondition.makeCondition(assocCond, EntityOperator.AND,
+                        EntityCondition.makeCondition("contentAssocTypeId", EntityOperator.IN, contentAssocTypes));
+            }
+            List<String> nextIds = new ArrayList<String>();
+            for (GenericValue assoc : EntityQuery.use(delegator).from("ContentAssoc").where(assocCond)
+                    .orderBy("contentId", "sequenceNum").filterByDate().queryList()) {
+                String contentIdTo = assoc.getString("contentIdTo");
+                if (visited.add(contentIdTo)) {
+                    nextIds.add(contentIdTo);
+                }
+            }
+            levelIds = nextIds;
+        }
+        return decisions;
+    }
+
+    /**
+     * SCIPIO: Returns the request-scoped checkPermission decisions map of the request, creating it if needed;
+     * returns null if request is null.
+     */
+    public static Map<String, Boolean> getRequestDecisions(HttpServletRequest request) {
+        if (request == null) {
+            return null;
+        }
+        Map<String, Boolean> requestDecisions = UtilGenerics.cast(request.getAttribute("_PERMISSION_DECISIONS_"));
+        if (requestDecisions == null) {
+            requestDecisions = new HashMap<String, Boolean>();
+            request.setAttribute("_PERMISSION_DECISIONS_", requestDecisions);
+        }
+        return requestDecisions;
+    }
+
+    /**
+     * SCIPIO: Clears the shared checkPermission decision cache.
+     */
+    public static void clearPermissionDecisions() {
+        permissionDecisionCache.clear();
+    }
+
+    private static String makeDecisionKey(Delegator delegator, GenericValue content, GenericValue userLogin, List<String> passedPurposes,
+            List<String> targetOperations, String privilegeEnumId, String quickCheckContentId) {
+        if (content == null || content.get("contentId") == null) {
+            return null;
+        }
+        StringBuilder key = new StringBuilder(delegator.getDelegatorName());
+        key.append("::").append(userLogin != null ? userLogin.getString("userLoginId") : "");
+        key.append("::").append(userLogin != null ? userLogin.getString("partyId") : "");
+        // the content fields the checks read, in case a modified (or partial) value is passed
+        key.append("::").append(content.getString("contentId"));
+        key.append("::").append(content.getString("statusId"));
+        key.append("::").append(content.getString("privilegeEnumId"));
+        key.append("::").append(content.getString("ownerContentId"));
+        key.append("::").append(content.getString("createdByUserLogin"));
+        key.append("::").append(passedPurposes);
+        key.append("::").append(targetOperations);
+        key.append("::").append(privilegeEnumId);
+        key.append("::").append(quickCheckContentId);
+        return key.toString();
+    }
+
+    private static Map<String, Object> checkPermissionUncached(GenericValue content, GenericValue userLogin, List<String> passedPurposes,
+                                  List<String> targetOperations, Delegator delegator, String privilegeEnumId, String quickCheckContentId) {
 
         List<Object> entityIds = new LinkedList<Object>();
         if (content != null) entityIds.add(content);
@@ -186,14 +351,7 @@ public class EntityPermissionChecker {
             if (UtilValidate.isNotEmpty(quickList)) entityIds.addAll(quickList);
         }
         Map<String, Object> results  = new HashMap<String, Object>();
-        boolean passed = false;
-        if (userLogin != null && entityAction != null) {
-            passed = security.hasEntityPermission("CONTENTMGR", entityAction, userLogin);
-        }
-        if (passed) {
-            results.put("permissionStatus", "granted");
-            return results;
-        }
+        // SCIPIO: the CONTENTMGR permission is checked by the caller
         try {
             boolean check  = checkPermissionMethod(delegator, userLogin, targetOperations, "Content", entityIds, passedPurposes, null, privilegeEnumId);
             if (check) {
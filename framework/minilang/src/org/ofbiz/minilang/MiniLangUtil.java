@@ -125,6 +125,25 @@ public final class MiniLangUtil {
         return "true".equals(UtilProperties.getPropertyValue("minilang.properties", "autocorrect"));
     }
 
+    /**
+     * SCIPIO: Returns <code>true</code> if the Mini-language script engine has been configured to
+     * link operations (fold constants and resolve called methods) once, instead of on every execution.
+     * @return <code>true</code> if the Mini-language script engine has been configured to
+     * link operations
+     */
+    public static boolean linkingOn() {
+        return !"false".equals(UtilProperties.getPropertyValue("minilang.properties", "linking.enabled"));
+    }
+
+    /**
+     * SCIPIO: Returns <code>true</code> if service simple-methods should run both interpreted and linked,
+     * and throw a <code>MiniLangException</code> when the return values, environments or results differ.
+     * @return <code>true</code> if the linking parity check is enabled
+     */
+    public static boolean linkingParityCheckOn() {
+        return "true".equals(UtilProperties.getPropertyValue("minilang.properties", "linking.parity.check"));
+    }
+
     /**
      * Calls an object method.
      * @param operation A reference to the <code>MethodOperation</code> calling this method
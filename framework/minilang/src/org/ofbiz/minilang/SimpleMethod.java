@@ -31,6 +31,8 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.ServiceLoader;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -43,6 +45,7 @@ import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.base.util.UtilValidate;
 import org.ofbiz.base.util.UtilXml;
+import org.ofbiz.base.util.cache.CacheListener;
 import org.ofbiz.base.util.cache.UtilCache;
 import org.ofbiz.entity.GenericEntity;
 import org.ofbiz.entity.GenericValue;
@@ -86,8 +89,23 @@ public final class SimpleMethod extends MiniLangElement {
     private static final Map<String, MethodOperation.Factory<MethodOperation>> methodOperationFactories;
     private static final UtilCache<String, Map<String, SimpleMethod>> simpleMethodsDirectCache = UtilCache.createUtilCache("minilang.SimpleMethodsDirect", 0, 0);
     private static final UtilCache<String, SimpleMethod> simpleMethodsResourceCache = UtilCache.createUtilCache("minilang.SimpleMethodsResource", 0, 0);
+    /** SCIPIO: Incremented whenever a resource cache entry is removed, expires or is replaced (see {@link #getResourceCacheGeneration()}). */
+    private static final AtomicLong resourceCacheGeneration = new AtomicLong();
 
     static {
+        simpleMethodsResourceCache.addListener(new CacheListener<String, SimpleMethod>() {
+            @Override
+            public void noteKeyRemoval(UtilCache<String, SimpleMethod> cache, String key, SimpleMethod oldValue) {
+                resourceCacheGeneration.incrementAndGet();
+            }
+            @Override
+            public void noteKeyAddition(UtilCache<String, SimpleMethod> cache, String key, SimpleMethod newValue) {
+            }
+            @Override
+            public void noteKeyUpdate(UtilCache<String, SimpleMethod> cache, String key, SimpleMethod newValue, SimpleMethod oldValue) {
+                resourceCacheGeneration.incrementAndGet();
+            }
+        });
         Map<String, MethodOperation.Factory<MethodOperation>> mapFactories = new HashMap<String, MethodOperation.Factory<MethodOperation>>();
         Iterator<MethodOperation.Factory<MethodOperation>> it = UtilGenerics.cast(ServiceLoader.load(MethodOperation.Factory.class, SimpleMethod.class.getClassLoader()).iterator());
         while (it.hasNext()) {
@@ -159,6 +177,16 @@ public final class SimpleMethod extends MiniLangElement {
         return simpleMethods;
     }
 
+    /**
+     * SCIPIO: Returns the resource cache generation. It changes whenever a method cached by
+     * {@link #getSimpleMethod(URL, String)} or {@link #getSimpleMethod(String, String, ClassLoader)}
+     * is removed, expires or is replaced, so callers holding on to a looked up method can tell
+     * when to look it up again. Read it before the lookup.
+     */
+    public static long getResourceCacheGeneration() {
+        return resourceCacheGeneration.get();
+    }
+
     public static SimpleMethod getSimpleMethod(String xmlResource, String methodName, ClassLoader loader) throws MiniLangException {
         Assert.notNull("methodName", methodName);
         String key = xmlResource.concat("#").concat(methodName);
@@ -394,6 +422,53 @@ public final class SimpleMethod extends MiniLangElement {
 
     /** Execute the Simple Method operations */
     public String exec(MethodContext methodContext) throws MiniLangException {
+        if (methodContext.getLinkingMode() == MethodContext.LINKED && methodContext.getMethodType() == MethodContext.SERVICE
+                && MiniLangUtil.linkingOn() && MiniLangUtil.linkingParityCheckOn()) {
+            return execLinkingParityCheck(methodContext);
+        }
+        return execOperations(methodContext);
+    }
+
+    /**
+     * SCIPIO: Runs the method interpreted on a copy of the context, then linked on the context itself, and throws
+     * an exception if the return values, environments or results differ. Both runs happen in the caller's transaction,
+     * so any side effects happen twice; called methods run inside the same check and are not checked again.
+     */
+    private String execLinkingParityCheck(MethodContext methodContext) throws MiniLangException {
+        MethodContext interpretedContext = methodContext.makeInterpretedCopy();
+        String interpretedReturnValue = execOperations(interpretedContext);
+        String linkedReturnValue;
+        methodContext.setLinkingMode(MethodContext.LINKED_CHECKED);
+        try {
+            linkedReturnValue = execOperations(methodContext);
+        } finally {
+            methodContext.setLinkingMode(MethodContext.LINKED);
+        }
+        List<String> differences = new ArrayList<String>();
+        if (!UtilValidate.areEqual(interpretedReturnValue, linkedReturnValue)) {
+            differences.add("return value: interpreted [" + interpretedReturnValue + "], linked [" + linkedReturnValue + "]");
+        }
+        addLinkingDifferences(differences, "env", interpretedContext.getEnvMap(), methodContext.getEnvMap());
+        addLinkingDifferences(differences, "result", interpretedContext.getResults(), methodContext.getResults());
+        if (!differences.isEmpty()) {
+            throw new MiniLangException("Linking parity check failed for simple-method [" + methodName + "] in [" + fromLocation + "]: " + differences);
+        }
+        return linkedReturnValue;
+    }
+
+    private static void addLinkingDifferences(List<String> differences, String mapName, Map<String, Object> interpreted, Map<String, Object> linked) {
+        Set<String> keys = new TreeSet<String>(interpreted.keySet());
+        keys.addAll(linked.keySet());
+        for (String key : keys) {
+            Object interpretedValue = interpreted.get(key);
+            Object linkedValue = linked.get(key);
+            if (interpreted.containsKey(key) != linked.containsKey(key) || !UtilValidate.areEqual(interpretedValue, linkedValue)) {
+                differences.add(mapName + " [" + key + "]: interpreted [" + interpretedValue + "], linked [" + linkedValue + "]");
+            }
+        }
+    }
+
+    private String execOperations(MethodContext methodContext) throws MiniLangException {
         if (methodContext.isTraceOn()) {
             outputTraceMessage(methodContext, "Begin simple-method. Script is running as " + (methodContext.getMethodType() == MethodContext.EVENT ? "an event." : "a service."));
         }
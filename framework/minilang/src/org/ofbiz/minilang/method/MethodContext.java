@@ -18,7 +18,11 @@
  *******************************************************************************/
 package org.ofbiz.minilang.method;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TimeZone;
@@ -45,6 +49,13 @@ public final class MethodContext {
     public static final int EVENT = 1;
     public static final int SERVICE = 2;
 
+    /** SCIPIO: Linking mode: run the linked (folded and pre-resolved) operations. */
+    public static final int LINKED = 0;
+    /** SCIPIO: Linking mode: run the interpreted operations, as if linking was off. */
+    public static final int INTERPRETED = 1;
+    /** SCIPIO: Linking mode: run the linked operations inside a linking parity check, which is not started again for called methods. */
+    public static final int LINKED_CHECKED = 2;
+
     private Delegator delegator;
     private LocalDispatcher dispatcher;
     private Map<String, Object> env = new HashMap<String, Object>();
@@ -60,6 +71,7 @@ public final class MethodContext {
     private int traceCount = 0;
     private int traceLogLevel = Debug.INFO;
     private GenericValue userLogin;
+    private int linkingMode = LINKED; // SCIPIO: see setLinkingMode
 
     public MethodContext(DispatchContext ctx, Map<String, ? extends Object> context, ClassLoader loader) {
         this.methodType = MethodContext.SERVICE;
@@ -145,6 +157,57 @@ public final class MethodContext {
         }
     }
 
+    /**
+     * SCIPIO: Copy constructor for the linking parity check. The environment, parameters and results are copied,
+     * along with the maps and lists they hold (but not the entity values), so the copy can run the method without
+     * changing this context.
+     */
+    private MethodContext(MethodContext methodContext, int linkingMode) {
+        this.delegator = methodContext.delegator;
+        this.dispatcher = methodContext.dispatcher;
+        this.env = copyCollections(methodContext.env);
+        this.loader = methodContext.loader;
+        this.locale = methodContext.locale;
+        this.methodType = methodContext.methodType;
+        this.parameters = copyCollections(methodContext.parameters);
+        this.request = methodContext.request;
+        this.response = methodContext.response;
+        this.results = copyCollections(methodContext.results);
+        this.security = methodContext.security;
+        this.timeZone = methodContext.timeZone;
+        this.traceCount = methodContext.traceCount;
+        this.traceLogLevel = methodContext.traceLogLevel;
+        this.userLogin = methodContext.userLogin;
+        this.linkingMode = linkingMode;
+    }
+
+    /**
+     * SCIPIO: Returns a copy of this context that runs the interpreted operations, for the linking parity check.
+     */
+    public MethodContext makeInterpretedCopy() {
+        return new MethodContext(this, INTERPRETED);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T copyCollections(T value) {
+        // Only the plain collection classes the mini-language creates; entity values and other maps are shared
+        Class<?> valueClass = (value != null) ? value.getClass() : null;
+        if (valueClass == HashMap.class || valueClass == LinkedHashMap.class) {
+            Map<Object, Object> copy = (valueClass == HashMap.class) ? new HashMap<Object, Object>() : new LinkedHashMap<Object, Object>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                copy.put(entry.getKey(), copyCollections(entry.getValue()));
+            }
+            return (T) copy;
+        } else if (valueClass == ArrayList.class || valueClass == LinkedList.class) {
+            List<Object> copy = (valueClass == ArrayList.class) ? new ArrayList<Object>() : new LinkedList<Object>();
+            for (Object element : (List<?>) value) {
+                copy.add(copyCollections(element));
+            }
+            return (T) copy;
+        }
+        return value;
+    }
+
     public Delegator getDelegator() {
         return this.delegator;
     }
@@ -175,6 +238,20 @@ public final class MethodContext {
         return this.env;
     }
 
+    /**
+     * SCIPIO: Returns the linking mode: {@link #LINKED}, {@link #INTERPRETED} or {@link #LINKED_CHECKED}.
+     */
+    public int getLinkingMode() {
+        return this.linkingMode;
+    }
+
+    /**
+     * SCIPIO: Returns <code>true</code> if operations should run interpreted, ignoring folded values and linked methods.
+     */
+    public boolean isInterpreted() {
+        return this.linkingMode == INTERPRETED;
+    }
+
     public ClassLoader getLoader() {
         return this.loader;
     }
@@ -285,6 +362,13 @@ public final class MethodContext {
         return this.removeEnv(fma);
     }
 
+    /**
+     * SCIPIO: Sets the linking mode. Contexts created for called methods take the mode of the calling context.
+     */
+    public void setLinkingMode(int linkingMode) {
+        this.linkingMode = linkingMode;
+    }
+
     public void setTraceOff() {
         if (this.traceCount > 0) {
             this.traceCount--;
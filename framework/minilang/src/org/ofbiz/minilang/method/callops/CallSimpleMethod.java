@@ -32,6 +32,7 @@ import org.ofbiz.base.util.UtilXml;
 import org.ofbiz.base.util.collections.FlexibleMapAccessor;
 import org.ofbiz.minilang.MiniLangException;
 import org.ofbiz.minilang.MiniLangRuntimeException;
+import org.ofbiz.minilang.MiniLangUtil;
 import org.ofbiz.minilang.MiniLangValidate;
 import org.ofbiz.minilang.SimpleMethod;
 import org.ofbiz.minilang.ValidationException;
@@ -54,6 +55,8 @@ public final class CallSimpleMethod extends MethodOperation {
     private final URL xmlURL;
     private final String scope;
     private final List<ResultToField> resultToFieldList;
+    private final boolean linking;
+    private volatile LinkedMethod linkedMethod; // SCIPIO: the called method, resolved on first call
 
     public CallSimpleMethod(Element element, SimpleMethod simpleMethod) throws MiniLangException {
         super(element, simpleMethod);
@@ -90,6 +93,29 @@ public final class CallSimpleMethod extends MethodOperation {
         } else {
             this.resultToFieldList = null;
         }
+        this.linking = MiniLangUtil.linkingOn();
+    }
+
+    /**
+     * SCIPIO: Returns the called method. When linking is on, the method is looked up on
+     * the first call only, and again after the simple-method resource cache drops or
+     * replaces an entry (clear, expiry or reload), so the link never outlives the cached method.
+     * An interpreted context always looks the method up.
+     */
+    private SimpleMethod getMethodToCall(MethodContext methodContext) throws MiniLangException {
+        if (!this.linking || methodContext.isInterpreted()) {
+            return SimpleMethod.getSimpleMethod(this.xmlURL, this.methodName);
+        }
+        long generation = SimpleMethod.getResourceCacheGeneration();
+        LinkedMethod link = this.linkedMethod;
+        if (link == null || link.generation != generation) {
+            SimpleMethod simpleMethodToCall = SimpleMethod.getSimpleMethod(this.xmlURL, this.methodName);
+            if (simpleMethodToCall != null) {
+                this.linkedMethod = new LinkedMethod(simpleMethodToCall, generation);
+            }
+            return simpleMethodToCall;
+        }
+        return link.method;
     }
 
     @Override
@@ -97,7 +123,7 @@ public final class CallSimpleMethod extends MethodOperation {
         if (UtilValidate.isEmpty(this.methodName)) {
             throw new MiniLangRuntimeException("method-name attribute is empty", this);
         }
-        SimpleMethod simpleMethodToCall = SimpleMethod.getSimpleMethod(this.xmlURL, this.methodName);
+        SimpleMethod simpleMethodToCall = getMethodToCall(methodContext);
         if (simpleMethodToCall == null) {
             throw new MiniLangRuntimeException("Could not find <simple-method name=\"" + this.methodName + "\"> in XML document " + this.xmlResource, this);
         }
@@ -108,6 +134,7 @@ public final class CallSimpleMethod extends MethodOperation {
             localEnv.remove(this.simpleMethod.getEventResponseCodeName());
             localEnv.remove(this.simpleMethod.getServiceResponseMessageName());
             localContext = new MethodContext(localEnv, methodContext.getLoader(), methodContext.getMethodType());
+            localContext.setLinkingMode(methodContext.getLinkingMode());
         }
         String returnVal = simpleMethodToCall.exec(localContext);
         if (Debug.verboseOn())
@@ -173,6 +200,19 @@ public final class CallSimpleMethod extends MethodOperation {
         return this.xmlResource;
     }
 
+    /**
+     * SCIPIO: A called method and the resource cache generation it was looked up in.
+     */
+    private static final class LinkedMethod {
+        private final SimpleMethod method;
+        private final long generation;
+
+        private LinkedMethod(SimpleMethod method, long generation) {
+            this.method = method;
+            this.generation = generation;
+        }
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder("<call-simple-method ");
@@ -18,9 +18,13 @@
  *******************************************************************************/
 package org.ofbiz.minilang.method.envops;
 
+import java.math.BigDecimal;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.Locale;
+import java.util.Set;
 
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.ObjectType;
@@ -75,6 +79,10 @@ public final class SetOperation extends MethodOperation {
         return elementModified;
     }
 
+    /** SCIPIO: Target types a constant value can be converted to once, at parse time (the conversion does not depend on the locale or time zone). */
+    private static final Set<Class<?>> foldableClasses = new HashSet<Class<?>>(Arrays.<Class<?>>asList(String.class, MiniLangUtil.PlainString.class,
+            BigDecimal.class, Double.class, Float.class, Long.class, Integer.class, Boolean.class));
+
     private final FlexibleStringExpander defaultFse;
     private final FlexibleStringExpander formatFse;
     private final FlexibleMapAccessor<Object> fieldFma;
@@ -85,6 +93,8 @@ public final class SetOperation extends MethodOperation {
     private final Class<?> targetClass;
     private final String type;
     private final FlexibleStringExpander valueFse;
+    private final boolean folded; // SCIPIO: true if constantValue holds the converted constant value
+    private final Object constantValue;
 
     public SetOperation(Element element, SimpleMethod simpleMethod) throws MiniLangException {
         super(element, simpleMethod);
@@ -130,10 +140,32 @@ public final class SetOperation extends MethodOperation {
         if (!fromAttribute.isEmpty() && !this.valueFse.isEmpty()) {
             throw new IllegalArgumentException("Cannot include both a from attribute and a value attribute in a <set> element.");
         }
+        // SCIPIO: Fold a constant value: convert it once here instead of on every execution
+        boolean folded = false;
+        Object constantValue = null;
+        if (MiniLangUtil.linkingOn() && this.scriptlet == null && fromAttribute.isEmpty() && !this.valueFse.isEmpty()
+                && !FlexibleStringExpander.containsExpression(this.valueFse) && this.formatFse.isEmpty() && foldableClasses.contains(this.targetClass)) {
+            try {
+                constantValue = MiniLangUtil.convertType(this.valueFse.getOriginal(), this.targetClass, Locale.ENGLISH, null, null);
+                folded = true;
+            } catch (Exception e) {
+                // Leave it to the interpreted path, which reports the conversion error at runtime
+                if (Debug.verboseOn())
+                    Debug.logVerbose("Could not fold constant value [" + this.valueFse + "] to the [" + this.type + "] type: " + e.getMessage(), module);
+            }
+        }
+        this.folded = folded;
+        this.constantValue = constantValue;
     }
 
     @Override
     public boolean exec(MethodContext methodContext) throws MiniLangException {
+        if (this.folded && !methodContext.isInterpreted()) {
+            if (Debug.verboseOn())
+                Debug.logVerbose("Setting field [" + this.fieldFma.toString() + "] to constant value: " + this.constantValue, module);
+            this.fieldFma.put(methodContext.getEnvMap(), this.constantValue);
+            return true;
+        }
         boolean isConstant = false;
         Object newValue = null;
         if (this.scriptlet != null) {
@@ -172,20 +204,7 @@ public final class SetOperation extends MethodOperation {
                 newValue = new LinkedList<Object>();
             } else {
                 try {
-                    String format = null;
-                    if (!this.formatFse.isEmpty()) {
-                        format = this.formatFse.expandString(methodContext.getEnvMap());
-                    }
-                    Class<?> targetClass = this.targetClass;
-                    if (targetClass == null) {
-                        targetClass = MiniLangUtil.getObjectClassForConversion(newValue);
-                    }
-                    if (isConstant) {
-                        // We use en locale here so constant (literal) values are converted properly.
-                        newValue = MiniLangUtil.convertType(newValue, targetClass, Locale.ENGLISH, methodContext.getTimeZone(), format);
-                    } else {
-                        newValue = MiniLangUtil.convertType(newValue, targetClass, methodContext.getLocale(), methodContext.getTimeZone(), format);
-                    }
+                    newValue = convertValue(methodContext, newValue, isConstant);
                 } catch (Exception e) {
                     String errMsg = "Could not convert field value for the field: [" + this.fieldFma.toString() + "] to the [" + this.type + "] type for the value [" + newValue + "]: " + e.getMessage();
                     Debug.logWarning(e, errMsg, module);
@@ -200,6 +219,23 @@ public final class SetOperation extends MethodOperation {
         return true;
     }
 
+    private Object convertValue(MethodContext methodContext, Object newValue, boolean isConstant) throws Exception {
+        String format = null;
+        if (!this.formatFse.isEmpty()) {
+            format = this.formatFse.expandString(methodContext.getEnvMap());
+        }
+        Class<?> targetClass = this.targetClass;
+        if (targetClass == null) {
+            targetClass = MiniLangUtil.getObjectClassForConversion(newValue);
+        }
+        if (isConstant) {
+            // We use en locale here so constant (literal) values are converted properly.
+            return MiniLangUtil.convertType(newValue, targetClass, Locale.ENGLISH, methodContext.getTimeZone(), format);
+        } else {
+            return MiniLangUtil.convertType(newValue, targetClass, methodContext.getLocale(), methodContext.getTimeZone(), format);
+        }
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder("<set ");
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.minilang.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.net.URL;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilXml;
+import org.ofbiz.base.util.cache.UtilCache;
+import org.ofbiz.minilang.MiniLangException;
+import org.ofbiz.minilang.MiniLangUtil;
+import org.ofbiz.minilang.SimpleMethod;
+import org.ofbiz.minilang.method.MethodContext;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * SCIPIO: Tests of mini-language linking (see the linking.* properties in minilang.properties).
+ */
+public class MiniLangLinkingTests extends OFBizTestCase {
+
+    public static final String module = MiniLangLinkingTests.class.getName();
+
+    public MiniLangLinkingTests(String name) {
+        super(name);
+    }
+
+    private MethodContext createServiceMethodContext(Locale locale) {
+        MethodContext context = new MethodContext(dispatcher.getDispatchContext(), UtilMisc.toMap("locale", locale, "timeZone", TimeZone.getTimeZone("GMT")), null);
+        context.setUserLogin(dispatcher.getDelegator().makeValidValue("UserLogin", UtilMisc.toMap("userLoginId", "system")), "userLogin");
+        return context;
+    }
+
+    public void testCalledMethodRelinked() throws Exception {
+        File file = File.createTempFile("MiniLangLinkingTests", ".xml");
+        try {
+            URL url = file.toURI().toURL();
+            writeMethods(file, url, "first");
+            SimpleMethod caller = SimpleMethod.getSimpleMethod(url, "caller");
+            MethodContext context = createServiceMethodContext(Locale.US);
+            assertEquals(caller.getDefaultSuccessCode(), caller.exec(context));
+            assertEquals("first", context.getEnv("calleeResult"));
+
+            // reload the called method only; the caller keeps its link
+            writeMethods(file, url, "second");
+            UtilCache<String, SimpleMethod> cache = UtilCache.findCache("minilang.SimpleMethodsResource");
+            cache.remove(url.toString() + "#callee");
+            context = createServiceMethodContext(Locale.US);
+            assertEquals(caller.getDefaultSuccessCode(), caller.exec(context));
+            assertEquals("Called method relinked after its cache entry was removed", "second", context.getEnv("calleeResult"));
+            cache.remove(url.toString() + "#caller");
+            cache.remove(url.toString() + "#callee");
+        } finally {
+            file.delete();
+        }
+    }
+
+    public void testFoldedSetParity() throws Exception {
+        assertTrue("Linking enabled", MiniLangUtil.linkingOn());
+        String parityCheck = UtilProperties.getPropertyValue("minilang.properties", "linking.parity.check");
+        UtilProperties.setPropertyValueInMemory("minilang.properties", "linking.parity.check", "true");
+        try {
+            SimpleMethod methodToTest = new SimpleMethod(UtilXml.readXmlDocument("<simple-method name=\"testFoldedSet\">"
+                    + "<set field=\"stringValue\" value=\"text\"/>"
+                    + "<set field=\"plainStringValue\" value=\"text\" type=\"PlainString\"/>"
+                    + "<set field=\"bigDecimalValue\" value=\"1234.50\" type=\"BigDecimal\"/>"
+                    + "<set field=\"doubleValue\" value=\"1234.5\" type=\"Double\"/>"
+                    + "<set field=\"floatValue\" value=\"1234.5\" type=\"Float\"/>"
+                    + "<set field=\"longValue\" value=\"1234\" type=\"Long\"/>"
+                    + "<set field=\"integerValue\" value=\"1234\" type=\"Integer\"/>"
+                    + "<set field=\"booleanValue\" value=\"true\" type=\"Boolean\"/>"
+                    + "<set field=\"nested.value\" value=\"5\" type=\"Long\"/>"
+                    + "</simple-method>").getDocumentElement(), module);
+            // constants are converted with the en locale whatever the context locale
+            for (Locale locale : new Locale[] {Locale.US, Locale.GERMANY}) {
+                MethodContext context = createServiceMethodContext(locale);
+                assertEquals(methodToTest.getDefaultSuccessCode(), methodToTest.exec(context));
+                assertEquals("text", context.getEnv("stringValue"));
+                assertEquals("text", context.getEnv("plainStringValue").toString());
+                assertEquals(new BigDecimal("1234.50"), context.getEnv("bigDecimalValue"));
+                assertEquals(Double.valueOf(1234.5), context.getEnv("doubleValue"));
+                assertEquals(Float.valueOf(1234.5f), context.getEnv("floatValue"));
+                assertEquals(Long.valueOf(1234), context.getEnv("longValue"));
+                assertEquals(Integer.valueOf(1234), context.getEnv("integerValue"));
+                assertEquals(Boolean.TRUE, context.getEnv("booleanValue"));
+                assertEquals(Long.valueOf(5), context.getEnv("nested.value"));
+            }
+        } finally {
+            UtilProperties.setPropertyValueInMemory("minilang.properties", "linking.parity.check", parityCheck);
+        }
+    }
+
+    public void testParityCheckComparesBothRuns() throws Exception {
+        String parityCheck = UtilProperties.getPropertyValue("minilang.properties", "linking.parity.check");
+        UtilProperties.setPropertyValueInMemory("minilang.properties", "linking.parity.check", "true");
+        try {
+            // the counter is shared by both runs, so the interpreted and linked runs set different counts
+            SimpleMethod methodToTest = new SimpleMethod(UtilXml.readXmlDocument("<simple-method name=\"testParityCheck\">"
+                    + "<set field=\"longValue\" value=\"1234\" type=\"Long\"/>"
+                    + "<call-object-method obj-field=\"counter\" method-name=\"incrementAndGet\" ret-field=\"count\"/>"
+                    + "</simple-method>").getDocumentElement(), module);
+            AtomicInteger counter = new AtomicInteger();
+            MethodContext context = createServiceMethodContext(Locale.US);
+            context.putEnv("counter", counter);
+            try {
+                methodToTest.exec(context);
+                fail("Linking parity check did not report the difference");
+            } catch (MiniLangException e) {
+                assertTrue(e.getMessage(), e.getMessage().contains("env [count]: interpreted [1], linked [2]"));
+                assertFalse(e.getMessage(), e.getMessage().contains("longValue"));
+            }
+            assertEquals("Method ran interpreted and linked", 2, counter.get());
+        } finally {
+            UtilProperties.setPropertyValueInMemory("minilang.properties", "linking.parity.check", parityCheck);
+        }
+    }
+
+    private static void writeMethods(File file, URL url, String calleeResult) throws Exception {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("<simple-methods>"
+                    + "<simple-method method-name=\"caller\"><call-simple-method method-name=\"callee\" xml-resource=\"" + url + "\"/></simple-method>"
+                    + "<simple-method method-name=\"callee\"><set field=\"calleeResult\" value=\"" + calleeResult + "\"/></simple-method>"
+                    + "</simple-methods>");
+        } finally {
+            writer.close();
+        }
+    }
+}
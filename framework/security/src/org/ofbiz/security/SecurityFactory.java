@@ -18,12 +18,16 @@
  *******************************************************************************/
 package org.ofbiz.security;
 
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.ServiceLoader;
+import java.util.Set;
 
 import javax.servlet.http.HttpSession;
 
@@ -51,6 +55,8 @@ public final class SecurityFactory {
     // The goal is to remove Delegator references in the Security interface, then we can use a singleton
     // and eliminate the cache.
     private static final UtilCache<String, Security> authorizationCache = UtilCache.createUtilCache("security.AuthorizationCache");
+    // SCIPIO: compiled permission sets, per delegator name and userLoginId (shared by all the sessions of a user)
+    private static final UtilCache<String, UserPermissions> userPermissionsCache = UtilCache.createUtilCache("security.UserPermissions", true);
 
     /**
      * Returns a <code>Security</code> instance. The method uses Java's
@@ -83,10 +89,74 @@ public final class SecurityFactory {
 
     private SecurityFactory() {}
 
+    /**
+     * SCIPIO: The permissions of the security groups, indexed by groupId; built from the
+     * entity cache list of all the SecurityGroupPermission records.
+     */
+    private static final class GroupPermissions {
+        private final List<GenericValue> source; // the entity cache list the index was built from
+        private final Map<String, Set<String>> permissionIdsByGroup = new HashMap<String, Set<String>>();
+
+        private GroupPermissions(List<GenericValue> source) {
+            this.source = source;
+            for (GenericValue groupPermission : source) {
+                Set<String> permissionIds = permissionIdsByGroup.get(groupPermission.getString("groupId"));
+                if (permissionIds == null) {
+                    permissionIds = new HashSet<String>();
+                    permissionIdsByGroup.put(groupPermission.getString("groupId"), permissionIds);
+                }
+                permissionIds.add(groupPermission.getString("permissionId"));
+            }
+        }
+    }
+
+    /**
+     * SCIPIO: The compiled permission set of a user: the permissions of all the security groups
+     * the user is a member of. It is rebuilt when the user's UserLoginSecurityGroup or the
+     * SecurityGroupPermission records change (their entity cache lists are cleared by any write),
+     * or when the next fromDate/thruDate of the user's group memberships is reached.
+     */
+    private static final class UserPermissions {
+        private final List<GenericValue> memberships; // the entity cache list the set was built from
+        private final GroupPermissions groupPermissions;
+        private final long expireTime;
+        private final Set<String> permissionIds = new HashSet<String>();
+
+        private UserPermissions(List<GenericValue> memberships, GroupPermissions groupPermissions, long now) {
+            this.memberships = memberships;
+            this.groupPermissions = groupPermissions;
+            long expireTime = Long.MAX_VALUE;
+            for (GenericValue membership : memberships) {
+                Timestamp fromDate = membership.getTimestamp("fromDate");
+                Timestamp thruDate = membership.getTimestamp("thruDate");
+                if (fromDate != null && fromDate.getTime() > now) {
+                    expireTime = Math.min(expireTime, fromDate.getTime());
+                    continue;
+                }
+                if (thruDate != null) {
+                    if (thruDate.getTime() <= now) {
+                        continue;
+                    }
+                    expireTime = Math.min(expireTime, thruDate.getTime());
+                }
+                Set<String> groupPermissionIds = groupPermissions.permissionIdsByGroup.get(membership.getString("groupId"));
+                if (groupPermissionIds != null) {
+                    permissionIds.addAll(groupPermissionIds);
+                }
+            }
+            this.expireTime = expireTime;
+        }
+
+        private boolean isValid(List<GenericValue> memberships, GroupPermissions groupPermissions, long now) {
+            return this.memberships == memberships && this.groupPermissions == groupPermissions && now < expireTime;
+        }
+    }
+
     @SuppressWarnings("deprecation")
     private static final class OFBizSecurity implements Security {
 
         private Delegator delegator = null;
+        private volatile GroupPermissions groupPermissions = null; // SCIPIO
 
         protected static final Map<String, Map<String, String>> simpleRoleEntity = UtilMisc.toMap(
             "ORDERMGR", UtilMisc.<String, String>toMap("name", "OrderRole", "pkey", "orderId"),
@@ -99,6 +169,33 @@ public final class SecurityFactory {
         public void clearUserData(GenericValue userLogin) {
             if (userLogin != null) {
                 delegator.getCache().remove("UserLoginSecurityGroup", EntityCondition.makeCondition("userLoginId", EntityOperator.EQUALS, userLogin.getString("userLoginId")));
+                userPermissionsCache.remove(delegator.getDelegatorName() + "::" + userLogin.getString("userLoginId")); // SCIPIO
+            }
+        }
+
+        /**
+         * SCIPIO: Returns the compiled permission set of the user, (re)building it if needed.
+         */
+        private Set<String> getUserPermissionIds(String userLoginId) {
+            try {
+                List<GenericValue> memberships = EntityQuery.use(delegator).from("UserLoginSecurityGroup").where("userLoginId", userLoginId).cache(true).queryList();
+                List<GenericValue> allGroupPermissions = EntityQuery.use(delegator).from("SecurityGroupPermission").cache(true).queryList();
+                GroupPermissions groupPermissions = this.groupPermissions;
+                if (groupPermissions == null || groupPermissions.source != allGroupPermissions) {
+                    groupPermissions = new GroupPermissions(allGroupPermissions);
+                    this.groupPermissions = groupPermissions;
+                }
+                String key = delegator.getDelegatorName() + "::" + userLoginId;
+                long now = System.currentTimeMillis();
+                UserPermissions userPermissions = userPermissionsCache.get(key);
+                if (userPermissions == null || !userPermissions.isValid(memberships, groupPermissions, now)) {
+                    userPermissions = new UserPermissions(memberships, groupPermissions, now);
+                    userPermissionsCache.put(key, userPermissions);
+                }
+                return userPermissions.permissionIds;
+            } catch (GenericEntityException e) {
+                Debug.logWarning(e, module);
+                return Collections.emptySet();
             }
         }
 
@@ -121,18 +218,9 @@ public final class SecurityFactory {
         @Override
         public boolean hasEntityPermission(String entity, String action, GenericValue userLogin) {
             if (userLogin == null || entity == null || action == null) return false;
-            String permission = entity.concat(action);
-            String adminPermission = entity.concat("_ADMIN");
-            Iterator<GenericValue> iterator = findUserLoginSecurityGroupByUserLoginId(userLogin.getString("userLoginId"));
-            while (iterator.hasNext()) {
-                GenericValue userLoginSecurityGroup = iterator.next();
-                if (securityGroupPermissionExists(userLoginSecurityGroup.getString("groupId"), permission))
-                    return true;
-                if (securityGroupPermissionExists(userLoginSecurityGroup.getString("groupId"), adminPermission))
-                    return true;
-            }
-
-            return false;
+            // SCIPIO: checked against the user's compiled permission set
+            Set<String> permissionIds = getUserPermissionIds(userLogin.getString("userLoginId"));
+            return permissionIds.contains(entity.concat(action)) || permissionIds.contains(entity.concat("_ADMIN"));
         }
 
         @Override
@@ -152,13 +240,8 @@ public final class SecurityFactory {
             if (userLogin == null) {
                 return false;
             }
-            Iterator<GenericValue> iterator = findUserLoginSecurityGroupByUserLoginId(userLogin.getString("userLoginId"));
-            GenericValue userLoginSecurityGroup = null;
-            while (iterator.hasNext()) {
-                userLoginSecurityGroup = iterator.next();
-                if (securityGroupPermissionExists(userLoginSecurityGroup.getString("groupId"), permission)) return true;
-            }
-            return false;
+            // SCIPIO: checked against the user's compiled permission set
+            return getUserPermissionIds(userLogin.getString("userLoginId")).contains(permission);
         }
 
         @Override
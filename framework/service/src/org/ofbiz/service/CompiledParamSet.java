@@ -0,0 +1,326 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+
+import org.ofbiz.base.conversion.Converter;
+import org.ofbiz.base.conversion.Converters;
+import org.ofbiz.base.conversion.LocalizedConverter;
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.GeneralException;
+import org.ofbiz.base.util.ObjectType;
+import org.ofbiz.base.util.UtilCodec;
+import org.ofbiz.base.util.UtilGenerics;
+import org.ofbiz.base.util.UtilValidate;
+import org.w3c.dom.Node;
+
+/**
+ * SCIPIO: The parameters of one mode (IN, OUT or INOUT) of a {@link ModelService}, prepared once for
+ * {@link ModelService#validate(Map, String, Locale)} and {@link ModelService#makeValid}: parameter
+ * types resolved to classes, validator methods resolved, and per parameter the Converter last used.
+ * <p>
+ * {@link #isValid(Map)} only tells whether a context passes validation; when it does not, ModelService
+ * runs its full validation, which builds the error messages exactly as before. Types or validators that
+ * cannot be resolved here make every check go through the full validation, which reports them as before.
+ */
+final class CompiledParamSet {
+
+    public static final String module = CompiledParamSet.class.getName();
+
+    private final String mode;
+    private final CompiledParam[] params;
+    private final Map<String, CompiledParam> paramsByName;
+    private final CompiledParam[] htmlCheckedParams;
+    private final int requiredCount;
+    private final boolean resolved;
+
+    CompiledParamSet(List<ModelParam> modelParams, String mode) {
+        this.mode = mode;
+        // the parameter list can hold the same parameter twice (an override of an inherited parameter is added
+        // again to it), so count each name once, as the full validation does
+        Map<String, ModelParam> modelParamsByName = new LinkedHashMap<String, ModelParam>();
+        boolean resolved = true;
+        for (ModelParam modelParam : modelParams) {
+            if ("INOUT".equals(modelParam.mode) || mode.equals(modelParam.mode)) {
+                ModelParam previous = modelParamsByName.put(modelParam.name, modelParam);
+                if (previous != null && previous != modelParam) {
+                    // two definitions of the same name: left to the full validation
+                    resolved = false;
+                }
+            }
+        }
+        List<CompiledParam> params = new ArrayList<CompiledParam>(modelParamsByName.size());
+        List<CompiledParam> htmlCheckedParams = new ArrayList<CompiledParam>();
+        Map<String, CompiledParam> paramsByName = new HashMap<String, CompiledParam>();
+        int requiredCount = 0;
+        for (ModelParam modelParam : modelParamsByName.values()) {
+            CompiledParam param = new CompiledParam(modelParam);
+            params.add(param);
+            paramsByName.put(param.name, param);
+            if (!modelParam.optional) {
+                requiredCount++;
+            }
+            if (ModelService.IN_PARAM.equals(mode) && ("String".equals(modelParam.type) || "java.lang.String".equals(modelParam.type))
+                    && !"any".equals(modelParam.allowHtml)) {
+                htmlCheckedParams.add(param);
+            }
+            resolved = resolved && param.resolved;
+        }
+        this.params = params.toArray(new CompiledParam[params.size()]);
+        this.paramsByName = paramsByName;
+        this.htmlCheckedParams = htmlCheckedParams.toArray(new CompiledParam[htmlCheckedParams.size()]);
+        this.requiredCount = requiredCount;
+        this.resolved = resolved;
+    }
+
+    /** The parameters of this mode, in definition order, once per name. */
+    CompiledParam[] getParams() {
+        return params;
+    }
+
+    /**
+     * Returns true if the context passes the validation of this mode: all required parameters with a value,
+     * no unknown parameters, type, validator and allow-html checks passed.
+     */
+    boolean isValid(Map<String, Object> context) {
+        if (!resolved) {
+            return false;
+        }
+        int requiredFound = 0;
+        if (context != null) {
+            for (Map.Entry<String, Object> entry : context.entrySet()) {
+                CompiledParam param = paramsByName.get(entry.getKey());
+                if (param == null) {
+                    return false;
+                }
+                Object value = entry.getValue();
+                if (!param.optional) {
+                    if (value == null) {
+                        return false;
+                    }
+                    requiredFound++;
+                }
+                if (!param.isValidValue(value)) {
+                    return false;
+                }
+            }
+        }
+        if (requiredFound != requiredCount) {
+            return false;
+        }
+        if (htmlCheckedParams.length > 0 && context != null) {
+            List<String> errorMessageList = null;
+            for (CompiledParam param : htmlCheckedParams) {
+                Object value = context.get(param.name);
+                if (value != null) {
+                    if (!(value instanceof String)) {
+                        return false;
+                    }
+                    if (errorMessageList == null) {
+                        errorMessageList = new LinkedList<String>();
+                    }
+                    UtilCodec.checkStringForHtmlStrictNone(param.name, (String) value, errorMessageList);
+                    if (!errorMessageList.isEmpty()) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "CompiledParamSet[" + mode + ", " + params.length + " params]";
+    }
+
+    static final class CompiledParam {
+        final ModelParam modelParam;
+        final String name;
+        final boolean optional;
+        /** Class of the type for validation, as ObjectType.instanceOf resolves it */
+        private final Class<?> infoClass;
+        /** Class of the type for conversion, as ObjectType.simpleTypeConvert resolves it */
+        private final Class<?> targetClass;
+        private final boolean convertible;
+        private final ValidatorCheck[] validators;
+        private final boolean resolved;
+        private volatile ConverterSlot lastConverter = null;
+
+        CompiledParam(ModelParam modelParam) {
+            this.modelParam = modelParam;
+            this.name = modelParam.name;
+            this.optional = modelParam.optional;
+            String type = modelParam.type;
+            Class<?> infoClass = null;
+            try {
+                infoClass = ObjectType.loadInfoClass(type, null);
+            } catch (IllegalArgumentException e) {
+                if (Debug.verboseOn()) {
+                    Debug.logVerbose("Could not resolve type [" + type + "] of parameter [" + name + "]: " + e.getMessage(), module);
+                }
+            } catch (NullPointerException e) {
+                // no type
+            }
+            this.infoClass = infoClass;
+            this.convertible = !(UtilValidate.isEmpty(type) || "Object".equals(type) || "java.lang.Object".equals(type) || "PlainString".equals(type));
+            Class<?> targetClass = null;
+            if (this.convertible) {
+                try {
+                    targetClass = ObjectType.loadClass(type);
+                } catch (ClassNotFoundException e) {
+                    // left to simpleTypeConvert, which reports it
+                }
+            }
+            this.targetClass = targetClass;
+            boolean resolved = (infoClass != null);
+            List<ValidatorCheck> validators = new ArrayList<ValidatorCheck>();
+            if (UtilValidate.isNotEmpty(modelParam.validators)) {
+                for (ModelParam.ModelParamValidator validator : modelParam.validators) {
+                    ValidatorCheck check = new ValidatorCheck(validator);
+                    resolved = resolved && check.resolved;
+                    validators.add(check);
+                }
+            }
+            this.validators = validators.toArray(new ValidatorCheck[validators.size()]);
+            this.resolved = resolved;
+        }
+
+        boolean isValidValue(Object value) {
+            if (validators.length > 0) {
+                for (ValidatorCheck validator : validators) {
+                    if (!validator.isValid(value, infoClass)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+            return ObjectType.instanceOf(value, infoClass);
+        }
+
+        /**
+         * Converts the value to the parameter type like
+         * <code>ObjectType.simpleTypeConvert(value, type, null, timeZone, locale, false)</code>.
+         */
+        Object convert(Object value, TimeZone timeZone, Locale locale) throws GeneralException {
+            if (value == null || (!convertible && !"PlainString".equals(modelParam.type))) {
+                return value;
+            }
+            if (targetClass == null || value instanceof Node) {
+                return ObjectType.simpleTypeConvert(value, modelParam.type, null, timeZone, locale, false);
+            }
+            Class<?> sourceClass = value.getClass();
+            if (sourceClass.equals(targetClass)) {
+                return value;
+            }
+            if (value instanceof String && ((String) value).length() == 0) {
+                return null;
+            }
+            ConverterSlot slot = lastConverter;
+            if (slot == null || slot.sourceClass != sourceClass) {
+                Converter<Object, Object> converter = null;
+                try {
+                    converter = UtilGenerics.cast(Converters.getConverter(sourceClass, targetClass));
+                } catch (ClassNotFoundException e) {
+                    // no converter
+                }
+                if (converter == null) {
+                    return ObjectType.simpleTypeConvert(value, modelParam.type, null, timeZone, locale, false);
+                }
+                slot = new ConverterSlot(sourceClass, converter);
+                lastConverter = slot;
+            }
+            try {
+                if (slot.converter instanceof LocalizedConverter) {
+                    LocalizedConverter<Object, Object> localizedConverter = UtilGenerics.cast(slot.converter);
+                    return localizedConverter.convert(value, locale != null ? locale : Locale.getDefault(),
+                            timeZone != null ? timeZone : TimeZone.getDefault(), null);
+                }
+                return slot.converter.convert(value);
+            } catch (Exception e) {
+                // convert again the usual way, for its exception and log message
+                return ObjectType.simpleTypeConvert(value, modelParam.type, null, timeZone, locale, false);
+            }
+        }
+    }
+
+    private static final class ConverterSlot {
+        final Class<?> sourceClass;
+        final Converter<Object, Object> converter;
+
+        ConverterSlot(Class<?> sourceClass, Converter<Object, Object> converter) {
+            this.sourceClass = sourceClass;
+            this.converter = converter;
+        }
+    }
+
+    /**
+     * A parameter validator: a validation method, resolved once as ModelService.typeValidate looks it up,
+     * or a type check.
+     */
+    private static final class ValidatorCheck {
+        private final Method method;
+        private final boolean stringArg;
+        private final boolean resolved;
+
+        ValidatorCheck(ModelParam.ModelParamValidator validator) {
+            Method method = null;
+            boolean stringArg = false;
+            boolean resolved = true;
+            if (UtilValidate.isNotEmpty(validator.getMethodName())) {
+                try {
+                    Class<?> validatorClass = ObjectType.loadClass(validator.getClassName());
+                    try {
+                        method = validatorClass.getMethod(validator.getMethodName(), Object.class);
+                    } catch (NoSuchMethodException e) {
+                        method = validatorClass.getMethod(validator.getMethodName(), String.class);
+                        stringArg = true;
+                    }
+                } catch (Exception e) {
+                    resolved = false;
+                }
+            }
+            this.method = method;
+            this.stringArg = stringArg;
+            this.resolved = resolved;
+        }
+
+        boolean isValid(Object value, Class<?> infoClass) {
+            if (method == null) {
+                return ObjectType.instanceOf(value, infoClass);
+            }
+            try {
+                Object arg = stringArg ? ObjectType.simpleTypeConvert(value, "String", null, null) : value;
+                Boolean result = (Boolean) method.invoke(null, arg);
+                return result.booleanValue();
+            } catch (Exception e) {
+                return false;
+            }
+        }
+    }
+}
@@ -19,7 +19,9 @@
 package org.ofbiz.service;
 
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import javax.transaction.Transaction;
 
@@ -46,6 +48,31 @@ public abstract class GenericAbstractDispatcher implements LocalDispatcher {
 
     public GenericAbstractDispatcher() {}
 
+    /**
+     * SCIPIO: Runs parallel-safe services on the parallel service pool.
+     * @see org.ofbiz.service.LocalDispatcher#runSyncFuture(java.lang.String, java.util.Map)
+     */
+    public Future<Map<String, Object>> runSyncFuture(String serviceName, Map<String, ? extends Object> context) throws GenericServiceException {
+        ModelService service = ctx.getModelService(serviceName);
+        return ParallelServiceRunner.submit(dispatcher, this.name, service, context, ParallelServiceRunner.isCallerInTransaction());
+    }
+
+    /**
+     * SCIPIO: Runs parallel-safe services on the parallel service pool.
+     * @see org.ofbiz.service.LocalDispatcher#runSyncParallel(java.util.Map)
+     */
+    public Map<String, Map<String, Object>> runSyncParallel(Map<String, ? extends Map<String, ? extends Object>> serviceContexts) throws GenericServiceException {
+        return ParallelServiceRunner.runSyncParallel(dispatcher, this.name, serviceContexts);
+    }
+
+    /**
+     * SCIPIO: Runs parallel-safe services on the parallel service pool.
+     * @see org.ofbiz.service.LocalDispatcher#runSyncParallel(java.lang.String, java.util.List)
+     */
+    public List<Map<String, Object>> runSyncParallel(String serviceName, List<? extends Map<String, ? extends Object>> contexts) throws GenericServiceException {
+        return ParallelServiceRunner.runSyncParallel(dispatcher, this.name, serviceName, contexts);
+    }
+
     /**
      * @see org.ofbiz.service.LocalDispatcher#schedule(java.lang.String, java.lang.String, java.util.Map, long, int, int, int, long, int)
      */
@@ -18,7 +18,9 @@
  *******************************************************************************/
 package org.ofbiz.service;
 
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.security.Security;
@@ -78,6 +80,42 @@ public interface LocalDispatcher {
     Map<String, Object> runSync(String serviceName, Map<String, ? extends Object> context, int transactionTimeout, boolean requireNewTransaction) throws ServiceAuthException, ServiceValidationException, GenericServiceException;
     Map<String, Object> runSync(String serviceName, int transactionTimeout, boolean requireNewTransaction, Object... context) throws ServiceAuthException, ServiceValidationException, GenericServiceException;
 
+    /**
+     * SCIPIO: Starts a synchronous service call and returns its future result. When the caller has no
+     * transaction, services that are parallel-safe (<code>parallel-safe="true"</code> or
+     * <code>use-transaction="false"</code>) run on a bounded pool; others, and all services when the caller
+     * has a transaction, run right away on the calling thread, and the returned future is already done.
+     * The future's get() throws an ExecutionException wrapping the exception of a failed call.
+     * @param serviceName Name of the service to run.
+     * @param context Map of name, value pairs composing the context.
+     * @return Future of the map of name, value pairs composing the result.
+     * @throws GenericServiceException if the service is not defined
+     */
+    Future<Map<String, Object>> runSyncFuture(String serviceName, Map<String, ? extends Object> context) throws GenericServiceException;
+
+    /**
+     * SCIPIO: Runs several services synchronously and concurrently (see {@link #runSyncFuture}) and
+     * returns their results once all have completed.
+     * @param serviceContexts Map of service name to the context to run it with.
+     * @return Map of service name to its result, in the order of serviceContexts.
+     * @throws ServiceAuthException
+     * @throws ServiceValidationException
+     * @throws GenericServiceException the first exception thrown by a service, in serviceContexts order
+     */
+    Map<String, Map<String, Object>> runSyncParallel(Map<String, ? extends Map<String, ? extends Object>> serviceContexts) throws GenericServiceException;
+
+    /**
+     * SCIPIO: Runs a service synchronously once for each of the contexts, concurrently (see {@link #runSyncFuture}),
+     * and returns the results once all have completed.
+     * @param serviceName Name of the service to run.
+     * @param contexts List of the contexts to run the service with.
+     * @return List of the results, in the order of contexts.
+     * @throws ServiceAuthException
+     * @throws ServiceValidationException
+     * @throws GenericServiceException the first exception thrown by a call, in contexts order
+     */
+    List<Map<String, Object>> runSyncParallel(String serviceName, List<? extends Map<String, ? extends Object>> contexts) throws GenericServiceException;
+
     /**
      * Run the service synchronously and IGNORE the result.
      * @param serviceName Name of the service to run.
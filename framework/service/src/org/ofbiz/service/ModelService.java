@@ -181,6 +181,18 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
 
     /** Require a new transaction for this service */
     public boolean hideResultInLog;
+
+    /** SCIPIO: May run on another thread than its caller (runSyncParallel, parallel service groups) when the caller has no transaction */
+    public boolean parallelSafe;
+
+    /** SCIPIO: Memoize successful results by IN parameters (see ServiceResultCache) */
+    public boolean cache;
+
+    /** SCIPIO: Seconds results stay cached; 0 for the current request only, -1 for the service.properties default */
+    public int cacheTtl = -1;
+
+    /** SCIPIO: Entities whose changes clear the cached results */
+    public Set<String> cacheInvalidateEntities = new LinkedHashSet<String>();
     
     /** Set of services this service implements */
     public Set<ModelServiceIface> implServices = new LinkedHashSet<ModelServiceIface>();
@@ -211,6 +223,9 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
      */
     public Metrics metrics = null;
 
+    /** SCIPIO: Phases of runSync that apply to this service, built on first use */
+    private volatile ServiceInvocationPlan invocationPlan = null;
+
     public ModelService() {}
 
     public ModelService(ModelService model) {
@@ -247,6 +262,10 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
         this.inheritedParameters = model.inheritedParameters();
         this.internalGroup = model.internalGroup;
         this.hideResultInLog = model.hideResultInLog;
+        this.parallelSafe = model.parallelSafe;
+        this.cache = model.cache;
+        this.cacheTtl = model.cacheTtl;
+        this.cacheInvalidateEntities = model.cacheInvalidateEntities;
         this.metrics = model.metrics;
         List<ModelParam> modelParamList = model.getModelParamList();
         for (ModelParam param: modelParamList) {
@@ -399,6 +418,8 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
         if (param != null) {
             contextInfo.put(param.name, param);
             contextParamList.add(param);
+            // SCIPIO: the plan holds the compiled parameters
+            this.invocationPlan = null;
         }
     }
 
@@ -432,6 +453,18 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
         return nameList;
     }
 
+    /**
+     * SCIPIO: Returns the invocation plan of this service, built from its definition on the first call.
+     */
+    public ServiceInvocationPlan getInvocationPlan() {
+        ServiceInvocationPlan plan = this.invocationPlan;
+        if (plan == null) {
+            plan = new ServiceInvocationPlan(this);
+            this.invocationPlan = plan;
+        }
+        return plan;
+    }
+
     public Set<String> getInParamNames() {
         Set<String> nameList = new TreeSet<String>();
         for (ModelParam p: this.contextParamList) {
@@ -496,6 +529,26 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
      * @param locale the actual locale to use
      */
     public void validate(Map<String, Object> context, String mode, Locale locale) throws ServiceValidationException {
+        // SCIPIO: check against the compiled parameters first; the full validation only runs when the check
+        // fails (to build the error messages) or in verbose mode
+        if (!Debug.verboseOn()) {
+            if (mode.equals(OUT_PARAM) && context != null && (RESPOND_ERROR.equals(context.get(RESPONSE_MESSAGE))
+                    || RESPOND_FAIL.equals(context.get(RESPONSE_MESSAGE)))) {
+                return;
+            }
+            CompiledParamSet params = getInvocationPlan().getParamSet(mode);
+            if (params != null && params.isValid(context)) {
+                return;
+            }
+        }
+        validateAll(context, mode, locale);
+    }
+
+    /**
+     * SCIPIO: Validates a Map against the IN or OUT parameter information, building the error messages
+     * of every failed check (the original validate implementation).
+     */
+    private void validateAll(Map<String, Object> context, String mode, Locale locale) throws ServiceValidationException {
         Map<String, String> requiredInfo = new HashMap<String, String>();
         Map<String, String> optionalInfo = new HashMap<String, String>();
         boolean verboseOn = Debug.verboseOn();
@@ -881,42 +934,42 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
             }
         }
 
-        for (ModelParam param: contextParamList) {
+        // SCIPIO: go through the compiled parameters of the mode, which keep the resolved type and converter
+        for (CompiledParamSet.CompiledParam compiledParam : getInvocationPlan().getParamSet(mode).getParams()) {
+            ModelParam param = compiledParam.modelParam;
             //boolean internalParam = param.internal;
 
-            if (param.mode.equals("INOUT") || param.mode.equals(mode)) {
-                String key = param.name;
+            String key = param.name;
 
-                // internal map of strings
-                if (UtilValidate.isNotEmpty(param.stringMapPrefix) && !source.containsKey(key)) {
-                    Map<String, Object> paramMap = this.makePrefixMap(source, param);
-                    if (UtilValidate.isNotEmpty(paramMap)) {
-                        target.put(key, paramMap);
-                    }
-                // internal list of strings
-                } else if (UtilValidate.isNotEmpty(param.stringListSuffix) && !source.containsKey(key)) {
-                    List<Object> paramList = this.makeSuffixList(source, param);
-                    if (UtilValidate.isNotEmpty(paramList)) {
-                        target.put(key, paramList);
-                    }
-                // other attributes
-                } else {
-                    if (source.containsKey(key)) {
-                        if ((param.internal && includeInternal) || (!param.internal)) {
-                            Object value = source.get(key);
-
-                            try {
-                                // no need to fail on type conversion; the validator will catch this
-                                value = ObjectType.simpleTypeConvert(value, param.type, null, timeZone, locale, false);
-                            } catch (GeneralException e) {
-                                String errMsg = "Type conversion of field [" + key + "] to type [" + param.type + "] failed for value \"" + value + "\": " + e.toString();
-                                Debug.logWarning("[ModelService.makeValid] : " + errMsg, module);
-                                if (errorMessages != null) {
-                                    errorMessages.add(errMsg);
-                                }
+            // internal map of strings
+            if (UtilValidate.isNotEmpty(param.stringMapPrefix) && !source.containsKey(key)) {
+                Map<String, Object> paramMap = this.makePrefixMap(source, param);
+                if (UtilValidate.isNotEmpty(paramMap)) {
+                    target.put(key, paramMap);
+                }
+            // internal list of strings
+            } else if (UtilValidate.isNotEmpty(param.stringListSuffix) && !source.containsKey(key)) {
+                List<Object> paramList = this.makeSuffixList(source, param);
+                if (UtilValidate.isNotEmpty(paramList)) {
+                    target.put(key, paramList);
+                }
+            // other attributes
+            } else {
+                if (source.containsKey(key)) {
+                    if ((param.internal && includeInternal) || (!param.internal)) {
+                        Object value = source.get(key);
+
+                        try {
+                            // no need to fail on type conversion; the validator will catch this
+                            value = compiledParam.convert(value, timeZone, locale);
+                        } catch (GeneralException e) {
+                            String errMsg = "Type conversion of field [" + key + "] to type [" + param.type + "] failed for value \"" + value + "\": " + e.toString();
+                            Debug.logWarning("[ModelService.makeValid] : " + errMsg, module);
+                            if (errorMessages != null) {
+                                errorMessages.add(errMsg);
                             }
-                            target.put(key, value);
                         }
+                        target.put(key, value);
                     }
                 }
             }
@@ -1197,6 +1250,8 @@ public class ModelService extends AbstractMap<String, Object> implements Seriali
 
             // set the flag so we don't do this again
             this.inheritedParameters = true;
+            // SCIPIO: rebuild the invocation plan with the inherited and overridden parameters
+            this.invocationPlan = null;
         }
     }
 
@@ -217,6 +217,24 @@ public class ModelServiceReader implements Serializable {
             Debug.logWarning("In service definition [" + service.name + "] the value use-transaction has been changed from false to true as required when require-new-transaction is set to true", module);
         }
         service.hideResultInLog = !"false".equalsIgnoreCase(serviceElement.getAttribute("hideResultInLog"));        
+        // SCIPIO: defaults to false
+        service.parallelSafe = "true".equalsIgnoreCase(serviceElement.getAttribute("parallel-safe"));
+        // SCIPIO: result memoization, defaults to false
+        service.cache = "true".equalsIgnoreCase(serviceElement.getAttribute("cache"));
+        String cacheTtlStr = UtilXml.checkEmpty(serviceElement.getAttribute("cache-ttl"));
+        if (!UtilValidate.isEmpty(cacheTtlStr)) {
+            try {
+                service.cacheTtl = Integer.parseInt(cacheTtlStr);
+            } catch (NumberFormatException e) {
+                Debug.logWarning(e, "Invalid cache-ttl in service definition [" + service.name + "]; using the default", module);
+            }
+        }
+        for (Element invalidateElement : UtilXml.childElementList(serviceElement, "invalidate-on")) {
+            String entityName = UtilXml.checkEmpty(invalidateElement.getAttribute("entity"));
+            if (!entityName.isEmpty()) {
+                service.cacheInvalidateEntities.add(entityName.intern());
+            }
+        }
 
         // set the semaphore sleep/wait times
         String semaphoreWaitStr = UtilXml.checkEmpty(serviceElement.getAttribute("semaphore-wait-seconds"));
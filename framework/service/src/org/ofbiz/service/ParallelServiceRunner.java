@@ -0,0 +1,277 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.entity.GenericDelegator;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionUtil;
+
+/**
+ * SCIPIO: Runs synchronous service calls concurrently on a bounded pool, for
+ * {@link LocalDispatcher#runSyncFuture}, {@link LocalDispatcher#runSyncParallel} and
+ * <code>send-mode="parallel"</code> service groups.
+ * <p>
+ * Only services that can safely leave the caller's thread are run on the pool: those marked
+ * <code>parallel-safe="true"</code> or with <code>use-transaction="false"</code>, and only when the
+ * caller has no transaction. With one, a pooled service would run in a transaction of its own while
+ * the caller waits for it, and would wait on any row the caller has locked until the lock timeout;
+ * so all services then run right away on the caller's thread, in its transaction, as with runSync.
+ * Pooled calls begin their own transaction if the service uses one.
+ * <p>
+ * userLogin and locale travel in the service context; the delegator is the dispatcher's; the entity
+ * audit user and session identifiers of the calling thread are set on the pool thread for the call.
+ * Calls made from a pool thread, and calls rejected because the pool queue is full, run on the
+ * calling thread, so nested fan-outs cannot deadlock the pool. The pool size and queue size are
+ * <code>parallel.pool.size</code> and <code>parallel.pool.queue.size</code> in service.properties.
+ */
+public final class ParallelServiceRunner {
+
+    public static final String module = ParallelServiceRunner.class.getName();
+
+    private static final int poolSize = Math.max(1, UtilProperties.getPropertyAsInteger("service", "parallel.pool.size", Math.max(4, Runtime.getRuntime().availableProcessors() * 2)));
+    private static final int queueSize = Math.max(1, UtilProperties.getPropertyAsInteger("service", "parallel.pool.queue.size", 1000));
+
+    private static volatile ThreadPoolExecutor executor = null;
+
+    private ParallelServiceRunner() {
+    }
+
+    /**
+     * Returns true if the service may run on a pool thread, given whether the caller has a transaction.
+     */
+    public static boolean isParallelSafe(ModelService model, boolean callerInTransaction) {
+        if (callerInTransaction) {
+            // the pooled call could wait on the caller's locks while the caller waits for it
+            return false;
+        }
+        return model.parallelSafe || !model.useTransaction;
+    }
+
+    /**
+     * Returns true if the current thread has a transaction (or its status cannot be read, to stay on the safe side).
+     */
+    public static boolean isCallerInTransaction() {
+        try {
+            return TransactionUtil.isTransactionInPlace();
+        } catch (GenericTransactionException e) {
+            Debug.logWarning(e, "Could not get the transaction status; running services on the calling thread", module);
+            return true;
+        }
+    }
+
+    /**
+     * Starts a synchronous service call, on the pool if the service is parallel-safe, or else runs it
+     * now on the calling thread. The returned future's get() throws an ExecutionException wrapping the
+     * GenericServiceException (or runtime exception) of a failed call.
+     */
+    public static Future<Map<String, Object>> submit(ServiceDispatcher dispatcher, String localName, ModelService model,
+            Map<String, ? extends Object> context, boolean callerInTransaction) {
+        FutureTask<Map<String, Object>> task = new FutureTask<Map<String, Object>>(new ServiceCall(dispatcher, localName, model, context));
+        if (Thread.currentThread() instanceof PoolThread || !isParallelSafe(model, callerInTransaction)) {
+            task.run();
+            return task;
+        }
+        try {
+            getExecutor().execute(task);
+        } catch (RejectedExecutionException e) {
+            // the pool is saturated: run here rather than queue without bound
+            if (Debug.verboseOn()) {
+                Debug.logVerbose("Parallel service pool queue full; running [" + model.name + "] on the calling thread", module);
+            }
+            task.run();
+        }
+        return task;
+    }
+
+    /**
+     * Runs the services concurrently (parallel-safe ones on the pool, the others on the calling thread
+     * meanwhile) and returns their results by service name, once all of them have completed.
+     * @throws GenericServiceException the first exception thrown by a service, in map order, after all have completed
+     */
+    public static Map<String, Map<String, Object>> runSyncParallel(ServiceDispatcher dispatcher, String localName,
+            Map<String, ? extends Map<String, ? extends Object>> serviceContexts) throws GenericServiceException {
+        DispatchContext dctx = dispatcher.getLocalContext(localName);
+        List<ModelService> models = new ArrayList<ModelService>(serviceContexts.size());
+        List<Map<String, ? extends Object>> contexts = new ArrayList<Map<String, ? extends Object>>(serviceContexts.size());
+        for (Map.Entry<String, ? extends Map<String, ? extends Object>> entry : serviceContexts.entrySet()) {
+            models.add(dctx.getModelService(entry.getKey()));
+            contexts.add(entry.getValue());
+        }
+        List<Map<String, Object>> resultList = runSyncParallel(dispatcher, localName, models, contexts);
+        Map<String, Map<String, Object>> results = new LinkedHashMap<String, Map<String, Object>>();
+        for (int i = 0; i < models.size(); i++) {
+            results.put(models.get(i).name, resultList.get(i));
+        }
+        return results;
+    }
+
+    /**
+     * Runs the service once for each context, concurrently if it is parallel-safe, and returns the
+     * results in the order of the contexts, once all of the calls have completed.
+     * @throws GenericServiceException the first exception thrown by a call, in list order, after all have completed
+     */
+    public static List<Map<String, Object>> runSyncParallel(ServiceDispatcher dispatcher, String localName, String serviceName,
+            List<? extends Map<String, ? extends Object>> contexts) throws GenericServiceException {
+        ModelService model = dispatcher.getLocalContext(localName).getModelService(serviceName);
+        return runSyncParallel(dispatcher, localName, Collections.nCopies(contexts.size(), model), contexts);
+    }
+
+    private static List<Map<String, Object>> runSyncParallel(ServiceDispatcher dispatcher, String localName, List<ModelService> models,
+            List<? extends Map<String, ? extends Object>> contexts) throws GenericServiceException {
+        boolean callerInTransaction = isCallerInTransaction();
+        List<Future<Map<String, Object>>> futures = new ArrayList<Future<Map<String, Object>>>(Collections.<Future<Map<String, Object>>>nCopies(models.size(), null));
+        // pooled calls first, so the ones running on this thread overlap with them
+        for (int i = 0; i < models.size(); i++) {
+            if (isParallelSafe(models.get(i), callerInTransaction)) {
+                futures.set(i, submit(dispatcher, localName, models.get(i), contexts.get(i), callerInTransaction));
+            }
+        }
+        for (int i = 0; i < models.size(); i++) {
+            if (futures.get(i) == null) {
+                futures.set(i, submit(dispatcher, localName, models.get(i), contexts.get(i), callerInTransaction));
+            }
+        }
+        List<Map<String, Object>> results = new ArrayList<Map<String, Object>>(models.size());
+        GenericServiceException firstException = null;
+        for (int i = 0; i < models.size(); i++) {
+            try {
+                results.add(getResult(models.get(i).name, futures.get(i)));
+            } catch (GenericServiceException e) {
+                if (firstException == null) {
+                    firstException = e;
+                }
+                results.add(null);
+            }
+        }
+        if (firstException != null) {
+            throw firstException;
+        }
+        return results;
+    }
+
+    /**
+     * Waits for a call started by {@link #submit} and returns its result, unwrapping its exception.
+     */
+    public static Map<String, Object> getResult(String serviceName, Future<Map<String, Object>> future) throws GenericServiceException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof GenericServiceException) {
+                throw (GenericServiceException) cause;
+            }
+            throw new GenericServiceException("Service [" + serviceName + "] failed: " + cause, cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new GenericServiceException("Interrupted while waiting for service [" + serviceName + "]", e);
+        }
+    }
+
+    private static ThreadPoolExecutor getExecutor() {
+        ThreadPoolExecutor executor = ParallelServiceRunner.executor;
+        if (executor == null) {
+            synchronized (ParallelServiceRunner.class) {
+                executor = ParallelServiceRunner.executor;
+                if (executor == null) {
+                    executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                            new ArrayBlockingQueue<Runnable>(queueSize), new PoolThreadFactory());
+                    executor.allowCoreThreadTimeOut(true);
+                    ParallelServiceRunner.executor = executor;
+                }
+            }
+        }
+        return executor;
+    }
+
+    private static final class ServiceCall implements Callable<Map<String, Object>> {
+        private final ServiceDispatcher dispatcher;
+        private final String localName;
+        private final ModelService model;
+        private final Map<String, Object> context;
+        private final Thread callerThread;
+        private final String userIdentifier;
+        private final String sessionIdentifier;
+
+        ServiceCall(ServiceDispatcher dispatcher, String localName, ModelService model, Map<String, ? extends Object> context) {
+            this.dispatcher = dispatcher;
+            this.localName = localName;
+            this.model = model;
+            // copied now: the caller may change its map while the service runs
+            this.context = (context != null) ? new HashMap<String, Object>(context) : new HashMap<String, Object>();
+            this.callerThread = Thread.currentThread();
+            this.userIdentifier = dispatcher.getDelegator().getCurrentUserIdentifier();
+            this.sessionIdentifier = dispatcher.getDelegator().getCurrentSessionIdentifier();
+        }
+
+        @Override
+        public Map<String, Object> call() throws GenericServiceException {
+            if (Thread.currentThread() == callerThread) {
+                return dispatcher.runSync(localName, model, context);
+            }
+            GenericDelegator.pushUserIdentifier(userIdentifier);
+            GenericDelegator.pushSessionIdentifier(sessionIdentifier);
+            try {
+                return dispatcher.runSync(localName, model, context);
+            } finally {
+                if (sessionIdentifier != null) {
+                    GenericDelegator.popSessionIdentifier();
+                }
+                if (userIdentifier != null) {
+                    GenericDelegator.popUserIdentifier();
+                }
+            }
+        }
+    }
+
+    private static final class PoolThread extends Thread {
+        PoolThread(Runnable runnable, String name) {
+            super(runnable, name);
+        }
+    }
+
+    private static final class PoolThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new PoolThread(runnable, "Scipio-parallel-service-" + count.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
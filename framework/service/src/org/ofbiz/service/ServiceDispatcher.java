@@ -69,6 +69,10 @@ public class ServiceDispatcher {
     public static final int lruLogSize = 200;
     public static final int LOCK_RETRIES = 3;
 
+    // SCIPIO: read once rather than on every call
+    private static final long showServiceDurationThreshold = UtilProperties.getPropertyAsLong("service", "showServiceDurationThreshold", 0);
+    private static final long showSlowServiceThreshold = UtilProperties.getPropertyAsLong("service", "showSlowServiceThreshold", 1000);
+
     protected static final Map<RunningService, ServiceDispatcher> runLog = new ConcurrentLinkedHashMap.Builder<RunningService, ServiceDispatcher>().maximumWeightedCapacity(lruLogSize).build();
     protected static ConcurrentHashMap<String, ServiceDispatcher> dispatchers = new ConcurrentHashMap<String, ServiceDispatcher>();
     // FIXME: These fields are not thread-safe. They are modified by EntityDataLoadContainer.
@@ -253,6 +257,19 @@ public class ServiceDispatcher {
      */
     public Map<String, Object> runSync(String localName, ModelService modelService, Map<String, ? extends Object> params, boolean validateOut) throws ServiceAuthException, ServiceValidationException, GenericServiceException {
         long serviceStartTime = System.currentTimeMillis();
+        // SCIPIO: memoized result of a cache="true" service, without running it
+        String resultCacheKey = null;
+        long resultCacheCount = 0;
+        if (modelService.cache) {
+            resultCacheKey = ServiceResultCache.makeKey(delegator, modelService, params);
+            if (resultCacheKey != null) {
+                resultCacheCount = ServiceResultCache.getInvalidationCount(modelService);
+                Map<String, Object> cachedResult = ServiceResultCache.get(modelService, resultCacheKey);
+                if (cachedResult != null) {
+                    return cachedResult;
+                }
+            }
+        }
         Map<String, Object> result = new HashMap<String, Object>();
         ServiceSemaphore lock = null;
         Map<String, List<ServiceEcaRule>> eventMap = null;
@@ -264,9 +281,11 @@ public class ServiceDispatcher {
         boolean isFailure = false;
         boolean isError = false;
         boolean beganTrans = false;
+        // SCIPIO: phases that apply to this service, worked out once per service definition
+        ServiceInvocationPlan plan = modelService.getInvocationPlan();
         try {
             // check for semaphore and aquire a lock
-            if ("wait".equals(modelService.semaphore) || "fail".equals(modelService.semaphore)) {
+            if (plan.usesSemaphore()) {
                 lock = new ServiceSemaphore(delegator, modelService);
                 lock.acquire();
             }
@@ -292,7 +311,7 @@ public class ServiceDispatcher {
 
 
             // set IN attributes with default-value as applicable
-            modelService.updateDefaultValues(context, ModelService.IN_PARAM);
+            plan.updateDefaultValues(context, ModelService.IN_PARAM);
             //Debug.logInfo("=========================== " + modelService.name + " 1 tx status =" + TransactionUtil.getStatusString() + ", modelService.requireNewTransaction=" + modelService.requireNewTransaction + ", modelService.useTransaction=" + modelService.useTransaction + ", TransactionUtil.isTransactionInPlace()=" + TransactionUtil.isTransactionInPlace(), module);
             if (modelService.useTransaction) {
                 if (TransactionUtil.isTransactionInPlace()) {
@@ -349,7 +368,7 @@ public class ServiceDispatcher {
 
                     //Debug.logInfo("After [" + modelService.name + "] pre-auth ECA, before auth; isFailure=" + isFailure + ", isError=" + isError, module);
 
-                    context = checkAuth(localName, context, modelService);
+                    context = checkAuth(localName, context, modelService, plan);
                     GenericValue userLogin = (GenericValue) context.get("userLogin");
 
                     if (modelService.auth && userLogin == null) {
@@ -469,13 +488,16 @@ public class ServiceDispatcher {
                 } while (needsLockRetry && lockRetriesRemaining > 0);
 
                 // create a new context with the results to pass to ECA services; necessary because caller may reuse this context
-                ecaContext = new HashMap<String, Object>();
-                ecaContext.putAll(context);
-                // copy all results: don't worry parameters that aren't allowed won't be passed to the ECA services
-                ecaContext.putAll(result);
+                // SCIPIO: only if the service has ECAs
+                if (eventMap != null) {
+                    ecaContext = new HashMap<String, Object>();
+                    ecaContext.putAll(context);
+                    // copy all results: don't worry parameters that aren't allowed won't be passed to the ECA services
+                    ecaContext.putAll(result);
+                }
 
                 // setup default OUT values
-                modelService.updateDefaultValues(context, ModelService.OUT_PARAM);
+                plan.updateDefaultValues(context, ModelService.OUT_PARAM);
 
                 // validate the result
                 if (modelService.validate && validateOut) {
@@ -551,7 +573,9 @@ public class ServiceDispatcher {
                 }
 
                 // call notifications -- event is determined from the result (success, error, fail)
-                modelService.evalNotifications(this.getLocalContext(localName), context, result);
+                if (plan.hasNotifications()) {
+                    modelService.evalNotifications(this.getLocalContext(localName), context, result);
+                }
 
                 // clear out the EE userIdentifier
                 GenericDelegator.popUserIdentifier();
@@ -586,9 +610,6 @@ public class ServiceDispatcher {
         rs.setEndStamp();
 
         long timeToRun = System.currentTimeMillis() - serviceStartTime;
-        long showServiceDurationThreshold = UtilProperties.getPropertyAsLong("service", "showServiceDurationThreshold", 0);
-        long showSlowServiceThreshold = UtilProperties.getPropertyAsLong("service", "showSlowServiceThreshold", 1000);
-                
         if (Debug.timingOn() && timeToRun > showServiceDurationThreshold) {
             Debug.logTiming("Sync service [" + localName + "/" + modelService.name + "] finished in [" + timeToRun + "] milliseconds", module);
         } else if (Debug.infoOn() && timeToRun > showSlowServiceThreshold) {
@@ -605,6 +626,9 @@ public class ServiceDispatcher {
         if (modelService.metrics != null) {
             modelService.metrics.recordServiceRate(1, timeToRun);
         }
+        if (resultCacheKey != null && !ServiceUtil.isError(result) && !ServiceUtil.isFailure(result)) {
+            ServiceResultCache.put(modelService, resultCacheKey, result, resultCacheCount);
+        }
         return result;
     }
 
@@ -682,7 +706,7 @@ public class ServiceDispatcher {
                 // pre-auth ECA
                 if (eventMap != null) ServiceEcaUtil.evalRules(service.name, eventMap, "auth", ctx, context, result, isError, isFailure);
 
-                context = checkAuth(localName, context, service);
+                context = checkAuth(localName, context, service, service.getInvocationPlan());
                 Object userLogin = context.get("userLogin");
 
                 if (service.auth && userLogin == null) {
@@ -855,7 +879,7 @@ public class ServiceDispatcher {
     }
 
     // checks if parameters were passed for authentication
-    private Map<String, Object> checkAuth(String localName, Map<String, Object> context, ModelService origService) throws ServiceAuthException, GenericServiceException {
+    private Map<String, Object> checkAuth(String localName, Map<String, Object> context, ModelService origService, ServiceInvocationPlan plan) throws ServiceAuthException, GenericServiceException {
         String service = null;
         try {
             service = ServiceConfigUtil.getServiceEngine().getAuthorization().getServiceName();
@@ -913,6 +937,11 @@ public class ServiceDispatcher {
             }
         }
 
+        // SCIPIO: nothing to evaluate for services without permission-service or required-permissions
+        if (!plan.hasPermissionChecks()) {
+            return context;
+        }
+
         // evaluate permissions for the service or throw exception if fail.
         DispatchContext dctx = this.getLocalContext(localName);
         if (UtilValidate.isNotEmpty(origService.permissionServiceName)) {
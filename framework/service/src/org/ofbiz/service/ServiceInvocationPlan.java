@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilValidate;
+
+/**
+ * SCIPIO: The parts of a synchronous call that depend only on the service definition, worked out once
+ * per {@link ModelService} (see {@link ModelService#getInvocationPlan()}) so that
+ * {@link ServiceDispatcher#runSync} can skip the phases that do not apply to the service: semaphore,
+ * permission checks, default values, notifications; and so that the java engine resolves the service
+ * method once instead of on every call. The plan also holds the parameters of each mode compiled for
+ * validation and type conversion (see {@link CompiledParamSet}).
+ * <p>
+ * The plan is built from the definition as loaded; ECA rules are still looked up on each call, since
+ * they can be reloaded independently of the service definitions.
+ */
+public final class ServiceInvocationPlan {
+
+    public static final String module = ServiceInvocationPlan.class.getName();
+
+    private final String serviceName;
+    private final String invoke;
+    private final boolean semaphore;
+    private final boolean permissionChecks;
+    private final boolean notifications;
+    private final ModelParam[] inDefaultParams;
+    private final ModelParam[] outDefaultParams;
+    private final CompiledParamSet inParams;
+    private final CompiledParamSet outParams;
+    private final CompiledParamSet inOutParams;
+
+    private volatile JavaTarget javaTarget = null;
+
+    ServiceInvocationPlan(ModelService model) {
+        this.serviceName = model.name;
+        this.invoke = model.invoke;
+        this.semaphore = "wait".equals(model.semaphore) || "fail".equals(model.semaphore);
+        this.permissionChecks = UtilValidate.isNotEmpty(model.permissionServiceName) || model.containsPermissions();
+        this.notifications = UtilValidate.isNotEmpty(model.notifications);
+        List<ModelParam> inDefaults = new ArrayList<ModelParam>();
+        List<ModelParam> outDefaults = new ArrayList<ModelParam>();
+        for (ModelParam param : model.getModelParamList()) {
+            if (param.getDefaultValue() == null) {
+                continue;
+            }
+            if ("INOUT".equals(param.mode) || ModelService.IN_PARAM.equals(param.mode)) {
+                inDefaults.add(param);
+            }
+            if ("INOUT".equals(param.mode) || ModelService.OUT_PARAM.equals(param.mode)) {
+                outDefaults.add(param);
+            }
+        }
+        this.inDefaultParams = inDefaults.toArray(new ModelParam[inDefaults.size()]);
+        this.outDefaultParams = outDefaults.toArray(new ModelParam[outDefaults.size()]);
+        this.inParams = new CompiledParamSet(model.getModelParamList(), ModelService.IN_PARAM);
+        this.outParams = new CompiledParamSet(model.getModelParamList(), ModelService.OUT_PARAM);
+        this.inOutParams = new CompiledParamSet(model.getModelParamList(), "INOUT");
+    }
+
+    /** Returns true if the service uses a semaphore (semaphore="wait" or "fail"). */
+    public boolean usesSemaphore() {
+        return semaphore;
+    }
+
+    /** Returns true if the service has a permission-service or required-permissions to evaluate. */
+    public boolean hasPermissionChecks() {
+        return permissionChecks;
+    }
+
+    /** Returns true if the service has notifications to send. */
+    public boolean hasNotifications() {
+        return notifications;
+    }
+
+    /**
+     * Returns true if the context passes the checks of {@link ModelService#validate(Map, String, java.util.Locale)}
+     * for the mode, without building error messages; false also when the check is left to the full validation.
+     */
+    public boolean isValid(Map<String, Object> context, String mode) {
+        CompiledParamSet params = getParamSet(mode);
+        return params != null && params.isValid(context);
+    }
+
+    /**
+     * Returns the compiled parameters of the mode (IN, OUT or INOUT), or null for any other mode.
+     */
+    CompiledParamSet getParamSet(String mode) {
+        if (ModelService.IN_PARAM.equals(mode)) {
+            return inParams;
+        } else if (ModelService.OUT_PARAM.equals(mode)) {
+            return outParams;
+        } else if ("INOUT".equals(mode)) {
+            return inOutParams;
+        }
+        return null;
+    }
+
+    /**
+     * Sets the default values of the parameters of the given mode missing from the context; same as
+     * {@link ModelService#updateDefaultValues(Map, String)}, without going through the parameters
+     * that have no default value.
+     */
+    public void updateDefaultValues(Map<String, Object> context, String mode) {
+        ModelParam[] params = ModelService.OUT_PARAM.equals(mode) ? outDefaultParams : inDefaultParams;
+        for (ModelParam param : params) {
+            if (context.get(param.name) == null) {
+                Object defaultValueObj = param.getDefaultValue();
+                if (defaultValueObj != null) {
+                    context.put(param.name, defaultValueObj);
+                    Debug.logInfo("Set default value [" + defaultValueObj + "] for parameter [" + param.name + "]", ModelService.module);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the public <code>(DispatchContext, Map)</code> method of a java engine service, loading
+     * the class only the first time for a given class loader and location.
+     */
+    public Method getJavaMethod(ClassLoader loader, String location) throws ClassNotFoundException, NoSuchMethodException {
+        JavaTarget target = this.javaTarget;
+        if (target != null && target.loader == loader && target.location.equals(location)) {
+            return target.method;
+        }
+        Class<?> c = loader.loadClass(location);
+        Method method = c.getMethod(invoke, DispatchContext.class, Map.class);
+        this.javaTarget = new JavaTarget(loader, location, method);
+        if (Debug.verboseOn()) {
+            Debug.logVerbose("Resolved java method of service [" + serviceName + "]: " + method, module);
+        }
+        return method;
+    }
+
+    private static final class JavaTarget {
+        final ClassLoader loader;
+        final String location;
+        final Method method;
+
+        JavaTarget(ClassLoader loader, String location, Method method) {
+            this.loader = loader;
+            this.location = location;
+            this.method = method;
+        }
+    }
+}
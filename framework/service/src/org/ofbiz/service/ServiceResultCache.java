@@ -0,0 +1,417 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.SystemException;
+import javax.transaction.Transaction;
+import javax.transaction.TransactionManager;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.cache.UtilCache;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntity;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionFactoryLoader;
+import org.ofbiz.entity.transaction.TransactionUtil;
+
+/**
+ * SCIPIO: Memoized results of services defined with <code>cache="true"</code>.
+ * <p>
+ * Successful results are kept in a UtilCache per service (<code>service.result.[service name]</code>,
+ * expiring after the service's <code>cache-ttl</code> seconds), keyed by the delegator and the normalized
+ * IN parameters, and in a request memo for the current request (see {@link #beginRequest()}). Calls with
+ * parameters that cannot be keyed reliably (undeclared parameters, login.username/password, values of
+ * other types than strings, numbers, dates, locales, time zones, entity values and collections of these)
+ * are not cached.
+ * <p>
+ * When an entity listed in the service's <code>invalidate-on</code> elements is created, stored or removed
+ * through the delegator (entity ECA return event), the service's results are cleared, and cleared again when
+ * the writing transaction completes; while it is open, results of that service computed in it are not shared.
+ * A result is not cached either if the service's results were cleared while it was being computed
+ * (see {@link #getInvalidationCount(ModelService)}), since it may have been computed from the data before the change.
+ * Bulk operations (removeByAnd, storeByCondition...) do not trigger entity ECAs and only expire with the TTL.
+ * <p>
+ * A cached call skips the ECAs, authorization and validation of the service; the returned map is a new map,
+ * but the values in it are shared and must not be modified.
+ */
+public final class ServiceResultCache {
+
+    public static final String module = ServiceResultCache.class.getName();
+
+    private static final boolean enabled = UtilProperties.getPropertyAsBoolean("service", "result.cache.enable", true);
+    private static final long defaultTtl = UtilProperties.getPropertyAsLong("service", "result.cache.default.ttl", 300L);
+    private static final int maxSize = UtilProperties.getPropertyAsInteger("service", "result.cache.max.size", 1000);
+
+    private static final ConcurrentMap<String, UtilCache<String, Map<String, Object>>> caches = new ConcurrentHashMap<String, UtilCache<String, Map<String, Object>>>();
+    /** Names of the cached services to clear, by entity name */
+    private static final ConcurrentMap<String, Set<String>> servicesByEntity = new ConcurrentHashMap<String, Set<String>>();
+    private static final Set<String> registeredServices = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /** Services whose entities were changed in open transactions */
+    private static final ConcurrentMap<Transaction, InvalidationSync> pendingInvalidations = new ConcurrentHashMap<Transaction, InvalidationSync>();
+    /** Number of times the results of each service were cleared */
+    private static final ConcurrentMap<String, AtomicLong> invalidationCounts = new ConcurrentHashMap<String, AtomicLong>();
+
+    /** Request memo: results by service name and key, while a request is being processed */
+    private static final ThreadLocal<Map<String, Map<String, Map<String, Object>>>> requestMemo = new ThreadLocal<Map<String, Map<String, Map<String, Object>>>>();
+
+    private ServiceResultCache() {
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts the request memo of the current thread; results memoized in it are returned until
+     * {@link #endRequest()}, even if expired or evicted from the service caches in the meantime.
+     */
+    public static void beginRequest() {
+        requestMemo.set(new HashMap<String, Map<String, Map<String, Object>>>());
+    }
+
+    public static void endRequest() {
+        requestMemo.remove();
+    }
+
+    /**
+     * Returns the cache key of a call to a <code>cache="true"</code> service, or null if the call cannot be cached.
+     */
+    public static String makeKey(Delegator delegator, ModelService model, Map<String, ? extends Object> params) {
+        if (!enabled) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(delegator.getDelegatorName()).append('|');
+        if (params == null || params.isEmpty()) {
+            return sb.toString();
+        }
+        for (String name : new TreeMap<String, Object>(params).keySet()) {
+            ModelParam param = model.getParam(name);
+            if (param == null || !param.isIn() || name.startsWith("login.")) {
+                return null;
+            }
+            Object value = params.get(name);
+            if (value == null) {
+                continue;
+            }
+            sb.append(name).append('=');
+            if ("userLogin".equals(name) && value instanceof GenericEntity) {
+                // the result depends on who calls (permissions), not on the login's other fields
+                appendValue(sb, ((GenericEntity) value).get("userLoginId"));
+            } else if (!appendValue(sb, value)) {
+                return null;
+            }
+            sb.append('|');
+        }
+        return sb.toString();
+    }
+
+    private static boolean appendValue(StringBuilder sb, Object value) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof String) {
+            String str = (String) value;
+            // length prefix, so separators in values cannot make two keys equal
+            sb.append('s').append(str.length()).append(':').append(str);
+        } else if (value instanceof Number || value instanceof Boolean || value instanceof Character || value instanceof Enum) {
+            sb.append(value.getClass().getSimpleName()).append(':').append(value);
+        } else if (value instanceof java.util.Date) {
+            sb.append(value.getClass().getSimpleName()).append(':').append(((java.util.Date) value).getTime());
+        } else if (value instanceof Locale) {
+            sb.append("Locale:").append(value);
+        } else if (value instanceof TimeZone) {
+            sb.append("TimeZone:").append(((TimeZone) value).getID());
+        } else if (value instanceof GenericEntity) {
+            sb.append('E').append(((GenericEntity) value).getEntityName());
+            return appendMap(sb, (GenericEntity) value);
+        } else if (value instanceof Map<?, ?>) {
+            return appendMap(sb, (Map<?, ?>) value);
+        } else if (value instanceof Set<?>) {
+            // iteration order of equal sets can differ: sort the element keys
+            List<String> elementKeys = new ArrayList<String>(((Set<?>) value).size());
+            for (Object element : (Set<?>) value) {
+                StringBuilder elementSb = new StringBuilder();
+                if (!appendValue(elementSb, element)) {
+                    return false;
+                }
+                elementKeys.add(elementSb.toString());
+            }
+            Collections.sort(elementKeys);
+            sb.append("S[");
+            for (String elementKey : elementKeys) {
+                sb.append(elementKey).append(',');
+            }
+            sb.append(']');
+        } else if (value instanceof Collection<?>) {
+            sb.append("L[");
+            for (Object element : (Collection<?>) value) {
+                if (!appendValue(sb, element)) {
+                    return false;
+                }
+                sb.append(',');
+            }
+            sb.append(']');
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean appendMap(StringBuilder sb, Map<?, ?> map) {
+        TreeMap<String, Object> sorted = new TreeMap<String, Object>();
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (!(entry.getKey() instanceof String)) {
+                return false;
+            }
+            sorted.put((String) entry.getKey(), entry.getValue());
+        }
+        sb.append('{');
+        for (Map.Entry<String, Object> entry : sorted.entrySet()) {
+            sb.append(entry.getKey()).append('=');
+            if (!appendValue(sb, entry.getValue())) {
+                return false;
+            }
+            sb.append(',');
+        }
+        sb.append('}');
+        return true;
+    }
+
+    /**
+     * Returns the number of times the results of the service have been cleared; to be read before
+     * looking up the result with {@link #get} and passed to {@link #put}, which does not cache the
+     * result if the count has changed in the meantime.
+     */
+    public static long getInvalidationCount(ModelService model) {
+        return getInvalidationCounter(model.name).get();
+    }
+
+    private static AtomicLong getInvalidationCounter(String serviceName) {
+        AtomicLong counter = invalidationCounts.get(serviceName);
+        if (counter == null) {
+            counter = new AtomicLong();
+            AtomicLong existing = invalidationCounts.putIfAbsent(serviceName, counter);
+            if (existing != null) {
+                counter = existing;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Returns a copy of the memoized result of the call, or null.
+     */
+    public static Map<String, Object> get(ModelService model, String key) {
+        registerInvalidation(model);
+        Map<String, Map<String, Map<String, Object>>> memo = requestMemo.get();
+        if (memo != null) {
+            Map<String, Map<String, Object>> serviceMemo = memo.get(model.name);
+            if (serviceMemo != null) {
+                Map<String, Object> result = serviceMemo.get(key);
+                if (result != null) {
+                    return new HashMap<String, Object>(result);
+                }
+            }
+        }
+        if (model.cacheTtl == 0) {
+            return null;
+        }
+        Map<String, Object> result = getCache(model).get(key);
+        if (result == null) {
+            return null;
+        }
+        if (memo != null) {
+            putRequestMemo(memo, model.name, key, result);
+        }
+        return new HashMap<String, Object>(result);
+    }
+
+    /**
+     * Memoizes the successful result of the call, unless the results of the service were cleared since
+     * <code>invalidationCount</code> was read.
+     */
+    public static void put(ModelService model, String key, Map<String, Object> result, long invalidationCount) {
+        if (getInvalidationCounter(model.name).get() != invalidationCount) {
+            // possibly computed from the data before a change committed meanwhile
+            if (Debug.verboseOn()) {
+                Debug.logVerbose("Results of service [" + model.name + "] were cleared during the call; not caching its result", module);
+            }
+            return;
+        }
+        Map<String, Object> cachedResult = Collections.unmodifiableMap(new HashMap<String, Object>(result));
+        Map<String, Map<String, Map<String, Object>>> memo = requestMemo.get();
+        if (memo != null) {
+            putRequestMemo(memo, model.name, key, cachedResult);
+        }
+        if (model.cacheTtl == 0 || isPendingInvalidation(model.name)) {
+            // not shared until the transaction that changed its entities completes
+            return;
+        }
+        getCache(model).put(key, cachedResult);
+    }
+
+    private static void putRequestMemo(Map<String, Map<String, Map<String, Object>>> memo, String serviceName, String key, Map<String, Object> result) {
+        Map<String, Map<String, Object>> serviceMemo = memo.get(serviceName);
+        if (serviceMemo == null) {
+            serviceMemo = new HashMap<String, Map<String, Object>>();
+            memo.put(serviceName, serviceMemo);
+        }
+        serviceMemo.put(key, result);
+    }
+
+    private static UtilCache<String, Map<String, Object>> getCache(ModelService model) {
+        UtilCache<String, Map<String, Object>> cache = caches.get(model.name);
+        if (cache == null) {
+            long ttl = (model.cacheTtl < 0) ? defaultTtl : model.cacheTtl;
+            cache = UtilCache.createUtilCache("service.result." + model.name, maxSize, maxSize, ttl * 1000, false, false);
+            UtilCache<String, Map<String, Object>> existing = caches.putIfAbsent(model.name, cache);
+            if (existing != null) {
+                cache = existing;
+            }
+        }
+        return cache;
+    }
+
+    private static void registerInvalidation(ModelService model) {
+        if (registeredServices.contains(model.name)) {
+            return;
+        }
+        for (String entityName : model.cacheInvalidateEntities) {
+            Set<String> serviceNames = servicesByEntity.get(entityName);
+            if (serviceNames == null) {
+                serviceNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                Set<String> existingNames = servicesByEntity.putIfAbsent(entityName, serviceNames);
+                if (existingNames != null) {
+                    serviceNames = existingNames;
+                }
+            }
+            serviceNames.add(model.name);
+        }
+        registeredServices.add(model.name);
+    }
+
+    /**
+     * Clears the results of the services declaring the entity in their <code>invalidate-on</code> elements,
+     * now and, if a transaction is in place, again when it completes.
+     */
+    public static void entityChanged(String entityName) {
+        Set<String> serviceNames = servicesByEntity.get(entityName);
+        if (serviceNames == null || serviceNames.isEmpty()) {
+            return;
+        }
+        clear(serviceNames);
+        Transaction transaction = getActiveTransaction();
+        if (transaction == null) {
+            return;
+        }
+        InvalidationSync sync = pendingInvalidations.get(transaction);
+        if (sync == null) {
+            sync = new InvalidationSync(transaction);
+            try {
+                TransactionUtil.registerSynchronization(sync);
+                pendingInvalidations.put(transaction, sync);
+            } catch (GenericTransactionException e) {
+                Debug.logWarning(e, "Could not register the service result cache clearing for the end of the transaction", module);
+                return;
+            }
+        }
+        sync.serviceNames.addAll(serviceNames);
+    }
+
+    /**
+     * Clears the memoized results of all the services.
+     */
+    public static void clearAll() {
+        clear(caches.keySet());
+    }
+
+    private static void clear(Collection<String> serviceNames) {
+        for (String serviceName : serviceNames) {
+            getInvalidationCounter(serviceName).incrementAndGet();
+            UtilCache<String, Map<String, Object>> cache = caches.get(serviceName);
+            if (cache != null) {
+                cache.clear();
+            }
+        }
+        Map<String, Map<String, Map<String, Object>>> memo = requestMemo.get();
+        if (memo != null) {
+            memo.keySet().removeAll(serviceNames);
+        }
+    }
+
+    private static boolean isPendingInvalidation(String serviceName) {
+        if (pendingInvalidations.isEmpty()) {
+            return false;
+        }
+        Transaction transaction = getActiveTransaction();
+        if (transaction == null) {
+            return false;
+        }
+        InvalidationSync sync = pendingInvalidations.get(transaction);
+        return sync != null && sync.serviceNames.contains(serviceName);
+    }
+
+    private static Transaction getActiveTransaction() {
+        try {
+            TransactionManager tm = TransactionFactoryLoader.getInstance().getTransactionManager();
+            if (tm != null && tm.getStatus() == Status.STATUS_ACTIVE) {
+                return tm.getTransaction();
+            }
+        } catch (SystemException e) {
+            Debug.logWarning(e, "Could not get the current transaction", module);
+        }
+        return null;
+    }
+
+    private static final class InvalidationSync implements Synchronization {
+        final Transaction transaction;
+        final Set<String> serviceNames = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        InvalidationSync(Transaction transaction) {
+            this.transaction = transaction;
+        }
+
+        @Override
+        public void beforeCompletion() {
+        }
+
+        @Override
+        public void afterCompletion(int status) {
+            pendingInvalidations.remove(transaction);
+            // results computed by other threads from the data before the commit are obsolete now
+            clear(serviceNames);
+        }
+    }
+}
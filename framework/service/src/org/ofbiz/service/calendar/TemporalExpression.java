@@ -20,7 +20,9 @@ package org.ofbiz.service.calendar;
 
 import java.io.Serializable;
 import com.ibm.icu.util.Calendar;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -91,6 +93,34 @@ public abstract class TemporalExpression implements Serializable, Comparable<Tem
         return set;
     }
 
+    /** Returns the occurrences of this expression from <code>start</code> to
+     * <code>end</code> (inclusive), in ascending order. Unlike repeated
+     * <code>next</code> calls, expressions override this to jump to the
+     * candidate dates directly.
+     * <p>SCIPIO: Expressions are immutable, so the same instance (for example
+     * a cached one from <code>TemporalExpressionWorker</code>) can be queried
+     * by several threads.</p>
+     * @param start The starting date; also supplies the time zone and locale
+     * @param end The ending date
+     * @return A List of matching <code>Date</code> objects, empty if none are found
+     */
+    public List<Date> occurrencesBetween(Calendar start, Date end) {
+        org.ofbiz.base.util.DateRange range = new org.ofbiz.base.util.DateRange(start.getTime(), end);
+        List<Date> occurrences = new ArrayList<Date>();
+        Date last = null;
+        Calendar next = first((Calendar) start.clone());
+        while (next != null && range.includesDate(next.getTime())) {
+            Date occurrence = next.getTime();
+            if (last != null && !occurrence.after(last)) {
+                break;
+            }
+            occurrences.add(occurrence);
+            last = occurrence;
+            next = next(next);
+        }
+        return occurrences;
+    }
+
     /** Returns true if this expression includes the specified date.
      * @param cal A date to evaluate
      * @return true if this expression includes the date represented by
@@ -19,17 +19,21 @@
 package org.ofbiz.service.calendar;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.base.util.cache.UtilCache;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
 import org.ofbiz.entity.condition.EntityCondition;
 import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.service.DispatchContext;
+import org.ofbiz.service.ServiceUtil;
 
 /** TemporalExpression persistence worker. */
 public class TemporalExpressionWorker {
@@ -57,7 +61,14 @@ public class TemporalExpressionWorker {
     public final static String EXCLUDE = "EXCLUDE";
     public final static String SUBSTITUTE = "SUBSTITUTE";
 
+    /** SCIPIO: Expression trees by delegator name and tempExprId; cleared by the
+     * clearTemporalExpressionCache service when a TemporalExpression or
+     * TemporalExpressionAssoc is changed (see entitydef/eecas.xml). */
+    private static final UtilCache<String, TemporalExpression> expressionCache = UtilCache.createUtilCache("service.TemporalExpressions", 0, 0, false);
+
     /** Get a <code>TemporalExpression</code> from persistent storage.
+     * <p>SCIPIO: The expression trees are cached; expressions are immutable
+     * so the returned instance can be shared.</p>
      * @param delegator
      * @param tempExprId
      * @return A <code>TemporalExpression</code> instance based on <code>tempExprId</code>
@@ -67,16 +78,29 @@ public class TemporalExpressionWorker {
         if (UtilValidate.isEmpty(tempExprId)) {
             throw new IllegalArgumentException("tempExprId argument cannot be empty");
         }
+        String cacheKey = delegator.getDelegatorName() + "::" + tempExprId;
+        TemporalExpression result = expressionCache.get(cacheKey);
+        if (result != null) {
+            return result;
+        }
         GenericValue exprValue = EntityQuery.use(delegator).from("TemporalExpression").where("tempExprId", tempExprId).cache().queryOne();
         if (UtilValidate.isEmpty(exprValue)) {
             throw new IllegalArgumentException("tempExprId argument invalid - expression not found");
         }
-        TemporalExpression result = makeTemporalExpression(delegator, exprValue);
+        result = makeTemporalExpression(delegator, exprValue);
         if (Debug.verboseOn()) {
             TemporalExpressionPrinter printer = new TemporalExpressionPrinter(result);
             Debug.logVerbose(printer.toString(), module);
         }
-        return result;
+        return expressionCache.putIfAbsentAndGet(cacheKey, result);
+    }
+
+    /** SCIPIO: Clears the cached expression trees. Invoked by entity ECAs on
+     * TemporalExpression and TemporalExpressionAssoc; as expressions include
+     * their child expressions, the whole cache is cleared. */
+    public static Map<String, Object> clearTemporalExpressionCache(DispatchContext dctx, Map<String, ? extends Object> context) {
+        expressionCache.clear();
+        return ServiceUtil.returnSuccess();
     }
 
     /** Create a <code>TemporalExpression</code> instance from a TemporalExpression
@@ -152,7 +176,8 @@ public class TemporalExpressionWorker {
         }
         Set<TemporalExpression> exprList = new TreeSet<TemporalExpression>();
         for (GenericValue value : valueList) {
-            exprList.add(makeTemporalExpression(delegator, value.getRelatedOne("ToTemporalExpression", false)));
+            // SCIPIO: shares the cached child expressions
+            exprList.add(getTemporalExpression(delegator, value.getString("toTempExprId")));
         }
         return exprList;
     }
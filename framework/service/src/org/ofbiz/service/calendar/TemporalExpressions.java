@@ -20,8 +20,10 @@ package org.ofbiz.service.calendar;
 
 import java.io.Serializable;
 import com.ibm.icu.util.Calendar;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -573,6 +575,19 @@ public class TemporalExpressions implements Serializable {
             return next;
         }
 
+        @Override
+        public List<Date> occurrencesBetween(Calendar start, Date end) {
+            List<Date> occurrences = new ArrayList<Date>();
+            Calendar check = (Calendar) start.clone();
+            for (Date occurrence : this.included.occurrencesBetween(start, end)) {
+                check.setTime(occurrence);
+                if (!this.excluded.includesDate(check)) {
+                    occurrences.add(occurrence);
+                }
+            }
+            return occurrences;
+        }
+
         @Override
         public String toString() {
             return super.toString() + ", included = " + this.included + ", excluded = " + this.excluded;
@@ -689,6 +704,19 @@ public class TemporalExpressions implements Serializable {
             return next;
         }
 
+        @Override
+        public List<Date> occurrencesBetween(Calendar start, Date end) {
+            // Skip to the first occurrence once, then step by the frequency
+            // instead of skipping forward from the start date for each occurrence
+            List<Date> occurrences = new ArrayList<Date>();
+            Calendar next = first(start);
+            while (!next.getTime().after(end)) {
+                occurrences.add(next.getTime());
+                next.add(this.freqType, this.freqCount);
+            }
+            return occurrences;
+        }
+
         protected Calendar prepareCal(Calendar cal) {
             // Performs a "sane" skip forward in time - avoids time consuming loops
             // like incrementing every second from Jan 1 2000 until today
@@ -1422,13 +1450,15 @@ public class TemporalExpressions implements Serializable {
 
         @Override
         public Calendar first(Calendar cal) {
+            // SCIPIO: Return the earliest first date of the members, not the first one found in set order
+            Calendar result = null;
             for (TemporalExpression expression : this.expressionSet) {
                 Calendar first = expression.first(cal);
-                if (first != null && includesDate(first)) {
-                    return first;
+                if (first != null && (result == null || first.before(result))) {
+                    result = first;
                 }
             }
-            return null;
+            return result;
         }
 
         /** Returns the member expression <code>Set</code>. The
@@ -1473,6 +1503,15 @@ public class TemporalExpressions implements Serializable {
             return result;
         }
 
+        @Override
+        public List<Date> occurrencesBetween(Calendar start, Date end) {
+            Set<Date> occurrences = new TreeSet<Date>();
+            for (TemporalExpression expression : this.expressionSet) {
+                occurrences.addAll(expression.occurrencesBetween(start, end));
+            }
+            return new ArrayList<Date>(occurrences);
+        }
+
         @Override
         public String toString() {
             return super.toString() + ", size = " + this.expressionSet.size();
@@ -19,8 +19,8 @@
 package org.ofbiz.service.engine;
 
 import java.lang.reflect.Constructor;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.ofbiz.base.config.GenericConfigException;
 import org.ofbiz.base.util.UtilGenerics;
@@ -38,7 +38,7 @@ public class GenericEngineFactory {
 
     public GenericEngineFactory(ServiceDispatcher dispatcher) {
         this.dispatcher = dispatcher;
-        engines = new HashMap<String, GenericEngine>();
+        engines = new ConcurrentHashMap<String, GenericEngine>();
     }
 
     /**
@@ -47,15 +47,15 @@ public class GenericEngineFactory {
      *@return GenericEngine that corresponds to the engineName
      */
     public GenericEngine getGenericEngine(String engineName) throws GenericServiceException {
-        String className = null;
-        try {
-            className = ServiceConfigUtil.getServiceEngine().getEngine(engineName).getClassName();
-        } catch (GenericConfigException e) {
-            throw new GenericServiceException(e);
-        }
-
+        // SCIPIO: engines are created once; only look up the configuration for a new one
         GenericEngine engine = engines.get(engineName);
         if (engine == null) {
+            String className = null;
+            try {
+                className = ServiceConfigUtil.getServiceEngine().getEngine(engineName).getClassName();
+            } catch (GenericConfigException e) {
+                throw new GenericServiceException(e);
+            }
             synchronized (GenericEngineFactory.class) {
                 engine = engines.get(engineName);
                 if (engine == null) {
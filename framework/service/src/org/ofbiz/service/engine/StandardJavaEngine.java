@@ -94,12 +94,12 @@ public final class StandardJavaEngine extends GenericAsyncEngine {
         }
 
         try {
-            Class<?> c = cl.loadClass(this.getLocation(modelService));
-            Method m = c.getMethod(modelService.invoke, DispatchContext.class, Map.class);
+            // SCIPIO: the method is resolved once per service and class loader
+            Method m = modelService.getInvocationPlan().getJavaMethod(cl, this.getLocation(modelService));
             if (Modifier.isStatic(m.getModifiers())) {
                 result = m.invoke(null, dctx, context);
             } else {
-                result = m.invoke(c.newInstance(), dctx, context);
+                result = m.invoke(cl.loadClass(this.getLocation(modelService)).newInstance(), dctx, context);
             }
         } catch (ClassNotFoundException cnfe) {
             throw new GenericServiceException("Cannot find service [" + modelService.name + "] location class", cnfe);
@@ -21,11 +21,13 @@ package org.ofbiz.service.group;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.*;
+import java.util.concurrent.Future;
 
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilMisc;
 import org.ofbiz.base.util.UtilXml;
 import org.ofbiz.service.GenericServiceException;
+import org.ofbiz.service.ParallelServiceRunner;
 import org.ofbiz.service.ServiceDispatcher;
 import org.ofbiz.service.ServiceUtil;
 import org.w3c.dom.Element;
@@ -126,6 +128,8 @@ public class GroupModel {
             throws GenericServiceException {
         if (this.getSendMode().equals("all")) {
             return runAll(dispatcher, localName, context);
+        } else if (this.getSendMode().equals("parallel")) {
+            return runParallel(dispatcher, localName, context);
         } else if (this.getSendMode().equals("round-robin")) {
             return runIndex(dispatcher, localName, context, (++lastServiceRan % services.size()));
         } else if (this.getSendMode().equals("random")) {
@@ -180,6 +184,64 @@ public class GroupModel {
         return result;
     }
 
+    /**
+     * SCIPIO: Like runAll, but the parallel-safe sync services all start with the group context on the
+     * parallel service pool, while the others run in order on this thread (in its transaction).
+     */
+    private Map<String, Object> runParallel(ServiceDispatcher dispatcher, String localName, Map<String, Object> context)
+            throws GenericServiceException {
+        Map<String, Object> runContext = UtilMisc.makeMapWritable(context);
+        boolean callerInTransaction = ParallelServiceRunner.isCallerInTransaction();
+        List<Future<Map<String, Object>>> futures = new ArrayList<Future<Map<String, Object>>>(services.size());
+        for (GroupServiceModel model : services) {
+            futures.add(model.submitParallel(dispatcher, localName, runContext, callerInTransaction));
+        }
+
+        List<Map<String, Object>> localResults = new ArrayList<Map<String, Object>>(services.size());
+        for (int i = 0; i < services.size(); i++) {
+            Map<String, Object> thisResult = null;
+            if (futures.get(i) == null) {
+                GroupServiceModel model = services.get(i);
+                thisResult = model.invoke(dispatcher, localName, runContext);
+                if (ServiceUtil.isError(thisResult)) {
+                    // the following services are not run, as in runAll; the error is returned below in invoke order
+                    localResults.add(thisResult);
+                    break;
+                }
+                if (model.resultToContext()) {
+                    runContext.putAll(thisResult);
+                }
+            }
+            localResults.add(thisResult);
+        }
+
+        // merge in invoke order once all the services have completed
+        Map<String, Object> result = new HashMap<String, Object>();
+        Map<String, Object> errorResult = null;
+        for (int i = 0; i < services.size(); i++) {
+            GroupServiceModel model = services.get(i);
+            Map<String, Object> thisResult;
+            if (futures.get(i) != null) {
+                thisResult = ParallelServiceRunner.getResult(model.getName(), futures.get(i));
+            } else if (i < localResults.size()) {
+                thisResult = localResults.get(i);
+            } else {
+                continue;
+            }
+            if (Debug.verboseOn())
+                Debug.logVerbose("Result: " + thisResult, module);
+            if (errorResult == null) {
+                if (ServiceUtil.isError(thisResult)) {
+                    Debug.logError("Grouped service [" + model.getName() + "] failed.", module);
+                    errorResult = thisResult;
+                } else {
+                    result.putAll(thisResult);
+                }
+            }
+        }
+        return (errorResult != null) ? errorResult : result;
+    }
+
     private Map<String, Object> runIndex(ServiceDispatcher dispatcher, String localName, Map<String, Object> context, int index)
             throws GenericServiceException {
         GroupServiceModel model = services.get(index);
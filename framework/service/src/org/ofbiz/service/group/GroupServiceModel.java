@@ -21,11 +21,13 @@ package org.ofbiz.service.group;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.service.DispatchContext;
 import org.ofbiz.service.GenericServiceException;
 import org.ofbiz.service.ModelService;
+import org.ofbiz.service.ParallelServiceRunner;
 import org.ofbiz.service.ServiceDispatcher;
 import org.w3c.dom.Element;
 
@@ -123,6 +125,32 @@ public class GroupServiceModel {
         }
     }
 
+    /**
+     * SCIPIO: Starts this service on the parallel service pool, for send-mode="parallel" groups, if it is a
+     * sync service that may leave the calling thread (see {@link ParallelServiceRunner#isParallelSafe}).
+     * @param dispatcher ServiceDispatcher used for this invocation
+     * @param localName Name of the LocalDispatcher used
+     * @param context Context for this service (will use only valid parameters)
+     * @param callerInTransaction Whether the calling thread has a transaction
+     * @return the future result, or null if the service is to be invoked on the calling thread
+     * @throws GenericServiceException
+     */
+    public Future<Map<String, Object>> submitParallel(ServiceDispatcher dispatcher, String localName, Map<String, Object> context,
+            boolean callerInTransaction) throws GenericServiceException {
+        if (getMode().equals("async")) {
+            return null;
+        }
+        DispatchContext dctx = dispatcher.getLocalContext(localName);
+        ModelService model = dctx.getModelService(getName());
+        if (model == null)
+            throw new GenericServiceException("Group defined service (" + getName() + ") is not a defined service.");
+        if (!ParallelServiceRunner.isParallelSafe(model, callerInTransaction)) {
+            return null;
+        }
+        Debug.logInfo("Running grouped service [" + serviceName + "] in parallel", module);
+        return ParallelServiceRunner.submit(dispatcher, localName, model, model.makeValid(context, ModelService.IN_PARAM), callerInTransaction);
+    }
+
     /**
      * @see java.lang.Object#toString()
      */
@@ -18,10 +18,13 @@
  */
 package org.ofbiz.service.test;
 
+import java.math.BigDecimal;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.ofbiz.base.util.Debug;
 import org.ofbiz.base.util.UtilMisc;
@@ -375,4 +378,157 @@ public class ServiceEngineTestServices {
 
         return ServiceUtil.returnSuccess();
     }
+
+    // ==================================================
+
+    /**
+     * SCIPIO: Benchmark of nested runSync calls; run on demand, it is not part of the test suites.
+     */
+    public static Map<String, Object> testServiceNestedCallBenchmark(DispatchContext dctx, Map<String, ? extends Object> context) {
+        LocalDispatcher dispatcher = dctx.getDispatcher();
+        Locale locale = (Locale) context.get("locale");
+        GenericValue userLogin = (GenericValue) context.get("userLogin");
+        int calls = (Integer) context.get("calls");
+        long startTime = System.nanoTime();
+        try {
+            for (int i = 0; i < calls; i++) {
+                Map<String, Object> subContext = UtilMisc.toMap("message", "nested call", "sequenceNum", i,
+                        "quantity", BigDecimal.ONE, "userLogin", userLogin, "locale", locale);
+                Map<String, Object> subResult = dispatcher.runSync("testServiceNestedCallBenchmarkSub", subContext);
+                if (ServiceUtil.isError(subResult)) {
+                    return ServiceUtil.returnError(ServiceUtil.getErrorMessage(subResult));
+                }
+            }
+        } catch (GenericServiceException e) {
+            Debug.logError(e, module);
+            return ServiceUtil.returnError(e.getMessage());
+        }
+        long elapsed = Math.max(1, System.nanoTime() - startTime);
+        long callsPerSecond = (calls * 1000000000L) / elapsed;
+        Debug.logInfo("Ran " + calls + " nested service calls in " + (elapsed / 1000000) + " ms (" + callsPerSecond + " calls per second)", module);
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("callsPerSecond", callsPerSecond);
+        return result;
+    }
+    public static Map<String, Object> testServiceNestedCallBenchmarkSub(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("response", context.get("message"));
+        return result;
+    }
+
+    /**
+     * SCIPIO: Returns the value of the IN parameter that has a default value, and whether the one without was set.
+     */
+    public static Map<String, Object> testServiceDefaultValues(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("withDefaultValue", context.get("withDefault"));
+        result.put("withoutDefaultSet", context.containsKey("withoutDefault"));
+        return result;
+    }
+
+    /**
+     * SCIPIO: Grants the permission when permissionGranted is Y.
+     */
+    public static Map<String, Object> testServicePermissionCheck(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        boolean hasPermission = "Y".equals(context.get("permissionGranted"));
+        result.put("hasPermission", hasPermission);
+        if (!hasPermission) {
+            result.put("failMessage", "Permission " + context.get("mainAction") + " denied by testServicePermissionCheck");
+        }
+        return result;
+    }
+
+    /** SCIPIO: Notifications received by testServiceNotificationRecorder, as service:event */
+    public static final List<String> recordedNotifications = new CopyOnWriteArrayList<String>();
+
+    /**
+     * SCIPIO: Records a service notification.
+     */
+    public static Map<String, Object> testServiceNotificationRecorder(DispatchContext dctx, Map<String, ? extends Object> context) {
+        recordedNotifications.add(context.get("notifiedService") + ":" + context.get("notifiedEvent"));
+        return ServiceUtil.returnSuccess();
+    }
+
+    private static final AtomicInteger semaphoreRunning = new AtomicInteger();
+    private static final AtomicInteger semaphoreMaxRunning = new AtomicInteger();
+
+    /**
+     * SCIPIO: Runs for a while, and returns the highest number of calls of the service seen running at once.
+     */
+    public static Map<String, Object> testServiceSemaphore(DispatchContext dctx, Map<String, ? extends Object> context) {
+        int running = semaphoreRunning.incrementAndGet();
+        try {
+            synchronized (semaphoreMaxRunning) {
+                if (running > semaphoreMaxRunning.get()) {
+                    semaphoreMaxRunning.set(running);
+                }
+            }
+            // long enough for the other calls to reach the semaphore
+            Thread.sleep(300);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            semaphoreRunning.decrementAndGet();
+        }
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("maxRunning", semaphoreMaxRunning.get());
+        return result;
+    }
+
+    /**
+     * SCIPIO: Returns twice the value, and the name of the thread the service ran on.
+     */
+    public static Map<String, Object> testServiceParallel(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Integer value = (Integer) context.get("value");
+        try {
+            // long enough for the calls to overlap
+            Thread.sleep(20);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("doubled", value * 2);
+        result.put("threadName", Thread.currentThread().getName());
+        return result;
+    }
+
+    /**
+     * SCIPIO: Returns the name of the thread the service ran on; not parallel-safe.
+     */
+    public static Map<String, Object> testServiceParallelInline(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("inlineThreadName", Thread.currentThread().getName());
+        return result;
+    }
+
+    private static final AtomicInteger resultCacheCallCount = new AtomicInteger();
+
+    /**
+     * SCIPIO: Returns the description of a TestingType, and the number of times this service has run.
+     */
+    public static Map<String, Object> testServiceResultCache(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Delegator delegator = dctx.getDelegator();
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        try {
+            GenericValue testingType = EntityQuery.use(delegator).from("TestingType").where("testingTypeId", context.get("testingTypeId")).queryOne();
+            if (testingType != null) {
+                result.put("description", testingType.getString("description"));
+            }
+        } catch (GenericEntityException e) {
+            Debug.logError(e, module);
+            return ServiceUtil.returnError(e.getMessage());
+        }
+        result.put("callCount", resultCacheCallCount.incrementAndGet());
+        return result;
+    }
+
+    /**
+     * SCIPIO: Returns the testingTypeId it is given.
+     */
+    public static Map<String, Object> testServiceValidation(DispatchContext dctx, Map<String, ? extends Object> context) {
+        Map<String, Object> result = ServiceUtil.returnSuccess();
+        result.put("result", context.get("testingTypeId"));
+        return result;
+    }
 }
@@ -18,14 +18,25 @@
  *******************************************************************************/
 package org.ofbiz.service.test;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
+import org.ofbiz.base.util.UtilGenerics;
 import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.service.ModelNotification;
 import org.ofbiz.service.ModelService;
+import org.ofbiz.service.ServiceAuthException;
+import org.ofbiz.service.ServiceDispatcher;
+import org.ofbiz.service.ServiceUtil;
 import org.ofbiz.service.testtools.OFBizTestCase;
 
 public class ServiceEngineTests extends OFBizTestCase {
 
+    public static final String module = ServiceEngineTests.class.getName();
+
     public ServiceEngineTests(String name) {
         super(name);
     }
@@ -42,4 +53,103 @@ public class ServiceEngineTests extends OFBizTestCase {
         Map<String, Object> result = dispatcher.runSync("testScv", UtilMisc.toMap("message", "Unit Test"));
         assertEquals("Service result success", ModelService.RESPOND_SUCCESS, result.get(ModelService.RESPONSE_MESSAGE));
     }
+
+    // SCIPIO: the runSync phases that the invocation plan skips for services that do not need them
+
+    public void testDefaultValues() throws Exception {
+        Map<String, Object> result = dispatcher.runSync("testServiceDefaultValues", UtilMisc.<String, Object>toMap());
+        assertTrue(ServiceUtil.getErrorMessage(result), ServiceUtil.isSuccess(result));
+        assertEquals("IN default value applied", "inDefault", result.get("withDefaultValue"));
+        assertEquals("Parameter without default value not set", Boolean.FALSE, result.get("withoutDefaultSet"));
+
+        result = dispatcher.runSync("testServiceDefaultValues", UtilMisc.<String, Object>toMap("withDefault", "given"));
+        assertEquals("Given value kept", "given", result.get("withDefaultValue"));
+    }
+
+    public void testPermissionService() throws Exception {
+        GenericValue userLogin = EntityQuery.use(delegator).from("UserLogin").where("userLoginId", "system").queryOne();
+        Map<String, Object> result = dispatcher.runSync("testServicePermission", UtilMisc.<String, Object>toMap("message", "granted", "permissionGranted", "Y", "userLogin", userLogin));
+        assertTrue(ServiceUtil.getErrorMessage(result), ServiceUtil.isSuccess(result));
+        assertEquals("granted", result.get("response"));
+        try {
+            dispatcher.runSync("testServicePermission", UtilMisc.<String, Object>toMap("message", "denied", "permissionGranted", "N", "userLogin", userLogin));
+            fail("Service ran without permission");
+        } catch (ServiceAuthException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("denied by testServicePermissionCheck"));
+        }
+    }
+
+    public void testNotifications() throws Exception {
+        // notifications normally send mail through a notification group; record them with a service instead
+        ModelService model = new ModelService(dispatcher.getDispatchContext().getModelService("testServiceNotification"));
+        model.notifications.add(new RecordingNotification(ModelService.RESPOND_SUCCESS));
+        model.notifications.add(new RecordingNotification(ModelService.RESPOND_ERROR));
+        ServiceEngineTestServices.recordedNotifications.clear();
+        Map<String, Object> result = ServiceDispatcher.getInstance(delegator).runSync(dispatcher.getName(), model,
+                UtilMisc.<String, Object>toMap("message", "notify"));
+        assertTrue(ServiceUtil.getErrorMessage(result), ServiceUtil.isSuccess(result));
+        assertEquals("Success notification sent", UtilMisc.toList("testServiceNotification:success"),
+                new ArrayList<String>(ServiceEngineTestServices.recordedNotifications));
+    }
+
+    public void testSemaphoreWait() throws Exception {
+        final List<Object> results = new ArrayList<Object>();
+        SemaphoreCall holder = new SemaphoreCall(results);
+        holder.start();
+        // wait until the first call holds the lock, then make a second one
+        long timeout = System.currentTimeMillis() + 10000;
+        while (EntityQuery.use(delegator).from("ServiceSemaphore").where("serviceName", "testServiceSemaphoreWait").queryOne() == null) {
+            assertTrue("First call took the semaphore", System.currentTimeMillis() < timeout && holder.isAlive());
+            Thread.sleep(10);
+        }
+        SemaphoreCall waiter = new SemaphoreCall(results);
+        waiter.start();
+        holder.join();
+        waiter.join();
+        assertEquals(2, results.size());
+        for (Object result : results) {
+            assertTrue("Call waited for the semaphore: " + result, result instanceof Map && ServiceUtil.isSuccess(UtilGenerics.<Map<String, Object>>cast(result)));
+            assertEquals("Calls ran one at a time", 1, ((Map<?, ?>) result).get("maxRunning"));
+        }
+    }
+
+    private class SemaphoreCall extends Thread {
+        private final List<Object> results;
+
+        SemaphoreCall(List<Object> results) {
+            this.results = results;
+        }
+
+        @Override
+        public void run() {
+            Object result;
+            try {
+                result = dispatcher.runSync("testServiceSemaphoreWait", UtilMisc.<String, Object>toMap());
+            } catch (Exception e) {
+                result = e;
+            }
+            synchronized (results) {
+                results.add(result);
+            }
+        }
+    }
+
+    /**
+     * A notification sent to testServiceNotificationRecorder instead of by mail.
+     */
+    private static class RecordingNotification extends ModelNotification {
+        RecordingNotification(String event) {
+            this.notificationEvent = event;
+        }
+
+        @Override
+        public String getService() {
+            return "testServiceNotificationRecorder";
+        }
+
+        @Override
+        public Map<String, Object> buildContext(Map<String, ? extends Object> context, Map<String, Object> result, ModelService model) {
+            return UtilMisc.<String, Object>toMap("notifiedService", model.name, "notifiedEvent", this.notificationEvent);
+        }
+    }
 }
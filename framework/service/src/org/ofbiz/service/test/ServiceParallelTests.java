@@ -0,0 +1,137 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service.test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.service.GenericServiceException;
+import org.ofbiz.service.ServiceUtil;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * SCIPIO: Tests of the concurrent service calls of LocalDispatcher.runSyncParallel and runSyncFuture, and of parallel service groups.
+ */
+public class ServiceParallelTests extends OFBizTestCase {
+
+    public static final String module = ServiceParallelTests.class.getName();
+
+    protected static final String poolThreadPrefix = "Scipio-parallel-service-";
+
+    public ServiceParallelTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+    }
+
+    public void testFanOutSameService() throws Exception {
+        List<Map<String, Object>> contexts = makeContexts(8);
+        List<Map<String, Object>> results = dispatcher.runSyncParallel("testServiceParallel", contexts);
+        assertEquals(contexts.size(), results.size());
+        boolean pooled = false;
+        for (int i = 0; i < results.size(); i++) {
+            Map<String, Object> result = results.get(i);
+            assertTrue(ServiceUtil.isSuccess(result));
+            assertEquals("Result in the order of the contexts", i * 2, ((Integer) result.get("doubled")).intValue());
+            pooled = pooled || ((String) result.get("threadName")).startsWith(poolThreadPrefix);
+        }
+        assertTrue("Parallel-safe service run on the pool", pooled);
+    }
+
+    public void testByServiceName() throws Exception {
+        Map<String, Map<String, Object>> serviceContexts = new LinkedHashMap<String, Map<String, Object>>();
+        serviceContexts.put("testServiceParallel", UtilMisc.<String, Object>toMap("value", 21));
+        serviceContexts.put("testScv", UtilMisc.<String, Object>toMap("message", "Parallel test"));
+        Map<String, Map<String, Object>> results = dispatcher.runSyncParallel(serviceContexts);
+        assertEquals(42, ((Integer) results.get("testServiceParallel").get("doubled")).intValue());
+        assertTrue(ServiceUtil.isSuccess(results.get("testScv")));
+    }
+
+    public void testInlineInCallerTransaction() throws Exception {
+        String callerThreadName = Thread.currentThread().getName();
+        boolean beganTransaction = TransactionUtil.begin();
+        try {
+            assertTrue("Test runs in a transaction", TransactionUtil.isTransactionInPlace());
+            for (Map<String, Object> result : dispatcher.runSyncParallel("testServiceParallel", makeContexts(4))) {
+                assertEquals("Run on the caller's thread", callerThreadName, result.get("threadName"));
+            }
+            Future<Map<String, Object>> future = dispatcher.runSyncFuture("testServiceParallel", UtilMisc.<String, Object>toMap("value", 1));
+            assertTrue("Future done on return", future.isDone());
+            assertEquals(callerThreadName, future.get().get("threadName"));
+        } finally {
+            TransactionUtil.commit(beganTransaction);
+        }
+    }
+
+    public void testRunSyncFuture() throws Exception {
+        Future<Map<String, Object>> future = dispatcher.runSyncFuture("testServiceParallel", UtilMisc.<String, Object>toMap("value", 5));
+        Map<String, Object> result = future.get();
+        assertEquals(10, ((Integer) result.get("doubled")).intValue());
+        assertTrue(((String) result.get("threadName")).startsWith(poolThreadPrefix));
+    }
+
+    public void testExceptionAfterAllCompleted() throws Exception {
+        List<Map<String, Object>> contexts = makeContexts(4);
+        // missing the required value
+        contexts.set(2, new LinkedHashMap<String, Object>());
+        try {
+            dispatcher.runSyncParallel("testServiceParallel", contexts);
+            fail("Invalid context not reported");
+        } catch (GenericServiceException e) {
+            // expected
+        }
+    }
+
+    public void testParallelGroup() throws Exception {
+        String callerThreadName = Thread.currentThread().getName();
+        Map<String, Object> result = dispatcher.runSync("testServiceParallelGroup", UtilMisc.<String, Object>toMap("value", 4));
+        assertTrue(ServiceUtil.getErrorMessage(result), ServiceUtil.isSuccess(result));
+        assertEquals(8, ((Integer) result.get("doubled")).intValue());
+        assertTrue("Parallel-safe group service run on the pool", ((String) result.get("threadName")).startsWith(poolThreadPrefix));
+        assertEquals("Other group service run on the caller's thread", callerThreadName, result.get("inlineThreadName"));
+    }
+
+    public void testParallelGroupInTransaction() throws Exception {
+        // a group service that begins a transaction runs all its services inline in it
+        String callerThreadName = Thread.currentThread().getName();
+        Map<String, Object> result = dispatcher.runSync("testServiceParallelGroupInTransaction", UtilMisc.<String, Object>toMap("value", 4));
+        assertTrue(ServiceUtil.getErrorMessage(result), ServiceUtil.isSuccess(result));
+        assertEquals(callerThreadName, result.get("threadName"));
+        assertEquals(callerThreadName, result.get("inlineThreadName"));
+    }
+
+    protected List<Map<String, Object>> makeContexts(int count) {
+        List<Map<String, Object>> contexts = new ArrayList<Map<String, Object>>(count);
+        for (int i = 0; i < count; i++) {
+            contexts.add(UtilMisc.<String, Object>toMap("value", i));
+        }
+        return contexts;
+    }
+}
@@ -0,0 +1,154 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service.test;
+
+import java.util.Map;
+
+import javax.transaction.Transaction;
+
+import org.ofbiz.base.util.UtilMisc;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityQuery;
+import org.ofbiz.service.ModelService;
+import org.ofbiz.service.ServiceResultCache;
+import org.ofbiz.service.ServiceUtil;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * SCIPIO: Tests of the memoized results of cache="true" services (see {@link ServiceResultCache}).
+ */
+public class ServiceResultCacheTests extends OFBizTestCase {
+
+    public static final String module = ServiceResultCacheTests.class.getName();
+
+    protected static final String testingTypeId = "SVC_RESULT_CACHE";
+
+    public ServiceResultCacheTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        GenericValue testingType = EntityQuery.use(delegator).from("TestingType").where("testingTypeId", testingTypeId).queryOne();
+        if (testingType == null) {
+            delegator.create("TestingType", "testingTypeId", testingTypeId, "description", "Initial");
+        } else {
+            testingType.set("description", "Initial");
+            testingType.store();
+        }
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+    }
+
+    public void testHitDoesNotRunService() throws Exception {
+        Map<String, Object> result1 = call("testServiceResultCache", null);
+        Map<String, Object> result2 = call("testServiceResultCache", null);
+        assertEquals("Second call served from the cache", result1.get("callCount"), result2.get("callCount"));
+        assertEquals("Initial", result2.get("description"));
+    }
+
+    public void testKeyedByUserLogin() throws Exception {
+        GenericValue userLoginA = delegator.makeValue("UserLogin", UtilMisc.toMap("userLoginId", "system"));
+        GenericValue userLoginB = delegator.makeValue("UserLogin", UtilMisc.toMap("userLoginId", "admin"));
+        Map<String, Object> resultA1 = call("testServiceResultCache", userLoginA);
+        Map<String, Object> resultB = call("testServiceResultCache", userLoginB);
+        Map<String, Object> resultA2 = call("testServiceResultCache", userLoginA);
+        assertFalse("Other user login not served the first one's result", resultA1.get("callCount").equals(resultB.get("callCount")));
+        assertEquals("Same user login served from the cache", resultA1.get("callCount"), resultA2.get("callCount"));
+    }
+
+    public void testInvalidateOnStore() throws Exception {
+        Map<String, Object> result1 = call("testServiceResultCache", null);
+        GenericValue testingType = EntityQuery.use(delegator).from("TestingType").where("testingTypeId", testingTypeId).queryOne();
+        testingType.set("description", "Changed");
+        testingType.store();
+        Map<String, Object> result2 = call("testServiceResultCache", null);
+        assertEquals("Result recomputed after invalidate-on entity store", "Changed", result2.get("description"));
+        assertFalse(result1.get("callCount").equals(result2.get("callCount")));
+    }
+
+    public void testNotSharedBeforeCommit() throws Exception {
+        call("testServiceResultCache", null);
+        ModelService model = dispatcher.getDispatchContext().getModelService("testServiceResultCache");
+        String key = ServiceResultCache.makeKey(delegator, model, UtilMisc.toMap("testingTypeId", testingTypeId));
+        boolean beganTransaction = TransactionUtil.begin();
+        try {
+            GenericValue testingType = EntityQuery.use(delegator).from("TestingType").where("testingTypeId", testingTypeId).queryOne();
+            testingType.set("description", "Uncommitted");
+            testingType.store();
+            Map<String, Object> result = call("testServiceResultCache", null);
+            assertEquals("Uncommitted", result.get("description"));
+            // outside the writing transaction, nothing is cached
+            Transaction transaction = TransactionUtil.suspend();
+            try {
+                assertNull("Result computed in the writing transaction not shared", ServiceResultCache.get(model, key));
+            } finally {
+                TransactionUtil.resume(transaction);
+            }
+        } finally {
+            TransactionUtil.rollback(beganTransaction, "Rolling back service result cache test", null);
+        }
+        assertEquals("Result recomputed after rollback", "Initial", call("testServiceResultCache", null).get("description"));
+    }
+
+    public void testStaleResultNotCached() throws Exception {
+        call("testServiceResultCache", null);
+        ModelService model = dispatcher.getDispatchContext().getModelService("testServiceResultCache");
+        String key = ServiceResultCache.makeKey(delegator, model, UtilMisc.toMap("testingTypeId", testingTypeId));
+        // a call that missed the cache, during which another transaction changed the entity and committed
+        long invalidationCount = ServiceResultCache.getInvalidationCount(model);
+        ServiceResultCache.entityChanged("TestingType");
+        Map<String, Object> staleResult = ServiceUtil.returnSuccess();
+        staleResult.put("description", "Stale");
+        staleResult.put("callCount", -1);
+        ServiceResultCache.put(model, key, staleResult, invalidationCount);
+        assertNull("Result computed before an invalidation not cached", ServiceResultCache.get(model, key));
+    }
+
+    public void testRequestOnlyMemo() throws Exception {
+        Map<String, Object> result1 = call("testServiceResultCacheRequest", null);
+        Map<String, Object> result2 = call("testServiceResultCacheRequest", null);
+        assertFalse("cache-ttl=0 results not cached outside a request", result1.get("callCount").equals(result2.get("callCount")));
+        Map<String, Object> result3;
+        Map<String, Object> result4;
+        ServiceResultCache.beginRequest();
+        try {
+            result3 = call("testServiceResultCacheRequest", null);
+            result4 = call("testServiceResultCacheRequest", null);
+        } finally {
+            ServiceResultCache.endRequest();
+        }
+        assertEquals("Result memoized within the request", result3.get("callCount"), result4.get("callCount"));
+        Map<String, Object> result5 = call("testServiceResultCacheRequest", null);
+        assertFalse("Request memo gone after the request", result4.get("callCount").equals(result5.get("callCount")));
+    }
+
+    protected Map<String, Object> call(String serviceName, GenericValue userLogin) throws Exception {
+        Map<String, Object> context = UtilMisc.<String, Object>toMap("testingTypeId", testingTypeId);
+        if (userLogin != null) {
+            context.put("userLogin", userLogin);
+        }
+        Map<String, Object> result = dispatcher.runSync(serviceName, context);
+        assertTrue(ServiceUtil.getErrorMessage(result), ServiceUtil.isSuccess(result));
+        return result;
+    }
+}
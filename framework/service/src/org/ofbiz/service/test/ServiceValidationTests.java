@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service.test;
+
+import java.math.BigDecimal;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.service.ModelService;
+import org.ofbiz.service.ServiceUtil;
+import org.ofbiz.service.ServiceValidationException;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+/**
+ * SCIPIO: Checks that the compiled parameter check of ModelService.validate accepts and rejects the
+ * same contexts as the full validation, which still builds the error messages.
+ */
+public class ServiceValidationTests extends OFBizTestCase {
+
+    public static final String module = ServiceValidationTests.class.getName();
+
+    public ServiceValidationTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+    }
+
+    public void testOverriddenRequiredParam() throws Exception {
+        // <override optional="false"/> adds the parameter to the service a second time
+        ModelService model = getModel();
+        assertTrue("Required override parameter counted once", model.getInvocationPlan().isValid(inContext("testingTypeId", "TEST"), ModelService.IN_PARAM));
+        assertSameValidation(model, inContext("testingTypeId", "TEST"), ModelService.IN_PARAM, true);
+        assertSameValidation(model, inContext(), ModelService.IN_PARAM, false);
+        assertSameValidation(model, inContext("testingTypeId", null), ModelService.IN_PARAM, false);
+        assertSameValidation(model, inContext("description", "No id"), ModelService.IN_PARAM, false);
+
+        Map<String, Object> result = dispatcher.runSync("testServiceValidation", inContext("testingTypeId", "TEST"));
+        assertTrue(ServiceUtil.getErrorMessage(result), ServiceUtil.isSuccess(result));
+        assertEquals("TEST", result.get("result"));
+    }
+
+    public void testTypesAndValidators() throws Exception {
+        ModelService model = getModel();
+        assertSameValidation(model, inContext("testingTypeId", "TEST", "quantity", new BigDecimal("2.5")), ModelService.IN_PARAM, true);
+        assertSameValidation(model, inContext("testingTypeId", "TEST", "quantity", "2.5"), ModelService.IN_PARAM, false);
+        assertSameValidation(model, inContext("testingTypeId", "TEST", "quantity", null), ModelService.IN_PARAM, true);
+        assertSameValidation(model, inContext("testingTypeId", "TEST", "emailAddress", "test@example.com"), ModelService.IN_PARAM, true);
+        assertSameValidation(model, inContext("testingTypeId", "TEST", "emailAddress", "not an address"), ModelService.IN_PARAM, false);
+        assertSameValidation(model, inContext("testingTypeId", "TEST", "unknownParam", "value"), ModelService.IN_PARAM, false);
+        assertSameValidation(model, inContext("testingTypeId", new Integer(1)), ModelService.IN_PARAM, false);
+    }
+
+    public void testAllowHtml() throws Exception {
+        ModelService model = getModel();
+        assertSameValidation(model, inContext("testingTypeId", "TEST", "description", "<b>allowed</b>"), ModelService.IN_PARAM, true);
+        assertSameValidation(model, inContext("testingTypeId", "TEST", "comments", "<b>not allowed</b>"), ModelService.IN_PARAM, false);
+        assertSameValidation(model, inContext("testingTypeId", "TEST", "comments", "plain text"), ModelService.IN_PARAM, true);
+    }
+
+    public void testOutParams() throws Exception {
+        ModelService model = getModel();
+        Map<String, Object> success = ServiceUtil.returnSuccess();
+        success.put("result", "TEST");
+        assertSameValidation(model, success, ModelService.OUT_PARAM, true);
+        assertSameValidation(model, ServiceUtil.returnSuccess(), ModelService.OUT_PARAM, false);
+        Map<String, Object> wrongType = ServiceUtil.returnSuccess();
+        wrongType.put("result", new Integer(1));
+        assertSameValidation(model, wrongType, ModelService.OUT_PARAM, false);
+        // results with errors are not validated
+        assertSameValidation(model, ServiceUtil.returnError("Error"), ModelService.OUT_PARAM, true);
+    }
+
+    protected ModelService getModel() throws Exception {
+        return dispatcher.getDispatchContext().getModelService("testServiceValidation");
+    }
+
+    protected static Map<String, Object> inContext(Object... pairs) {
+        Map<String, Object> context = new HashMap<String, Object>();
+        for (int i = 0; i < pairs.length; i += 2) {
+            context.put((String) pairs[i], pairs[i + 1]);
+        }
+        return context;
+    }
+
+    /**
+     * Validates the context with the compiled check enabled, then with the full validation only (verbose mode),
+     * and checks both accept it or both reject it with the same messages.
+     */
+    protected static void assertSameValidation(ModelService model, Map<String, Object> context, String mode, boolean valid) {
+        List<String> compiledMessages = validate(model, context, mode, false);
+        List<String> fullMessages = validate(model, context, mode, true);
+        String label = mode + " " + context;
+        assertEquals(label + " accepted by the full validation", valid, fullMessages == null);
+        assertEquals(label + " same result from the compiled check", fullMessages, compiledMessages);
+        if (!ServiceUtil.isError(context)) {
+            // error results skip validation before the compiled check
+            assertEquals(label + " compiled check", valid, model.getInvocationPlan().isValid(context, mode));
+        }
+    }
+
+    private static List<String> validate(ModelService model, Map<String, Object> context, String mode, boolean fullValidation) {
+        boolean verbose = Debug.verboseOn();
+        Debug.set(Debug.VERBOSE, fullValidation);
+        try {
+            model.validate(new HashMap<String, Object>(context), mode, Locale.ENGLISH);
+            return null;
+        } catch (ServiceValidationException e) {
+            return e.getMessageList();
+        } finally {
+            Debug.set(Debug.VERBOSE, verbose);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ *******************************************************************************/
+package org.ofbiz.service.test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ofbiz.service.calendar.TemporalExpression;
+import org.ofbiz.service.calendar.TemporalExpressions.DayOfMonthRange;
+import org.ofbiz.service.calendar.TemporalExpressions.DayOfWeekRange;
+import org.ofbiz.service.calendar.TemporalExpressions.Difference;
+import org.ofbiz.service.calendar.TemporalExpressions.Frequency;
+import org.ofbiz.service.calendar.TemporalExpressions.Intersection;
+import org.ofbiz.service.calendar.TemporalExpressions.Union;
+import org.ofbiz.service.testtools.OFBizTestCase;
+
+import com.ibm.icu.util.Calendar;
+import com.ibm.icu.util.TimeZone;
+
+/**
+ * SCIPIO: Checks that TemporalExpression.occurrencesBetween returns the same dates as walking
+ * the expression with first and next over the same range.
+ */
+public class TemporalExpressionOccurrencesTests extends OFBizTestCase {
+
+    public static final String module = TemporalExpressionOccurrencesTests.class.getName();
+
+    // a time zone with daylight saving time, so hourly ranges cross a change
+    protected static final TimeZone timeZone = TimeZone.getTimeZone("America/New_York");
+
+    public TemporalExpressionOccurrencesTests(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+    }
+
+    public void testFrequency() throws Exception {
+        Date start = date(2016, Calendar.JANUARY, 31, 9, 0);
+        assertSameOccurrences(new Frequency(start, Calendar.DAY_OF_MONTH, 1), date(2016, Calendar.FEBRUARY, 3, 9, 0), date(2016, Calendar.APRIL, 1, 9, 0));
+        assertSameOccurrences(new Frequency(start, Calendar.DAY_OF_MONTH, 3), date(2016, Calendar.FEBRUARY, 1, 0, 0), date(2016, Calendar.MAY, 1, 0, 0));
+        // across the March 13 daylight saving change
+        assertSameOccurrences(new Frequency(start, Calendar.HOUR, 5), date(2016, Calendar.MARCH, 10, 0, 0), date(2016, Calendar.MARCH, 16, 0, 0));
+        assertSameOccurrences(new Frequency(start, Calendar.MINUTE, 45), date(2016, Calendar.MARCH, 12, 20, 0), date(2016, Calendar.MARCH, 13, 8, 0));
+        // month ends: the 31st moves to shorter months
+        assertSameOccurrences(new Frequency(start, Calendar.MONTH, 1), date(2016, Calendar.JANUARY, 1, 0, 0), date(2017, Calendar.JANUARY, 31, 9, 0));
+        assertSameOccurrences(new Frequency(start, Calendar.YEAR, 1), date(2015, Calendar.JANUARY, 1, 0, 0), date(2024, Calendar.DECEMBER, 31, 0, 0));
+        // a range that starts before the expression starts
+        assertSameOccurrences(new Frequency(start, Calendar.DAY_OF_MONTH, 2), date(2016, Calendar.JANUARY, 1, 0, 0), date(2016, Calendar.FEBRUARY, 15, 0, 0));
+    }
+
+    public void testFrequencyBoundaries() throws Exception {
+        Date start = date(2016, Calendar.JANUARY, 1, 9, 0);
+        Frequency daily = new Frequency(start, Calendar.DAY_OF_MONTH, 1);
+        // occurrences exactly on both ends of the range are included
+        List<Date> occurrences = assertSameOccurrences(daily, date(2016, Calendar.JANUARY, 5, 9, 0), date(2016, Calendar.JANUARY, 10, 9, 0));
+        assertEquals(6, occurrences.size());
+        assertEquals(date(2016, Calendar.JANUARY, 5, 9, 0), occurrences.get(0));
+        assertEquals(date(2016, Calendar.JANUARY, 10, 9, 0), occurrences.get(5));
+        // just inside and just outside the ends
+        assertSameOccurrences(daily, date(2016, Calendar.JANUARY, 5, 9, 1), date(2016, Calendar.JANUARY, 10, 8, 59));
+        assertEquals(4, daily.occurrencesBetween(calendar(date(2016, Calendar.JANUARY, 5, 9, 1)), date(2016, Calendar.JANUARY, 10, 8, 59)).size());
+        // a single instant on an occurrence, and an empty range
+        assertEquals(1, assertSameOccurrences(daily, date(2016, Calendar.JANUARY, 7, 9, 0), date(2016, Calendar.JANUARY, 7, 9, 0)).size());
+        assertEquals(0, assertSameOccurrences(daily, date(2016, Calendar.JANUARY, 7, 9, 1), date(2016, Calendar.JANUARY, 8, 8, 59)).size());
+    }
+
+    public void testUnion() throws Exception {
+        Set<TemporalExpression> members = new HashSet<TemporalExpression>();
+        members.add(new Frequency(date(2016, Calendar.JANUARY, 1, 9, 0), Calendar.DAY_OF_MONTH, 2));
+        members.add(new Frequency(date(2016, Calendar.JANUARY, 1, 9, 0), Calendar.DAY_OF_MONTH, 3));
+        members.add(new Frequency(date(2016, Calendar.JANUARY, 2, 14, 30), Calendar.DAY_OF_MONTH, 7));
+        Union union = new Union(members);
+        // shared occurrences (every 6 days) are returned once; the range starts and ends on occurrences
+        assertSameOccurrences(union, date(2016, Calendar.JANUARY, 1, 9, 0), date(2016, Calendar.MARCH, 1, 9, 0));
+        assertSameOccurrences(union, date(2016, Calendar.JANUARY, 2, 14, 30), date(2016, Calendar.FEBRUARY, 13, 14, 30));
+        assertSameOccurrences(union, date(2016, Calendar.JANUARY, 1, 9, 1), date(2016, Calendar.FEBRUARY, 12, 8, 59));
+    }
+
+    public void testDifference() throws Exception {
+        Frequency daily = new Frequency(date(2016, Calendar.JANUARY, 1, 9, 0), Calendar.DAY_OF_MONTH, 1);
+        // daily except on weekends
+        Difference weekdays = new Difference(daily, new DayOfWeekRange(Calendar.SATURDAY, Calendar.SUNDAY));
+        assertSameOccurrences(weekdays, date(2016, Calendar.JANUARY, 4, 9, 0), date(2016, Calendar.FEBRUARY, 29, 9, 0));
+        // ranges that start and end on excluded days
+        assertSameOccurrences(weekdays, date(2016, Calendar.JANUARY, 2, 9, 0), date(2016, Calendar.JANUARY, 31, 9, 0));
+        // daily except on the first days of the month
+        Difference notFirstDays = new Difference(daily, new DayOfMonthRange(1, 3));
+        assertSameOccurrences(notFirstDays, date(2016, Calendar.JANUARY, 1, 0, 0), date(2016, Calendar.APRIL, 1, 9, 0));
+    }
+
+    public void testIntersection() throws Exception {
+        Set<TemporalExpression> members = new HashSet<TemporalExpression>();
+        members.add(new Frequency(date(2016, Calendar.JANUARY, 1, 9, 0), Calendar.DAY_OF_MONTH, 1));
+        members.add(new DayOfWeekRange(Calendar.MONDAY, Calendar.WEDNESDAY));
+        Intersection intersection = new Intersection(members);
+        assertSameOccurrences(intersection, date(2016, Calendar.JANUARY, 4, 9, 0), date(2016, Calendar.FEBRUARY, 24, 9, 0));
+        assertSameOccurrences(intersection, date(2016, Calendar.JANUARY, 7, 9, 0), date(2016, Calendar.JANUARY, 31, 9, 0));
+    }
+
+    /**
+     * Checks that occurrencesBetween returns the dates found by walking the expression from
+     * <code>first(start)</code> with <code>next</code> until after <code>end</code>, and returns them.
+     */
+    protected static List<Date> assertSameOccurrences(TemporalExpression expression, Date start, Date end) {
+        Calendar startCal = calendar(start);
+        List<Date> expected = new ArrayList<Date>();
+        Calendar next = expression.first((Calendar) startCal.clone());
+        while (next != null && !next.getTime().after(end)) {
+            Date occurrence = next.getTime();
+            if (!expected.isEmpty() && !occurrence.after(expected.get(expected.size() - 1))) {
+                break;
+            }
+            expected.add(occurrence);
+            next = expression.next(next);
+        }
+        List<Date> occurrences = expression.occurrencesBetween(startCal, end);
+        assertEquals(expression + " from " + start + " to " + end, expected, occurrences);
+        assertEquals("Start calendar unchanged", start, startCal.getTime());
+        return occurrences;
+    }
+
+    protected static Date date(int year, int month, int day, int hour, int minute) {
+        Calendar cal = Calendar.getInstance(timeZone);
+        cal.clear();
+        cal.set(year, month, day, hour, minute, 0);
+        return cal.getTime();
+    }
+
+    protected static Calendar calendar(Date date) {
+        Calendar cal = Calendar.getInstance(timeZone);
+        cal.setTime(date);
+        return cal;
+    }
+}
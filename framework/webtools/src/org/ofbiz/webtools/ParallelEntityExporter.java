@@ -0,0 +1,549 @@
+package org.ofbiz.webtools;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.GenericEntityException;
+import org.ofbiz.entity.GenericValue;
+import org.ofbiz.entity.condition.EntityCondition;
+import org.ofbiz.entity.condition.EntityOperator;
+import org.ofbiz.entity.model.ModelEntity;
+import org.ofbiz.entity.model.ModelViewEntity;
+import org.ofbiz.entity.transaction.GenericTransactionException;
+import org.ofbiz.entity.transaction.TransactionUtil;
+import org.ofbiz.entity.util.EntityListIterator;
+import org.ofbiz.entity.util.EntityQuery;
+
+/**
+ * SCIPIO: Parallel, resumable entity XML exporter used by the <code>entityExportAll</code> service.
+ * <p>
+ * Entities are exported concurrently by a fixed number of workers. Tables with more rows than
+ * <code>splitRows</code> are split into primary-key ranges (boundaries sampled from an ordered PK-only scan)
+ * which are exported as separate <code>Entity.NNNN.xml</code> parts, so that a single huge table does not
+ * serialize the whole export. Output may be gzip-compressed (<code>.xml.gz</code>); the entity import services
+ * accept both forms.
+ * <p>
+ * Progress is recorded under the <code>.export-checkpoint</code> sub-directory of the output directory: the
+ * export options, the range plan of each split entity and one marker per completed file. Files are written
+ * to a temporary name and only renamed once complete, so when <code>resume</code> is set an interrupted export
+ * skips every completed file and redoes only the rest.
+ */
+public class ParallelEntityExporter {
+
+    public static final String module = ParallelEntityExporter.class.getName();
+
+    public static final String CHECKPOINT_DIR_NAME = ".export-checkpoint";
+
+    private static final String RESOURCE = "webtools";
+    private static final String OPTIONS_FILE_NAME = "export.properties";
+    private static final String DONE_SUFFIX = ".done";
+    private static final String PLAN_SUFFIX = ".plan";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    protected final Delegator delegator;
+    protected final File outdir;
+    protected final File checkpointDir;
+    protected final int workers;
+    protected final long splitRows;
+    protected final boolean compress;
+    protected final Timestamp fromDate;
+    protected final int txTimeout;
+
+    public ParallelEntityExporter(Delegator delegator, File outdir, int workers, long splitRows, boolean compress,
+            Timestamp fromDate, int txTimeout) {
+        this.delegator = delegator;
+        this.outdir = outdir;
+        this.checkpointDir = new File(outdir, CHECKPOINT_DIR_NAME);
+        this.workers = Math.max(1, workers);
+        this.splitRows = splitRows;
+        this.compress = compress;
+        this.fromDate = fromDate;
+        this.txTimeout = txTimeout;
+    }
+
+    /**
+     * Returns the default number of workers (webtools.properties <code>entityexport.workers</code>,
+     * or half the available processors).
+     */
+    public static int getDefaultWorkers() {
+        return UtilProperties.getPropertyAsInteger(RESOURCE, "entityexport.workers",
+                Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    /**
+     * Returns the default row count above which entities are split into PK ranges
+     * (webtools.properties <code>entityexport.splitRows</code>; 0 or less disables splitting).
+     */
+    public static long getDefaultSplitRows() {
+        return UtilProperties.getPropertyAsLong(RESOURCE, "entityexport.splitRows", 1000000L);
+    }
+
+    public static boolean getDefaultCompress() {
+        return UtilProperties.getPropertyAsBoolean(RESOURCE, "entityexport.compress", false);
+    }
+
+    /**
+     * Exports the given entities and returns one result line per entity, in the same format as the
+     * legacy sequential export.
+     * @param resume if true, keep the checkpoints of a previous run with the same options and skip completed files;
+     *            if false, any previous checkpoints are discarded
+     */
+    public List<String> exportAll(Iterable<String> entityNames, boolean resume) throws IOException, InterruptedException {
+        prepareCheckpointDir(resume);
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(1);
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Scipio-EntityExport-" + count.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            // Phase 1: plan every entity (row count, PK ranges) in parallel
+            List<EntityPlan> plans = new ArrayList<>();
+            List<Callable<Void>> planTasks = new ArrayList<>();
+            int fileNumber = 1;
+            for (String entityName : entityNames) {
+                final EntityPlan plan = new EntityPlan(fileNumber++, entityName);
+                plans.add(plan);
+                planTasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        plan(plan);
+                        return null;
+                    }
+                });
+            }
+            awaitAll(executor.invokeAll(planTasks));
+
+            // Phase 2: export all units, largest first so big tables don't end up running alone at the end
+            List<ExportUnit> units = new ArrayList<>();
+            for (EntityPlan plan : plans) {
+                units.addAll(plan.units);
+            }
+            Collections.sort(units, new Comparator<ExportUnit>() {
+                @Override
+                public int compare(ExportUnit o1, ExportUnit o2) {
+                    return Long.compare(o2.estimatedRows, o1.estimatedRows);
+                }
+            });
+            List<Callable<Void>> exportTasks = new ArrayList<>(units.size());
+            for (final ExportUnit unit : units) {
+                exportTasks.add(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        export(unit);
+                        return null;
+                    }
+                });
+            }
+            awaitAll(executor.invokeAll(exportTasks));
+
+            List<String> results = new ArrayList<>(plans.size());
+            for (EntityPlan plan : plans) {
+                results.add(plan.getResultMessage());
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void awaitAll(List<Future<Void>> futures) throws InterruptedException {
+        for (Future<Void> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                // tasks record their own errors; anything reaching here is unexpected
+                Debug.logError(e.getCause(), "Entity export task failed: " + e.getCause(), module);
+            }
+        }
+    }
+
+    protected void prepareCheckpointDir(boolean resume) throws IOException {
+        Properties options = new Properties();
+        options.setProperty("fromDate", fromDate != null ? fromDate.toString() : "");
+        options.setProperty("splitRows", Long.toString(splitRows));
+        options.setProperty("compress", Boolean.toString(compress));
+        File optionsFile = new File(checkpointDir, OPTIONS_FILE_NAME);
+        if (resume && optionsFile.isFile()) {
+            Properties previous = readProperties(optionsFile);
+            if (!previous.equals(options)) {
+                throw new IOException("Cannot resume entity export in " + outdir
+                        + ": previous export used different options " + previous);
+            }
+            Debug.logInfo("Resuming entity export in " + outdir, module);
+            return;
+        }
+        if (checkpointDir.isDirectory()) {
+            File[] files = checkpointDir.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (!file.delete()) {
+                        throw new IOException("Could not delete old export checkpoint: " + file);
+                    }
+                }
+            }
+        } else if (!checkpointDir.mkdirs()) {
+            throw new IOException("Could not create export checkpoint directory: " + checkpointDir);
+        }
+        writeProperties(optionsFile, options);
+    }
+
+    protected void plan(EntityPlan plan) {
+        ModelEntity modelEntity = delegator.getModelEntity(plan.entityName);
+        if (modelEntity == null || modelEntity instanceof ModelViewEntity) {
+            plan.skipMessage = "skipping view entity";
+            return;
+        }
+        plan.modelEntity = modelEntity;
+        List<String> pkFieldNames = modelEntity.getPkFieldNames();
+        try {
+            List<List<Object>> boundaries = null;
+            if (splitRows > 0 && !pkFieldNames.isEmpty()) {
+                File planFile = new File(checkpointDir, plan.entityName + PLAN_SUFFIX);
+                if (planFile.isFile()) {
+                    boundaries = readBoundaries(modelEntity, planFile);
+                } else if (!new File(checkpointDir, plan.entityName + DONE_SUFFIX).isFile()) {
+                    // NOTE: an entity already exported whole by the resumed run stays whole, even if it has grown since
+                    long rowCount = EntityQuery.use(delegator).from(plan.entityName).where(makeBaseConditions()).queryCount();
+                    plan.estimatedRows = rowCount;
+                    if (rowCount > splitRows) {
+                        boundaries = sampleBoundaries(modelEntity);
+                        writeBoundaries(modelEntity, planFile, boundaries);
+                    }
+                }
+            }
+            if (UtilValidate.isEmpty(boundaries)) {
+                plan.units.add(new ExportUnit(plan, plan.entityName, makeBaseConditions(), plan.estimatedRows));
+            } else {
+                long perUnit = splitRows;
+                for (int i = 0; i <= boundaries.size(); i++) {
+                    List<EntityCondition> conds = makeBaseConditions();
+                    if (i > 0) {
+                        conds.add(makeKeyCondition(pkFieldNames, boundaries.get(i - 1), true));
+                    }
+                    if (i < boundaries.size()) {
+                        conds.add(makeKeyCondition(pkFieldNames, boundaries.get(i), false));
+                    }
+                    plan.units.add(new ExportUnit(plan, String.format("%s.%04d", plan.entityName, i + 1), conds, perUnit));
+                }
+            }
+        } catch (Exception e) {
+            Debug.logError(e, "Error planning export of entity " + plan.entityName, module);
+            plan.addError(e);
+        }
+    }
+
+    protected List<EntityCondition> makeBaseConditions() {
+        List<EntityCondition> conds = new ArrayList<>();
+        if (fromDate != null) {
+            conds.add(EntityCondition.makeCondition("createdStamp", EntityOperator.GREATER_THAN_EQUAL_TO, fromDate));
+        }
+        return conds;
+    }
+
+    /**
+     * Scans the primary keys in order and returns the key of every <code>splitRows</code>-th row,
+     * excluding the first row; these are the (inclusive) lower bounds of the 2nd..Nth ranges.
+     */
+    protected List<List<Object>> sampleBoundaries(ModelEntity modelEntity) throws GenericEntityException {
+        List<String> pkFieldNames = modelEntity.getPkFieldNames();
+        List<List<Object>> boundaries = new ArrayList<>();
+        boolean beganTx = TransactionUtil.begin(txTimeout);
+        EntityListIterator eli = null;
+        try {
+            eli = EntityQuery.use(delegator).select(pkFieldNames.toArray(new String[pkFieldNames.size()]))
+                    .from(modelEntity.getEntityName()).where(makeBaseConditions())
+                    .orderBy(pkFieldNames).cursorForwardOnly().queryIterator();
+            long rowIndex = 0;
+            GenericValue value;
+            while ((value = eli.next()) != null) {
+                if (rowIndex > 0 && rowIndex % splitRows == 0) {
+                    List<Object> key = new ArrayList<>(pkFieldNames.size());
+                    for (String pkFieldName : pkFieldNames) {
+                        key.add(value.get(pkFieldName));
+                    }
+                    boundaries.add(key);
+                }
+                rowIndex++;
+            }
+            eli.close();
+            eli = null;
+            TransactionUtil.commit(beganTx);
+        } catch (GenericEntityException e) {
+            TransactionUtil.rollback(beganTx, "Error sampling primary key ranges of " + modelEntity.getEntityName(), e);
+            throw e;
+        } finally {
+            closeQuietly(eli);
+        }
+        return boundaries;
+    }
+
+    /**
+     * Makes a lexicographic condition on the PK tuple: <code>pk &gt;= key</code> if lower is true,
+     * otherwise <code>pk &lt; key</code>. This matches the order of the PK-ordered scan used to pick the boundaries.
+     */
+    protected static EntityCondition makeKeyCondition(List<String> pkFieldNames, List<Object> key, boolean lower) {
+        List<EntityCondition> alternatives = new ArrayList<>(pkFieldNames.size() + 1);
+        for (int i = 0; i < pkFieldNames.size(); i++) {
+            List<EntityCondition> conds = new ArrayList<>(i + 1);
+            for (int j = 0; j < i; j++) {
+                conds.add(EntityCondition.makeCondition(pkFieldNames.get(j), EntityOperator.EQUALS, key.get(j)));
+            }
+            conds.add(EntityCondition.makeCondition(pkFieldNames.get(i),
+                    lower ? EntityOperator.GREATER_THAN : EntityOperator.LESS_THAN, key.get(i)));
+            alternatives.add(EntityCondition.makeCondition(conds, EntityOperator.AND));
+        }
+        if (lower) {
+            List<EntityCondition> conds = new ArrayList<>(pkFieldNames.size());
+            for (int j = 0; j < pkFieldNames.size(); j++) {
+                conds.add(EntityCondition.makeCondition(pkFieldNames.get(j), EntityOperator.EQUALS, key.get(j)));
+            }
+            alternatives.add(EntityCondition.makeCondition(conds, EntityOperator.AND));
+        }
+        return EntityCondition.makeCondition(alternatives, EntityOperator.OR);
+    }
+
+    protected void export(ExportUnit unit) {
+        String fileName = unit.unitName + (compress ? ".xml.gz" : ".xml");
+        File doneFile = new File(checkpointDir, unit.unitName + DONE_SUFFIX);
+        if (doneFile.isFile()) {
+            try {
+                Properties done = readProperties(doneFile);
+                unit.plan.addCompleted(Long.parseLong(done.getProperty("rows", "0")), true);
+                return;
+            } catch (Exception e) {
+                Debug.logWarning("Unreadable export checkpoint " + doneFile + ", exporting " + unit.unitName + " again: " + e, module);
+            }
+        }
+        File outFile = new File(outdir, fileName);
+        File tmpFile = new File(outdir, fileName + TMP_SUFFIX);
+        long numberWritten = 0;
+        EntityListIterator values = null;
+        PrintWriter writer = null;
+        boolean beganTx = false;
+        try {
+            beganTx = TransactionUtil.begin(txTimeout);
+            EntityQuery query = EntityQuery.use(delegator).from(unit.plan.entityName).where(unit.conditions).cursorForwardOnly();
+            List<String> pkFieldNames = unit.plan.modelEntity.getPkFieldNames();
+            if (!pkFieldNames.isEmpty()) {
+                query.orderBy(pkFieldNames);
+            }
+            values = query.queryIterator();
+            GenericValue value = values.next();
+            // Don't bother writing the file if there's nothing to put into it
+            if (value != null) {
+                writer = openWriter(tmpFile);
+                writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+                writer.println("<entity-engine-xml>");
+                do {
+                    value.writeXmlText(writer, "");
+                    numberWritten++;
+                } while ((value = values.next()) != null);
+                writer.println("</entity-engine-xml>");
+                writer.close();
+                if (writer.checkError()) {
+                    throw new IOException("Error writing " + tmpFile);
+                }
+                writer = null;
+                Files.move(tmpFile.toPath(), outFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            values.close();
+            values = null;
+            TransactionUtil.commit(beganTx);
+
+            Properties done = new Properties();
+            done.setProperty("rows", Long.toString(numberWritten));
+            done.setProperty("file", numberWritten > 0 ? fileName : "");
+            writeProperties(doneFile, done);
+            unit.plan.addCompleted(numberWritten, false);
+        } catch (Exception e) {
+            Debug.logError(e, "Error exporting " + unit.unitName + " after " + numberWritten + " records", module);
+            try {
+                TransactionUtil.rollback(beganTx, "Error exporting " + unit.unitName, e);
+            } catch (GenericTransactionException e2) {
+                Debug.logError(e2, module);
+            }
+            unit.plan.addError(e);
+        } finally {
+            if (writer != null) {
+                writer.close();
+            }
+            closeQuietly(values);
+            if (tmpFile.exists() && !tmpFile.delete()) {
+                Debug.logWarning("Could not delete temporary export file " + tmpFile, module);
+            }
+        }
+    }
+
+    protected PrintWriter openWriter(File file) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 64 * 1024);
+        if (compress) {
+            out = new GZIPOutputStream(out, 64 * 1024);
+        }
+        return new PrintWriter(new BufferedWriter(new OutputStreamWriter(out, "UTF-8")));
+    }
+
+    protected void writeBoundaries(ModelEntity modelEntity, File planFile, List<List<Object>> boundaries) throws IOException {
+        List<String> pkFieldNames = modelEntity.getPkFieldNames();
+        GenericValue converter = delegator.makeValue(modelEntity.getEntityName());
+        Properties props = new Properties();
+        props.setProperty("boundaries", Integer.toString(boundaries.size()));
+        for (int i = 0; i < boundaries.size(); i++) {
+            List<Object> key = boundaries.get(i);
+            for (int j = 0; j < pkFieldNames.size(); j++) {
+                converter.set(pkFieldNames.get(j), key.get(j));
+                props.setProperty(i + "." + pkFieldNames.get(j), converter.getString(pkFieldNames.get(j)));
+            }
+        }
+        writeProperties(planFile, props);
+    }
+
+    protected List<List<Object>> readBoundaries(ModelEntity modelEntity, File planFile) throws IOException {
+        List<String> pkFieldNames = modelEntity.getPkFieldNames();
+        GenericValue converter = delegator.makeValue(modelEntity.getEntityName());
+        Properties props = readProperties(planFile);
+        int count = Integer.parseInt(props.getProperty("boundaries", "0"));
+        List<List<Object>> boundaries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            List<Object> key = new ArrayList<>(pkFieldNames.size());
+            for (String pkFieldName : pkFieldNames) {
+                String str = props.getProperty(i + "." + pkFieldName);
+                if (str == null) {
+                    throw new IOException("Invalid export plan " + planFile + ": missing " + i + "." + pkFieldName);
+                }
+                converter.setString(pkFieldName, str);
+                key.add(converter.get(pkFieldName));
+            }
+            boundaries.add(key);
+        }
+        return boundaries;
+    }
+
+    private static Properties readProperties(File file) throws IOException {
+        Properties props = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            props.load(in);
+        }
+        return props;
+    }
+
+    /**
+     * Writes the properties to a temporary file and renames it, so checkpoints are never seen half-written.
+     */
+    private static void writeProperties(File file, Properties props) throws IOException {
+        File tmpFile = new File(file.getPath() + TMP_SUFFIX);
+        try (OutputStream out = new FileOutputStream(tmpFile)) {
+            props.store(out, null);
+        }
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void closeQuietly(EntityListIterator eli) {
+        if (eli != null) {
+            try {
+                eli.close();
+            } catch (Exception e) {
+                Debug.logWarning("Error closing EntityListIterator: " + e, module);
+            }
+        }
+    }
+
+    protected static class EntityPlan {
+        protected final int fileNumber;
+        protected final String entityName;
+        protected final List<ExportUnit> units = new ArrayList<>();
+        protected ModelEntity modelEntity;
+        protected long estimatedRows = -1;
+        protected String skipMessage;
+        // guarded by this
+        private long numberWritten = 0;
+        private int completedUnits = 0;
+        private int resumedUnits = 0;
+        private final List<String> errors = new ArrayList<>();
+
+        protected EntityPlan(int fileNumber, String entityName) {
+            this.fileNumber = fileNumber;
+            this.entityName = entityName;
+        }
+
+        protected synchronized void addCompleted(long rows, boolean resumed) {
+            numberWritten += rows;
+            completedUnits++;
+            if (resumed) {
+                resumedUnits++;
+            }
+        }
+
+        protected synchronized void addError(Throwable t) {
+            errors.add(t.toString());
+        }
+
+        protected synchronized String getResultMessage() {
+            String prefix = "[" + fileNumber + "] ";
+            if (skipMessage != null) {
+                return prefix + "[vvv] " + entityName + " " + skipMessage;
+            }
+            if (!errors.isEmpty()) {
+                return prefix + "[xxx] Error when writing " + entityName + ": " + errors;
+            }
+            if (numberWritten == 0) {
+                return prefix + "[---] " + entityName + " has no records, not writing file";
+            }
+            StringBuilder sb = new StringBuilder(prefix);
+            sb.append("[").append(numberWritten).append("] ").append(entityName).append(" wrote ").append(numberWritten).append(" records");
+            if (units.size() > 1) {
+                sb.append(" in ").append(units.size()).append(" parts");
+            }
+            if (resumedUnits > 0) {
+                sb.append(" (").append(resumedUnits).append(" of ").append(completedUnits).append(" resumed from checkpoint)");
+            }
+            return sb.toString();
+        }
+    }
+
+    protected static class ExportUnit {
+        protected final EntityPlan plan;
+        protected final String unitName;
+        protected final List<EntityCondition> conditions;
+        protected final long estimatedRows;
+
+        protected ExportUnit(EntityPlan plan, String unitName, List<EntityCondition> conditions, long estimatedRows) {
+            this.plan = plan;
+            this.unitName = unitName;
+            this.conditions = conditions;
+            this.estimatedRows = estimatedRows;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package org.ofbiz.webtools;
+
+import java.io.File;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.ofbiz.base.util.Debug;
+import org.ofbiz.base.util.UtilProperties;
+import org.ofbiz.entity.Delegator;
+import org.ofbiz.entity.model.ModelEntity;
+import org.ofbiz.entity.model.ModelRelation;
+import org.ofbiz.entity.model.ModelViewEntity;
+import org.ofbiz.entity.util.EntitySaxReader;
+
+/**
+ * SCIPIO: Parallel bulk importer of a directory of entity XML files, used by <code>entityImportDir</code>
+ * when more than one worker is requested.
+ * <p>
+ * Files named after an entity, as written by {@link ParallelEntityExporter} (<code>Entity.xml</code>,
+ * <code>Entity.0001.xml.gz</code>...), are grouped per entity and the entities are ordered in levels by their
+ * FK ("one") relations, so that an entity is only loaded after the entities it references. All files of a
+ * level are parsed and written concurrently, each in its own transaction. Other files, whose content is unknown,
+ * are loaded sequentially afterward. Files that fail (for example because of FK cycles) are retried sequentially
+ * in further passes using the regular existence-checking store, like the sequential import does.
+ * <p>
+ * With <code>insertOnly</code>, values are written with {@link Delegator#createAll(List)} in JDBC batches of
+ * <code>batchSize</code> rows without per-row existence checks (fresh database fast path).
+ */
+public class ParallelEntityImporter {
+
+    public static final String module = ParallelEntityImporter.class.getName();
+
+    private static final String RESOURCE = "webtools";
+    private static final Pattern ENTITY_FILE_PATTERN = Pattern.compile("^([A-Za-z0-9_]+)(?:\\.\\d+)?\\.xml(?:\\.gz)?$", Pattern.CASE_INSENSITIVE);
+
+    protected final Delegator delegator;
+    protected final int workers;
+    protected final int batchSize;
+    protected final int txTimeout;
+    protected final boolean insertOnly;
+    protected final boolean createDummyFks;
+    protected final boolean maintainTimeStamps;
+    protected final boolean mostlyInserts;
+    protected final Map<String, Object> placeholderValues;
+
+    public ParallelEntityImporter(Delegator delegator, int workers, int batchSize, int txTimeout, boolean insertOnly,
+            boolean createDummyFks, boolean maintainTimeStamps, boolean mostlyInserts, Map<String, Object> placeholderValues) {
+        this.delegator = delegator;
+        this.workers = Math.max(1, workers);
+        this.batchSize = Math.max(1, batchSize);
+        this.txTimeout = txTimeout;
+        this.insertOnly = insertOnly;
+        this.createDummyFks = createDummyFks;
+        this.maintainTimeStamps = maintainTimeStamps;
+        this.mostlyInserts = mostlyInserts;
+        this.placeholderValues = placeholderValues;
+    }
+
+    /**
+     * Returns the default number of import workers (webtools.properties <code>entityimport.workers</code>);
+     * 1 means the regular sequential import.
+     */
+    public static int getDefaultWorkers() {
+        return UtilProperties.getPropertyAsInteger(RESOURCE, "entityimport.workers", 1);
+    }
+
+    public static int getDefaultBatchSize() {
+        return UtilProperties.getPropertyAsInteger(RESOURCE, "entityimport.batchSize", 1000);
+    }
+
+    /**
+     * Returns the entity name a file was exported from, or null if the file name is not an entity name.
+     */
+    public String getFileEntityName(File file) {
+        Matcher m = ENTITY_FILE_PATTERN.matcher(file.getName());
+        if (!m.matches()) {
+            return null;
+        }
+        ModelEntity modelEntity = delegator.getModelEntity(m.group(1));
+        return (modelEntity != null && !(modelEntity instanceof ModelViewEntity)) ? modelEntity.getEntityName() : null;
+    }
+
+    /**
+     * Orders the entities in dependency levels: each entity is placed one level after the highest level
+     * of the entities it references through "one" (FK) relations. References to entities outside the set,
+     * self references and references closing a cycle are ignored.
+     */
+    public List<List<String>> getDependencyLevels(Collection<String> entityNames) {
+        Set<String> entityNameSet = new HashSet<>(entityNames);
+        Map<String, Integer> levels = new HashMap<>();
+        for (String entityName : new TreeSet<>(entityNames)) {
+            computeLevel(entityName, entityNameSet, levels, new HashSet<String>());
+        }
+        TreeMap<Integer, List<String>> byLevel = new TreeMap<>();
+        for (String entityName : new TreeSet<>(entityNames)) {
+            Integer level = levels.get(entityName);
+            List<String> names = byLevel.get(level);
+            if (names == null) {
+                names = new ArrayList<>();
+                byLevel.put(level, names);
+            }
+            names.add(entityName);
+        }
+        return new ArrayList<>(byLevel.values());
+    }
+
+    private int computeLevel(String entityName, Set<String> entityNameSet, Map<String, Integer> levels, Set<String> visiting) {
+        Integer level = levels.get(entityName);
+        if (level != null) {
+            return level;
+        }
+        visiting.add(entityName);
+        int maxParentLevel = -1;
+        ModelEntity modelEntity = delegator.getModelEntity(entityName);
+        for (ModelRelation relation : modelEntity.getRelationsOneList()) {
+            if (!"one".equals(relation.getType())) {
+                continue; // one-nofk: no constraint
+            }
+            String relEntityName = relation.getRelEntityName();
+            if (relEntityName.equals(entityName) || !entityNameSet.contains(relEntityName) || visiting.contains(relEntityName)) {
+                continue;
+            }
+            maxParentLevel = Math.max(maxParentLevel, computeLevel(relEntityName, entityNameSet, levels, visiting));
+        }
+        visiting.remove(entityName);
+        levels.put(entityName, maxParentLevel + 1);
+        return maxParentLevel + 1;
+    }
+
+    /**
+     * Imports the files and returns the result messages, including rows/sec per entity.
+     */
+    public List<String> importFiles(List<File> files) throws InterruptedException {
+        Map<String, EntityStats> statsByEntity = new TreeMap<>();
+        List<File> otherFiles = new ArrayList<>();
+        for (File file : files) {
+            String entityName = getFileEntityName(file);
+            if (entityName == null) {
+                otherFiles.add(file);
+                continue;
+            }
+            EntityStats stats = statsByEntity.get(entityName);
+            if (stats == null) {
+                stats = new EntityStats(entityName);
+                statsByEntity.put(entityName, stats);
+            }
+            stats.files.add(file);
+        }
+
+        List<String> messages = new ArrayList<>();
+        List<File> failedFiles = new ArrayList<>();
+        long startTime = System.currentTimeMillis();
+        long totalRows = 0;
+
+        ExecutorService executor = Executors.newFixedThreadPool(workers, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger(1);
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Scipio-EntityImport-" + count.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        try {
+            List<List<String>> levels = getDependencyLevels(statsByEntity.keySet());
+            int levelNum = 0;
+            for (List<String> level : levels) {
+                List<Callable<FileResult>> tasks = new ArrayList<>();
+                for (String entityName : level) {
+                    final EntityStats stats = statsByEntity.get(entityName);
+                    for (final File file : stats.files) {
+                        tasks.add(new Callable<FileResult>() {
+                            @Override
+                            public FileResult call() {
+                                FileResult result = importFile(file, insertOnly);
+                                stats.add(result);
+                                return result;
+                            }
+                        });
+                    }
+                }
+                Debug.logInfo("Importing dependency level " + levelNum + ": " + tasks.size() + " files of " + level.size() + " entities", module);
+                for (Future<FileResult> future : executor.invokeAll(tasks)) {
+                    FileResult result = getResult(future);
+                    if (result.error != null) {
+                        failedFiles.add(result.file);
+                    } else {
+                        totalRows += result.rows;
+                    }
+                }
+                levelNum++;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        for (File file : otherFiles) {
+            FileResult result = importFile(file, insertOnly);
+            if (result.error != null) {
+                failedFiles.add(file);
+            } else {
+                totalRows += result.rows;
+                messages.add(result.getMessage());
+            }
+        }
+
+        // retry failed files sequentially with the regular checked store until no more progress
+        int passes = 1;
+        while (!failedFiles.isEmpty()) {
+            List<File> stillFailed = new ArrayList<>();
+            for (File file : failedFiles) {
+                FileResult result = importFile(file, false);
+                String entityName = getFileEntityName(file);
+                if (entityName != null) {
+                    statsByEntity.get(entityName).add(result);
+                }
+                if (result.error != null) {
+                    stillFailed.add(file);
+                } else {
+                    totalRows += result.rows;
+                    if (entityName == null) {
+                        messages.add(result.getMessage());
+                    }
+                }
+            }
+            passes++;
+            if (stillFailed.size() == failedFiles.size()) {
+                break;
+            }
+            failedFiles = stillFailed;
+        }
+
+        for (EntityStats stats : statsByEntity.values()) {
+            messages.add(stats.getMessage());
+        }
+        long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+        messages.add("---------------------------------------");
+        messages.add("Imported " + totalRows + " rows from " + (files.size() - failedFiles.size()) + " of " + files.size()
+                + " files in " + elapsed + " ms (" + (totalRows * 1000 / elapsed) + " rows/sec) using " + workers
+                + " workers and " + passes + " passes" + (insertOnly ? ", insert-only" : ""));
+        if (!failedFiles.isEmpty()) {
+            messages.add("Failed files:");
+            for (File file : failedFiles) {
+                messages.add(file.toString());
+            }
+        }
+        return messages;
+    }
+
+    private static FileResult getResult(Future<FileResult> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            // importFile catches everything; should not happen
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    protected FileResult importFile(File file, boolean insertOnly) {
+        FileResult result = new FileResult(file);
+        long start = System.currentTimeMillis();
+        try {
+            URL url = file.toURI().toURL();
+            EntitySaxReader reader = new EntitySaxReader(delegator, txTimeout);
+            reader.setUseTryInsertMethod(mostlyInserts);
+            reader.setMaintainTxStamps(maintainTimeStamps);
+            reader.setCreateDummyFks(createDummyFks);
+            reader.setPlaceholderValues(placeholderValues);
+            reader.setInsertOnly(insertOnly);
+            if (insertOnly) {
+                reader.setValuesPerWrite(batchSize);
+            }
+            result.rows = reader.parse(url);
+        } catch (Exception e) {
+            Debug.logError(e, "Error importing file " + file + (insertOnly ? " (insert-only; will retry)" : ""), module);
+            result.error = e;
+        }
+        result.startTime = start;
+        result.endTime = System.currentTimeMillis();
+        return result;
+    }
+
+    protected static class FileResult {
+        protected final File file;
+        protected long rows;
+        protected long startTime;
+        protected long endTime;
+        protected Exception error;
+
+        protected FileResult(File file) {
+            this.file = file;
+        }
+
+        protected String getMessage() {
+            long elapsed = Math.max(1, endTime - startTime);
+            return file.getName() + ": " + rows + " rows in " + elapsed + " ms (" + (rows * 1000 / elapsed) + " rows/sec)";
+        }
+    }
+
+    protected static class EntityStats {
+        protected final String entityName;
+        protected final List<File> files = new ArrayList<>();
+        // guarded by this
+        private long rows = 0;
+        private int failedFiles = 0;
+        private long firstStart = Long.MAX_VALUE;
+        private long lastEnd = 0;
+
+        protected EntityStats(String entityName) {
+            this.entityName = entityName;
+        }
+
+        protected synchronized void add(FileResult result) {
+            if (result.error != null) {
+                failedFiles++;
+                return;
+            }
+            rows += result.rows;
+            firstStart = Math.min(firstStart, result.startTime);
+            lastEnd = Math.max(lastEnd, result.endTime);
+        }
+
+        protected synchronized String getMessage() {
+            // retried files were counted as failed once; report the wall time from first to last write
+            long elapsed = Math.max(1, lastEnd - firstStart);
+            return entityName + ": " + rows + " rows from " + files.size() + " files in " + (lastEnd > 0 ? elapsed : 0)
+                    + " ms (" + (lastEnd > 0 ? rows * 1000 / elapsed : 0) + " rows/sec)"
+                    + (failedFiles > 0 ? ", " + failedFiles + " failed attempts" : "");
+        }
+    }
+}
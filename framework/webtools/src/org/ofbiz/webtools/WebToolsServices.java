@@ -18,14 +18,10 @@
  */
 package org.ofbiz.webtools;
 
-import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
-import java.io.PrintWriter;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
@@ -65,8 +61,6 @@ import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.DelegatorFactory;
 import org.ofbiz.entity.GenericEntityException;
 import org.ofbiz.entity.GenericValue;
-import org.ofbiz.entity.condition.EntityCondition;
-import org.ofbiz.entity.condition.EntityOperator;
 import org.ofbiz.entity.model.ModelEntity;
 import org.ofbiz.entity.model.ModelField;
 import org.ofbiz.entity.model.ModelFieldType;
@@ -76,11 +70,8 @@ import org.ofbiz.entity.model.ModelReader;
 import org.ofbiz.entity.model.ModelRelation;
 import org.ofbiz.entity.model.ModelUtil;
 import org.ofbiz.entity.model.ModelViewEntity;
-import org.ofbiz.entity.transaction.TransactionUtil;
 import org.ofbiz.entity.util.EntityDataAssert;
 import org.ofbiz.entity.util.EntityDataLoader;
-import org.ofbiz.entity.util.EntityListIterator;
-import org.ofbiz.entity.util.EntityQuery;
 import org.ofbiz.entity.util.EntitySaxReader;
 import org.ofbiz.entityext.EntityGroupUtil;
 import org.ofbiz.security.Security;
@@ -260,6 +251,16 @@ public class WebToolsServices {
 
         Integer txTimeout = (Integer)context.get("txTimeout");
         Long filePause = (Long)context.get("filePause");
+        // SCIPIO: parallel bulk import options
+        Integer workers = (Integer) context.get("workers");
+        if (workers == null) {
+            workers = ParallelEntityImporter.getDefaultWorkers();
+        }
+        Integer batchSize = (Integer) context.get("batchSize");
+        if (batchSize == null) {
+            batchSize = ParallelEntityImporter.getDefaultBatchSize();
+        }
+        boolean insertOnly = Boolean.TRUE.equals(context.get("insertOnly"));
 
         if (txTimeout == null) {
             txTimeout = Integer.valueOf(7200);
@@ -276,11 +277,24 @@ public class WebToolsServices {
                 File[] fileArray = baseDir.listFiles();
                 FastList<File> files = FastList.newInstance();
                 for (File file: fileArray) {
-                    if (file.getName().toUpperCase().endsWith("XML")) {
+                    if (file.getName().toUpperCase().endsWith("XML") || file.getName().toUpperCase().endsWith(".XML.GZ")) { // SCIPIO: also compressed exports
                         files.add(file);
                     }
                 }
 
+                if (workers > 1 && checkDataOnly == null && !deleteFiles) {
+                    // SCIPIO: parallel bulk import, by entity dependency order
+                    ParallelEntityImporter importer = new ParallelEntityImporter(dctx.getDelegator(), workers, batchSize, txTimeout, insertOnly,
+                            createDummyFks != null, maintainTimeStamps != null, mostlyInserts != null, placeholderValues);
+                    try {
+                        messages.addAll(importer.importFiles(files));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        messages.add("Import interrupted");
+                    }
+                    return UtilMisc.toMap("messages", (Object) messages);
+                }
+
                 int passes=0;
                 int initialListSize = files.size();
                 int lastUnprocessedFilesCount = 0;
@@ -296,6 +310,7 @@ public class WebToolsServices {
                                 "maintainTimeStamps", maintainTimeStamps,
                                 "txTimeout", txTimeout,
                                 "placeholderValues", placeholderValues,
+                                "insertOnly", insertOnly,
                                 "userLogin", userLogin);
 
                         try {
@@ -355,6 +370,7 @@ public class WebToolsServices {
         boolean maintainTxs = "true".equals(context.get("maintainTimeStamps"));
         boolean tryInserts = "true".equals(context.get("mostlyInserts"));
         boolean checkDataOnly = "true".equals(context.get("checkDataOnly"));
+        boolean insertOnly = Boolean.TRUE.equals(context.get("insertOnly")); // SCIPIO
         Locale locale = (Locale) context.get("locale");
         Integer txTimeoutInt = (Integer) context.get("txTimeout");
         int txTimeout = txTimeoutInt != null ? txTimeoutInt.intValue() : -1;
@@ -429,7 +445,7 @@ public class WebToolsServices {
                             errorMessages.add("Error checking data in [" + dataUrl.toExternalForm() + "]: " + e.toString());
                         }
                     } else {
-                        rowsChanged = EntityDataLoader.loadData(dataUrl, helperName, delegator, errorMessages, txTimeout, useDummyFks, maintainTxs, tryInserts);
+                        rowsChanged = EntityDataLoader.loadData(dataUrl, helperName, delegator, errorMessages, txTimeout, useDummyFks, maintainTxs, tryInserts, insertOnly);
                     }
                     totalRowsChanged += rowsChanged;
                     infoMessages.add(changedFormat.format(rowsChanged) + " of " + changedFormat.format(totalRowsChanged) + " from " + dataUrl.toExternalForm());
@@ -471,6 +487,7 @@ public class WebToolsServices {
         boolean maintainTimeStamps = (String) context.get("maintainTimeStamps") != null;
         boolean createDummyFks = (String) context.get("createDummyFks") != null;
         boolean checkDataOnly = (String) context.get("checkDataOnly") != null;
+        boolean insertOnly = Boolean.TRUE.equals(context.get("insertOnly")); // SCIPIO
         Integer txTimeout = (Integer) context.get("txTimeout");
         Set<String> allowedEntityNames = UtilGenerics.checkSet(context.get("allowedEntityNames")); // SCIPIO: 2017-06-15
         Map<String, Object> placeholderValues = UtilGenerics.checkMap(context.get("placeholderValues"));
@@ -489,6 +506,7 @@ public class WebToolsServices {
             reader.setCheckDataOnly(checkDataOnly);
             reader.setPlaceholderValues(placeholderValues);
             reader.setAllowedEntityNames(allowedEntityNames);
+            reader.setInsertOnly(insertOnly);
 
             long numberRead = (url != null ? reader.parse(url) : reader.parse(xmltext));
             rowProcessed = numberRead;
@@ -500,6 +518,15 @@ public class WebToolsServices {
         return resp;
     }
 
+    /**
+     * Exports all entities into xml files.
+     * <p>
+     * SCIPIO: Now delegates to {@link ParallelEntityExporter}: entities are exported by <code>workers</code>
+     * parallel workers, tables over <code>splitRows</code> rows are split into primary-key ranges,
+     * output is optionally gzip-compressed (<code>compress</code>) and with <code>resume</code>
+     * an interrupted export continues from its checkpoints. With workers=1, splitRows=0 and compress=false
+     * the output is the same as before.
+     */
     public static Map<String, Object> entityExportAll(DispatchContext dctx, Map<String, ? extends Object> context) {
         Delegator delegator = dctx.getDelegator();
         Locale locale = (Locale) context.get("locale");
@@ -509,6 +536,19 @@ public class WebToolsServices {
         if (txTimeout == null) {
             txTimeout = Integer.valueOf(7200);
         }
+        Integer workers = (Integer) context.get("workers");
+        if (workers == null) {
+            workers = ParallelEntityExporter.getDefaultWorkers();
+        }
+        Long splitRows = (Long) context.get("splitRows");
+        if (splitRows == null) {
+            splitRows = ParallelEntityExporter.getDefaultSplitRows();
+        }
+        Boolean compress = (Boolean) context.get("compress");
+        if (compress == null) {
+            compress = ParallelEntityExporter.getDefaultCompress();
+        }
+        boolean resume = Boolean.TRUE.equals(context.get("resume"));
 
         List<String> results = FastList.newInstance();
 
@@ -526,67 +566,16 @@ public class WebToolsServices {
                 } catch (Exception exc) {
                     return ServiceUtil.returnError(UtilProperties.getMessage(resource, "EntityImportErrorRetrievingEntityNames", locale));
                 }
-                int fileNumber = 1;
-
-                for (String curEntityName: passedEntityNames) {
-                    long numberWritten = 0;
-                    EntityListIterator values = null;
-
-                    try {
-                        ModelEntity me = delegator.getModelEntity(curEntityName);
-                        if (me instanceof ModelViewEntity) {
-                            results.add("["+fileNumber +"] [vvv] " + curEntityName + " skipping view entity");
-                            continue;
-                        }
-
-                        boolean beganTx = TransactionUtil.begin();
-                        // some databases don't support cursors, or other problems may happen, so if there is an error here log it and move on to get as much as possible
-                        try {
-                            List<EntityCondition> conds = FastList.newInstance();
-                            if (UtilValidate.isNotEmpty(fromDate)) {
-                                conds.add(EntityCondition.makeCondition("createdStamp", EntityOperator.GREATER_THAN_EQUAL_TO, fromDate));
-                            }
-                            values = EntityQuery.use(delegator).from(curEntityName).where(conds).orderBy(me.getPkFieldNames()).queryIterator();
-                        } catch (Exception entityEx) {
-                            results.add("["+fileNumber +"] [xxx] Error when writing " + curEntityName + ": " + entityEx);
-                            continue;
-                        }
-
-                        //Don't bother writing the file if there's nothing
-                        //to put into it
-                        GenericValue value = values.next();
-                        if (value != null) {
-                            PrintWriter writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(new FileOutputStream(new File(outdir, curEntityName +".xml")), "UTF-8")));
-                            writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-                            writer.println("<entity-engine-xml>");
-
-                            do {
-                                value.writeXmlText(writer, "");
-                                numberWritten++;
-                                if (numberWritten % 500 == 0) {
-                                    TransactionUtil.commit(beganTx);
-                                    beganTx = TransactionUtil.begin();
-                                }
-                            } while ((value = values.next()) != null);
-                            writer.println("</entity-engine-xml>");
-                            writer.close();
-                            results.add("["+fileNumber +"] [" + numberWritten + "] " + curEntityName + " wrote " + numberWritten + " records");
-                        } else {
-                            results.add("["+fileNumber +"] [---] " + curEntityName + " has no records, not writing file");
-                        }
-                        values.close();
-                        TransactionUtil.commit(beganTx);
-                    } catch (Exception ex) {
-                        if (values != null) {
-                            try {
-                                values.close();
-                            } catch (Exception exc) {
-                                //Debug.warning();
-                            }
-                        }
-                        results.add("["+fileNumber +"] [xxx] Error when writing " + curEntityName + ": " + ex);
-                    }
-                    fileNumber++;
+                ParallelEntityExporter exporter = new ParallelEntityExporter(delegator, outdir, workers, splitRows, compress,
+                        fromDate, txTimeout);
+                try {
+                    results.addAll(exporter.exportAll(passedEntityNames, resume));
+                } catch (IOException e) {
+                    Debug.logError(e, module);
+                    results.add("Error preparing export: " + e.getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    results.add("Export interrupted; run again with resume to continue.");
                 }
             } else {
                 results.add("Path not found or no write access.");
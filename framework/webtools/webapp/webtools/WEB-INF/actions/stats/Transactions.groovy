@@ -0,0 +1,47 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+import org.ofbiz.entity.transaction.TransactionTracer;
+
+// SCIPIO: running and recent transactions, from TransactionTracer
+
+maxRows = 50;
+maxStackFrames = 20;
+
+if ("true".equals(parameters.clear)) {
+    TransactionTracer.clearHistory();
+}
+
+runningList = [];
+for (trace in TransactionTracer.getRunningTransactions()) {
+    traceMap = trace.toMap();
+    // the stack is the sampled begin stack, or else the current stack of the transaction thread
+    stack = trace.getStackTrace();
+    if (stack) {
+        traceMap.stackTrace = stack.take(maxStackFrames).join("\n");
+    }
+    runningList.add(traceMap);
+    if (runningList.size() >= maxRows) {
+        break;
+    }
+}
+context.runningList = runningList;
+
+context.slowestList = TransactionTracer.getSlowestTransactions(maxRows).collect { it.toMap() };
+context.mostExpensiveList = TransactionTracer.getMostExpensiveTransactions(maxRows).collect { it.toMap() };
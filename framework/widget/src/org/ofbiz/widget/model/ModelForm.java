@@ -172,6 +172,7 @@ public abstract class ModelForm extends ModelWidget implements ModelWidget.IdAtt
     /** On Submit areas to be updated. */
     private final List<UpdateArea> onSubmitUpdateAreas;
     private final FlexibleStringExpander overrideListSize;
+    private final FlexibleStringExpander paginateCountLimit; // SCIPIO
     private final FlexibleStringExpander paginate;
     private final FlexibleStringExpander paginateFirstLabel;
     private final FlexibleStringExpander paginateIndexField;
@@ -682,6 +683,13 @@ public abstract class ModelForm extends ModelWidget implements ModelWidget.IdAtt
             overrideListSize = parentModel.overrideListSize;
         }
         this.overrideListSize = overrideListSize;
+        // SCIPIO: approximate list size counting
+        FlexibleStringExpander paginateCountLimit = FlexibleStringExpander.getInstance(formElement
+                .getAttribute("paginate-count-limit"));
+        if (paginateCountLimit.isEmpty() && parentModel != null) {
+            paginateCountLimit = parentModel.paginateCountLimit;
+        }
+        this.paginateCountLimit = paginateCountLimit;
         FlexibleStringExpander paginateFirstLabel = FlexibleStringExpander.getInstance(formElement
                 .getAttribute("paginate-first-label"));
         if (paginateFirstLabel.isEmpty() && parentModel != null) {
@@ -1472,6 +1480,29 @@ public abstract class ModelForm extends ModelWidget implements ModelWidget.IdAtt
         return listSize;
     }
 
+    public String getPaginateCountLimit() {
+        return paginateCountLimit.getOriginal();
+    }
+
+    /**
+     * SCIPIO: Returns the number of rows past the current page up to which the list size is counted
+     * for EntityListIterator lists, or 0 for an exact count (default).
+     */
+    public int getPaginateCountLimit(Map<String, Object> context) {
+        int countLimit = 0;
+        if (!this.paginateCountLimit.isEmpty()) {
+            String limit = this.paginateCountLimit.expandString(context);
+            if (!limit.isEmpty()) {
+                try {
+                    countLimit = Integer.parseInt(limit);
+                } catch (NumberFormatException e) {
+                    Debug.logError(e, "Error getting paginate count limit from value " + limit, module);
+                }
+            }
+        }
+        return countLimit;
+    }
+
     public String getPaginate() {
         return paginate.getOriginal();
     }
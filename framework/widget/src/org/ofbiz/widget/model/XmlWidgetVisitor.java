@@ -592,6 +592,7 @@ public class XmlWidgetVisitor extends XmlAbstractWidgetVisitor implements ModelW
         visitAttribute("paginate-index-field", modelForm.getPaginateIndexField());
         visitAttribute("paginate-size-field", modelForm.getPaginateSizeField());
         visitAttribute("override-list-size", modelForm.getOverrideListSize());
+        visitAttribute("paginate-count-limit", modelForm.getPaginateCountLimit());
         visitAttribute("paginate-first-label", modelForm.getPaginateFirstLabel());
         visitAttribute("paginate-previous-label", modelForm.getPaginatePreviousLabel());
         visitAttribute("paginate-next-label", modelForm.getPaginateNextLabel());
@@ -898,7 +898,11 @@ public class FormRenderer {
             listFormHandler.notifyHasList();
             
             // render item rows
-            int itemIndex = -1;
+            // SCIPIO: for EntityListIterators, skip directly to the lowIndex instead of reading all the preceding rows
+            int itemIndex = Paginator.skipToIndex(iter, lowIndex) - 1;
+            if (itemIndex >= 0) {
+                listFormHandler.notifyHasResult();
+            }
             Object item = null;
             context.put("wholeFormContext", context);
             Map<String, Object> previousItem = new HashMap<String, Object>();
@@ -911,7 +915,6 @@ public class FormRenderer {
                     break;
                 }
 
-                // TODO: this is a bad design, for EntityListIterators we should skip to the lowIndex and go from there, MUCH more efficient...
                 if (itemIndex < lowIndex) {
                     continue;
                 }
@@ -55,13 +55,33 @@ public final class Paginator {
         int viewSize = 0;
         int lowIndex = 0;
         int highIndex = 0;
+        if (modelForm.getPaginate(context)) {
+            viewIndex = getViewIndex(modelForm, context);
+            viewSize = getViewSize(modelForm, context);
+            lowIndex = viewIndex * viewSize;
+            highIndex = (viewIndex + 1) * viewSize;
+        } else {
+            viewIndex = 0;
+            viewSize = ModelForm.MAX_PAGE_SIZE;
+            lowIndex = 0;
+            highIndex = ModelForm.MAX_PAGE_SIZE;
+        }
+        boolean listSizeApproximate = false;
         int listSize = modelForm.getOverrideListSize(context);
         if (listSize > 0) {
             //setOverridenListSize(true);
         } else if (entryList instanceof EntityListIterator) {
             EntityListIterator iter = (EntityListIterator) entryList;
             try {
-                listSize = iter.getResultsSizeAfterPartialList();
+                // SCIPIO: optionally count only up to a limit past the current page instead of the whole result
+                int countLimit = modelForm.getPaginateCountLimit(context);
+                if (countLimit > 0 && highIndex < ModelForm.MAX_PAGE_SIZE) {
+                    int maxCount = highIndex + countLimit;
+                    listSize = iter.getResultsSizeAfterPartialList(maxCount);
+                    listSizeApproximate = (listSize > maxCount);
+                } else {
+                    listSize = iter.getResultsSizeAfterPartialList();
+                }
             } catch (GenericEntityException e) {
                 Debug.logError(e, "Error getting list size", module);
                 listSize = 0;
@@ -70,18 +90,8 @@ public final class Paginator {
             List<?> items = (List<?>) entryList;
             listSize = items.size();
         }
-        if (modelForm.getPaginate(context)) {
-            viewIndex = getViewIndex(modelForm, context);
-            viewSize = getViewSize(modelForm, context);
-            lowIndex = viewIndex * viewSize;
-            highIndex = (viewIndex + 1) * viewSize;
-        } else {
-            viewIndex = 0;
-            viewSize = ModelForm.MAX_PAGE_SIZE;
-            lowIndex = 0;
-            highIndex = ModelForm.MAX_PAGE_SIZE;
-        }
         context.put("listSize", Integer.valueOf(listSize));
+        context.put("listSizeApproximate", listSizeApproximate); // SCIPIO
         context.put("viewIndex", Integer.valueOf(viewIndex));
         context.put("viewSize", Integer.valueOf(viewSize));
         context.put("lowIndex", Integer.valueOf(lowIndex));
@@ -202,7 +212,7 @@ public final class Paginator {
             return;
 
         // count item rows
-        int itemIndex = -1;
+        int itemIndex = skipToIndex(iter, lowIndex) - 1;
         Object item = safeNext(iter);
         while (item != null && itemIndex < highIndex) {
             itemIndex++;
@@ -228,6 +238,29 @@ public final class Paginator {
         }
     }
 
+    /**
+     * SCIPIO: Positions an EntityListIterator directly before the row at the given (zero-based) index, without
+     * reading the preceding rows, and returns the number of rows skipped. Returns 0 and leaves the iterator
+     * before the first row if it is not an EntityListIterator, is not scrollable, or has fewer rows than the index.
+     */
+    public static int skipToIndex(Iterator<?> iter, int index) {
+        if (index <= 0 || !(iter instanceof EntityListIterator)) {
+            return 0;
+        }
+        EntityListIterator eli = (EntityListIterator) iter;
+        try {
+            if (eli.isScrollable()) {
+                if (eli.absolute(index)) {
+                    return index;
+                }
+                eli.beforeFirst();
+            }
+        } catch (GenericEntityException e) {
+            Debug.logError(e, "Error positioning list form render EntityListIterator: " + e.toString(), module);
+        }
+        return 0;
+    }
+
     private static <X> X safeNext(Iterator<X> iterator) {
         try {
             return iterator.next();
@@ -2364,7 +2364,8 @@ public class HtmlFormRenderer extends HtmlWidgetRenderer implements FormStringRe
 
         // Last button
         writer.append("  <li class=\"").append(modelForm.getPaginateLastStyle());
-        if (highIndex < listSize) {
+        // SCIPIO: the last page is unknown when the list size is only approximate
+        if (highIndex < listSize && !Boolean.TRUE.equals(context.get("listSizeApproximate"))) {
             int lastIndex = UtilMisc.getViewLastIndex(listSize, viewSize);
             writer.append("\"><a href=\"");
             if (ajaxEnabled) {
@@ -2604,7 +2604,8 @@ public final class MacroFormRenderer implements FormStringRenderer {
             }
         }
         // Last button
-        if (highIndex < listSize) {
+        // SCIPIO: the last page is unknown when the list size is only approximate
+        if (highIndex < listSize && !Boolean.TRUE.equals(context.get("listSizeApproximate"))) {
             int lastIndex = UtilMisc.getViewLastIndex(listSize, viewSize);
             if (ajaxEnabled) {
                 ajaxLastUrl = createAjaxParamsFromUpdateAreas(updateAreas, prepLinkText + lastIndex + anchor, context);
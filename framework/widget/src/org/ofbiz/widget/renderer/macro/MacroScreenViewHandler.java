@@ -34,6 +34,7 @@ import org.ofbiz.base.util.UtilCodec;
 import org.ofbiz.base.util.UtilGenerics;
 import org.ofbiz.base.util.UtilProperties;
 import org.ofbiz.base.util.UtilValidate;
+import org.ofbiz.base.util.collections.FlatMapStack;
 import org.ofbiz.base.util.collections.MapStack;
 import org.ofbiz.entity.Delegator;
 import org.ofbiz.entity.util.EntityUtilProperties;
@@ -151,7 +152,8 @@ public class MacroScreenViewHandler extends AbstractViewHandler implements ViewH
                 writer = new StandardCompress().getWriter(writer, null);
             }
             
-            MapStack<String> context = MapStack.create();
+            // SCIPIO: optional flattened context stack, see widget.properties
+            MapStack<String> context = UtilProperties.getPropertyAsBoolean("widget", "widget.render.context.flat", false) ? FlatMapStack.<String>create() : MapStack.<String>create();
             ScreenRenderer.populateContextForRequest(context, null, request, response, servletContext);
             
             // SCIPIO: 2017-05-09: targeted rendering prep. NOTE: populateContextForRequest call set up the RenderTargetState object.